@@ -5,20 +5,35 @@ import com.microsoft.azure.functions.OutputBinding;
 import com.microsoft.azure.functions.annotation.CosmosDBOutput;
 import com.microsoft.azure.functions.annotation.CosmosDBTrigger;
 import com.microsoft.azure.functions.annotation.FunctionName;
+import it.gov.pagopa.receipt.pdf.notifier.cache.RecentWritesIndex;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
+import it.gov.pagopa.receipt.pdf.notifier.client.CartReceiptCosmosClient;
+import it.gov.pagopa.receipt.pdf.notifier.client.impl.CartReceiptCosmosClientImpl;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartForReceipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartStatusType;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.CartIOMessage;
 import it.gov.pagopa.receipt.pdf.notifier.model.NotifyCartResult;
+import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.ReceiptWriteMode;
 import it.gov.pagopa.receipt.pdf.notifier.service.CartReceiptToIOService;
 import it.gov.pagopa.receipt.pdf.notifier.service.impl.CartReceiptToIOServiceImpl;
+import it.gov.pagopa.receipt.pdf.notifier.utils.BatchAccumulator;
+import it.gov.pagopa.receipt.pdf.notifier.utils.BatchExecutor;
+import it.gov.pagopa.receipt.pdf.notifier.utils.ChangeFeedDocumentReader;
 import it.gov.pagopa.receipt.pdf.notifier.utils.MDCConstants;
+import it.gov.pagopa.receipt.pdf.notifier.utils.MDCUtils;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Azure Functions with CosmosDB trigger.
@@ -27,14 +42,48 @@ public class CartReceiptToIO {
 
     private final Logger logger = LoggerFactory.getLogger(CartReceiptToIO.class);
 
+    private final ReceiptWriteMode receiptWriteMode = ReceiptWriteMode.valueOf(System.getenv().getOrDefault("RECEIPT_WRITE_MODE", "BINDING"));
+
+    /**
+     * Statuses of the cart receipts to notify, used both by the change feed pre-scan and by the validation of each document
+     */
+    private static final Set<String> NOTIFIABLE_STATUSES = Stream.of(
+                    CartStatusType.GENERATED, CartStatusType.SIGNED, CartStatusType.IO_NOTIFIER_RETRY)
+            .map(Enum::name)
+            .collect(Collectors.toUnmodifiableSet());
+
+    /**
+     * Writes of the notifier on the container, tracked only when their etag is known (PATCH and BULK modes)
+     */
+    private final RecentWritesIndex recentWrites = ReceiptWriteMode.BINDING.equals(this.receiptWriteMode)
+            ? null
+            : RecentWritesIndex.forContainer(System.getenv().getOrDefault("COSMOS_CART_RECEIPT_CONTAINER_NAME", "cart-for-receipts"));
+
     private final CartReceiptToIOService cartReceiptToIOService;
+    private final CartReceiptCosmosClient cartReceiptCosmosClient;
+    private final BatchExecutor batchExecutor;
 
     public CartReceiptToIO() {
         this.cartReceiptToIOService = new CartReceiptToIOServiceImpl();
+        this.cartReceiptCosmosClient = CartReceiptCosmosClientImpl.getInstance();
+        this.batchExecutor = BatchExecutor.getInstance();
     }
 
+    /**
+     * Without a Cosmos client the documents can only be written with the output bindings
+     */
     CartReceiptToIO(CartReceiptToIOService cartReceiptToIOService) {
+        this(cartReceiptToIOService, null);
+        if (!ReceiptWriteMode.BINDING.equals(this.receiptWriteMode)) {
+            throw new IllegalStateException(String.format(
+                    "RECEIPT_WRITE_MODE %s requires a Cosmos client", this.receiptWriteMode));
+        }
+    }
+
+    CartReceiptToIO(CartReceiptToIOService cartReceiptToIOService, CartReceiptCosmosClient cartReceiptCosmosClient) {
         this.cartReceiptToIOService = cartReceiptToIOService;
+        this.cartReceiptCosmosClient = cartReceiptCosmosClient;
+        this.batchExecutor = BatchExecutor.getInstance();
     }
 
     /**
@@ -55,8 +104,19 @@ public class CartReceiptToIO {
      * id will be sent to the error queue ready to be processed by the NotifyRetry function
      * #
      * In case of success the receipt's status will be IO_NOTIFIED
+     * #
+     * With RECEIPT_WRITE_MODE=PATCH only the fields updated by the notifier are written with
+     * partial document patches, the output binding is used only for the cart receipts that could not be patched.
+     * With RECEIPT_WRITE_MODE=BULK cart receipt fields and IO messages are written with the bulk executor as soon as
+     * each cart receipt is processed, the output bindings are used only for the documents that could not be written
+     *
+     * The cart receipts to retry are requeued all together once the batch has been processed, with concurrent
+     * asynchronous sends, and their status is set with the outcome of their message before being written
      *
-     * @param listReceipts     Receipts saved on CosmosDB and triggering the function
+     * Only the cart receipts in a notifiable status are deserialized, the others are discarded
+     * by a streaming pre-scan of their status. The echoes of the cart receipts written by the notifier are dropped as well
+     *
+     * @param documents        Cart receipts saved on CosmosDB and triggering the function, as JSON array
      * @param documentReceipts Output binding to save receipts to cosmos
      * @param documentMessages Output binding to save the IO notification id to cosmos
      * @param context          Function context
@@ -72,7 +132,7 @@ public class CartReceiptToIO {
                     createLeaseContainerIfNotExists = true,
                     maxItemsPerInvocation = 300,
                     connection = "COSMOS_RECEIPTS_CONN_STRING")
-            List<CartForReceipt> listReceipts,
+            String documents,
             @CosmosDBOutput(
                     name = "CartReceiptOutputDatastore",
                     databaseName = "db",
@@ -88,39 +148,100 @@ public class CartReceiptToIO {
             final ExecutionContext context
     ) {
 
-        logger.info("[{}] function called at {} with a batch of {} cart receipt",
+        List<CartForReceipt> listReceipts;
+        try {
+            listReceipts = ChangeFeedDocumentReader.readNotifiable(documents, CartForReceipt.class, NOTIFIABLE_STATUSES, this.recentWrites);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the change feed batch", e);
+        }
+        logger.info("[{}] function called at {} with a batch of {} notifiable cart receipt",
                 context.getFunctionName(), LocalDateTime.now(), listReceipts.size());
 
-        List<CartForReceipt> cartReceiptsNotified = new ArrayList<>();
-        List<CartIOMessage> messagesNotified = new ArrayList<>();
+        processCartReceipts(listReceipts, documentReceipts, documentMessages);
+    }
+
+    void processCartReceipts(
+            List<CartForReceipt> listReceipts,
+            OutputBinding<List<CartForReceipt>> documentReceipts,
+            OutputBinding<List<CartIOMessage>> documentMessages
+    ) {
+
+        BatchAccumulator<CartForReceipt, CartIOMessage> batchResult = new BatchAccumulator<>();
+        RetryQueueBatch<CartForReceipt> retryBatch = new RetryQueueBatch<>();
+        if (ReceiptWriteMode.BULK.equals(this.receiptWriteMode)) {
+            BulkWriter<CartForReceipt> cartReceiptWriter = this.cartReceiptCosmosClient.newCartReceiptBulkWriter();
+            BulkWriter<CartIOMessage> messageWriter = this.cartReceiptCosmosClient.newCartIOMessageBulkWriter();
+            try {
+                notifyCartReceipts(listReceipts, batchResult, retryBatch, cartReceiptWriter, messageWriter);
+            } finally {
+                // the writers are completed even if the batch fails, so the bulk executions are not left open
+                // and the documents already submitted that could not be written are routed to the bindings
+                setValueIfNotEmpty(documentMessages, messageWriter.complete());
+                setValueIfNotEmpty(documentReceipts, cartReceiptWriter.complete());
+            }
+            return;
+        }
+
+        notifyCartReceipts(listReceipts, batchResult, retryBatch, null, null);
+        List<CartForReceipt> cartReceiptsToWrite = ReceiptWriteMode.PATCH.equals(this.receiptWriteMode)
+                ? this.cartReceiptCosmosClient.patchCartReceipts(batchResult.getDocuments())
+                : batchResult.getDocuments();
+        setValueIfNotEmpty(documentReceipts, cartReceiptsToWrite);
+        setValueIfNotEmpty(documentMessages, batchResult.getMessages());
+    }
 
-        listReceipts.parallelStream().forEach(cartReceipt -> {
+    /**
+     * Notify the cart receipts of the batch on the batch executor and requeue the ones to retry.
+     * The processed documents are submitted to the provided bulk writers, if any
+     */
+    private void notifyCartReceipts(
+            List<CartForReceipt> listReceipts,
+            BatchAccumulator<CartForReceipt, CartIOMessage> batchResult,
+            RetryQueueBatch<CartForReceipt> retryBatch,
+            BulkWriter<CartForReceipt> cartReceiptWriter,
+            BulkWriter<CartIOMessage> messageWriter
+    ) {
+        boolean bulkWrite = cartReceiptWriter != null;
+        this.batchExecutor.forEachAsync(listReceipts, cartReceipt -> {
             try {
                 String cartId = cartReceipt != null ? cartReceipt.getCartId() : null;
                 MDC.put(MDCConstants.CART_ID, cartId);
                 if (isCartReceiptNotValid(cartReceipt)) {
                     logger.info("Cart receipt discarded");
-                    return;
+                    return CompletableFuture.completedFuture(null);
                 }
 
-                NotifyCartResult notifyCartResult = this.cartReceiptToIOService.notifyCart(cartReceipt);
-
-                List<CartIOMessage> cartIOMessages = this.cartReceiptToIOService
-                        .verifyNotificationResultAndUpdateCartReceipt(notifyCartResult, cartReceipt);
+                return this.cartReceiptToIOService.notifyCartAsync(cartReceipt)
+                        .thenApply(MDCUtils.withCurrentContext(notifyCartResult -> {
+                            List<CartIOMessage> cartIOMessages = this.cartReceiptToIOService
+                                    .verifyNotificationResultAndUpdateCartReceipt(notifyCartResult, cartReceipt, retryBatch);
 
-                messagesNotified.addAll(cartIOMessages);
-                cartReceiptsNotified.add(cartReceipt);
+                            batchResult.add(cartReceipt, cartIOMessages);
+                            if (bulkWrite) {
+                                messageWriter.addAll(cartIOMessages);
+                                // the status of the requeued cart receipts is known only once the retry batch is sent
+                                if (!retryBatch.contains(cartReceipt)) {
+                                    cartReceiptWriter.addAll(List.of(cartReceipt));
+                                }
+                            }
+                            return null;
+                        }));
             } finally {
                 MDC.remove(MDCConstants.CART_ID);
             }
         });
 
-        if (!cartReceiptsNotified.isEmpty()) {
-            documentReceipts.setValue(cartReceiptsNotified);
+        if (!retryBatch.isEmpty()) {
+            this.cartReceiptToIOService.requeueForRetry(retryBatch);
+            if (bulkWrite) {
+                cartReceiptWriter.addAll(retryBatch.getDocuments());
+            }
         }
+    }
 
-        if (!messagesNotified.isEmpty()) {
-            documentMessages.setValue(messagesNotified);
+    private static <T> void setValueIfNotEmpty(OutputBinding<List<T>> binding, List<T> documents) {
+        if (!documents.isEmpty()) {
+            binding.setValue(documents);
         }
     }
 
@@ -132,8 +253,6 @@ public class CartReceiptToIO {
     }
 
     private boolean statusCanBeNotified(CartForReceipt cartForReceipt) {
-        return cartForReceipt.getStatus().equals(CartStatusType.GENERATED) ||
-                cartForReceipt.getStatus().equals(CartStatusType.SIGNED) ||
-                cartForReceipt.getStatus().equals(CartStatusType.IO_NOTIFIER_RETRY);
+        return cartForReceipt.getStatus() != null && NOTIFIABLE_STATUSES.contains(cartForReceipt.getStatus().name());
     }
 }
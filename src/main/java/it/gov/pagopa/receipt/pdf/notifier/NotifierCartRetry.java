@@ -6,11 +6,20 @@ import com.microsoft.azure.functions.OutputBinding;
 import com.microsoft.azure.functions.annotation.CosmosDBOutput;
 import com.microsoft.azure.functions.annotation.FunctionName;
 import com.microsoft.azure.functions.annotation.QueueTrigger;
+import com.microsoft.azure.functions.annotation.TimerTrigger;
+import it.gov.pagopa.receipt.pdf.notifier.client.CartReceiptCosmosClient;
+import it.gov.pagopa.receipt.pdf.notifier.client.impl.CartReceiptCosmosClientImpl;
+import it.gov.pagopa.receipt.pdf.notifier.client.impl.NotifierCartQueueClientImpl;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartForReceipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartStatusType;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReceiptStatusType;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.model.RetryMessage;
+import it.gov.pagopa.receipt.pdf.notifier.utils.BatchExecutor;
 import it.gov.pagopa.receipt.pdf.notifier.utils.ObjectMapperUtils;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryMessageCodec;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueDrainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,23 +28,41 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Azure Functions with Azure Storage Queue trigger.
+ * Azure Functions with Azure Storage Queue and Timer triggers.
  */
 public class NotifierCartRetry {
 
     private final Logger logger = LoggerFactory.getLogger(NotifierCartRetry.class);
 
+    private final boolean batchEnabled = Boolean.parseBoolean(System.getenv().getOrDefault("NOTIFIER_RETRY_BATCH_ENABLED", "false"));
+
+    private final CartReceiptCosmosClient cartReceiptCosmosClient;
+    private final RetryQueueDrainer<CartForReceipt> retryQueueDrainer;
+
+    public NotifierCartRetry() {
+        this.cartReceiptCosmosClient = CartReceiptCosmosClientImpl.getInstance();
+        this.retryQueueDrainer = new RetryQueueDrainer<>(NotifierCartQueueClientImpl.getInstance(), BatchExecutor.getInstance());
+    }
+
+    NotifierCartRetry(CartReceiptCosmosClient cartReceiptCosmosClient, RetryQueueDrainer<CartForReceipt> retryQueueDrainer) {
+        this.cartReceiptCosmosClient = cartReceiptCosmosClient;
+        this.retryQueueDrainer = retryQueueDrainer;
+    }
+
     /**
      * This function will be invoked when an Azure Storage Queue trigger occurs
      * #
-     * The queueMessage is mapped to the Receipt class
+     * The cart receipt referenced by the queueMessage is read from CosmosDB
      * and updated with the status IO_NOTIFIER_RETRY
      * It will trigger the ReceiptToIO function to retry the notification to user
+     * #
+     * Messages requeued by previous releases carry the full cart receipt, which is used as is
      *
      * @param queueMessage Message from notification error queue with receipt's data
      * @param documentCartReceipts Output binding to save the updated receipt
      * @param context Function Context
      * @throws JsonProcessingException in case the message can't be mapped to the Receipt class
+     * @throws ReceiptNotFoundException in case the cart receipt referenced by the message is not found in its requeued version
      */
     @FunctionName("NotifierCartRetryProcessor")
     public void processNotifierRetry(
@@ -51,16 +78,15 @@ public class NotifierCartRetry {
                     connection = "COSMOS_RECEIPTS_CONN_STRING")
             OutputBinding<List<CartForReceipt>> documentCartReceipts,
             final ExecutionContext context
-    ) throws JsonProcessingException {
+    ) throws JsonProcessingException, ReceiptNotFoundException {
 
         logger.info("[{}] function called at {}", context.getFunctionName(), LocalDateTime.now());
         List<CartForReceipt> receiptsToRetry = new ArrayList<>();
 
         if (queueMessage != null && !queueMessage.isEmpty()) {
-            CartForReceipt receipt = ObjectMapperUtils.mapString(queueMessage, CartForReceipt.class);
+            CartForReceipt receipt = toRetry(queueMessage);
 
-            if (receipt != null && receipt.getStatus().equals(CartStatusType.IO_ERROR_TO_NOTIFY)) {
-                receipt.setStatus(CartStatusType.IO_NOTIFIER_RETRY);
+            if (receipt != null) {
                 receiptsToRetry.add(receipt);
             }
         }
@@ -72,4 +98,60 @@ public class NotifierCartRetry {
             documentCartReceipts.setValue(receiptsToRetry);
         }
     }
+
+    /**
+     * This function will be invoked periodically by a timer trigger, when NOTIFIER_RETRY_BATCH_ENABLED is true
+     * #
+     * It drains the cart receipts retry queue in batches, as the NotifierCartRetryProcessor does one message at a time:
+     * the messages are read in parallel and all the cart receipts to retry are written with a single bulk execution.
+     * Each message is deleted once its cart receipt has been written, or moved to the poison queue after too many failures
+     * #
+     * The NotifierCartRetryProcessor should be disabled, with AzureWebJobs.NotifierCartRetryProcessor.Disabled, when the batch mode is enabled
+     *
+     * @param timerInfo Timer schedule information
+     * @param context Function Context
+     */
+    @FunctionName("NotifierCartRetryBatchProcessor")
+    public void processNotifierRetryBatch(
+            @TimerTrigger(
+                    name = "NotifierCartRetryBatchTrigger",
+                    schedule = "*/30 * * * * *")
+            String timerInfo,
+            final ExecutionContext context
+    ) {
+        if (!this.batchEnabled) {
+            return;
+        }
+        logger.info("[{}] function called at {}", context.getFunctionName(), LocalDateTime.now());
+
+        int drained = this.retryQueueDrainer.drain(this::toRetry, this.cartReceiptCosmosClient.newCartReceiptRetryBulkWriter());
+        logger.debug("[{}] function - number of retry messages drained from the queue {}", context.getFunctionName(), drained);
+    }
+
+    private CartForReceipt toRetry(String queueMessage) throws JsonProcessingException, ReceiptNotFoundException {
+        CartForReceipt receipt = readRetryMessage(queueMessage);
+        if (receipt == null || !receipt.getStatus().equals(CartStatusType.IO_ERROR_TO_NOTIFY)) {
+            return null;
+        }
+        receipt.setStatus(CartStatusType.IO_NOTIFIER_RETRY);
+        return receipt;
+    }
+
+    private CartForReceipt readRetryMessage(String queueMessage) throws JsonProcessingException, ReceiptNotFoundException {
+        RetryMessage retryMessage = RetryMessageCodec.decode(queueMessage);
+        if (retryMessage == null) {
+            // full document requeued by a previous release
+            return ObjectMapperUtils.mapString(queueMessage, CartForReceipt.class);
+        }
+
+        CartForReceipt receipt = this.cartReceiptCosmosClient.getCartForReceiptDocument(retryMessage.getId(), retryMessage.getPartitionKey());
+        if (!CartStatusType.IO_ERROR_TO_NOTIFY.equals(receipt.getStatus())
+                && receipt.getNotificationNumRetry() < retryMessage.getNumRetry()) {
+            // the cart receipt is requeued before being written, the message is delivered again after the queues
+            // visibilityTimeout of host.json, that leaves the write maxDequeueCount times that delay to become visible
+            throw new ReceiptNotFoundException(String.format(
+                    "The requeued version of the cart receipt with id %s has not been written yet", retryMessage.getId()));
+        }
+        return receipt;
+    }
 }
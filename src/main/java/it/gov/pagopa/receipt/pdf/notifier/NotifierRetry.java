@@ -4,9 +4,17 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.functions.OutputBinding;
 import com.microsoft.azure.functions.annotation.*;
+import it.gov.pagopa.receipt.pdf.notifier.client.ReceiptCosmosClient;
+import it.gov.pagopa.receipt.pdf.notifier.client.impl.NotifierQueueClientImpl;
+import it.gov.pagopa.receipt.pdf.notifier.client.impl.ReceiptCosmosClientImpl;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReceiptStatusType;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.model.RetryMessage;
+import it.gov.pagopa.receipt.pdf.notifier.utils.BatchExecutor;
 import it.gov.pagopa.receipt.pdf.notifier.utils.ObjectMapperUtils;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryMessageCodec;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueDrainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,23 +23,41 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Azure Functions with Azure Storage Queue trigger.
+ * Azure Functions with Azure Storage Queue and Timer triggers.
  */
 public class NotifierRetry {
 
     private final Logger logger = LoggerFactory.getLogger(NotifierRetry.class);
 
+    private final boolean batchEnabled = Boolean.parseBoolean(System.getenv().getOrDefault("NOTIFIER_RETRY_BATCH_ENABLED", "false"));
+
+    private final ReceiptCosmosClient receiptCosmosClient;
+    private final RetryQueueDrainer<Receipt> retryQueueDrainer;
+
+    public NotifierRetry() {
+        this.receiptCosmosClient = ReceiptCosmosClientImpl.getInstance();
+        this.retryQueueDrainer = new RetryQueueDrainer<>(NotifierQueueClientImpl.getInstance(), BatchExecutor.getInstance());
+    }
+
+    NotifierRetry(ReceiptCosmosClient receiptCosmosClient, RetryQueueDrainer<Receipt> retryQueueDrainer) {
+        this.receiptCosmosClient = receiptCosmosClient;
+        this.retryQueueDrainer = retryQueueDrainer;
+    }
+
     /**
      * This function will be invoked when an Azure Storage Queue trigger occurs
      * #
-     * The queueMessage is mapped to the Receipt class
+     * The receipt referenced by the queueMessage is read from CosmosDB
      * and updated with the status IO_NOTIFIER_RETRY
      * It will trigger the ReceiptToIO function to retry the notification to user
+     * #
+     * Messages requeued by previous releases carry the full receipt, which is used as is
      *
      * @param queueMessage Message from notification error queue with receipt's data
      * @param documentReceipts Output binding to save the updated receipt
      * @param context Function Context
      * @throws JsonProcessingException in case the message can't be mapped to the Receipt class
+     * @throws ReceiptNotFoundException in case the receipt referenced by the message is not found in its requeued version
      */
     @FunctionName("NotifierRetryProcessor")
     public void processNotifierRetry(
@@ -47,16 +73,15 @@ public class NotifierRetry {
                     connection = "COSMOS_RECEIPTS_CONN_STRING")
             OutputBinding<List<Receipt>> documentReceipts,
             final ExecutionContext context
-    ) throws JsonProcessingException {
+    ) throws JsonProcessingException, ReceiptNotFoundException {
 
         logger.info("[{}] function called at {}", context.getFunctionName(), LocalDateTime.now());
         List<Receipt> receiptsToRetry = new ArrayList<>();
 
         if (queueMessage != null && !queueMessage.isEmpty()) {
-            Receipt receipt = ObjectMapperUtils.mapString(queueMessage, Receipt.class);
+            Receipt receipt = toRetry(queueMessage);
 
-            if (receipt != null && receipt.getStatus().equals(ReceiptStatusType.IO_ERROR_TO_NOTIFY)) {
-                receipt.setStatus(ReceiptStatusType.IO_NOTIFIER_RETRY);
+            if (receipt != null) {
                 receiptsToRetry.add(receipt);
             }
         }
@@ -68,4 +93,60 @@ public class NotifierRetry {
             documentReceipts.setValue(receiptsToRetry);
         }
     }
+
+    /**
+     * This function will be invoked periodically by a timer trigger, when NOTIFIER_RETRY_BATCH_ENABLED is true
+     * #
+     * It drains the receipts retry queue in batches, as the NotifierRetryProcessor does one message at a time:
+     * the messages are read in parallel and all the receipts to retry are written with a single bulk execution.
+     * Each message is deleted once its receipt has been written, or moved to the poison queue after too many failures
+     * #
+     * The NotifierRetryProcessor should be disabled, with AzureWebJobs.NotifierRetryProcessor.Disabled, when the batch mode is enabled
+     *
+     * @param timerInfo Timer schedule information
+     * @param context Function Context
+     */
+    @FunctionName("NotifierRetryBatchProcessor")
+    public void processNotifierRetryBatch(
+            @TimerTrigger(
+                    name = "NotifierRetryBatchTrigger",
+                    schedule = "*/30 * * * * *")
+            String timerInfo,
+            final ExecutionContext context
+    ) {
+        if (!this.batchEnabled) {
+            return;
+        }
+        logger.info("[{}] function called at {}", context.getFunctionName(), LocalDateTime.now());
+
+        int drained = this.retryQueueDrainer.drain(this::toRetry, this.receiptCosmosClient.newReceiptRetryBulkWriter());
+        logger.debug("[{}] function - number of retry messages drained from the queue {}", context.getFunctionName(), drained);
+    }
+
+    private Receipt toRetry(String queueMessage) throws JsonProcessingException, ReceiptNotFoundException {
+        Receipt receipt = readRetryMessage(queueMessage);
+        if (receipt == null || !receipt.getStatus().equals(ReceiptStatusType.IO_ERROR_TO_NOTIFY)) {
+            return null;
+        }
+        receipt.setStatus(ReceiptStatusType.IO_NOTIFIER_RETRY);
+        return receipt;
+    }
+
+    private Receipt readRetryMessage(String queueMessage) throws JsonProcessingException, ReceiptNotFoundException {
+        RetryMessage retryMessage = RetryMessageCodec.decode(queueMessage);
+        if (retryMessage == null) {
+            // full document requeued by a previous release
+            return ObjectMapperUtils.mapString(queueMessage, Receipt.class);
+        }
+
+        Receipt receipt = this.receiptCosmosClient.getReceiptDocument(retryMessage.getId(), retryMessage.getPartitionKey());
+        if (!ReceiptStatusType.IO_ERROR_TO_NOTIFY.equals(receipt.getStatus())
+                && receipt.getNotificationNumRetry() < retryMessage.getNumRetry()) {
+            // the receipt is requeued before being written, the message is delivered again after the queues
+            // visibilityTimeout of host.json, that leaves the write maxDequeueCount times that delay to become visible
+            throw new ReceiptNotFoundException(String.format(
+                    "The requeued version of the receipt with id %s has not been written yet", retryMessage.getId()));
+        }
+        return receipt;
+    }
 }
@@ -5,22 +5,38 @@ import com.microsoft.azure.functions.OutputBinding;
 import com.microsoft.azure.functions.annotation.CosmosDBOutput;
 import com.microsoft.azure.functions.annotation.CosmosDBTrigger;
 import com.microsoft.azure.functions.annotation.FunctionName;
+import it.gov.pagopa.receipt.pdf.notifier.cache.RecentWritesIndex;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
+import it.gov.pagopa.receipt.pdf.notifier.client.ReceiptCosmosClient;
+import it.gov.pagopa.receipt.pdf.notifier.client.impl.ReceiptCosmosClientImpl;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.IOMessage;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReceiptStatusType;
+import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.ReceiptWriteMode;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
 import it.gov.pagopa.receipt.pdf.notifier.service.ReceiptToIOService;
 import it.gov.pagopa.receipt.pdf.notifier.service.impl.ReceiptToIOServiceImpl;
+import it.gov.pagopa.receipt.pdf.notifier.utils.BatchAccumulator;
+import it.gov.pagopa.receipt.pdf.notifier.utils.BatchExecutor;
+import it.gov.pagopa.receipt.pdf.notifier.utils.ChangeFeedDocumentReader;
 import it.gov.pagopa.receipt.pdf.notifier.utils.MDCConstants;
+import it.gov.pagopa.receipt.pdf.notifier.utils.MDCUtils;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.ANONIMO;
 
@@ -33,14 +49,48 @@ public class ReceiptToIO {
 
     private final Boolean payerNotifyDisabled = Boolean.parseBoolean(System.getenv().getOrDefault("PAYER_NOTIFY_DISABLED", "true"));
 
+    private final ReceiptWriteMode receiptWriteMode = ReceiptWriteMode.valueOf(System.getenv().getOrDefault("RECEIPT_WRITE_MODE", "BINDING"));
+
+    /**
+     * Statuses of the receipts to notify, used both by the change feed pre-scan and by the validation of each document
+     */
+    private static final Set<String> NOTIFIABLE_STATUSES = Stream.of(
+                    ReceiptStatusType.GENERATED, ReceiptStatusType.SIGNED, ReceiptStatusType.IO_NOTIFIER_RETRY)
+            .map(Enum::name)
+            .collect(Collectors.toUnmodifiableSet());
+
+    /**
+     * Writes of the notifier on the container, tracked only when their etag is known (PATCH and BULK modes)
+     */
+    private final RecentWritesIndex recentWrites = ReceiptWriteMode.BINDING.equals(this.receiptWriteMode)
+            ? null
+            : RecentWritesIndex.forContainer(System.getenv().getOrDefault("COSMOS_RECEIPT_CONTAINER_NAME", "receipts"));
+
     private final ReceiptToIOService receiptToIOService;
+    private final ReceiptCosmosClient receiptCosmosClient;
+    private final BatchExecutor batchExecutor;
 
     public ReceiptToIO() {
         this.receiptToIOService = new ReceiptToIOServiceImpl();
+        this.receiptCosmosClient = ReceiptCosmosClientImpl.getInstance();
+        this.batchExecutor = BatchExecutor.getInstance();
     }
 
+    /**
+     * Without a Cosmos client the documents can only be written with the output bindings
+     */
     ReceiptToIO(ReceiptToIOService receiptToIOService) {
+        this(receiptToIOService, null);
+        if (!ReceiptWriteMode.BINDING.equals(this.receiptWriteMode)) {
+            throw new IllegalStateException(String.format(
+                    "RECEIPT_WRITE_MODE %s requires a Cosmos client", this.receiptWriteMode));
+        }
+    }
+
+    ReceiptToIO(ReceiptToIOService receiptToIOService, ReceiptCosmosClient receiptCosmosClient) {
         this.receiptToIOService = receiptToIOService;
+        this.receiptCosmosClient = receiptCosmosClient;
+        this.batchExecutor = BatchExecutor.getInstance();
     }
 
     /**
@@ -61,8 +111,19 @@ public class ReceiptToIO {
      * id will be sent to the error queue ready to be processed by the NotifyRetry function
      * #
      * In case of success the receipt's status will be IO_NOTIFIED
+     * #
+     * With RECEIPT_WRITE_MODE=PATCH only the fields updated by the notifier are written with
+     * partial document patches, the output binding is used only for the receipts that could not be patched.
+     * With RECEIPT_WRITE_MODE=BULK receipt fields and IO messages are written with the bulk executor as soon as
+     * each receipt is processed, the output bindings are used only for the documents that could not be written
+     *
+     * The receipts to retry are requeued all together once the batch has been processed, with concurrent
+     * asynchronous sends, and their status is set with the outcome of their message before being written
      *
-     * @param listReceipts     Receipts saved on CosmosDB and triggering the function
+     * Only the receipts in a notifiable status are deserialized, the others are discarded
+     * by a streaming pre-scan of their status. The echoes of the receipts written by the notifier are dropped as well
+     *
+     * @param documents        Receipts saved on CosmosDB and triggering the function, as JSON array
      * @param documentReceipts Output binding to save receipts to cosmos
      * @param documentMessages Output binding to save the IO notification id to cosmos
      * @param context          Function context
@@ -78,7 +139,7 @@ public class ReceiptToIO {
                     createLeaseContainerIfNotExists = true,
                     maxItemsPerInvocation = 300,
                     connection = "COSMOS_RECEIPTS_CONN_STRING")
-            List<Receipt> listReceipts,
+            String documents,
             @CosmosDBOutput(
                     name = "ReceiptOutputDatastore",
                     databaseName = "db",
@@ -96,57 +157,142 @@ public class ReceiptToIO {
 
         logger.info("[{}] function called at {}", context.getFunctionName(), LocalDateTime.now());
 
-        List<Receipt> receiptsNotified = new ArrayList<>();
-        List<IOMessage> messagesNotified = new ArrayList<>();
+        List<Receipt> listReceipts;
+        try {
+            listReceipts = ChangeFeedDocumentReader.readNotifiable(documents, Receipt.class, NOTIFIABLE_STATUSES, this.recentWrites);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the change feed batch", e);
+        }
+        logger.debug("[{}] {} notifiable receipts in the batch", context.getFunctionName(), listReceipts.size());
+
+        processReceipts(listReceipts, documentReceipts, documentMessages);
+    }
+
+    void processReceipts(
+            List<Receipt> listReceipts,
+            OutputBinding<List<Receipt>> documentReceipts,
+            OutputBinding<List<IOMessage>> documentMessages
+    ) {
+        List<Receipt> receiptsToNotify = listReceipts.stream()
+                .filter(receipt -> !isReceiptNotValid(receipt))
+                .toList();
+        Map<String, String> notifiedMessages = receiptsToNotify.isEmpty()
+                ? Map.of()
+                : this.receiptToIOService.findNotifiedMessages(receiptsToNotify);
+
+        BatchAccumulator<Receipt, IOMessage> batchResult = new BatchAccumulator<>();
+        RetryQueueBatch<Receipt> retryBatch = new RetryQueueBatch<>();
+        if (ReceiptWriteMode.BULK.equals(this.receiptWriteMode)) {
+            BulkWriter<Receipt> receiptWriter = this.receiptCosmosClient.newReceiptBulkWriter();
+            BulkWriter<IOMessage> messageWriter = this.receiptCosmosClient.newIOMessageBulkWriter();
+            try {
+                notifyReceipts(listReceipts, notifiedMessages, batchResult, retryBatch, receiptWriter, messageWriter);
+            } finally {
+                // the writers are completed even if the batch fails, so the bulk executions are not left open
+                // and the documents already submitted that could not be written are routed to the bindings
+                setValueIfNotEmpty(documentMessages, messageWriter.complete());
+                setValueIfNotEmpty(documentReceipts, receiptWriter.complete());
+            }
+            return;
+        }
+
+        notifyReceipts(listReceipts, notifiedMessages, batchResult, retryBatch, null, null);
+        List<Receipt> receiptsToWrite = ReceiptWriteMode.PATCH.equals(this.receiptWriteMode)
+                ? this.receiptCosmosClient.patchReceipts(batchResult.getDocuments())
+                : batchResult.getDocuments();
+        setValueIfNotEmpty(documentReceipts, receiptsToWrite);
+        setValueIfNotEmpty(documentMessages, batchResult.getMessages());
+    }
 
-        listReceipts.parallelStream().forEach(receipt -> {
+    /**
+     * Notify the receipts of the batch and requeue the ones to retry. The batch executor threads only resolve
+     * the fiscal codes and the already sent messages, the IO calls of all the receipts are in flight together
+     * without holding them.
+     * The processed documents are submitted to the provided bulk writers, if any
+     */
+    private void notifyReceipts(
+            List<Receipt> listReceipts,
+            Map<String, String> notifiedMessages,
+            BatchAccumulator<Receipt, IOMessage> batchResult,
+            RetryQueueBatch<Receipt> retryBatch,
+            BulkWriter<Receipt> receiptWriter,
+            BulkWriter<IOMessage> messageWriter
+    ) {
+        boolean bulkWrite = receiptWriter != null;
+        this.batchExecutor.forEachAsync(listReceipts, receipt -> {
             try {
                 String eventId = receipt != null ? receipt.getEventId() : null;
                 MDC.put(MDCConstants.BIZ_EVENT_ID, eventId);
                 if (isReceiptNotValid(receipt)) {
                     logger.info("Receipt discarded");
-                    return;
+                    return CompletableFuture.completedFuture(null);
                 }
 
-                EnumMap<UserType, UserNotifyStatus> notifyResult = notifyUsers(receipt);
-                List<IOMessage> ioMessages = this.receiptToIOService.verifyMessagesNotification(notifyResult, receipt);
+                return notifyUsers(receipt, notifiedMessages)
+                        .thenApply(MDCUtils.withCurrentContext(notifyResult -> {
+                            List<IOMessage> ioMessages = this.receiptToIOService.verifyMessagesNotification(notifyResult, receipt, retryBatch);
 
-                messagesNotified.addAll(ioMessages);
-                receiptsNotified.add(receipt);
+                            batchResult.add(receipt, ioMessages);
+                            if (bulkWrite) {
+                                messageWriter.addAll(ioMessages);
+                                // the status of the requeued receipts is known only once the retry batch is sent
+                                if (!retryBatch.contains(receipt)) {
+                                    receiptWriter.addAll(List.of(receipt));
+                                }
+                            }
+                            return null;
+                        }));
             } finally {
                 MDC.remove(MDCConstants.BIZ_EVENT_ID);
             }
         });
 
-        if (!receiptsNotified.isEmpty()) {
-            documentReceipts.setValue(receiptsNotified);
+        if (!retryBatch.isEmpty()) {
+            this.receiptToIOService.requeueForRetry(retryBatch);
+            if (bulkWrite) {
+                receiptWriter.addAll(retryBatch.getDocuments());
+            }
         }
+    }
 
-        if (!messagesNotified.isEmpty()) {
-            documentMessages.setValue(messagesNotified);
+    private static <T> void setValueIfNotEmpty(OutputBinding<List<T>> binding, List<T> documents) {
+        if (!documents.isEmpty()) {
+            binding.setValue(documents);
         }
     }
 
-    private EnumMap<UserType, UserNotifyStatus> notifyUsers(Receipt receipt) {
+    /**
+     * Start the notification of debtor and payer, their IO calls run concurrently
+     */
+    private CompletableFuture<EnumMap<UserType, UserNotifyStatus>> notifyUsers(Receipt receipt, Map<String, String> notifiedMessages) {
         String debtorFiscalCode = receipt.getEventData().getDebtorFiscalCode();
         String payerFiscalCode = receipt.getEventData().getPayerFiscalCode();
 
-        EnumMap<UserType, UserNotifyStatus> usersToBeVerified = new EnumMap<>(UserType.class);
+        CompletableFuture<UserNotifyStatus> debtorNotification = CompletableFuture.completedFuture(null);
+        CompletableFuture<UserNotifyStatus> payerNotification = CompletableFuture.completedFuture(null);
 
         //Notify to debtor
         if (!ANONIMO.equals(debtorFiscalCode) && !(Boolean.TRUE.equals(payerNotifyDisabled) && debtorFiscalCode.equals(payerFiscalCode))) {
-            UserNotifyStatus debtorNotifyStatus = this.receiptToIOService.notifyMessage(debtorFiscalCode, UserType.DEBTOR, receipt);
-            usersToBeVerified.put(UserType.DEBTOR, debtorNotifyStatus);
+            debtorNotification = this.receiptToIOService.notifyMessageAsync(debtorFiscalCode, UserType.DEBTOR, receipt, notifiedMessages);
         }
 
         if (!Boolean.TRUE.equals(payerNotifyDisabled)
                 && (payerFiscalCode != null && (debtorFiscalCode == null || !debtorFiscalCode.equals(payerFiscalCode)))
         ) {
             //Notify to payer
-            UserNotifyStatus payerNotifyStatus = this.receiptToIOService.notifyMessage(payerFiscalCode, UserType.PAYER, receipt);
-            usersToBeVerified.put(UserType.PAYER, payerNotifyStatus);
+            payerNotification = this.receiptToIOService.notifyMessageAsync(payerFiscalCode, UserType.PAYER, receipt, notifiedMessages);
         }
-        return usersToBeVerified;
+
+        return debtorNotification.thenCombine(payerNotification, (debtorNotifyStatus, payerNotifyStatus) -> {
+            EnumMap<UserType, UserNotifyStatus> usersToBeVerified = new EnumMap<>(UserType.class);
+            if (debtorNotifyStatus != null) {
+                usersToBeVerified.put(UserType.DEBTOR, debtorNotifyStatus);
+            }
+            if (payerNotifyStatus != null) {
+                usersToBeVerified.put(UserType.PAYER, payerNotifyStatus);
+            }
+            return usersToBeVerified;
+        });
     }
 
     private boolean isReceiptNotValid(Receipt receipt) {
@@ -157,8 +303,6 @@ public class ReceiptToIO {
     }
 
     public boolean statusCanBeNotified(Receipt receipt) {
-        return receipt.getStatus().equals(ReceiptStatusType.GENERATED) ||
-                receipt.getStatus().equals(ReceiptStatusType.SIGNED) ||
-                receipt.getStatus().equals(ReceiptStatusType.IO_NOTIFIER_RETRY);
+        return receipt.getStatus() != null && NOTIFIABLE_STATUSES.contains(receipt.getStatus().name());
     }
 }
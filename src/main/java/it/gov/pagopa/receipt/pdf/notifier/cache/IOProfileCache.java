@@ -0,0 +1,135 @@
+package it.gov.pagopa.receipt.pdf.notifier.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.CacheMetrics;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.MetricsRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.HexFormat;
+
+/**
+ * In-memory cache of the outcome of the IO <code>/profiles</code> API.
+ * <p>
+ * Entries are keyed by the salted SHA-256 of the fiscal code, so no fiscal code is kept in memory.
+ * Users found on IO (allowed or not) and users not registered on IO have separate TTLs,
+ * the latter being usually shorter since a citizen can register at any time.
+ * When no salt is configured a random one is generated at startup.
+ */
+public class IOProfileCache {
+
+    private static final long MAX_SIZE = Long.parseLong(System.getenv().getOrDefault("IO_PROFILE_CACHE_MAX_SIZE", "50000"));
+    private static final long IO_USER_TTL_SECONDS = Long.parseLong(System.getenv().getOrDefault("IO_PROFILE_CACHE_IO_USER_TTL_SECONDS", "3600"));
+    private static final long NOT_IO_USER_TTL_SECONDS = Long.parseLong(System.getenv().getOrDefault("IO_PROFILE_CACHE_NOT_IO_USER_TTL_SECONDS", "900"));
+    private static final String SALT = System.getenv().getOrDefault("IO_PROFILE_CACHE_SALT", "");
+
+    private static final int RANDOM_SALT_LENGTH = 16;
+
+    /**
+     * Outcome of the IO profile check
+     */
+    public enum ProfileStatus {
+        ALLOWED,
+        NOT_ALLOWED,
+        NOT_IO_USER;
+
+        public boolean isNotifyAllowed() {
+            return this == ALLOWED;
+        }
+    }
+
+    private final Cache<String, ProfileStatus> cache;
+    private final byte[] salt;
+
+    private IOProfileCache() {
+        this(MAX_SIZE, Duration.ofSeconds(IO_USER_TTL_SECONDS), Duration.ofSeconds(NOT_IO_USER_TTL_SECONDS), SALT, Ticker.systemTicker());
+        MetricsRegistry.register("Cache", "io-profile", new CacheMetrics(this.cache));
+    }
+
+    public IOProfileCache(long maxSize, Duration ioUserTtl, Duration notIoUserTtl, String salt, Ticker ticker) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new ProfileStatusExpiry(ioUserTtl.toNanos(), notIoUserTtl.toNanos()))
+                .ticker(ticker)
+                .recordStats()
+                .build();
+        this.salt = salt.isEmpty() ? randomSalt() : salt.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static IOProfileCache getInstance() {
+        return SingletonHelper.INSTANCE;
+    }
+
+    /**
+     * Bill Pugh singleton holder: the JVM guarantees that the class is loaded
+     * (and therefore INSTANCE initialized) lazily and in a thread-safe way.
+     */
+    private static class SingletonHelper {
+        private static final IOProfileCache INSTANCE = new IOProfileCache();
+    }
+
+    /**
+     * Retrieve the cached profile status of the given user
+     *
+     * @param fiscalCode the user fiscal code
+     * @return the cached {@link ProfileStatus}, <code>null</code> if not present or expired
+     */
+    public ProfileStatus get(String fiscalCode) {
+        return this.cache.getIfPresent(hash(fiscalCode));
+    }
+
+    /**
+     * Cache the profile status of the given user
+     *
+     * @param fiscalCode the user fiscal code
+     * @param status     the {@link ProfileStatus} returned by IO
+     */
+    public void put(String fiscalCode, ProfileStatus status) {
+        this.cache.put(hash(fiscalCode), status);
+    }
+
+    Cache<String, ProfileStatus> getCache() {
+        return this.cache;
+    }
+
+    private String hash(String fiscalCode) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(this.salt);
+            return HexFormat.of().formatHex(digest.digest(fiscalCode.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory for every Java platform implementation
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] randomSalt() {
+        byte[] randomSalt = new byte[RANDOM_SALT_LENGTH];
+        new SecureRandom().nextBytes(randomSalt);
+        return randomSalt;
+    }
+
+    private record ProfileStatusExpiry(long ioUserTtlNanos, long notIoUserTtlNanos) implements Expiry<String, ProfileStatus> {
+
+        @Override
+        public long expireAfterCreate(String key, ProfileStatus status, long currentTime) {
+            return status == ProfileStatus.NOT_IO_USER ? notIoUserTtlNanos : ioUserTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, ProfileStatus status, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, status, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, ProfileStatus status, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package it.gov.pagopa.receipt.pdf.notifier.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.EchoSuppressionMetrics;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.MetricsRegistry;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the documents recently written by the notifier on a container,
+ * used to recognize and drop their echoes coming back through the container change feed.
+ * <p>
+ * Every written document is indexed by id with the etag returned by CosmosDB for the write:
+ * a change feed document with the same id and etag is the notifier own write.
+ * Only the last write of a document is kept, up to <code>COSMOS_ECHO_INDEX_MAX_SIZE</code> documents
+ * for <code>COSMOS_ECHO_INDEX_TTL_SECONDS</code>, so the footprint stays bounded.
+ * <p>
+ * Only the PATCH and BULK write modes know the etags of their writes: with the output bindings
+ * no index is built, and its metrics are not exposed.
+ */
+public class RecentWritesIndex {
+
+    private static final long MAX_SIZE = Long.parseLong(System.getenv().getOrDefault("COSMOS_ECHO_INDEX_MAX_SIZE", "100000"));
+    private static final long TTL_SECONDS = Long.parseLong(System.getenv().getOrDefault("COSMOS_ECHO_INDEX_TTL_SECONDS", "300"));
+
+    private static final Map<String, RecentWritesIndex> CONTAINER_INDEXES = new ConcurrentHashMap<>();
+
+    private final Cache<String, String> writes;
+    private final EchoSuppressionMetrics metrics;
+
+    public RecentWritesIndex(long maxSize, Duration ttl, Ticker ticker) {
+        this.writes = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .ticker(ticker)
+                .build();
+        this.metrics = new EchoSuppressionMetrics(this.writes::estimatedSize);
+    }
+
+    /**
+     * Retrieve the index of the provided container, registering its metrics on first use
+     *
+     * @param container the container name
+     * @return the recent writes index of the container
+     */
+    public static RecentWritesIndex forContainer(String container) {
+        return CONTAINER_INDEXES.computeIfAbsent(container, key -> {
+            RecentWritesIndex index = new RecentWritesIndex(MAX_SIZE, Duration.ofSeconds(TTL_SECONDS), Ticker.systemTicker());
+            MetricsRegistry.register("EchoSuppression", key, index.metrics);
+            return index;
+        });
+    }
+
+    /**
+     * Record a write of the notifier
+     *
+     * @param id   the id of the written document
+     * @param etag the etag of the document after the write, writes without etag are not recorded
+     */
+    public void record(String id, String etag) {
+        if (id == null || etag == null) {
+            return;
+        }
+        this.writes.put(id, etag);
+        this.metrics.recordWrite();
+    }
+
+    /**
+     * Check whether a change feed document is the echo of a write of the notifier
+     *
+     * @param id   the id of the document
+     * @param etag the etag of the document
+     * @return <code>true</code> if the document version is the one written by the notifier
+     */
+    public boolean isEcho(String id, String etag) {
+        boolean echo = id != null && etag != null && etag.equals(this.writes.getIfPresent(id));
+        this.metrics.recordCheck(echo);
+        return echo;
+    }
+
+    EchoSuppressionMetrics getMetrics() {
+        return this.metrics;
+    }
+}
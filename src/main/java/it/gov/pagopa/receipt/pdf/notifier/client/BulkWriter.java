@@ -0,0 +1,29 @@
+package it.gov.pagopa.receipt.pdf.notifier.client;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes documents to CosmosDB with the bulk executor.
+ * <p>
+ * The documents are written as soon as they are added, while the rest of the batch is still being processed.
+ * A writer is meant to be used for a single batch: documents can be added concurrently until it is completed.
+ *
+ * @param <T> the type of the documents
+ */
+public interface BulkWriter<T> {
+
+    /**
+     * Submit the provided documents for writing
+     *
+     * @param documents the documents to write
+     */
+    void addAll(Collection<T> documents);
+
+    /**
+     * Wait for all the submitted documents to be written, retrying the throttled ones
+     *
+     * @return the documents that could not be written
+     */
+    List<T> complete();
+}
@@ -1,9 +1,11 @@
 package it.gov.pagopa.receipt.pdf.notifier.client;
 
 
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartForReceipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.CartIOMessage;
-import it.gov.pagopa.receipt.pdf.notifier.exception.CartIoMessageNotFoundException;
-import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
+
+import java.util.List;
 
 /**
  * Client for the CosmosDB database
@@ -11,17 +13,53 @@ import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
 public interface CartReceiptCosmosClient {
 
     /**
-     * Retrieve io message document from CosmosDB database with the provided event id and user type
+     * Retrieve cart receipt document from CosmosDB database with the provided id
+     *
+     * @param id           Cart receipt id
+     * @param partitionKey Cart receipt partition key
+     * @return cart receipt document
+     * @throws ReceiptNotFoundException in case no cart receipt has been found with the given id
+     */
+    CartForReceipt getCartForReceiptDocument(String id, String partitionKey) throws ReceiptNotFoundException;
+
+    /**
+     * Retrieve all the io message documents of the provided cart with a single query scoped
+     * to the cart partition
+     *
+     * @param cartId cart identifier
+     * @return the io message documents of the cart, empty if none has been saved yet
+     */
+    List<CartIOMessage> findAllIOMessagesForCart(String cartId);
+
+    /**
+     * Write the fields updated by the notifier on the provided cart receipts with partial document patches.
+     * Patch failures are not propagated, the failed cart receipts are returned to be written in full
+     *
+     * @param cartReceipts the processed cart receipts
+     * @return the cart receipts that could not be patched
+     */
+    List<CartForReceipt> patchCartReceipts(List<CartForReceipt> cartReceipts);
+
+    /**
+     * Create a bulk writer of the fields updated by the notifier on the cart receipts, written with partial document patches
+     *
+     * @return a new bulk writer, to be used for a single batch
+     */
+    BulkWriter<CartForReceipt> newCartReceiptBulkWriter();
+
+    /**
+     * Create a bulk writer of the cart receipts to retry, written in full with upserts conditioned on the etag read.
+     * A document modified concurrently is merged and patched as the processed ones, or skipped if already notified.
+     * The writes are not recorded as notifier echoes, so that the change feed triggers the notification again
+     *
+     * @return a new bulk writer, to be used for a single batch
+     */
+    BulkWriter<CartForReceipt> newCartReceiptRetryBulkWriter();
+
+    /**
+     * Create a bulk writer of the cart io message documents, written with upserts
      *
-     * @param cartId   cart identifier
-     * @param eventId  Biz event id, (used only when the recipient is a {@link UserType#DEBTOR}
-     * @param userType Recipient of the IO message
-     * @return io message document
-     * @throws CartIoMessageNotFoundException in case no cart receipt has been found with the given cartId, eventId and user type
+     * @return a new bulk writer, to be used for a single batch
      */
-    CartIOMessage findIOMessageWithCartIdAndEventIdAndUserType(
-            String cartId,
-            String eventId,
-            UserType userType
-    ) throws CartIoMessageNotFoundException;
+    BulkWriter<CartIOMessage> newCartIOMessageBulkWriter();
 }
@@ -5,6 +5,7 @@ import it.gov.pagopa.receipt.pdf.notifier.model.io.IOProfilePayload;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.message.MessagePayload;
 
 import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Client for invoking IO APIs
@@ -38,4 +39,26 @@ public interface IOClient {
      * @throws IOAPIException If fail to call the API
      */
     HttpResponse<String> submitMessage(String messagePayload) throws IOAPIException;
+
+    /**
+     * Asynchronous variant of {@link #getProfile(String)}.
+     * <p>
+     * The request is sent without blocking the calling thread, the returned future completes
+     * exceptionally with an {@link IOAPIException} if fail to call the API.
+     *
+     * @param fiscalCodePayload the {@link IOProfilePayload} serialized as String
+     * @return the future {@link HttpResponse} of the IO API
+     */
+    CompletableFuture<HttpResponse<String>> getProfileAsync(String fiscalCodePayload);
+
+    /**
+     * Asynchronous variant of {@link #submitMessage(String)}.
+     * <p>
+     * The request is sent without blocking the calling thread, the returned future completes
+     * exceptionally with an {@link IOAPIException} if fail to call the API.
+     *
+     * @param messagePayload the {@link MessagePayload} serialized as String
+     * @return the future {@link HttpResponse} of the IO API
+     */
+    CompletableFuture<HttpResponse<String>> submitMessageAsync(String messagePayload);
 }
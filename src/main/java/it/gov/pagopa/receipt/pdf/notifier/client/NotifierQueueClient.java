@@ -2,8 +2,28 @@ package it.gov.pagopa.receipt.pdf.notifier.client;
 
 import com.azure.core.http.rest.Response;
 import com.azure.storage.queue.models.SendMessageResult;
+import reactor.core.publisher.Mono;
 
-public interface NotifierQueueClient {
+/**
+ * Client for the Queue
+ */
+public interface NotifierQueueClient extends RetryQueueClient {
 
-    Response<SendMessageResult> sendMessageToQueue(String messageText);
+    /**
+     * Send string message to the queue
+     *
+     * @param messageText Biz-event encoded to base64 string
+     * @param numRetry    the number of retries of the requeued document, used to delay the message visibility
+     * @return response from the queue
+     */
+    Response<SendMessageResult> sendMessageToQueue(String messageText, int numRetry);
+
+    /**
+     * Send string message to the queue without blocking the caller
+     *
+     * @param messageText Biz-event encoded to base64 string
+     * @param numRetry    the number of retries of the requeued document, used to delay the message visibility
+     * @return emits the response from the queue
+     */
+    Mono<Response<SendMessageResult>> sendMessageToQueueAsync(String messageText, int numRetry);
 }
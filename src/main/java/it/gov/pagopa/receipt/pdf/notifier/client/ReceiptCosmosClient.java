@@ -2,14 +2,28 @@ package it.gov.pagopa.receipt.pdf.notifier.client;
 
 
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.IOMessage;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IoMessageNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
 
+import java.util.List;
+
 /**
  * Client for the CosmosDB database
  */
 public interface ReceiptCosmosClient {
 
+    /**
+     * Retrieve receipt document from CosmosDB database with the provided id
+     *
+     * @param id           Receipt id
+     * @param partitionKey Receipt partition key
+     * @return receipt document
+     * @throws ReceiptNotFoundException in case no receipt has been found with the given id
+     */
+    Receipt getReceiptDocument(String id, String partitionKey) throws ReceiptNotFoundException;
+
     /**
      * Retrieve io message document from CosmosDB database with the provided event id and user type
      *
@@ -19,4 +33,45 @@ public interface ReceiptCosmosClient {
      * @throws IoMessageNotFoundException in case no receipt has been found with the given eventId and user type
      */
     IOMessage findIOMessageWithEventIdAndUserType(String eventId, UserType userType) throws IoMessageNotFoundException;
+
+    /**
+     * Retrieve the io message documents of all the provided event ids.
+     * Only id, event id, user type and message id of the documents are retrieved
+     *
+     * @param eventIds Receipt event ids
+     * @return the io message documents found, for any of the event ids and user types
+     */
+    List<IOMessage> findIOMessagesWithEventIds(List<String> eventIds);
+
+    /**
+     * Write the fields updated by the notifier on the provided receipts with partial document patches.
+     * Patch failures are not propagated, the failed receipts are returned to be written in full
+     *
+     * @param receipts the processed receipts
+     * @return the receipts that could not be patched
+     */
+    List<Receipt> patchReceipts(List<Receipt> receipts);
+
+    /**
+     * Create a bulk writer of the fields updated by the notifier on the receipts, written with partial document patches
+     *
+     * @return a new bulk writer, to be used for a single batch
+     */
+    BulkWriter<Receipt> newReceiptBulkWriter();
+
+    /**
+     * Create a bulk writer of the receipts to retry, written in full with upserts conditioned on the etag read.
+     * A document modified concurrently is merged and patched as the processed ones, or skipped if already notified.
+     * The writes are not recorded as notifier echoes, so that the change feed triggers the notification again
+     *
+     * @return a new bulk writer, to be used for a single batch
+     */
+    BulkWriter<Receipt> newReceiptRetryBulkWriter();
+
+    /**
+     * Create a bulk writer of the io message documents, written with upserts
+     *
+     * @return a new bulk writer, to be used for a single batch
+     */
+    BulkWriter<IOMessage> newIOMessageBulkWriter();
 }
@@ -0,0 +1,41 @@
+package it.gov.pagopa.receipt.pdf.notifier.client;
+
+import com.azure.core.http.rest.Response;
+import com.azure.storage.queue.models.QueueMessageItem;
+import com.azure.storage.queue.models.SendMessageResult;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Client for draining a retry Queue in batches
+ */
+public interface RetryQueueClient {
+
+    /**
+     * Receive messages from the queue, hiding them for the provided timeout
+     *
+     * @param maxMessages       the max number of messages to receive, up to 32
+     * @param visibilityTimeout the time the received messages are hidden from other consumers
+     * @return the received messages, empty if the queue is empty
+     */
+    List<QueueMessageItem> receiveMessages(int maxMessages, Duration visibilityTimeout);
+
+    /**
+     * Delete a received message from the queue without blocking the caller
+     *
+     * @param messageId  the id of the message
+     * @param popReceipt the pop receipt of the message, returned when it has been received
+     * @return emits the response from the queue
+     */
+    Mono<Response<Void>> deleteMessageAsync(String messageId, String popReceipt);
+
+    /**
+     * Send string message to the poison queue of the queue, created if it does not exist
+     *
+     * @param messageText the text of the message that could not be processed
+     * @return response from the poison queue
+     */
+    Response<SendMessageResult> sendMessageToPoisonQueue(String messageText);
+}
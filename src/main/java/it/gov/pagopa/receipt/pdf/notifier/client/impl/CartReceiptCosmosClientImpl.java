@@ -1,45 +1,79 @@
 package it.gov.pagopa.receipt.pdf.notifier.client.impl;
 
-import com.azure.cosmos.CosmosClientBuilder;
-import com.azure.cosmos.CosmosContainer;
-import com.azure.cosmos.CosmosDatabase;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.CosmosPatchOperations;
 import com.azure.cosmos.models.CosmosQueryRequestOptions;
 import com.azure.cosmos.models.PartitionKey;
 import com.azure.cosmos.models.SqlParameter;
 import com.azure.cosmos.models.SqlQuerySpec;
+import it.gov.pagopa.receipt.pdf.notifier.cache.RecentWritesIndex;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
 import it.gov.pagopa.receipt.pdf.notifier.client.CartReceiptCosmosClient;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartForReceipt;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartPayment;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartStatusType;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.Payload;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.CartIOMessage;
-import it.gov.pagopa.receipt.pdf.notifier.exception.CartIoMessageNotFoundException;
-import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.limiter.DependencyBulkhead;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.CosmosMetrics;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.mergeNotifyStatus;
 
 /**
  * {@inheritDoc}
  */
 public class CartReceiptCosmosClientImpl implements CartReceiptCosmosClient {
 
-    private final CosmosContainer cartIoMessageContainer;
+    private static final Logger logger = LoggerFactory.getLogger(CartReceiptCosmosClientImpl.class);
 
-    @SuppressWarnings("resource") // CosmosClient lifecycle == singleton lifecycle; never closed on purpose
-    private CartReceiptCosmosClientImpl() {
-        String azureKey = System.getenv("COSMOS_RECEIPT_KEY");
-        String serviceEndpoint = System.getenv("COSMOS_RECEIPT_SERVICE_ENDPOINT");
+    /**
+     * Patch operations on the cart receipt fields
+     */
+    private static final int CART_RECEIPT_PATCH_OPERATIONS = 6;
+    /**
+     * Patch operations on the notifier fields of a debtor payment
+     */
+    private static final int CART_PAYMENT_PATCH_OPERATIONS = 3;
 
-        String databaseId = System.getenv("COSMOS_RECEIPT_DB_NAME");
-        String containerMessageId = System.getenv("COSMOS_CART_RECEIPT_MESSAGE_CONTAINER_NAME");
+    private static final DocumentPatchSpec<CartForReceipt> CART_RECEIPT_PATCH = new DocumentPatchSpec<>(
+            CartForReceipt.class,
+            CartForReceipt::getId,
+            CartForReceipt::getEtag,
+            CartReceiptCosmosClientImpl::buildCartReceiptPatches,
+            CartReceiptCosmosClientImpl::mergeCartReceipt
+    );
 
-        CosmosDatabase cosmosDatabase = new CosmosClientBuilder()
-                .endpoint(serviceEndpoint)
-                .key(azureKey)
-                .buildClient()
-                .getDatabase(databaseId);
+    private final CosmosAsyncContainer cartIoMessageContainer;
+    private final String cartIoMessageContainerName;
+    private final CosmosAsyncContainer cartReceiptContainer;
+    private final String cartReceiptContainerName;
 
-        this.cartIoMessageContainer = cosmosDatabase.getContainer(containerMessageId);
+    private CartReceiptCosmosClientImpl() {
+        this(CosmosClientFactory.getInstance().getContainer(System.getenv("COSMOS_CART_RECEIPT_MESSAGE_CONTAINER_NAME")),
+                CosmosClientFactory.getInstance().getContainer(System.getenv().getOrDefault("COSMOS_CART_RECEIPT_CONTAINER_NAME", "cart-for-receipts")));
     }
 
-    CartReceiptCosmosClientImpl(CosmosContainer cartIoMessageContainer) {
+    CartReceiptCosmosClientImpl(CosmosAsyncContainer cartIoMessageContainer, CosmosAsyncContainer cartReceiptContainer) {
         this.cartIoMessageContainer = cartIoMessageContainer;
+        this.cartIoMessageContainerName = cartIoMessageContainer.getId();
+        this.cartReceiptContainer = cartReceiptContainer;
+        this.cartReceiptContainerName = cartReceiptContainer.getId();
     }
 
     public static CartReceiptCosmosClientImpl getInstance() {
@@ -58,43 +92,188 @@ public class CartReceiptCosmosClientImpl implements CartReceiptCosmosClient {
      * {@inheritDoc}
      */
     @Override
-    public CartIOMessage findIOMessageWithCartIdAndEventIdAndUserType(
-            String cartId,
-            String eventId,
-            UserType userType
-    ) throws CartIoMessageNotFoundException {
-        //Build query
-        SqlQuerySpec querySpec = buildQuery(cartId, eventId, userType);
-        CosmosQueryRequestOptions options = new CosmosQueryRequestOptions();
-        options.setPartitionKey(new PartitionKey(cartId));
+    public CartForReceipt getCartForReceiptDocument(String id, String partitionKey) throws ReceiptNotFoundException {
+        CartForReceipt cartForReceipt = DependencyBulkhead.COSMOS.limiter().call(() -> CosmosMetrics.item(cartReceiptContainerName, "readItem",
+                        cartReceiptContainer.readItem(id, new PartitionKey(partitionKey), CartForReceipt.class))
+                .map(CosmosItemResponse::getItem)
+                .onErrorResume(
+                        e -> e instanceof CosmosException cosmosException && cosmosException.getStatusCode() == HttpStatus.SC_NOT_FOUND,
+                        e -> Mono.empty())
+                .block());
+        if (cartForReceipt == null) {
+            throw new ReceiptNotFoundException("Document not found in the defined container");
+        }
+        return cartForReceipt;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<CartIOMessage> findAllIOMessagesForCart(String cartId) {
+        return DependencyBulkhead.COSMOS.limiter().call(() -> queryAllIOMessagesForCart(cartId).block());
+    }
 
-        //Query the container
-        return cartIoMessageContainer.queryItems(querySpec, options, CartIOMessage.class)
-                .stream()
-                .findFirst()
-                .orElseThrow(() -> new CartIoMessageNotFoundException("Document not found in the defined container"));
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only status, notification date, retry counter, messages and errors of payer and debtors are written:
+     * the notifier fields of a cart payment are patched by index, only for the payments of the debtors notified,
+     * leaving the rest of the payment untouched. A request allows at most ten operations, so the patch of a cart
+     * with more than one debtor is applied in a transactional batch, conditioned on the cart receipt etag
+     * as the single patches, so the indexes are the ones read with the cart receipt
+     */
+    @Override
+    public List<CartForReceipt> patchCartReceipts(List<CartForReceipt> cartReceipts) {
+        return CosmosDocumentPatcher.patchAll(cartReceiptContainer, cartReceiptContainerName, cartReceipts, CART_RECEIPT_PATCH);
     }
 
-    private SqlQuerySpec buildQuery(String cartId, String eventId, UserType userType) {
-        SqlQuerySpec querySpec;
-        if (UserType.PAYER.equals(userType)) {
-            querySpec = new SqlQuerySpec(
-                    "SELECT * FROM c WHERE c.cartId = @cartId AND c.userType = @userType ",
-                    Arrays.asList(
-                            new SqlParameter("@cartId", cartId),
-                            new SqlParameter("@userType", userType)
-                    )
-            );
-        } else {
-            querySpec = new SqlQuerySpec(
-                    "SELECT * FROM c WHERE c.cartId = @cartId AND c.eventId = @eventId AND c.userType = @userType ",
-                    Arrays.asList(
-                            new SqlParameter("@cartId", cartId),
-                            new SqlParameter("@eventId", eventId),
-                            new SqlParameter("@userType", userType)
-                    )
-            );
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BulkWriter<CartForReceipt> newCartReceiptBulkWriter() {
+        RecentWritesIndex recentWrites = RecentWritesIndex.forContainer(cartReceiptContainerName);
+        BulkWriter<CartForReceipt> bulkWriter = new CosmosBulkWriter<>(cartReceiptContainer, cartReceiptContainerName, "bulkPatch",
+                CART_RECEIPT_PATCH::buildBulkOperation,
+                cartReceipt -> CosmosDocumentPatcher.resolveConflict(
+                        cartReceiptContainer, cartReceiptContainerName, cartReceipt, CART_RECEIPT_PATCH, recentWrites),
+                recentWrites);
+        return new CosmosPatchBulkWriter<>(bulkWriter, cartReceiptContainer, cartReceiptContainerName, CART_RECEIPT_PATCH);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BulkWriter<CartForReceipt> newCartReceiptRetryBulkWriter() {
+        return new CosmosBulkWriter<>(cartReceiptContainer, cartReceiptContainerName, "bulkUpsert",
+                CART_RECEIPT_PATCH::buildBulkUpsertOperation,
+                cartReceipt -> CosmosDocumentPatcher.resolveConflict(
+                        cartReceiptContainer, cartReceiptContainerName, cartReceipt, CART_RECEIPT_PATCH, null),
+                null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BulkWriter<CartIOMessage> newCartIOMessageBulkWriter() {
+        return new CosmosBulkWriter<>(cartIoMessageContainer, cartIoMessageContainerName, "bulkUpsert",
+                ioMessage -> CosmosBulkOperations.getUpsertItemOperation(
+                        ioMessage, new PartitionKey(ioMessage.getCartId()), ioMessage),
+                null,
+                null);
+    }
+
+    /**
+     * Merge the cart receipt processed by the notifier into its current version: the notification is skipped
+     * if the cart has already been notified by a concurrent run, otherwise the notifier fields are
+     * patched again on the current version, keeping the messages of payer and debtors it already records.
+     * The notifier fields of the debtors are copied on the current cart payments, matched by biz event id,
+     * as the payments are patched by index: the merge is given up if the current cart has different payments
+     */
+    static CartForReceipt mergeCartReceipt(CartForReceipt current, CartForReceipt processed) {
+        if (CartStatusType.IO_NOTIFIED.equals(current.getStatus())) {
+            return null;
+        }
+        Payload currentPayload = current.getPayload();
+        Payload payload = processed.getPayload();
+        if (currentPayload != null) {
+            if (payload.getMessagePayer() == null) {
+                payload.setMessagePayer(currentPayload.getMessagePayer());
+            }
+            payload.setNotifyStatusPayer(mergeNotifyStatus(currentPayload.getNotifyStatusPayer(), payload.getNotifyStatusPayer()));
+            List<CartPayment> cart = payload.getCart();
+            if (cart != null) {
+                List<CartPayment> currentCart = mergeCartPayments(currentPayload.getCart(), cart);
+                if (currentCart == null) {
+                    logger.warn("Cart receipt {} payments changed concurrently, patch given up", processed.getId());
+                    return null;
+                }
+                payload.setCart(currentCart);
+            }
         }
-        return querySpec;
+        processed.setEtag(current.getEtag());
+        return processed;
+    }
+
+    /**
+     * Copy the notifier fields of the processed payments on the current ones with the same biz event id
+     *
+     * @return the current payments, <code>null</code> if they are not the processed ones
+     */
+    private static List<CartPayment> mergeCartPayments(List<CartPayment> currentCart, List<CartPayment> cart) {
+        if (currentCart == null || currentCart.size() != cart.size()) {
+            return null;
+        }
+        Map<String, CartPayment> currentPayments = currentCart.stream()
+                .filter(payment -> payment.getBizEventId() != null)
+                .collect(Collectors.toMap(CartPayment::getBizEventId, Function.identity(), (first, second) -> first));
+        if (currentPayments.size() != currentCart.size()) {
+            return null;
+        }
+        for (CartPayment payment : cart) {
+            CartPayment currentPayment = currentPayments.get(payment.getBizEventId());
+            if (currentPayment == null) {
+                return null;
+            }
+            if (payment.getMessageDebtor() != null) {
+                currentPayment.setMessageDebtor(payment.getMessageDebtor());
+            }
+            currentPayment.setReasonErrDebtor(payment.getReasonErrDebtor());
+            currentPayment.setNotifyStatusDebtor(
+                    mergeNotifyStatus(currentPayment.getNotifyStatusDebtor(), payment.getNotifyStatusDebtor()));
+        }
+        return currentCart;
+    }
+
+    /**
+     * Build the patch of the cart receipt fields and of the notifier fields of the payments whose debtor
+     * has been notified, in groups of at most {@value DocumentPatchSpec#MAX_PATCH_OPERATIONS} operations
+     */
+    static List<CosmosPatchOperations> buildCartReceiptPatches(CartForReceipt cartReceipt) {
+        Payload payload = cartReceipt.getPayload();
+        List<CosmosPatchOperations> patches = new ArrayList<>();
+        CosmosPatchOperations patch = CosmosPatchOperations.create()
+                .set("/status", cartReceipt.getStatus())
+                .set("/notified_at", cartReceipt.getNotified_at())
+                .set("/notificationNumRetry", cartReceipt.getNotificationNumRetry())
+                .set("/payload/messagePayer", payload.getMessagePayer())
+                .set("/payload/reasonErrPayer", payload.getReasonErrPayer())
+                .set("/payload/notifyStatusPayer", payload.getNotifyStatusPayer());
+        int operations = CART_RECEIPT_PATCH_OPERATIONS;
+        List<CartPayment> cart = Objects.requireNonNullElse(payload.getCart(), List.of());
+        for (int i = 0; i < cart.size(); i++) {
+            CartPayment payment = cart.get(i);
+            // the payments of the debtors not notified, as the payer or anonymous ones, are left untouched
+            if (payment.getNotifyStatusDebtor() == null) {
+                continue;
+            }
+            if (operations + CART_PAYMENT_PATCH_OPERATIONS > DocumentPatchSpec.MAX_PATCH_OPERATIONS) {
+                patches.add(patch);
+                patch = CosmosPatchOperations.create();
+                operations = 0;
+            }
+            String paymentPath = "/payload/cart/" + i;
+            patch.set(paymentPath + "/messageDebtor", payment.getMessageDebtor())
+                    .set(paymentPath + "/reasonErrDebtor", payment.getReasonErrDebtor())
+                    .set(paymentPath + "/notifyStatusDebtor", payment.getNotifyStatusDebtor());
+            operations += CART_PAYMENT_PATCH_OPERATIONS;
+        }
+        patches.add(patch);
+        return patches;
+    }
+
+    private Mono<List<CartIOMessage>> queryAllIOMessagesForCart(String cartId) {
+        SqlQuerySpec querySpec = new SqlQuerySpec(
+                "SELECT * FROM c WHERE c.cartId = @cartId",
+                Collections.singletonList(new SqlParameter("@cartId", cartId))
+        );
+        CosmosQueryRequestOptions options = new CosmosQueryRequestOptions();
+        options.setPartitionKey(new PartitionKey(cartId));
+
+        return CosmosMetrics.query(cartIoMessageContainerName, "queryByCartId",
+                cartIoMessageContainer.queryItems(querySpec, options, CartIOMessage.class));
     }
 }
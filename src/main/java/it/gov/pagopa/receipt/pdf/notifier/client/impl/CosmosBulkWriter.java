@@ -0,0 +1,222 @@
+package it.gov.pagopa.receipt.pdf.notifier.client.impl;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosBulkExecutionOptions;
+import com.azure.cosmos.models.CosmosBulkItemResponse;
+import com.azure.cosmos.models.CosmosBulkOperationResponse;
+import com.azure.cosmos.models.CosmosItemOperation;
+import it.gov.pagopa.receipt.pdf.notifier.cache.RecentWritesIndex;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.CosmosMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * {@link BulkWriter} on the CosmosDB bulk executor.
+ * <p>
+ * The operations are streamed to the bulk executor through a sink subscribed when the writer is created,
+ * with up to <code>COSMOS_BULK_MAX_MICRO_BATCH_CONCURRENCY</code> concurrent micro batches per partition.
+ * Every operation carries its document as context, so the outcome of each document is known:
+ * throttled documents are retried up to <code>COSMOS_BULK_MAX_THROTTLE_RETRIES</code> times,
+ * documents whose conditional write failed are handed to the conflict resolver, if any,
+ * documents failed for any other reason are returned by {@link #complete()}.
+ *
+ * @param <T> the type of the documents
+ */
+class CosmosBulkWriter<T> implements BulkWriter<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CosmosBulkWriter.class);
+
+    private static final int MAX_MICRO_BATCH_CONCURRENCY =
+            Integer.parseInt(System.getenv().getOrDefault("COSMOS_BULK_MAX_MICRO_BATCH_CONCURRENCY", "1"));
+    private static final int MAX_THROTTLE_RETRIES =
+            Integer.parseInt(System.getenv().getOrDefault("COSMOS_BULK_MAX_THROTTLE_RETRIES", "3"));
+    private static final long THROTTLE_RETRY_DELAY_MS = 100L;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int PRECONDITION_FAILED = 412;
+
+    private final CosmosAsyncContainer container;
+    private final String containerName;
+    private final String operationName;
+    private final Function<T, CosmosItemOperation> operationBuilder;
+    private final Function<T, Mono<T>> conflictResolver;
+    private final RecentWritesIndex recentWrites;
+
+    private final Sinks.Many<CosmosItemOperation> operations = Sinks.many().unicast().onBackpressureBuffer();
+    private final List<T> submitted = new ArrayList<>();
+    private final Mono<List<CosmosBulkOperationResponse<T>>> responses;
+
+    /**
+     * Create the writer and start the bulk execution
+     *
+     * @param container        the container of the documents
+     * @param containerName    the container name, used for metrics
+     * @param operationName    the operation name, used for metrics
+     * @param operationBuilder builds the bulk operation of a document, with the document as context
+     * @param conflictResolver resolves the conflict of a document whose conditional write failed,
+     *                         emitting it only if it could not be written, <code>null</code> if the writes are unconditional
+     * @param recentWrites     records the written versions of the documents, <code>null</code> if their echoes are not tracked
+     */
+    CosmosBulkWriter(
+            CosmosAsyncContainer container,
+            String containerName,
+            String operationName,
+            Function<T, CosmosItemOperation> operationBuilder,
+            Function<T, Mono<T>> conflictResolver,
+            RecentWritesIndex recentWrites
+    ) {
+        this.container = container;
+        this.containerName = containerName;
+        this.operationName = operationName;
+        this.operationBuilder = operationBuilder;
+        this.conflictResolver = conflictResolver;
+        this.recentWrites = recentWrites;
+        this.responses = execute(this.operations.asFlux()).cache();
+        // start consuming the operations right away, the outcome is collected on complete
+        this.responses.subscribe(result -> {}, error -> {});
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void addAll(Collection<T> documents) {
+        for (T document : documents) {
+            this.operations.emitNext(this.operationBuilder.apply(document), Sinks.EmitFailureHandler.FAIL_FAST);
+            this.submitted.add(document);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<T> complete() {
+        synchronized (this) {
+            this.operations.emitComplete(Sinks.EmitFailureHandler.FAIL_FAST);
+        }
+
+        List<CosmosBulkOperationResponse<T>> results;
+        try {
+            results = this.responses.block();
+        } catch (RuntimeException e) {
+            logger.error("Bulk execution on container {} failed, {} documents will be written again",
+                    this.containerName, this.submitted.size(), e);
+            return new ArrayList<>(this.submitted);
+        }
+
+        List<T> failed = new ArrayList<>();
+        List<T> conflicted = new ArrayList<>();
+        List<CosmosItemOperation> throttled = classify(results, failed, conflicted);
+        for (int attempt = 1; !throttled.isEmpty() && attempt <= MAX_THROTTLE_RETRIES; attempt++) {
+            List<CosmosItemOperation> retry = throttled;
+            try {
+                results = execute(Flux.fromIterable(retry))
+                        .delaySubscription(Duration.ofMillis(THROTTLE_RETRY_DELAY_MS * attempt))
+                        .block();
+                throttled = classify(results, failed, conflicted);
+            } catch (RuntimeException e) {
+                logger.error("Bulk retry on container {} failed", this.containerName, e);
+                throttled = retry;
+                break;
+            }
+        }
+        throttled.forEach(operation -> failed.add(operation.getContext()));
+        failed.addAll(resolveConflicts(conflicted));
+
+        if (!failed.isEmpty()) {
+            logger.warn("{} of {} documents could not be written in bulk on container {}",
+                    failed.size(), this.submitted.size(), this.containerName);
+        }
+        return failed;
+    }
+
+    private Mono<List<CosmosBulkOperationResponse<T>>> execute(Flux<CosmosItemOperation> itemOperations) {
+        CosmosBulkExecutionOptions options = new CosmosBulkExecutionOptions()
+                .setMaxMicroBatchConcurrency(MAX_MICRO_BATCH_CONCURRENCY);
+        return this.container.<T>executeBulkOperations(itemOperations, options)
+                .doOnNext(this::record)
+                .collectList();
+    }
+
+    /**
+     * Add the failed and the conflicted documents to the provided lists and return the throttled operations
+     */
+    private List<CosmosItemOperation> classify(
+            List<CosmosBulkOperationResponse<T>> results,
+            List<T> failed,
+            List<T> conflicted
+    ) {
+        List<CosmosItemOperation> throttled = new ArrayList<>();
+        for (CosmosBulkOperationResponse<T> result : results) {
+            if (isSuccess(result)) {
+                if (this.recentWrites != null) {
+                    this.recentWrites.record(result.getOperation().getId(), result.getResponse().getETag());
+                }
+                continue;
+            }
+            int statusCode = getStatusCode(result);
+            if (statusCode == TOO_MANY_REQUESTS) {
+                throttled.add(result.getOperation());
+                continue;
+            }
+            if (statusCode == PRECONDITION_FAILED && this.conflictResolver != null) {
+                conflicted.add(result.getOperation().getContext());
+                continue;
+            }
+            logger.warn("Bulk operation on document {} of container {} failed with status {}",
+                    result.getOperation().getId(), this.containerName, statusCode, result.getException());
+            failed.add(result.getOperation().getContext());
+        }
+        return throttled;
+    }
+
+    private List<T> resolveConflicts(List<T> conflicted) {
+        if (conflicted.isEmpty()) {
+            return List.of();
+        }
+        try {
+            return Flux.fromIterable(conflicted)
+                    .flatMap(this.conflictResolver)
+                    .collectList()
+                    .block();
+        } catch (RuntimeException e) {
+            logger.error("Unable to resolve the conflicts on container {}", this.containerName, e);
+            return conflicted;
+        }
+    }
+
+    private void record(CosmosBulkOperationResponse<T> result) {
+        CosmosBulkItemResponse response = result.getResponse();
+        double requestCharge = response != null ? response.getRequestCharge() : 0;
+        long latencyNanos = response != null && response.getDuration() != null ? response.getDuration().toNanos() : 0;
+        CosmosMetrics.forOperation(this.containerName, this.operationName)
+                .record(requestCharge, latencyNanos, !isSuccess(result) && getStatusCode(result) != TOO_MANY_REQUESTS);
+    }
+
+    private static boolean isSuccess(CosmosBulkOperationResponse<?> result) {
+        return result.getException() == null
+                && result.getResponse() != null
+                && result.getResponse().isSuccessStatusCode();
+    }
+
+    private static int getStatusCode(CosmosBulkOperationResponse<?> result) {
+        if (result.getResponse() != null) {
+            return result.getResponse().getStatusCode();
+        }
+        if (result.getException() instanceof CosmosException cosmosException) {
+            return cosmosException.getStatusCode();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,115 @@
+package it.gov.pagopa.receipt.pdf.notifier.client.impl;
+
+import com.azure.cosmos.CosmosAsyncClient;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosClientBuilder;
+import com.azure.cosmos.DirectConnectionConfig;
+import com.azure.cosmos.GatewayConnectionConfig;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Factory of the {@link CosmosAsyncClient} shared by all the CosmosDB clients of the worker.
+ * <p>
+ * A single client means a single connection pool, metadata cache and warm-up for the
+ * Receipt CosmosDB, whatever the number of containers accessed. The client is built lazily
+ * the first time a container is requested, a failed build is not memoized.
+ */
+public class CosmosClientFactory {
+
+    private static final String AZURE_KEY = System.getenv("COSMOS_RECEIPT_KEY");
+    private static final String SERVICE_ENDPOINT = System.getenv("COSMOS_RECEIPT_SERVICE_ENDPOINT");
+    private static final String DATABASE_ID = System.getenv("COSMOS_RECEIPT_DB_NAME");
+
+    private static final String CONNECTION_MODE = System.getenv().getOrDefault("COSMOS_CONNECTION_MODE", "DIRECT");
+    private static final String PREFERRED_REGIONS = System.getenv().getOrDefault("COSMOS_PREFERRED_REGIONS", "");
+    private static final int DIRECT_MAX_CONNECTIONS_PER_ENDPOINT =
+            Integer.parseInt(System.getenv().getOrDefault("COSMOS_DIRECT_MAX_CONNECTIONS_PER_ENDPOINT", "130"));
+    private static final int DIRECT_MAX_REQUESTS_PER_CONNECTION =
+            Integer.parseInt(System.getenv().getOrDefault("COSMOS_DIRECT_MAX_REQUESTS_PER_CONNECTION", "30"));
+    private static final int GATEWAY_MAX_CONNECTION_POOL_SIZE =
+            Integer.parseInt(System.getenv().getOrDefault("COSMOS_GATEWAY_MAX_CONNECTION_POOL_SIZE", "1000"));
+
+    private volatile CosmosAsyncClient asyncClient;
+
+    private CosmosClientFactory() {
+    }
+
+    CosmosClientFactory(CosmosAsyncClient asyncClient) {
+        this.asyncClient = asyncClient;
+    }
+
+    public static CosmosClientFactory getInstance() {
+        return SingletonHelper.INSTANCE;
+    }
+
+    /**
+     * Bill Pugh singleton holder: the JVM guarantees that the class is loaded
+     * (and therefore INSTANCE initialized) lazily and in a thread-safe way.
+     */
+    private static class SingletonHelper {
+        private static final CosmosClientFactory INSTANCE = new CosmosClientFactory();
+    }
+
+    /**
+     * Retrieve the shared async client, building it on first use
+     *
+     * @return the shared async client
+     */
+    public CosmosAsyncClient getAsyncClient() {
+        CosmosAsyncClient client = this.asyncClient;
+        if (client == null) {
+            synchronized (this) {
+                client = this.asyncClient;
+                if (client == null) {
+                    client = buildClientBuilder().buildAsyncClient();
+                    this.asyncClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Retrieve a container of the Receipt database through the shared async client
+     *
+     * @param containerName the container name
+     * @return the async container
+     */
+    public CosmosAsyncContainer getContainer(String containerName) {
+        return getAsyncClient().getDatabase(DATABASE_ID).getContainer(containerName);
+    }
+
+    static CosmosClientBuilder buildClientBuilder() {
+        GatewayConnectionConfig gatewayConnectionConfig = new GatewayConnectionConfig()
+                .setMaxConnectionPoolSize(GATEWAY_MAX_CONNECTION_POOL_SIZE);
+
+        CosmosClientBuilder builder = new CosmosClientBuilder()
+                .endpoint(SERVICE_ENDPOINT)
+                .key(AZURE_KEY)
+                .contentResponseOnWriteEnabled(false);
+
+        if ("GATEWAY".equalsIgnoreCase(CONNECTION_MODE)) {
+            builder.gatewayMode(gatewayConnectionConfig);
+        } else {
+            DirectConnectionConfig directConnectionConfig = DirectConnectionConfig.getDefaultConfig()
+                    .setMaxConnectionsPerEndpoint(DIRECT_MAX_CONNECTIONS_PER_ENDPOINT)
+                    .setMaxRequestsPerConnection(DIRECT_MAX_REQUESTS_PER_CONNECTION);
+            builder.directMode(directConnectionConfig, gatewayConnectionConfig);
+        }
+
+        List<String> preferredRegions = parsePreferredRegions(PREFERRED_REGIONS);
+        if (!preferredRegions.isEmpty()) {
+            builder.preferredRegions(preferredRegions);
+        }
+        return builder;
+    }
+
+    static List<String> parsePreferredRegions(String preferredRegions) {
+        return Arrays.stream(preferredRegions.split(","))
+                .map(String::trim)
+                .filter(region -> !region.isEmpty())
+                .toList();
+    }
+}
@@ -0,0 +1,197 @@
+package it.gov.pagopa.receipt.pdf.notifier.client.impl;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosBatchResponse;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import it.gov.pagopa.receipt.pdf.notifier.cache.RecentWritesIndex;
+import it.gov.pagopa.receipt.pdf.notifier.limiter.DependencyBulkhead;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.CosmosMetrics;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Writes the fields updated by the notifier on the receipt documents with partial document patches,
+ * instead of rewriting the whole documents.
+ * <p>
+ * The receipt containers are partitioned by document id, so every document is the only one of its
+ * partition: the patches cannot be grouped in transactional batches and are instead issued concurrently,
+ * up to <code>COSMOS_PATCH_MAX_CONCURRENCY</code> at a time. The patch of a document that does not fit
+ * a single request is applied in a transactional batch on the document partition.
+ * <p>
+ * The patches are conditioned on the document etag: a document modified concurrently is read again
+ * and merged as defined by its {@link DocumentPatchSpec}, up to <code>COSMOS_PATCH_MAX_CONFLICT_RETRIES</code> times.
+ * The patched versions are recorded in the {@link RecentWritesIndex} of the container, to drop their change feed echoes,
+ * except the ones of the retried documents, whose change feed event has to trigger the notification again.
+ */
+class CosmosDocumentPatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(CosmosDocumentPatcher.class);
+
+    private static final int PATCH_MAX_CONCURRENCY =
+            Integer.parseInt(System.getenv().getOrDefault("COSMOS_PATCH_MAX_CONCURRENCY", "32"));
+    private static final int PATCH_MAX_CONFLICT_RETRIES =
+            Integer.parseInt(System.getenv().getOrDefault("COSMOS_PATCH_MAX_CONFLICT_RETRIES", "3"));
+
+    /**
+     * Hide from public usage.
+     */
+    private CosmosDocumentPatcher() {
+    }
+
+    /**
+     * Patch the provided documents, each one with the operations built for it
+     *
+     * @param container     the container of the documents
+     * @param containerName the container name, used for metrics
+     * @param documents     the documents to patch
+     * @param spec          how the documents are patched
+     * @param <T>           the type of the documents
+     * @return the documents that could not be patched
+     */
+    static <T> List<T> patchAll(
+            CosmosAsyncContainer container,
+            String containerName,
+            List<T> documents,
+            DocumentPatchSpec<T> spec
+    ) {
+        if (documents.isEmpty()) {
+            return List.of();
+        }
+        return DependencyBulkhead.COSMOS.limiter().call(() -> Flux.fromIterable(documents)
+                .flatMap(document -> patch(container, containerName, document, spec,
+                        RecentWritesIndex.forContainer(containerName), 0), PATCH_MAX_CONCURRENCY)
+                .collectList()
+                .block());
+    }
+
+    /**
+     * Resolve the conflict of a document whose conditional write failed because it was modified concurrently:
+     * the current version is read, merged with the processed one and patched again
+     *
+     * @param container     the container of the document
+     * @param containerName the container name, used for metrics
+     * @param document      the processed document
+     * @param spec          how the document is patched
+     * @param recentWrites  records the patched version of the document, <code>null</code> if its echo is not tracked
+     * @param <T>           the type of the document
+     * @return emits the document only if it could not be written
+     */
+    static <T> Mono<T> resolveConflict(
+            CosmosAsyncContainer container,
+            String containerName,
+            T document,
+            DocumentPatchSpec<T> spec,
+            RecentWritesIndex recentWrites
+    ) {
+        return resolveConflict(container, containerName, document, spec, recentWrites, 0)
+                .onErrorResume(e -> {
+                    logger.warn("Unable to resolve the conflict on document {} of container {}, it will be written in full",
+                            spec.getId(document), containerName, e);
+                    return Mono.just(document);
+                });
+    }
+
+    private static boolean isPreconditionFailed(Throwable throwable) {
+        return throwable instanceof CosmosException cosmosException
+                && cosmosException.getStatusCode() == HttpStatus.SC_PRECONDITION_FAILED
+                || throwable instanceof BatchNotCommittedException batchNotCommitted
+                && batchNotCommitted.getStatusCode() == HttpStatus.SC_PRECONDITION_FAILED;
+    }
+
+    /**
+     * Emits the document only if the patch failed
+     */
+    private static <T> Mono<T> patch(
+            CosmosAsyncContainer container,
+            String containerName,
+            T document,
+            DocumentPatchSpec<T> spec,
+            RecentWritesIndex recentWrites,
+            int conflicts
+    ) {
+        String id = spec.getId(document);
+        List<CosmosPatchOperations> patches = spec.buildPatches(document);
+        Mono<String> write = patches.size() == 1
+                ? Mono.defer(() -> CosmosMetrics.item(containerName, "patchItem",
+                                container.patchItem(id, spec.getPartitionKey(document), patches.get(0),
+                                        spec.buildRequestOptions(document), Object.class)))
+                        .flatMap(response -> Mono.justOrEmpty(response.getETag()))
+                : Mono.defer(() -> CosmosMetrics.batch(containerName, "batchPatch",
+                                container.executeCosmosBatch(spec.buildBatch(document, patches))))
+                        .flatMap(CosmosDocumentPatcher::getCommittedETag);
+        return write
+                .doOnNext(etag -> {
+                    if (recentWrites != null) {
+                        recentWrites.record(id, etag);
+                    }
+                })
+                .then(Mono.<T>empty())
+                .onErrorResume(CosmosDocumentPatcher::isPreconditionFailed,
+                        e -> resolveConflict(container, containerName, document, spec, recentWrites, conflicts))
+                .onErrorResume(e -> {
+                    logger.warn("Unable to patch document {} of container {}, it will be written in full", id, containerName, e);
+                    return Mono.just(document);
+                });
+    }
+
+    /**
+     * Emits the etag written by the last operation of a committed batch, fails otherwise
+     */
+    private static Mono<String> getCommittedETag(CosmosBatchResponse response) {
+        if (!response.isSuccessStatusCode()) {
+            return Mono.error(new BatchNotCommittedException(response));
+        }
+        return Mono.justOrEmpty(response.getResults().get(response.size() - 1).getETag());
+    }
+
+    private static <T> Mono<T> resolveConflict(
+            CosmosAsyncContainer container,
+            String containerName,
+            T document,
+            DocumentPatchSpec<T> spec,
+            RecentWritesIndex recentWrites,
+            int conflicts
+    ) {
+        String id = spec.getId(document);
+        if (conflicts >= PATCH_MAX_CONFLICT_RETRIES) {
+            logger.warn("Document {} of container {} still modified concurrently after {} merges, it will be written in full",
+                    id, containerName, conflicts);
+            return Mono.just(document);
+        }
+        return CosmosMetrics.item(containerName, "readItem",
+                        container.readItem(id, spec.getPartitionKey(document), spec.getType()))
+                .flatMap(response -> {
+                    T merged = spec.merge(response.getItem(), document);
+                    if (merged == null) {
+                        logger.info("Document {} of container {} already updated by a concurrent writer, patch skipped",
+                                id, containerName);
+                        return Mono.empty();
+                    }
+                    return patch(container, containerName, merged, spec, recentWrites, conflicts + 1);
+                });
+    }
+
+    /**
+     * A transactional batch is not committed without failing, its outcome is carried by the response
+     */
+    private static class BatchNotCommittedException extends RuntimeException {
+
+        private final int statusCode;
+
+        BatchNotCommittedException(CosmosBatchResponse response) {
+            super(String.format("Transactional batch not committed with status %d: %s",
+                    response.getStatusCode(), response.getErrorMessage()));
+            this.statusCode = response.getStatusCode();
+        }
+
+        int getStatusCode() {
+            return this.statusCode;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package it.gov.pagopa.receipt.pdf.notifier.client.impl;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * {@link BulkWriter} patching the documents as defined by their {@link DocumentPatchSpec}.
+ * <p>
+ * The bulk executor only accepts patches that fit a single request: the documents whose patch
+ * is split in several groups are kept aside and patched in transactional batches
+ * by the {@link CosmosDocumentPatcher} when the writer is completed.
+ *
+ * @param <T> the type of the documents
+ */
+class CosmosPatchBulkWriter<T> implements BulkWriter<T> {
+
+    private final BulkWriter<T> bulkWriter;
+    private final CosmosAsyncContainer container;
+    private final String containerName;
+    private final DocumentPatchSpec<T> spec;
+
+    private final List<T> batched = new ArrayList<>();
+
+    /**
+     * @param bulkWriter    writes the bulk patch operations of the documents that fit a single request
+     * @param container     the container of the documents
+     * @param containerName the container name, used for metrics
+     * @param spec          how the documents are patched
+     */
+    CosmosPatchBulkWriter(
+            BulkWriter<T> bulkWriter,
+            CosmosAsyncContainer container,
+            String containerName,
+            DocumentPatchSpec<T> spec
+    ) {
+        this.bulkWriter = bulkWriter;
+        this.container = container;
+        this.containerName = containerName;
+        this.spec = spec;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addAll(Collection<T> documents) {
+        List<T> bulk = new ArrayList<>();
+        List<T> batch = new ArrayList<>();
+        for (T document : documents) {
+            (this.spec.fitsSinglePatch(document) ? bulk : batch).add(document);
+        }
+        if (!bulk.isEmpty()) {
+            this.bulkWriter.addAll(bulk);
+        }
+        if (!batch.isEmpty()) {
+            synchronized (this) {
+                this.batched.addAll(batch);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<T> complete() {
+        List<T> failed = new ArrayList<>(this.bulkWriter.complete());
+        List<T> toBatch;
+        synchronized (this) {
+            toBatch = new ArrayList<>(this.batched);
+        }
+        failed.addAll(CosmosDocumentPatcher.patchAll(this.container, this.containerName, toBatch, this.spec));
+        return failed;
+    }
+}
@@ -0,0 +1,147 @@
+package it.gov.pagopa.receipt.pdf.notifier.client.impl;
+
+import com.azure.cosmos.models.CosmosBatch;
+import com.azure.cosmos.models.CosmosBatchPatchItemRequestOptions;
+import com.azure.cosmos.models.CosmosBulkItemRequestOptions;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosBulkPatchItemRequestOptions;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.CosmosPatchItemRequestOptions;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import com.azure.cosmos.models.PartitionKey;
+
+import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Describes how the notifier fields of a document type are patched.
+ * <p>
+ * The patches are conditioned on the etag of the document, when known, so that a document updated
+ * concurrently by another writer is not blindly overwritten. On conflict the current version is read
+ * and merged with the processed one by the merge function, that returns the document to patch again
+ * or <code>null</code> if the current version already supersedes the processed one.
+ * The documents written in full, as the retried ones, are upserted on the same etag condition.
+ * <p>
+ * A single patch request holds at most {@value #MAX_PATCH_OPERATIONS} operations: the patch of a document
+ * may be split in several groups, applied atomically in a transactional batch whose first operation
+ * carries the etag condition.
+ * The documents are partitioned by id.
+ *
+ * @param <T> the type of the documents
+ */
+class DocumentPatchSpec<T> {
+
+    /**
+     * Max number of operations of a single patch request
+     */
+    static final int MAX_PATCH_OPERATIONS = 10;
+
+    private final Class<T> type;
+    private final Function<T, String> idExtractor;
+    private final Function<T, String> etagExtractor;
+    private final Function<T, List<CosmosPatchOperations>> patchBuilder;
+    private final BinaryOperator<T> merger;
+
+    /**
+     * @param type          the type of the documents
+     * @param idExtractor   extracts the id, that is also the partition key, of a document
+     * @param etagExtractor extracts the etag of a document, <code>null</code> if unknown
+     * @param patchBuilder  builds the patch operations of a document, in groups of at most {@value #MAX_PATCH_OPERATIONS}
+     * @param merger        merges the current version of a document, first argument, with the processed one
+     */
+    DocumentPatchSpec(
+            Class<T> type,
+            Function<T, String> idExtractor,
+            Function<T, String> etagExtractor,
+            Function<T, List<CosmosPatchOperations>> patchBuilder,
+            BinaryOperator<T> merger
+    ) {
+        this.type = type;
+        this.idExtractor = idExtractor;
+        this.etagExtractor = etagExtractor;
+        this.patchBuilder = patchBuilder;
+        this.merger = merger;
+    }
+
+    Class<T> getType() {
+        return this.type;
+    }
+
+    String getId(T document) {
+        return this.idExtractor.apply(document);
+    }
+
+    PartitionKey getPartitionKey(T document) {
+        return new PartitionKey(getId(document));
+    }
+
+    List<CosmosPatchOperations> buildPatches(T document) {
+        return this.patchBuilder.apply(document);
+    }
+
+    /**
+     * Whether the patch of the document fits a single request, otherwise it is applied in a transactional batch
+     */
+    boolean fitsSinglePatch(T document) {
+        return buildPatches(document).size() == 1;
+    }
+
+    T merge(T current, T processed) {
+        return this.merger.apply(current, processed);
+    }
+
+    CosmosPatchItemRequestOptions buildRequestOptions(T document) {
+        CosmosPatchItemRequestOptions options = new CosmosPatchItemRequestOptions();
+        String etag = this.etagExtractor.apply(document);
+        if (etag != null) {
+            options.setIfMatchETag(etag);
+        }
+        return options;
+    }
+
+    /**
+     * Build the transactional batch patching the document with the provided groups of operations,
+     * the first one conditioned on its etag when known
+     */
+    CosmosBatch buildBatch(T document, List<CosmosPatchOperations> patches) {
+        CosmosBatch batch = CosmosBatch.createCosmosBatch(getPartitionKey(document));
+        CosmosBatchPatchItemRequestOptions options = new CosmosBatchPatchItemRequestOptions();
+        String etag = this.etagExtractor.apply(document);
+        if (etag != null) {
+            options.setIfMatchETag(etag);
+        }
+        batch.patchItemOperation(getId(document), patches.get(0), options);
+        for (CosmosPatchOperations patch : patches.subList(1, patches.size())) {
+            batch.patchItemOperation(getId(document), patch);
+        }
+        return batch;
+    }
+
+    /**
+     * Build the bulk patch operation of a document that {@link #fitsSinglePatch(Object) fits a single request},
+     * with the document as context
+     */
+    CosmosItemOperation buildBulkOperation(T document) {
+        CosmosBulkPatchItemRequestOptions options = new CosmosBulkPatchItemRequestOptions();
+        String etag = this.etagExtractor.apply(document);
+        if (etag != null) {
+            options.setIfMatchETag(etag);
+        }
+        return CosmosBulkOperations.getPatchItemOperation(
+                getId(document), getPartitionKey(document), buildPatches(document).get(0), options, document);
+    }
+
+    /**
+     * Build the bulk upsert operation of the whole document, conditioned on its etag when known,
+     * with the document as context
+     */
+    CosmosItemOperation buildBulkUpsertOperation(T document) {
+        CosmosBulkItemRequestOptions options = new CosmosBulkItemRequestOptions();
+        String etag = this.etagExtractor.apply(document);
+        if (etag != null) {
+            options.setIfMatchETag(etag);
+        }
+        return CosmosBulkOperations.getUpsertItemOperation(document, getPartitionKey(document), options, document);
+    }
+}
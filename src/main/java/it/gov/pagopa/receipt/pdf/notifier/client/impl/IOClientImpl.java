@@ -2,6 +2,9 @@ package it.gov.pagopa.receipt.pdf.notifier.client.impl;
 
 import it.gov.pagopa.receipt.pdf.notifier.client.IOClient;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IOAPIException;
+import it.gov.pagopa.receipt.pdf.notifier.limiter.AdaptiveConcurrencyLimiter;
+import it.gov.pagopa.receipt.pdf.notifier.limiter.TokenBucketRateLimiter;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,12 +13,26 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReasonErrorCode.ERROR_IO_API_IO;
+import static it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReasonErrorCode.ERROR_IO_API_THROTTLED;
 import static it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReasonErrorCode.ERROR_IO_API_UNEXPECTED;
 
 /**
  * {@inheritDoc}
+ * <p>
+ * Every IO API call goes through three limits, each one with a different purpose:
+ * <ol>
+ *     <li>the {@link it.gov.pagopa.receipt.pdf.notifier.limiter.DependencyBulkhead} of the endpoint, applied by the
+ *     callers, is a fixed cap on the calls issued by this instance, so IO cannot take all the batch capacity</li>
+ *     <li>the {@link AdaptiveConcurrencyLimiter} of the endpoint adapts the calls in flight, below the bulkhead cap,
+ *     to the latency and throttling observed on IO</li>
+ *     <li>the {@link TokenBucketRateLimiter} of the endpoint spaces the requests sent to the configured rate,
+ *     its slot is reserved only once the concurrency slot is acquired so rejected calls do not consume it</li>
+ * </ol>
+ * The asynchronous calls wait for all the limits without holding any thread.
  */
 public class IOClientImpl implements IOClient {
 
@@ -27,18 +44,46 @@ public class IOClientImpl implements IOClient {
     private static final String OCP_APIM_SUBSCRIPTION_KEY = System.getenv().getOrDefault("OCP_APIM_SUBSCRIPTION_KEY", "");
     private static final String OCP_APIM_HEADER_KEY = System.getenv().getOrDefault("OCP_APIM_HEADER_KEY", "Ocp-Apim-Subscription-Key");
 
+    private static final int IO_API_LIMITER_INITIAL_LIMIT = Integer.parseInt(System.getenv().getOrDefault("IO_API_LIMITER_INITIAL_LIMIT", "10"));
+    private static final int IO_API_LIMITER_MIN_LIMIT = Integer.parseInt(System.getenv().getOrDefault("IO_API_LIMITER_MIN_LIMIT", "1"));
+    private static final int IO_API_LIMITER_MAX_LIMIT = Integer.parseInt(System.getenv().getOrDefault("IO_API_LIMITER_MAX_LIMIT", "100"));
+    private static final long IO_API_LIMITER_MAX_WAIT_MS = Long.parseLong(System.getenv().getOrDefault("IO_API_LIMITER_MAX_WAIT_MS", "5000"));
+    private static final double IO_API_PROFILES_MAX_RPS = Double.parseDouble(System.getenv().getOrDefault("IO_API_PROFILES_MAX_RPS", "0"));
+    private static final double IO_API_MESSAGES_MAX_RPS = Double.parseDouble(System.getenv().getOrDefault("IO_API_MESSAGES_MAX_RPS", "0"));
+    private static final long IO_API_RATE_LIMIT_MAX_WAIT_MS = Long.parseLong(System.getenv().getOrDefault("IO_API_RATE_LIMIT_MAX_WAIT_MS", "2000"));
+
     private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVER_ERROR = 500;
 
     private final HttpClient client;
+    private final AdaptiveConcurrencyLimiter profilesLimiter;
+    private final AdaptiveConcurrencyLimiter messagesLimiter;
+    private final TokenBucketRateLimiter profilesRateLimiter;
+    private final TokenBucketRateLimiter messagesRateLimiter;
 
     private IOClientImpl() {
-        this.client = HttpClient.newBuilder()
+        this(HttpClient.newBuilder()
                 .version(HttpClient.Version.HTTP_2)
-                .build();
+                .build());
     }
 
     IOClientImpl(HttpClient client) {
+        this(client,
+                buildLimiter("io-profiles"), buildLimiter("io-messages"),
+                buildRateLimiter("io-profiles", IO_API_PROFILES_MAX_RPS), buildRateLimiter("io-messages", IO_API_MESSAGES_MAX_RPS));
+    }
+
+    IOClientImpl(HttpClient client,
+                 AdaptiveConcurrencyLimiter profilesLimiter,
+                 AdaptiveConcurrencyLimiter messagesLimiter,
+                 TokenBucketRateLimiter profilesRateLimiter,
+                 TokenBucketRateLimiter messagesRateLimiter) {
         this.client = client;
+        this.profilesLimiter = profilesLimiter;
+        this.messagesLimiter = messagesLimiter;
+        this.profilesRateLimiter = profilesRateLimiter;
+        this.messagesRateLimiter = messagesRateLimiter;
     }
 
     public static IOClientImpl getInstance() {
@@ -58,46 +103,140 @@ public class IOClientImpl implements IOClient {
      */
     @Override
     public HttpResponse<String> getProfile(String fiscalCodePayload) throws IOAPIException {
-        String uri = String.format("%s%s", IO_API_BASE_PATH, IO_API_PROFILES_PATH);
+        return makeCall(buildPostRequest(IO_API_PROFILES_PATH, fiscalCodePayload), this.profilesRateLimiter, this.profilesLimiter);
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(uri))
-                .version(HttpClient.Version.HTTP_2)
-                .header("Content-Type", CONTENT_TYPE_JSON)
-                .header(OCP_APIM_HEADER_KEY, OCP_APIM_SUBSCRIPTION_KEY)
-                .POST(HttpRequest.BodyPublishers.ofString(fiscalCodePayload))
-                .build();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpResponse<String> submitMessage(String messagePayload) throws IOAPIException {
+        return makeCall(buildPostRequest(IO_API_MESSAGES_PATH, messagePayload), this.messagesRateLimiter, this.messagesLimiter);
+    }
 
-        return makeCall(request);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<HttpResponse<String>> getProfileAsync(String fiscalCodePayload) {
+        return makeAsyncCall(buildPostRequest(IO_API_PROFILES_PATH, fiscalCodePayload), this.profilesRateLimiter, this.profilesLimiter);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public HttpResponse<String> submitMessage(String messagePayload) throws IOAPIException {
-        String uri = String.format("%s%s", IO_API_BASE_PATH, IO_API_MESSAGES_PATH);
+    public CompletableFuture<HttpResponse<String>> submitMessageAsync(String messagePayload) {
+        return makeAsyncCall(buildPostRequest(IO_API_MESSAGES_PATH, messagePayload), this.messagesRateLimiter, this.messagesLimiter);
+    }
+
+    private HttpRequest buildPostRequest(String path, String body) {
+        String uri = String.format("%s%s", IO_API_BASE_PATH, path);
 
-        HttpRequest request = HttpRequest.newBuilder()
+        return HttpRequest.newBuilder()
                 .uri(URI.create(uri))
                 .version(HttpClient.Version.HTTP_2)
                 .header("Content-Type", CONTENT_TYPE_JSON)
                 .header(OCP_APIM_HEADER_KEY, OCP_APIM_SUBSCRIPTION_KEY)
-                .POST(HttpRequest.BodyPublishers.ofString(messagePayload))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
                 .build();
-
-        return makeCall(request);
     }
 
-    private HttpResponse<String> makeCall(HttpRequest request) throws IOAPIException {
+    private HttpResponse<String> makeCall(HttpRequest request, TokenBucketRateLimiter rateLimiter, AdaptiveConcurrencyLimiter limiter) throws IOAPIException {
+        if (!limiter.tryAcquire()) {
+            throw new IOAPIException("IO API call rejected, concurrency limit reached", ERROR_IO_API_THROTTLED.getCode());
+        }
+        if (!rateLimiter.tryAcquire()) {
+            limiter.cancel();
+            throw new IOAPIException("IO API call rejected, rate limit reached", ERROR_IO_API_THROTTLED.getCode());
+        }
+        long start = System.nanoTime();
+        boolean dropped = true;
         try {
-            return client.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            dropped = isDropped(response);
+            return response;
         } catch (IOException e) {
             throw new IOAPIException("I/O error when invoking IO API", ERROR_IO_API_IO.getCode(), e);
         } catch (InterruptedException e) {
             logger.warn("This thread was interrupted, restoring the state");
             Thread.currentThread().interrupt();
             throw new IOAPIException("Unexpected error when invoking IO API, the thread was interrupted", ERROR_IO_API_UNEXPECTED.getCode(), e);
+        } finally {
+            limiter.release(System.nanoTime() - start, dropped);
         }
     }
+
+    /**
+     * The concurrency slot and the rate slot are awaited without blocking: the request is sent
+     * by the thread releasing the concurrency slot or by the delayed task of the rate slot
+     */
+    private CompletableFuture<HttpResponse<String>> makeAsyncCall(HttpRequest request, TokenBucketRateLimiter rateLimiter, AdaptiveConcurrencyLimiter limiter) {
+        return limiter.acquireAsync().thenCompose(acquired -> {
+            if (!Boolean.TRUE.equals(acquired)) {
+                return CompletableFuture.failedFuture(
+                        new IOAPIException("IO API call rejected, concurrency limit reached", ERROR_IO_API_THROTTLED.getCode()));
+            }
+            return rateLimiter.acquireAsync().thenCompose(granted -> {
+                if (!Boolean.TRUE.equals(granted)) {
+                    limiter.cancel();
+                    return CompletableFuture.failedFuture(
+                            new IOAPIException("IO API call rejected, rate limit reached", ERROR_IO_API_THROTTLED.getCode()));
+                }
+                return sendAsync(request, limiter);
+            });
+        });
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request, AdaptiveConcurrencyLimiter limiter) {
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<String>> future;
+        try {
+            future = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        } catch (RuntimeException e) {
+            limiter.release(System.nanoTime() - start, true);
+            throw e;
+        }
+        return future
+                .whenComplete((response, throwable) ->
+                        limiter.release(System.nanoTime() - start, throwable != null || isDropped(response)))
+                .handle((response, throwable) -> {
+                    if (throwable == null) {
+                        return response;
+                    }
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    if (cause instanceof IOException) {
+                        throw new CompletionException(
+                                new IOAPIException("I/O error when invoking IO API", ERROR_IO_API_IO.getCode(), cause));
+                    }
+                    throw new CompletionException(
+                            new IOAPIException("Unexpected error when invoking IO API", ERROR_IO_API_UNEXPECTED.getCode(), cause));
+                });
+    }
+
+    /**
+     * A call is considered dropped when IO is throttling (429) or failing (5xx),
+     * in both cases the concurrency limit has to be reduced
+     */
+    private static boolean isDropped(HttpResponse<String> response) {
+        return response != null
+                && (response.statusCode() == TOO_MANY_REQUESTS || response.statusCode() >= SERVER_ERROR);
+    }
+
+    private static AdaptiveConcurrencyLimiter buildLimiter(String name) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                IO_API_LIMITER_INITIAL_LIMIT,
+                IO_API_LIMITER_MIN_LIMIT,
+                IO_API_LIMITER_MAX_LIMIT,
+                IO_API_LIMITER_MAX_WAIT_MS
+        );
+        MetricsRegistry.register("AdaptiveLimiter", name, limiter);
+        return limiter;
+    }
+
+    private static TokenBucketRateLimiter buildRateLimiter(String name, double permitsPerSecond) {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(permitsPerSecond, IO_API_RATE_LIMIT_MAX_WAIT_MS);
+        MetricsRegistry.register("RateLimiter", name, rateLimiter);
+        return rateLimiter;
+    }
 }
@@ -1,35 +1,58 @@
 package it.gov.pagopa.receipt.pdf.notifier.client.impl;
 
 import com.azure.core.http.rest.Response;
+import com.azure.core.util.Context;
+import com.azure.storage.queue.QueueAsyncClient;
 import com.azure.storage.queue.QueueClient;
 import com.azure.storage.queue.QueueClientBuilder;
+import com.azure.storage.queue.models.QueueMessageItem;
 import com.azure.storage.queue.models.SendMessageResult;
 import it.gov.pagopa.receipt.pdf.notifier.client.NotifierCartQueueClient;
+import reactor.core.publisher.Mono;
 
 import java.time.Duration;
-import java.time.temporal.ChronoUnit;
+import java.util.List;
 
 /**
  * {@inheritDoc}
  */
 public class NotifierCartQueueClientImpl implements NotifierCartQueueClient {
 
+    /**
+     * Suffix of the poison queue, the same used by the Functions runtime for the queue triggers
+     */
+    private static final String POISON_QUEUE_SUFFIX = "-poison";
+
     private final int cartReceiptQueueDelay = Integer.parseInt(System.getenv().getOrDefault("NOTIFIER_CART_QUEUE_DELAY", "1"));
+    private final int cartReceiptQueueMaxDelay = Integer.parseInt(System.getenv().getOrDefault("NOTIFIER_CART_QUEUE_MAX_DELAY", "300"));
+    private final QueueVisibilityBackoff visibilityBackoff =
+            new QueueVisibilityBackoff(Duration.ofSeconds(cartReceiptQueueDelay), Duration.ofSeconds(cartReceiptQueueMaxDelay));
 
     private final QueueClient queueClient;
+    private final QueueAsyncClient queueAsyncClient;
+    private final QueueClient poisonQueueClient;
+    /**
+     * Whether the poison queue has already been created, creating it again is harmless
+     * so the flag is not guarded against concurrent first sends
+     */
+    private volatile boolean poisonQueueCreated;
 
     private NotifierCartQueueClientImpl() {
         String receiptQueueConnString = System.getenv("STORAGE_CONN_STRING");
         String cartReceiptQueueTopic = System.getenv("NOTIFIER_CART_QUEUE_TOPIC");
 
-        this.queueClient = new QueueClientBuilder()
+        QueueClientBuilder queueClientBuilder = new QueueClientBuilder()
                 .connectionString(receiptQueueConnString)
-                .queueName(cartReceiptQueueTopic)
-                .buildClient();
+                .queueName(cartReceiptQueueTopic);
+        this.queueClient = queueClientBuilder.buildClient();
+        this.queueAsyncClient = queueClientBuilder.buildAsyncClient();
+        this.poisonQueueClient = queueClientBuilder.queueName(cartReceiptQueueTopic + POISON_QUEUE_SUFFIX).buildClient();
     }
 
-    NotifierCartQueueClientImpl(QueueClient queueClient) {
+    NotifierCartQueueClientImpl(QueueClient queueClient, QueueAsyncClient queueAsyncClient, QueueClient poisonQueueClient) {
         this.queueClient = queueClient;
+        this.queueAsyncClient = queueAsyncClient;
+        this.poisonQueueClient = poisonQueueClient;
     }
 
     public static NotifierCartQueueClientImpl getInstance() {
@@ -47,10 +70,43 @@ public class NotifierCartQueueClientImpl implements NotifierCartQueueClient {
     /**
      * {@inheritDoc}
      */
-    public Response<SendMessageResult> sendMessageToQueue(String messageText) {
+    public Response<SendMessageResult> sendMessageToQueue(String messageText, int numRetry) {
         return this.queueClient.sendMessageWithResponse(
-                messageText, Duration.of(cartReceiptQueueDelay, ChronoUnit.SECONDS),
+                messageText, this.visibilityBackoff.delayFor(numRetry),
                 null, null, null);
 
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Mono<Response<SendMessageResult>> sendMessageToQueueAsync(String messageText, int numRetry) {
+        return this.queueAsyncClient.sendMessageWithResponse(
+                messageText, this.visibilityBackoff.delayFor(numRetry), null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<QueueMessageItem> receiveMessages(int maxMessages, Duration visibilityTimeout) {
+        return this.queueClient.receiveMessages(maxMessages, visibilityTimeout, null, Context.NONE).stream().toList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Mono<Response<Void>> deleteMessageAsync(String messageId, String popReceipt) {
+        return this.queueAsyncClient.deleteMessageWithResponse(messageId, popReceipt);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Response<SendMessageResult> sendMessageToPoisonQueue(String messageText) {
+        if (!this.poisonQueueCreated) {
+            this.poisonQueueClient.createIfNotExists();
+            this.poisonQueueCreated = true;
+        }
+        return this.poisonQueueClient.sendMessageWithResponse(messageText, null, null, null, null);
+    }
 }
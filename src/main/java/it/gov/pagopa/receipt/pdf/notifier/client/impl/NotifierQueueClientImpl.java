@@ -1,35 +1,58 @@
 package it.gov.pagopa.receipt.pdf.notifier.client.impl;
 
 import com.azure.core.http.rest.Response;
+import com.azure.core.util.Context;
+import com.azure.storage.queue.QueueAsyncClient;
 import com.azure.storage.queue.QueueClient;
 import com.azure.storage.queue.QueueClientBuilder;
+import com.azure.storage.queue.models.QueueMessageItem;
 import com.azure.storage.queue.models.SendMessageResult;
 import it.gov.pagopa.receipt.pdf.notifier.client.NotifierQueueClient;
+import reactor.core.publisher.Mono;
 
 import java.time.Duration;
-import java.time.temporal.ChronoUnit;
+import java.util.List;
 
 /**
  * Client for the Queue
  */
 public class NotifierQueueClientImpl implements NotifierQueueClient {
 
+    /**
+     * Suffix of the poison queue, the same used by the Functions runtime for the queue triggers
+     */
+    private static final String POISON_QUEUE_SUFFIX = "-poison";
+
     private final int receiptQueueDelay = Integer.parseInt(System.getenv().getOrDefault("NOTIFIER_QUEUE_DELAY", "1"));
+    private final int receiptQueueMaxDelay = Integer.parseInt(System.getenv().getOrDefault("NOTIFIER_QUEUE_MAX_DELAY", "300"));
+    private final QueueVisibilityBackoff visibilityBackoff =
+            new QueueVisibilityBackoff(Duration.ofSeconds(receiptQueueDelay), Duration.ofSeconds(receiptQueueMaxDelay));
 
     private final QueueClient queueClient;
+    private final QueueAsyncClient queueAsyncClient;
+    private final QueueClient poisonQueueClient;
+    /**
+     * Whether the poison queue has already been created, creating it again is harmless
+     * so the flag is not guarded against concurrent first sends
+     */
+    private volatile boolean poisonQueueCreated;
 
     private NotifierQueueClientImpl() {
         String receiptQueueConnString = System.getenv("STORAGE_CONN_STRING");
         String receiptQueueTopic = System.getenv("NOTIFIER_QUEUE_TOPIC");
 
-        this.queueClient = new QueueClientBuilder()
+        QueueClientBuilder queueClientBuilder = new QueueClientBuilder()
                 .connectionString(receiptQueueConnString)
-                .queueName(receiptQueueTopic)
-                .buildClient();
+                .queueName(receiptQueueTopic);
+        this.queueClient = queueClientBuilder.buildClient();
+        this.queueAsyncClient = queueClientBuilder.buildAsyncClient();
+        this.poisonQueueClient = queueClientBuilder.queueName(receiptQueueTopic + POISON_QUEUE_SUFFIX).buildClient();
     }
 
-    NotifierQueueClientImpl(QueueClient queueClient) {
+    NotifierQueueClientImpl(QueueClient queueClient, QueueAsyncClient queueAsyncClient, QueueClient poisonQueueClient) {
         this.queueClient = queueClient;
+        this.queueAsyncClient = queueAsyncClient;
+        this.poisonQueueClient = poisonQueueClient;
     }
 
     public static NotifierQueueClientImpl getInstance() {
@@ -45,15 +68,45 @@ public class NotifierQueueClientImpl implements NotifierQueueClient {
     }
 
     /**
-     * Send string message to the queue
-     *
-     * @param messageText Biz-event encoded to base64 string
-     * @return response from the queue
+     * {@inheritDoc}
      */
-    public Response<SendMessageResult> sendMessageToQueue(String messageText) {
+    public Response<SendMessageResult> sendMessageToQueue(String messageText, int numRetry) {
         return this.queueClient.sendMessageWithResponse(
-                messageText, Duration.of(receiptQueueDelay, ChronoUnit.SECONDS),
+                messageText, this.visibilityBackoff.delayFor(numRetry),
                 null, null, null);
 
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Mono<Response<SendMessageResult>> sendMessageToQueueAsync(String messageText, int numRetry) {
+        return this.queueAsyncClient.sendMessageWithResponse(
+                messageText, this.visibilityBackoff.delayFor(numRetry), null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<QueueMessageItem> receiveMessages(int maxMessages, Duration visibilityTimeout) {
+        return this.queueClient.receiveMessages(maxMessages, visibilityTimeout, null, Context.NONE).stream().toList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Mono<Response<Void>> deleteMessageAsync(String messageId, String popReceipt) {
+        return this.queueAsyncClient.deleteMessageWithResponse(messageId, popReceipt);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Response<SendMessageResult> sendMessageToPoisonQueue(String messageText) {
+        if (!this.poisonQueueCreated) {
+            this.poisonQueueClient.createIfNotExists();
+            this.poisonQueueCreated = true;
+        }
+        return this.poisonQueueClient.sendMessageWithResponse(messageText, null, null, null, null);
+    }
 }
@@ -0,0 +1,40 @@
+package it.gov.pagopa.receipt.pdf.notifier.client.impl;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes the visibility delay of the messages sent to the retry queues.
+ * <p>
+ * The delay grows exponentially with the number of retries of the document, starting from the base delay
+ * and capped at the max delay. Half of the delay is randomized, so the receipts failed together during
+ * an outage are not retried all at the same time.
+ */
+class QueueVisibilityBackoff {
+
+    /**
+     * Max exponent of the backoff, beyond it the delay is anyway capped
+     */
+    private static final int MAX_EXPONENT = 30;
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    QueueVisibilityBackoff(Duration baseDelay, Duration maxDelay) {
+        this.baseDelayMillis = baseDelay.toMillis();
+        this.maxDelayMillis = Math.max(maxDelay.toMillis(), this.baseDelayMillis);
+    }
+
+    /**
+     * Compute the visibility delay of the message of a document
+     *
+     * @param numRetry the number of retries of the document, including the one being requeued
+     * @return the visibility delay, between the half and the whole of the backoff delay
+     */
+    Duration delayFor(int numRetry) {
+        int exponent = Math.min(Math.max(numRetry - 1, 0), MAX_EXPONENT);
+        long delayMillis = Math.min(this.baseDelayMillis << exponent, this.maxDelayMillis);
+        long halfDelayMillis = delayMillis / 2;
+        return Duration.ofMillis(halfDelayMillis + ThreadLocalRandom.current().nextLong(delayMillis - halfDelayMillis + 1));
+    }
+}
@@ -1,45 +1,81 @@
 package it.gov.pagopa.receipt.pdf.notifier.client.impl;
 
-import com.azure.cosmos.CosmosClientBuilder;
-import com.azure.cosmos.CosmosContainer;
-import com.azure.cosmos.CosmosDatabase;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.CosmosPatchOperations;
 import com.azure.cosmos.models.CosmosQueryRequestOptions;
 import com.azure.cosmos.models.PartitionKey;
 import com.azure.cosmos.models.SqlParameter;
 import com.azure.cosmos.models.SqlQuerySpec;
+import it.gov.pagopa.receipt.pdf.notifier.cache.RecentWritesIndex;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
 import it.gov.pagopa.receipt.pdf.notifier.client.ReceiptCosmosClient;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.IOMessage;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.IOMessageData;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReceiptStatusType;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IoMessageNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.limiter.DependencyBulkhead;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.CosmosMetrics;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
+import org.apache.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+
+import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.mergeNotifyStatus;
 
 /**
  * {@inheritDoc}
  */
 public class ReceiptCosmosClientImpl implements ReceiptCosmosClient {
 
-    private final CosmosContainer ioMessageContainer;
+    private static final boolean IO_MESSAGE_LEGACY_LOOKUP_ENABLED =
+            Boolean.parseBoolean(System.getenv().getOrDefault("COSMOS_IO_MESSAGE_LEGACY_LOOKUP_ENABLED", "true"));
 
-    @SuppressWarnings("resource") // CosmosClient lifecycle == singleton lifecycle; never closed on purpose
-    private ReceiptCosmosClientImpl() {
-        String azureKey = System.getenv("COSMOS_RECEIPT_KEY");
-        String serviceEndpoint = System.getenv("COSMOS_RECEIPT_SERVICE_ENDPOINT");
+    /**
+     * Max number of event ids looked up by a single query
+     */
+    private static final int EVENT_IDS_PER_QUERY = 100;
 
-        String databaseId = System.getenv("COSMOS_RECEIPT_DB_NAME");
-        String containerMessageId = System.getenv("COSMOS_RECEIPT_MESSAGE_CONTAINER_NAME");
+    private static final String NOT_FOUND_MESSAGE = "Document not found in the defined container";
 
-        CosmosDatabase cosmosDatabase = new CosmosClientBuilder()
-                .endpoint(serviceEndpoint)
-                .key(azureKey)
-                .buildClient()
-                .getDatabase(databaseId);
+    private static final DocumentPatchSpec<Receipt> RECEIPT_PATCH = new DocumentPatchSpec<>(
+            Receipt.class,
+            Receipt::getId,
+            Receipt::getEtag,
+            receipt -> List.of(buildReceiptPatch(receipt)),
+            ReceiptCosmosClientImpl::mergeReceipt
+    );
 
-        this.ioMessageContainer = cosmosDatabase.getContainer(containerMessageId);
+    private final CosmosAsyncContainer ioMessageContainer;
+    private final String ioMessageContainerName;
+    private final CosmosAsyncContainer receiptContainer;
+    private final String receiptContainerName;
+    private final boolean legacyLookupEnabled;
+
+    private ReceiptCosmosClientImpl() {
+        this(CosmosClientFactory.getInstance().getContainer(System.getenv("COSMOS_RECEIPT_MESSAGE_CONTAINER_NAME")),
+                CosmosClientFactory.getInstance().getContainer(System.getenv().getOrDefault("COSMOS_RECEIPT_CONTAINER_NAME", "receipts")),
+                IO_MESSAGE_LEGACY_LOOKUP_ENABLED);
     }
 
-    ReceiptCosmosClientImpl(CosmosContainer ioMessageContainer) {
+    ReceiptCosmosClientImpl(
+            CosmosAsyncContainer ioMessageContainer,
+            CosmosAsyncContainer receiptContainer,
+            boolean legacyLookupEnabled
+    ) {
         this.ioMessageContainer = ioMessageContainer;
+        this.ioMessageContainerName = ioMessageContainer.getId();
+        this.receiptContainer = receiptContainer;
+        this.receiptContainerName = receiptContainer.getId();
+        this.legacyLookupEnabled = legacyLookupEnabled;
     }
 
     public static ReceiptCosmosClientImpl getInstance() {
@@ -58,10 +94,182 @@ public class ReceiptCosmosClientImpl implements ReceiptCosmosClient {
      * {@inheritDoc}
      */
     @Override
+    public Receipt getReceiptDocument(String id, String partitionKey) throws ReceiptNotFoundException {
+        Receipt receipt = DependencyBulkhead.COSMOS.limiter().call(() -> CosmosMetrics.item(receiptContainerName, "readItem",
+                        receiptContainer.readItem(id, new PartitionKey(partitionKey), Receipt.class))
+                .map(CosmosItemResponse::getItem)
+                .onErrorResume(ReceiptCosmosClientImpl::isNotFound, e -> Mono.empty())
+                .block());
+        if (receipt == null) {
+            throw new ReceiptNotFoundException(NOT_FOUND_MESSAGE);
+        }
+        return receipt;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The message is looked up with a point read on its deterministic id, messages written
+     * before the adoption of deterministic ids are looked up by query if the legacy lookup is enabled
+     */
+    @Override
     public IOMessage findIOMessageWithEventIdAndUserType(
             String eventId,
             UserType userType
     ) throws IoMessageNotFoundException {
+        IOMessage ioMessage = DependencyBulkhead.COSMOS.limiter().call(() -> findIOMessage(eventId, userType).block());
+        if (ioMessage == null) {
+            throw new IoMessageNotFoundException(NOT_FOUND_MESSAGE);
+        }
+        return ioMessage;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The event ids are looked up in chunks, each chunk with a single query projecting only the fields needed
+     */
+    @Override
+    public List<IOMessage> findIOMessagesWithEventIds(List<String> eventIds) {
+        return DependencyBulkhead.COSMOS.limiter().call(() -> findIOMessages(eventIds).block());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only status, IO message data, notification date, retry counter and errors are written,
+     * conditioned on the receipt etag
+     */
+    @Override
+    public List<Receipt> patchReceipts(List<Receipt> receipts) {
+        return CosmosDocumentPatcher.patchAll(receiptContainer, receiptContainerName, receipts, RECEIPT_PATCH);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BulkWriter<Receipt> newReceiptBulkWriter() {
+        RecentWritesIndex recentWrites = RecentWritesIndex.forContainer(receiptContainerName);
+        return new CosmosBulkWriter<>(receiptContainer, receiptContainerName, "bulkPatch",
+                RECEIPT_PATCH::buildBulkOperation,
+                receipt -> CosmosDocumentPatcher.resolveConflict(
+                        receiptContainer, receiptContainerName, receipt, RECEIPT_PATCH, recentWrites),
+                recentWrites);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BulkWriter<Receipt> newReceiptRetryBulkWriter() {
+        return new CosmosBulkWriter<>(receiptContainer, receiptContainerName, "bulkUpsert",
+                RECEIPT_PATCH::buildBulkUpsertOperation,
+                receipt -> CosmosDocumentPatcher.resolveConflict(
+                        receiptContainer, receiptContainerName, receipt, RECEIPT_PATCH, null),
+                null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BulkWriter<IOMessage> newIOMessageBulkWriter() {
+        return new CosmosBulkWriter<>(ioMessageContainer, ioMessageContainerName, "bulkUpsert",
+                ioMessage -> CosmosBulkOperations.getUpsertItemOperation(
+                        ioMessage, new PartitionKey(ioMessage.getEventId()), ioMessage),
+                null,
+                null);
+    }
+
+    static CosmosPatchOperations buildReceiptPatch(Receipt receipt) {
+        return CosmosPatchOperations.create()
+                .set("/status", receipt.getStatus())
+                .set("/ioMessageData", receipt.getIoMessageData())
+                .set("/notified_at", receipt.getNotified_at())
+                .set("/notificationNumRetry", receipt.getNotificationNumRetry())
+                .set("/reasonErr", receipt.getReasonErr())
+                .set("/reasonErrPayer", receipt.getReasonErrPayer())
+                .set("/notifyStatusDebtor", receipt.getNotifyStatusDebtor())
+                .set("/notifyStatusPayer", receipt.getNotifyStatusPayer());
+    }
+
+    /**
+     * Merge the receipt processed by the notifier into its current version: the notification is skipped
+     * if the receipt has already been notified by a concurrent run, otherwise the notifier fields are
+     * patched again on the current version, keeping the IO message ids and the completed user statuses it already records
+     */
+    static Receipt mergeReceipt(Receipt current, Receipt processed) {
+        if (ReceiptStatusType.IO_NOTIFIED.equals(current.getStatus())) {
+            return null;
+        }
+        IOMessageData currentMessageData = current.getIoMessageData();
+        if (currentMessageData != null) {
+            IOMessageData messageData = processed.getIoMessageData();
+            if (messageData == null) {
+                processed.setIoMessageData(currentMessageData);
+            } else {
+                if (messageData.getIdMessageDebtor() == null) {
+                    messageData.setIdMessageDebtor(currentMessageData.getIdMessageDebtor());
+                }
+                if (messageData.getIdMessagePayer() == null) {
+                    messageData.setIdMessagePayer(currentMessageData.getIdMessagePayer());
+                }
+            }
+        }
+        processed.setNotifyStatusDebtor(mergeNotifyStatus(current.getNotifyStatusDebtor(), processed.getNotifyStatusDebtor()));
+        processed.setNotifyStatusPayer(mergeNotifyStatus(current.getNotifyStatusPayer(), processed.getNotifyStatusPayer()));
+        processed.setEtag(current.getEtag());
+        return processed;
+    }
+
+    private Mono<IOMessage> findIOMessage(String eventId, UserType userType) {
+        Mono<IOMessage> ioMessage = readIOMessage(eventId, userType);
+        if (!this.legacyLookupEnabled) {
+            return ioMessage;
+        }
+        return ioMessage.switchIfEmpty(Mono.defer(() -> queryIOMessage(eventId, userType)));
+    }
+
+    private Mono<List<IOMessage>> findIOMessages(List<String> eventIds) {
+        List<SqlQuerySpec> querySpecs = new ArrayList<>();
+        for (int from = 0; from < eventIds.size(); from += EVENT_IDS_PER_QUERY) {
+            querySpecs.add(buildEventIdsQuery(eventIds.subList(from, Math.min(from + EVENT_IDS_PER_QUERY, eventIds.size()))));
+        }
+        return Flux.fromIterable(querySpecs)
+                .concatMap(querySpec -> CosmosMetrics.query(ioMessageContainerName, "queryByEventIds",
+                        ioMessageContainer.queryItems(querySpec, new CosmosQueryRequestOptions(), IOMessage.class)))
+                .collectList()
+                .map(chunks -> chunks.stream().flatMap(List::stream).toList());
+    }
+
+    private SqlQuerySpec buildEventIdsQuery(List<String> chunk) {
+        List<SqlParameter> parameters = new ArrayList<>(chunk.size());
+        StringBuilder inClause = new StringBuilder();
+        for (int i = 0; i < chunk.size(); i++) {
+            String parameterName = "@eventId" + i;
+            parameters.add(new SqlParameter(parameterName, chunk.get(i)));
+            inClause.append(i == 0 ? "" : ", ").append(parameterName);
+        }
+        return new SqlQuerySpec(
+                "SELECT c.id, c.eventId, c.userType, c.messageId FROM c WHERE c.eventId IN (" + inClause + ")",
+                parameters
+        );
+    }
+
+    private Mono<IOMessage> readIOMessage(String eventId, UserType userType) {
+        String id = IOMessage.buildId(eventId, userType);
+        return CosmosMetrics.item(ioMessageContainerName, "readItem",
+                        ioMessageContainer.readItem(id, new PartitionKey(eventId), IOMessage.class))
+                .map(CosmosItemResponse::getItem)
+                .onErrorResume(ReceiptCosmosClientImpl::isNotFound, e -> Mono.empty());
+    }
+
+    private static boolean isNotFound(Throwable throwable) {
+        return throwable instanceof CosmosException cosmosException && cosmosException.getStatusCode() == HttpStatus.SC_NOT_FOUND;
+    }
+
+    private Mono<IOMessage> queryIOMessage(String eventId, UserType userType) {
         //Build query
         SqlQuerySpec querySpec = new SqlQuerySpec(
                 "SELECT * FROM c WHERE c.eventId = @eventId AND c.userType = @userType ",
@@ -74,10 +282,8 @@ public class ReceiptCosmosClientImpl implements ReceiptCosmosClient {
         options.setPartitionKey(new PartitionKey(eventId));
 
         //Query the container
-        return ioMessageContainer
-                .queryItems(querySpec, options, IOMessage.class)
-                .stream()
-                .findFirst()
-                .orElseThrow(() -> new IoMessageNotFoundException("Document not found in the defined container"));
+        return CosmosMetrics.query(ioMessageContainerName, "queryByEventIdAndUserType",
+                        ioMessageContainer.queryItems(querySpec, options, IOMessage.class))
+                .flatMap(ioMessages -> Mono.justOrEmpty(ioMessages.stream().findFirst()));
     }
 }
@@ -1,5 +1,6 @@
 package it.gov.pagopa.receipt.pdf.notifier.entity.cart;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.ReasonError;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -23,4 +24,10 @@ public class CartForReceipt {
     private long inserted_at;
     private long generated_at;
     private long notified_at;
+    /**
+     * Bound only by Jackson, transient so that the Functions worker neither expects
+     * nor writes an <code>etag</code> property
+     */
+    @JsonProperty("_etag")
+    private transient String etag;
 }
@@ -2,6 +2,7 @@ package it.gov.pagopa.receipt.pdf.notifier.entity.cart;
 
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.ReasonError;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.ReceiptMetadata;
+import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -20,5 +21,6 @@ public class CartPayment {
     private ReceiptMetadata mdAttach;
     private MessageData messageDebtor;
     private ReasonError reasonErrDebtor;
+    private UserNotifyStatus notifyStatusDebtor;
 
 }
@@ -2,6 +2,7 @@ package it.gov.pagopa.receipt.pdf.notifier.entity.cart;
 
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.ReasonError;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.ReceiptMetadata;
+import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -22,5 +23,6 @@ public class Payload {
     private MessageData messagePayer;
     private List<CartPayment> cart;
     private ReasonError reasonErrPayer;
+    private UserNotifyStatus notifyStatusPayer;
 
 }
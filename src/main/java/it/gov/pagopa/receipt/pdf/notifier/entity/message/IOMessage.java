@@ -13,4 +13,16 @@ public class IOMessage {
     String messageId;
     String eventId;
     UserType userType;
+
+    /**
+     * Build the deterministic document id of the IO message sent for the given receipt event and user,
+     * one document exists per pair so writing it again is an idempotent upsert
+     *
+     * @param eventId  the receipt event id, partition key of the container
+     * @param userType the recipient of the message
+     * @return the document id
+     */
+    public static String buildId(String eventId, UserType userType) {
+        return String.format("%s:%s", eventId, userType);
+    }
 }
@@ -1,6 +1,8 @@
 package it.gov.pagopa.receipt.pdf.notifier.entity.receipt;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReceiptStatusType;
+import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -21,8 +23,16 @@ public class Receipt {
     private int numRetry;
     private ReasonError reasonErr;
     private ReasonError reasonErrPayer;
+    private UserNotifyStatus notifyStatusDebtor;
+    private UserNotifyStatus notifyStatusPayer;
     private int notificationNumRetry;
     private long inserted_at;
     private long generated_at;
     private long notified_at;
+    /**
+     * Bound only by Jackson, transient so that the Functions worker neither expects
+     * nor writes an <code>etag</code> property
+     */
+    @JsonProperty("_etag")
+    private transient String etag;
 }
@@ -5,7 +5,8 @@ public enum ReasonErrorCode {
     ERROR_PDV_UNEXPECTED(801),
     ERROR_PDV_MAPPING(802),
     ERROR_IO_API_IO(803),
-    ERROR_IO_API_UNEXPECTED(804);
+    ERROR_IO_API_UNEXPECTED(804),
+    ERROR_IO_API_THROTTLED(805);
 
     private final int code;
 
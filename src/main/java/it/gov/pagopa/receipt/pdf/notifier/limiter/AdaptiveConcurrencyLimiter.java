@@ -0,0 +1,222 @@
+package it.gov.pagopa.receipt.pdf.notifier.limiter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD (additive increase, multiplicative decrease) concurrency limiter.
+ * <p>
+ * The limit of concurrent calls grows by roughly one every time a full window of calls
+ * completes with a latency in line with the baseline, and it is cut by {@link #BACKOFF_RATIO}
+ * when a call is throttled (429), fails on the server side (5xx) or shows a latency spike.
+ * Callers wait up to the configured max wait for a free slot, then the call is rejected:
+ * blocking callers wait on the calling thread, asynchronous callers are queued and granted
+ * the slot by the thread releasing it, without blocking any thread.
+ */
+public class AdaptiveConcurrencyLimiter implements AdaptiveConcurrencyLimiterMXBean {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BASELINE_SMOOTHING = 0.05;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotReleased = lock.newCondition();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder limitDecreaseCount = new LongAdder();
+    private final Deque<CompletableFuture<Boolean>> pending = new ArrayDeque<>();
+
+    private double limit;
+    private int inFlight;
+    private double baselineLatencyNanos;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long maxWaitMillis) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Wait for a free slot, up to the configured max wait
+     *
+     * @return <code>true</code> if the slot has been acquired, <code>false</code> if the call is rejected
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            long remainingNanos = this.maxWaitNanos;
+            while (this.inFlight >= (int) this.limit) {
+                if (remainingNanos <= 0L) {
+                    this.rejectedCount.increment();
+                    return false;
+                }
+                remainingNanos = this.slotReleased.awaitNanos(remainingNanos);
+            }
+            this.inFlight++;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.rejectedCount.increment();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Acquire a free slot without blocking the calling thread: if the limit is reached the caller is queued
+     * and granted the next released slot, up to the configured max wait
+     *
+     * @return the future completed with <code>true</code> once the slot has been acquired,
+     * with <code>false</code> if the call is rejected
+     */
+    public CompletableFuture<Boolean> acquireAsync() {
+        CompletableFuture<Boolean> waiter = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (this.pending.isEmpty() && this.inFlight < (int) this.limit) {
+                this.inFlight++;
+                return CompletableFuture.completedFuture(true);
+            }
+            if (this.maxWaitNanos <= 0L) {
+                this.rejectedCount.increment();
+                return CompletableFuture.completedFuture(false);
+            }
+            this.pending.add(waiter);
+        } finally {
+            lock.unlock();
+        }
+        CompletableFuture.delayedExecutor(this.maxWaitNanos, TimeUnit.NANOSECONDS).execute(() -> expire(waiter));
+        return waiter;
+    }
+
+    /**
+     * Reject the queued caller if it has not been granted a slot within the max wait
+     */
+    private void expire(CompletableFuture<Boolean> waiter) {
+        lock.lock();
+        try {
+            if (!this.pending.remove(waiter)) {
+                return;
+            }
+            this.rejectedCount.increment();
+        } finally {
+            lock.unlock();
+        }
+        waiter.complete(false);
+    }
+
+    /**
+     * Release the slot of a call that has not been sent, without adapting the limit
+     */
+    public void cancel() {
+        List<CompletableFuture<Boolean>> granted;
+        lock.lock();
+        try {
+            this.inFlight--;
+            granted = grantPending();
+            this.slotReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        granted.forEach(waiter -> waiter.complete(true));
+    }
+
+    /**
+     * Release the slot of a completed call and adapt the limit to its outcome
+     *
+     * @param latencyNanos the latency of the call
+     * @param dropped      <code>true</code> if the call has been throttled or failed because of the dependency
+     */
+    public void release(long latencyNanos, boolean dropped) {
+        List<CompletableFuture<Boolean>> granted;
+        lock.lock();
+        try {
+            this.inFlight--;
+            boolean latencySpike = this.baselineLatencyNanos > 0 && latencyNanos > this.baselineLatencyNanos * LATENCY_TOLERANCE;
+            if (dropped || latencySpike) {
+                double reduced = Math.max(this.minLimit, this.limit * BACKOFF_RATIO);
+                if (reduced < this.limit) {
+                    this.limitDecreaseCount.increment();
+                }
+                this.limit = reduced;
+            } else {
+                this.limit = Math.min(this.maxLimit, this.limit + 1.0 / this.limit);
+            }
+            if (!dropped) {
+                this.baselineLatencyNanos = this.baselineLatencyNanos == 0
+                        ? latencyNanos
+                        : this.baselineLatencyNanos + BASELINE_SMOOTHING * (latencyNanos - this.baselineLatencyNanos);
+            }
+            granted = grantPending();
+            this.slotReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        granted.forEach(waiter -> waiter.complete(true));
+    }
+
+    /**
+     * Hand the free slots to the queued callers, in arrival order. The callers are completed
+     * once the lock is released, so their continuations do not run while holding it
+     */
+    private List<CompletableFuture<Boolean>> grantPending() {
+        List<CompletableFuture<Boolean>> granted = new ArrayList<>();
+        while (!this.pending.isEmpty() && this.inFlight < (int) this.limit) {
+            this.inFlight++;
+            granted.add(this.pending.poll());
+        }
+        return granted;
+    }
+
+    @Override
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) this.limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+
+    @Override
+    public long getLimitDecreaseCount() {
+        return this.limitDecreaseCount.sum();
+    }
+
+    @Override
+    public double getBaselineLatencyMillis() {
+        lock.lock();
+        try {
+            return this.baselineLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
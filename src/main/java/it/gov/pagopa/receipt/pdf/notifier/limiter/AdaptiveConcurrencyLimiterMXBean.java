@@ -0,0 +1,32 @@
+package it.gov.pagopa.receipt.pdf.notifier.limiter;
+
+/**
+ * JMX view of an {@link AdaptiveConcurrencyLimiter}
+ */
+public interface AdaptiveConcurrencyLimiterMXBean {
+
+    /**
+     * @return the current limit of concurrent calls
+     */
+    int getLimit();
+
+    /**
+     * @return the number of calls currently in flight
+     */
+    int getInFlight();
+
+    /**
+     * @return the total number of calls rejected because the limit was not released in time
+     */
+    long getRejectedCount();
+
+    /**
+     * @return the total number of times the limit has been reduced
+     */
+    long getLimitDecreaseCount();
+
+    /**
+     * @return the smoothed latency, in milliseconds, used as baseline to detect latency spikes
+     */
+    double getBaselineLatencyMillis();
+}
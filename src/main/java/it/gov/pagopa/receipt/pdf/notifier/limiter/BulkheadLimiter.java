@@ -0,0 +1,202 @@
+package it.gov.pagopa.receipt.pdf.notifier.limiter;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the number of concurrent calls to a downstream dependency.
+ * <p>
+ * Calls exceeding the limit wait in the bulkhead queue (FIFO) until a permit is released,
+ * so a slow dependency backs up only the calls directed to it. Blocking calls wait on the
+ * calling thread, asynchronous calls are queued without blocking any thread.
+ */
+public class BulkheadLimiter implements BulkheadLimiterMXBean {
+
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Queue<PendingCall> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private final LongAdder acquiredCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicInteger maxWaitMillis = new AtomicInteger();
+
+    public BulkheadLimiter(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    /**
+     * Execute the provided call as soon as a permit is available
+     *
+     * @param call the call to execute
+     * @param <T>  the type of the call result
+     * @param <E>  the type of the exception thrown by the call
+     * @return the call result
+     * @throws E if the call fails
+     */
+    public <T, E extends Exception> T call(BulkheadCall<T, E> call) throws E {
+        acquire();
+        try {
+            return call.execute();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Start the provided asynchronous call as soon as a permit is available,
+     * the permit is released when the call completes.
+     * <p>
+     * The calling thread is never blocked: if no permit is available the call is queued
+     * and started by the thread releasing the next permit.
+     *
+     * @param call the asynchronous call to start
+     * @param <T>  the type of the call result
+     * @return the future result of the call
+     */
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        PendingCall pendingCall = new PendingCall(() -> start(call, result));
+        if (this.permits.tryAcquire()) {
+            pendingCall.run();
+            return result;
+        }
+        this.waiting.incrementAndGet();
+        this.pending.add(pendingCall);
+        drainPending();
+        return result;
+    }
+
+    private <T> void start(Supplier<CompletableFuture<T>> call, CompletableFuture<T> result) {
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            release();
+            result.completeExceptionally(e);
+            return;
+        }
+        future.whenComplete((value, throwable) -> {
+            release();
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(value);
+            }
+        });
+    }
+
+    private void release() {
+        this.permits.release();
+        drainPending();
+    }
+
+    /**
+     * Start the queued calls while permits are available. Only one thread at a time drains the queue,
+     * the requests arriving meanwhile are served by the same loop, so calls completing synchronously
+     * do not recurse into it.
+     */
+    private void drainPending() {
+        if (this.drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (!this.pending.isEmpty() && this.permits.tryAcquire()) {
+                PendingCall pendingCall = this.pending.poll();
+                if (pendingCall == null) {
+                    this.permits.release();
+                    continue;
+                }
+                this.waiting.decrementAndGet();
+                pendingCall.run();
+            }
+            missed = this.drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void acquire() {
+        long start = System.nanoTime();
+        this.waiting.incrementAndGet();
+        try {
+            this.permits.acquireUninterruptibly();
+        } finally {
+            this.waiting.decrementAndGet();
+        }
+        recordAcquired(start);
+    }
+
+    private void recordAcquired(long start) {
+        long waitNanos = System.nanoTime() - start;
+        this.acquiredCount.increment();
+        this.totalWaitNanos.add(waitNanos);
+        this.maxWaitMillis.accumulateAndGet((int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(waitNanos)), Math::max);
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return this.maxConcurrency;
+    }
+
+    @Override
+    public int getInFlight() {
+        return this.maxConcurrency - this.permits.availablePermits();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return this.waiting.get();
+    }
+
+    @Override
+    public long getAcquiredCount() {
+        return this.acquiredCount.sum();
+    }
+
+    @Override
+    public long getTotalWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.totalWaitNanos.sum());
+    }
+
+    @Override
+    public long getMaxWaitTimeMillis() {
+        return this.maxWaitMillis.get();
+    }
+
+    /**
+     * An asynchronous call waiting for a permit, its wait is recorded once started
+     */
+    private final class PendingCall implements Runnable {
+
+        private final long enqueuedNanos = System.nanoTime();
+        private final Runnable start;
+
+        private PendingCall(Runnable start) {
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            recordAcquired(this.enqueuedNanos);
+            this.start.run();
+        }
+    }
+
+    /**
+     * A call executed inside a bulkhead
+     *
+     * @param <T> the type of the call result
+     * @param <E> the type of the exception thrown by the call
+     */
+    @FunctionalInterface
+    public interface BulkheadCall<T, E extends Exception> {
+        T execute() throws E;
+    }
+}
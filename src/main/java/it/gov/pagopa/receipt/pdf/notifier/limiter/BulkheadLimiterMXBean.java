@@ -0,0 +1,37 @@
+package it.gov.pagopa.receipt.pdf.notifier.limiter;
+
+/**
+ * JMX view of a {@link BulkheadLimiter}
+ */
+public interface BulkheadLimiterMXBean {
+
+    /**
+     * @return the max number of concurrent calls allowed to the dependency
+     */
+    int getMaxConcurrency();
+
+    /**
+     * @return the number of calls currently executing against the dependency
+     */
+    int getInFlight();
+
+    /**
+     * @return the number of calls currently waiting to enter the bulkhead
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the total number of calls that entered the bulkhead
+     */
+    long getAcquiredCount();
+
+    /**
+     * @return the cumulative time, in milliseconds, spent by the calls waiting to enter the bulkhead
+     */
+    long getTotalWaitTimeMillis();
+
+    /**
+     * @return the max time, in milliseconds, spent by a call waiting to enter the bulkhead
+     */
+    long getMaxWaitTimeMillis();
+}
@@ -0,0 +1,33 @@
+package it.gov.pagopa.receipt.pdf.notifier.limiter;
+
+import it.gov.pagopa.receipt.pdf.notifier.metrics.MetricsRegistry;
+
+/**
+ * Concurrency caps, one for each downstream dependency.
+ * <p>
+ * Every dependency has its own queue and concurrency limit, configured with the
+ * <code>BULKHEAD_[DEPENDENCY]_MAX_CONCURRENCY</code> environment variable, so a slow
+ * dependency cannot take all the threads of the batch. The calls still run on the
+ * thread or the asynchronous chain that issues them, there is no hand-off between
+ * dedicated executors.
+ */
+public enum DependencyBulkhead {
+
+    PDV("20"),
+    COSMOS("32"),
+    IO_PROFILES("20"),
+    IO_MESSAGES("20");
+
+    private final BulkheadLimiter limiter;
+
+    DependencyBulkhead(String defaultMaxConcurrency) {
+        int maxConcurrency = Integer.parseInt(System.getenv()
+                .getOrDefault(String.format("BULKHEAD_%s_MAX_CONCURRENCY", name()), defaultMaxConcurrency));
+        this.limiter = new BulkheadLimiter(maxConcurrency);
+        MetricsRegistry.register("DependencyBulkhead", name(), this.limiter);
+    }
+
+    public BulkheadLimiter limiter() {
+        return this.limiter;
+    }
+}
@@ -0,0 +1,128 @@
+package it.gov.pagopa.receipt.pdf.notifier.limiter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Smooth token-bucket rate limiter.
+ * <p>
+ * Permits are handed out evenly spaced at the configured rate, without bursts: each caller
+ * reserves the next free slot and waits for it. If the slot is farther than the configured
+ * max wait the call is rejected without consuming any permit, so the budget is left to the
+ * callers that can still make it. A rate of 0 (or less) disables the limiter.
+ * <p>
+ * Blocking callers park until their slot, asynchronous callers get a future completed
+ * at the slot time by a delayed task, without holding any thread.
+ */
+public class TokenBucketRateLimiter implements TokenBucketRateLimiterMXBean {
+
+    private final double permitsPerSecond;
+    private final long intervalNanos;
+    private final long maxWaitNanos;
+
+    private final LongAdder acquiredCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    private long nextFreeSlotNanos = System.nanoTime();
+
+    public TokenBucketRateLimiter(double permitsPerSecond, long maxWaitMillis) {
+        this.permitsPerSecond = Math.max(0, permitsPerSecond);
+        this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0L;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Wait for a permit, up to the configured max wait
+     *
+     * @return <code>true</code> if the permit has been granted, <code>false</code> if the call is rejected
+     */
+    public boolean tryAcquire() {
+        if (this.intervalNanos == 0L) {
+            this.acquiredCount.increment();
+            return true;
+        }
+
+        long waitNanos = reserve();
+        if (waitNanos < 0) {
+            this.rejectedCount.increment();
+            return false;
+        }
+
+        long deadline = System.nanoTime() + waitNanos;
+        long remaining = waitNanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                this.rejectedCount.increment();
+                return false;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        this.totalWaitNanos.add(waitNanos);
+        this.acquiredCount.increment();
+        return true;
+    }
+
+    /**
+     * Reserve a permit without blocking the calling thread, up to the configured max wait
+     *
+     * @return the future completed with <code>true</code> at the time of the reserved slot,
+     * or already completed with <code>false</code> if the call is rejected
+     */
+    public CompletableFuture<Boolean> acquireAsync() {
+        if (this.intervalNanos == 0L) {
+            this.acquiredCount.increment();
+            return CompletableFuture.completedFuture(true);
+        }
+
+        long waitNanos = reserve();
+        if (waitNanos < 0) {
+            this.rejectedCount.increment();
+            return CompletableFuture.completedFuture(false);
+        }
+
+        this.totalWaitNanos.add(waitNanos);
+        this.acquiredCount.increment();
+        if (waitNanos == 0L) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return CompletableFuture.supplyAsync(() -> true, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * @return the time to wait for the reserved slot, -1 if it cannot be reserved within the max wait
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        long slot = Math.max(this.nextFreeSlotNanos, now);
+        long waitNanos = slot - now;
+        if (waitNanos > this.maxWaitNanos) {
+            return -1L;
+        }
+        this.nextFreeSlotNanos = slot + this.intervalNanos;
+        return waitNanos;
+    }
+
+    @Override
+    public double getPermitsPerSecond() {
+        return this.permitsPerSecond;
+    }
+
+    @Override
+    public long getAcquiredCount() {
+        return this.acquiredCount.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+
+    @Override
+    public long getTotalWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.totalWaitNanos.sum());
+    }
+}
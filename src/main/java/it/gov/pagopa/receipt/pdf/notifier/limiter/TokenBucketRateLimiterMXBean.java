@@ -0,0 +1,27 @@
+package it.gov.pagopa.receipt.pdf.notifier.limiter;
+
+/**
+ * JMX view of a {@link TokenBucketRateLimiter}
+ */
+public interface TokenBucketRateLimiterMXBean {
+
+    /**
+     * @return the configured permits per second, 0 if the limiter is disabled
+     */
+    double getPermitsPerSecond();
+
+    /**
+     * @return the total number of permits granted
+     */
+    long getAcquiredCount();
+
+    /**
+     * @return the total number of calls rejected because no permit was available before the deadline
+     */
+    long getRejectedCount();
+
+    /**
+     * @return the cumulative time, in milliseconds, spent by the callers waiting for a permit
+     */
+    long getTotalWaitTimeMillis();
+}
@@ -0,0 +1,35 @@
+package it.gov.pagopa.receipt.pdf.notifier.metrics;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+/**
+ * Exposes the statistics of a Caffeine cache built with <code>recordStats()</code>
+ */
+public class CacheMetrics implements CacheMetricsMXBean {
+
+    private final Cache<?, ?> cache;
+
+    public CacheMetrics(Cache<?, ?> cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public long getHitCount() {
+        return this.cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return this.cache.stats().missCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return this.cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getSize() {
+        return this.cache.estimatedSize();
+    }
+}
@@ -0,0 +1,27 @@
+package it.gov.pagopa.receipt.pdf.notifier.metrics;
+
+/**
+ * JMX view of the statistics of an in-memory cache
+ */
+public interface CacheMetricsMXBean {
+
+    /**
+     * @return the number of lookups that found a cached value
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of lookups that did not find a cached value
+     */
+    long getMissCount();
+
+    /**
+     * @return the number of entries evicted because of size or expiration
+     */
+    long getEvictionCount();
+
+    /**
+     * @return the approximate number of cached entries
+     */
+    long getSize();
+}
@@ -0,0 +1,166 @@
+package it.gov.pagopa.receipt.pdf.notifier.metrics;
+
+import com.azure.cosmos.CosmosDiagnostics;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosBatchResponse;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.util.CosmosPagedFlux;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instruments the CosmosDB calls, publishing request charge and latency per container and operation
+ * as {@link CosmosOperationMetrics} MXBeans.
+ * <p>
+ * The diagnostics of the calls slower than <code>COSMOS_DIAGNOSTICS_THRESHOLD_MS</code> are logged,
+ * sampled with the <code>COSMOS_DIAGNOSTICS_SAMPLING_RATE</code> probability.
+ */
+public class CosmosMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(CosmosMetrics.class);
+
+    private static final long DIAGNOSTICS_THRESHOLD_MS =
+            Long.parseLong(System.getenv().getOrDefault("COSMOS_DIAGNOSTICS_THRESHOLD_MS", "500"));
+    private static final double DIAGNOSTICS_SAMPLING_RATE =
+            Double.parseDouble(System.getenv().getOrDefault("COSMOS_DIAGNOSTICS_SAMPLING_RATE", "0.1"));
+
+    private static final Map<String, CosmosOperationMetrics> OPERATION_METRICS = new ConcurrentHashMap<>();
+
+    /**
+     * Hide from public usage.
+     */
+    private CosmosMetrics() {
+    }
+
+    /**
+     * Retrieve the metrics of the provided operation, registering them on first use
+     *
+     * @param container the container name
+     * @param operation the operation name
+     * @return the operation metrics
+     */
+    public static CosmosOperationMetrics forOperation(String container, String operation) {
+        String name = container + "." + operation;
+        return OPERATION_METRICS.computeIfAbsent(name, key -> {
+            CosmosOperationMetrics metrics = new CosmosOperationMetrics();
+            MetricsRegistry.register("CosmosOperation", key, metrics);
+            return metrics;
+        });
+    }
+
+    /**
+     * Instrument a point operation, measured from subscription to completion
+     *
+     * @param container the container name
+     * @param operation the operation name
+     * @param call      the point operation
+     * @param <T>       the type of the item
+     * @return the instrumented operation
+     */
+    public static <T> Mono<CosmosItemResponse<T>> item(String container, String operation, Mono<CosmosItemResponse<T>> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call
+                    .doOnSuccess(response -> {
+                        if (response != null) {
+                            record(container, operation, start,
+                                    response.getRequestCharge(),
+                                    false,
+                                    Collections.singletonList(response.getDiagnostics()));
+                        }
+                    })
+                    .doOnError(e -> recordError(container, operation, start, e));
+        });
+    }
+
+    /**
+     * Instrument a transactional batch, measured from subscription to completion.
+     * A batch that is not committed is recorded as failed
+     *
+     * @param container the container name
+     * @param operation the operation name
+     * @param call      the transactional batch
+     * @return the instrumented batch
+     */
+    public static Mono<CosmosBatchResponse> batch(String container, String operation, Mono<CosmosBatchResponse> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call
+                    .doOnSuccess(response -> {
+                        if (response != null) {
+                            record(container, operation, start,
+                                    response.getRequestCharge(),
+                                    !response.isSuccessStatusCode(),
+                                    Collections.singletonList(response.getDiagnostics()));
+                        }
+                    })
+                    .doOnError(e -> recordError(container, operation, start, e));
+        });
+    }
+
+    /**
+     * Instrument a query, collecting the results of all the pages.
+     * The request charge is the sum of the charges of the pages
+     *
+     * @param container the container name
+     * @param operation the operation name
+     * @param query     the query
+     * @param <T>       the type of the results
+     * @return the instrumented query, emitting all the results
+     */
+    public static <T> Mono<List<T>> query(String container, String operation, CosmosPagedFlux<T> query) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            List<FeedResponse<T>> pages = new ArrayList<>();
+            return query.byPage()
+                    .doOnNext(pages::add)
+                    .concatMapIterable(FeedResponse::getResults)
+                    .collectList()
+                    .doOnSuccess(results -> record(container, operation, start,
+                            pages.stream().mapToDouble(FeedResponse::getRequestCharge).sum(),
+                            false,
+                            pages.stream().map(FeedResponse::getCosmosDiagnostics).toList()))
+                    .doOnError(e -> recordError(container, operation, start, e));
+        });
+    }
+
+    private static void recordError(String container, String operation, long start, Throwable throwable) {
+        if (throwable instanceof CosmosException cosmosException) {
+            record(container, operation, start,
+                    cosmosException.getRequestCharge(),
+                    cosmosException.getStatusCode() != HttpStatus.SC_NOT_FOUND,
+                    Collections.singletonList(cosmosException.getDiagnostics()));
+            return;
+        }
+        record(container, operation, start, 0, true, Collections.emptyList());
+    }
+
+    private static void record(
+            String container,
+            String operation,
+            long start,
+            double requestCharge,
+            boolean failed,
+            List<CosmosDiagnostics> diagnostics
+    ) {
+        long latencyNanos = System.nanoTime() - start;
+        forOperation(container, operation).record(requestCharge, latencyNanos, failed);
+
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        if (latencyMillis >= DIAGNOSTICS_THRESHOLD_MS && ThreadLocalRandom.current().nextDouble() < DIAGNOSTICS_SAMPLING_RATE) {
+            logger.warn("Slow CosmosDB {} on container {}: {} ms, {} RU, diagnostics: {}",
+                    operation, container, latencyMillis, requestCharge, diagnostics);
+        }
+    }
+}
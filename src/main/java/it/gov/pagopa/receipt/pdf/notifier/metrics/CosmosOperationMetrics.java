@@ -0,0 +1,144 @@
+package it.gov.pagopa.receipt.pdf.notifier.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the request charge and latency of a CosmosDB operation on a container
+ */
+public class CosmosOperationMetrics implements CosmosOperationMetricsMXBean {
+
+    private static final long[] LATENCY_BOUNDS_MILLIS = {10, 50, 100, 250, 1000};
+    private static final double[] REQUEST_CHARGE_BOUNDS = {1, 5, 10, 50, 100};
+
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final DoubleAdder totalRequestCharge = new DoubleAdder();
+    private final DoubleAccumulator maxRequestCharge = new DoubleAccumulator(Math::max, 0);
+    private final LongAdder totalLatencyMillis = new LongAdder();
+    private final AtomicLong maxLatencyMillis = new AtomicLong();
+    private final LongAdder[] latencyBuckets = newBuckets(LATENCY_BOUNDS_MILLIS.length);
+    private final LongAdder[] requestChargeBuckets = newBuckets(REQUEST_CHARGE_BOUNDS.length);
+
+    /**
+     * Record the outcome of a request
+     *
+     * @param requestCharge the request units charged
+     * @param latencyNanos  the request latency, in nanoseconds
+     * @param failed        whether the request failed
+     */
+    public void record(double requestCharge, long latencyNanos, boolean failed) {
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+
+        this.requestCount.increment();
+        if (failed) {
+            this.errorCount.increment();
+        }
+        this.totalRequestCharge.add(requestCharge);
+        this.maxRequestCharge.accumulate(requestCharge);
+        this.totalLatencyMillis.add(latencyMillis);
+        this.maxLatencyMillis.accumulateAndGet(latencyMillis, Math::max);
+
+        for (int i = 0; i < LATENCY_BOUNDS_MILLIS.length; i++) {
+            if (latencyMillis <= LATENCY_BOUNDS_MILLIS[i]) {
+                this.latencyBuckets[i].increment();
+            }
+        }
+        for (int i = 0; i < REQUEST_CHARGE_BOUNDS.length; i++) {
+            if (requestCharge <= REQUEST_CHARGE_BOUNDS[i]) {
+                this.requestChargeBuckets[i].increment();
+            }
+        }
+    }
+
+    @Override
+    public long getRequestCount() {
+        return this.requestCount.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return this.errorCount.sum();
+    }
+
+    @Override
+    public double getTotalRequestCharge() {
+        return this.totalRequestCharge.sum();
+    }
+
+    @Override
+    public double getMaxRequestCharge() {
+        return this.maxRequestCharge.get();
+    }
+
+    @Override
+    public long getTotalLatencyMillis() {
+        return this.totalLatencyMillis.sum();
+    }
+
+    @Override
+    public long getMaxLatencyMillis() {
+        return this.maxLatencyMillis.get();
+    }
+
+    @Override
+    public long getLatencyLe10Millis() {
+        return this.latencyBuckets[0].sum();
+    }
+
+    @Override
+    public long getLatencyLe50Millis() {
+        return this.latencyBuckets[1].sum();
+    }
+
+    @Override
+    public long getLatencyLe100Millis() {
+        return this.latencyBuckets[2].sum();
+    }
+
+    @Override
+    public long getLatencyLe250Millis() {
+        return this.latencyBuckets[3].sum();
+    }
+
+    @Override
+    public long getLatencyLe1000Millis() {
+        return this.latencyBuckets[4].sum();
+    }
+
+    @Override
+    public long getRequestChargeLe1() {
+        return this.requestChargeBuckets[0].sum();
+    }
+
+    @Override
+    public long getRequestChargeLe5() {
+        return this.requestChargeBuckets[1].sum();
+    }
+
+    @Override
+    public long getRequestChargeLe10() {
+        return this.requestChargeBuckets[2].sum();
+    }
+
+    @Override
+    public long getRequestChargeLe50() {
+        return this.requestChargeBuckets[3].sum();
+    }
+
+    @Override
+    public long getRequestChargeLe100() {
+        return this.requestChargeBuckets[4].sum();
+    }
+
+    private static LongAdder[] newBuckets(int size) {
+        LongAdder[] buckets = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new LongAdder();
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,60 @@
+package it.gov.pagopa.receipt.pdf.notifier.metrics;
+
+/**
+ * JMX view of the request charge and latency of a CosmosDB operation on a container.
+ * <p>
+ * The bucket attributes are cumulative, as the buckets of a Prometheus histogram:
+ * each one counts the requests less than or equal to its upper bound.
+ */
+public interface CosmosOperationMetricsMXBean {
+
+    /**
+     * @return the number of requests executed
+     */
+    long getRequestCount();
+
+    /**
+     * @return the number of requests failed, not found responses excluded
+     */
+    long getErrorCount();
+
+    /**
+     * @return the total request units charged
+     */
+    double getTotalRequestCharge();
+
+    /**
+     * @return the highest request units charged by a single request
+     */
+    double getMaxRequestCharge();
+
+    /**
+     * @return the total latency of the requests, in milliseconds
+     */
+    long getTotalLatencyMillis();
+
+    /**
+     * @return the highest latency of a single request, in milliseconds
+     */
+    long getMaxLatencyMillis();
+
+    long getLatencyLe10Millis();
+
+    long getLatencyLe50Millis();
+
+    long getLatencyLe100Millis();
+
+    long getLatencyLe250Millis();
+
+    long getLatencyLe1000Millis();
+
+    long getRequestChargeLe1();
+
+    long getRequestChargeLe5();
+
+    long getRequestChargeLe10();
+
+    long getRequestChargeLe50();
+
+    long getRequestChargeLe100();
+}
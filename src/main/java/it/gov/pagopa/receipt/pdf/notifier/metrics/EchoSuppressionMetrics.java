@@ -0,0 +1,58 @@
+package it.gov.pagopa.receipt.pdf.notifier.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects the echo suppression counters of a change feed
+ */
+public class EchoSuppressionMetrics implements EchoSuppressionMetricsMXBean {
+
+    private final LongAdder checkedCount = new LongAdder();
+    private final LongAdder echoCount = new LongAdder();
+    private final LongAdder recordedCount = new LongAdder();
+    private final LongSupplier indexSize;
+
+    public EchoSuppressionMetrics(LongSupplier indexSize) {
+        this.indexSize = indexSize;
+    }
+
+    /**
+     * Record the check of a change feed document
+     *
+     * @param echo whether the document is an echo of a notifier write
+     */
+    public void recordCheck(boolean echo) {
+        this.checkedCount.increment();
+        if (echo) {
+            this.echoCount.increment();
+        }
+    }
+
+    /**
+     * Record a notifier write
+     */
+    public void recordWrite() {
+        this.recordedCount.increment();
+    }
+
+    @Override
+    public long getCheckedCount() {
+        return this.checkedCount.sum();
+    }
+
+    @Override
+    public long getEchoCount() {
+        return this.echoCount.sum();
+    }
+
+    @Override
+    public long getRecordedCount() {
+        return this.recordedCount.sum();
+    }
+
+    @Override
+    public long getIndexSize() {
+        return this.indexSize.getAsLong();
+    }
+}
@@ -0,0 +1,27 @@
+package it.gov.pagopa.receipt.pdf.notifier.metrics;
+
+/**
+ * JMX view of the suppression of the change feed echoes of the notifier own writes
+ */
+public interface EchoSuppressionMetricsMXBean {
+
+    /**
+     * @return the number of change feed documents checked against the recent writes
+     */
+    long getCheckedCount();
+
+    /**
+     * @return the number of change feed documents recognized as echoes of a notifier write and dropped
+     */
+    long getEchoCount();
+
+    /**
+     * @return the number of notifier writes recorded
+     */
+    long getRecordedCount();
+
+    /**
+     * @return the approximate number of recent writes currently indexed
+     */
+    long getIndexSize();
+}
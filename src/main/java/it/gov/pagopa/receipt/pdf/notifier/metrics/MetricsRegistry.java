@@ -0,0 +1,48 @@
+package it.gov.pagopa.receipt.pdf.notifier.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes the notifier metrics as MXBeans on the platform MBean server,
+ * where they are scraped by the jmx_prometheus java agent (see <code>agent/config.yaml</code>).
+ */
+public class MetricsRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    public static final String DOMAIN = "it.gov.pagopa.receipt.pdf.notifier";
+
+    /**
+     * Hide from public usage.
+     */
+    private MetricsRegistry() {
+    }
+
+    /**
+     * Register the provided MXBean with the name <code>DOMAIN:type=[type],name=[name]</code>,
+     * replacing any bean previously registered with the same name.
+     * Registration failures are logged and never propagated, metrics must not break the notification flow.
+     *
+     * @param type  the metric type
+     * @param name  the metric name
+     * @param mxBean the MXBean exposing the metric
+     */
+    public static void register(String type, String name, Object mxBean) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(String.format("%s:type=%s,name=%s", DOMAIN, type, ObjectName.quote(name)));
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(mxBean, objectName);
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Unable to register metric {} of type {}", name, type, e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package it.gov.pagopa.receipt.pdf.notifier.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Message sent to the retry queues to notify again a receipt or a cart receipt.
+ * <p>
+ * The message only references the document, which is read again by the retry functions,
+ * with short property names to keep it small. The users still to be notified are recorded on the document itself.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class RetryMessage {
+
+    public static final int CURRENT_VERSION = 1;
+
+    @JsonProperty("v")
+    private int version;
+    @JsonProperty("id")
+    private String id;
+    @JsonProperty("pk")
+    private String partitionKey;
+    @JsonProperty("r")
+    private int numRetry;
+}
@@ -0,0 +1,21 @@
+package it.gov.pagopa.receipt.pdf.notifier.model.enumeration;
+
+/**
+ * How the processed receipts are written back to CosmosDB
+ */
+public enum ReceiptWriteMode {
+
+    /**
+     * The whole document is rewritten by the function output binding
+     */
+    BINDING,
+    /**
+     * Only the fields updated by the notifier are written, with partial document patches
+     */
+    PATCH,
+    /**
+     * The fields updated by the notifier and the IO messages are written with the bulk executor,
+     * while the batch is still being processed
+     */
+    BULK
+}
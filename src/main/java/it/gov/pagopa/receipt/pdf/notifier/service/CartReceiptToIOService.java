@@ -3,19 +3,32 @@ package it.gov.pagopa.receipt.pdf.notifier.service;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartForReceipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.CartIOMessage;
 import it.gov.pagopa.receipt.pdf.notifier.model.NotifyCartResult;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueBatch;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface CartReceiptToIOService {
 
     /**
-     * Handles IO user validation and notification for payer and/or debtor in the provided cart
+     * Handles IO user validation and notification for payer and/or debtor in the provided cart.
+     * The status of each user is recorded on the cart receipt: on retry, the users already processed
+     * by a previous run are not processed again
      *
      * @param cartForReceipt the Cart Receipt entity
      * @return the result of the notification {@link NotifyCartResult}
      */
     NotifyCartResult notifyCart(CartForReceipt cartForReceipt);
 
+    /**
+     * Asynchronous variant of {@link #notifyCart(CartForReceipt)}: the fiscal codes and the already sent messages
+     * are resolved on the calling thread, the IO calls of all the users are then in flight together without blocking it
+     *
+     * @param cartForReceipt the Cart Receipt entity
+     * @return the future result of the notification {@link NotifyCartResult}, never completed exceptionally
+     */
+    CompletableFuture<NotifyCartResult> notifyCartAsync(CartForReceipt cartForReceipt);
+
     /**
      * Verifies if all users have been notified and update the cart receipt
      *
@@ -27,4 +40,27 @@ public interface CartReceiptToIOService {
             NotifyCartResult notifyCartResult,
             CartForReceipt cartForReceipt
     );
+
+    /**
+     * Verifies if all users have been notified and update the cart receipt, collecting the retry message
+     * in the provided batch instead of sending it to the queue
+     *
+     * @param notifyCartResult contains the user notification result status
+     * @param cartForReceipt   Cart Receipt to update and save on CosmosDB
+     * @param retryBatch       the batch collecting the cart receipts to requeue, their status is set by {@link #requeueForRetry}
+     * @return the list of notification message reference to be saved on CosmosDB
+     */
+    List<CartIOMessage> verifyNotificationResultAndUpdateCartReceipt(
+            NotifyCartResult notifyCartResult,
+            CartForReceipt cartForReceipt,
+            RetryQueueBatch<CartForReceipt> retryBatch
+    );
+
+    /**
+     * Send concurrently the retry messages of the batch and update the status of each cart receipt
+     * with the outcome of its message
+     *
+     * @param retryBatch the batch collecting the cart receipts to requeue
+     */
+    void requeueForRetry(RetryQueueBatch<CartForReceipt> retryBatch);
 }
@@ -4,6 +4,8 @@ import it.gov.pagopa.receipt.pdf.notifier.exception.ErrorToNotifyException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IOAPIException;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.message.MessagePayload;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Service that wrap logic for invoking IO services
  */
@@ -28,4 +30,26 @@ public interface IOService {
      * @throws ErrorToNotifyException if the response from IO service is not OK
      */
     String sendNotificationToIOUser(MessagePayload message) throws IOAPIException, ErrorToNotifyException;
+
+    /**
+     * Asynchronous variant of {@link #isNotifyToIOUserAllowed(String)}.
+     * <p>
+     * The returned future completes exceptionally with an {@link IOAPIException} if an unexpected error occur
+     * while invoking IO services or with an {@link ErrorToNotifyException} if the response from IO service is not OK
+     *
+     * @param fiscalCode fiscal code of the user
+     * @return the future result, <code>true</code> if the notification is allowed, <code>false</code> otherwise
+     */
+    CompletableFuture<Boolean> isNotifyToIOUserAllowedAsync(String fiscalCode);
+
+    /**
+     * Asynchronous variant of {@link #sendNotificationToIOUser(MessagePayload)}.
+     * <p>
+     * The returned future completes exceptionally with an {@link IOAPIException} if an unexpected error occur
+     * while invoking IO services or with an {@link ErrorToNotifyException} if the response from IO service is not OK
+     *
+     * @param message contains all the necessary information to send the notification
+     * @return the future message id that reference the notification
+     */
+    CompletableFuture<String> sendNotificationToIOUserAsync(MessagePayload message);
 }
@@ -4,9 +4,12 @@ import it.gov.pagopa.receipt.pdf.notifier.entity.message.IOMessage;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueBatch;
 
 import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface ReceiptToIOService {
 
@@ -20,6 +23,31 @@ public interface ReceiptToIOService {
      */
     UserNotifyStatus notifyMessage(String fiscalCode, UserType userType, Receipt receipt);
 
+    /**
+     * Handles IO user validation and notification asynchronously, using the already notified messages
+     * retrieved for the whole batch instead of looking up the message of the user.
+     * The fiscal code is resolved on the calling thread, the IO calls do not block it.
+     * The status of the user is recorded on the receipt: on retry, the users already processed
+     * by a previous run are not processed again
+     *
+     * @param fiscalCode        User fiscal code
+     * @param userType          Enum User type
+     * @param receipt           the Receipt
+     * @param notifiedMessages  the already notified messages returned by {@link #findNotifiedMessages(List)},
+     *                          if <code>null</code> the message of the user is looked up
+     * @return the future status of the notification {@link UserNotifyStatus}, never completed exceptionally
+     */
+    CompletableFuture<UserNotifyStatus> notifyMessageAsync(String fiscalCode, UserType userType, Receipt receipt, Map<String, String> notifiedMessages);
+
+    /**
+     * Retrieve with a few grouped lookups the IO messages already sent for the provided receipts
+     *
+     * @param receipts the receipts of the batch
+     * @return the map from io message id (see {@link IOMessage#buildId}) to IO message id,
+     * <code>null</code> if the messages cannot be retrieved
+     */
+    Map<String, String> findNotifiedMessages(List<Receipt> receipts);
+
     /**
      * Verifies if all users have been notified and updates the receipt
      *
@@ -31,4 +59,27 @@ public interface ReceiptToIOService {
             EnumMap<UserType, UserNotifyStatus> usersToBeVerified,
             Receipt receipt
     );
+
+    /**
+     * Verifies if all users have been notified and updates the receipt, collecting the retry message
+     * in the provided batch instead of sending it to the queue
+     *
+     * @param usersToBeVerified Map<FiscalCode, Status> containing user notification status
+     * @param receipt           Receipt to update and save on CosmosDB
+     * @param retryBatch        the batch collecting the receipts to requeue, their status is set by {@link #requeueForRetry}
+     * @return the list of notification message reference to be saved on CosmosDB
+     */
+    List<IOMessage> verifyMessagesNotification(
+            EnumMap<UserType, UserNotifyStatus> usersToBeVerified,
+            Receipt receipt,
+            RetryQueueBatch<Receipt> retryBatch
+    );
+
+    /**
+     * Send concurrently the retry messages of the batch and update the status of each receipt
+     * with the outcome of its message
+     *
+     * @param retryBatch the batch collecting the receipts to requeue
+     */
+    void requeueForRetry(RetryQueueBatch<Receipt> retryBatch);
 }
@@ -13,11 +13,10 @@ import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartStatusType;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.MessageData;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.Payload;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.CartIOMessage;
-import it.gov.pagopa.receipt.pdf.notifier.exception.CartIoMessageNotFoundException;
-import it.gov.pagopa.receipt.pdf.notifier.exception.ErrorToNotifyException;
-import it.gov.pagopa.receipt.pdf.notifier.exception.IOAPIException;
+import it.gov.pagopa.receipt.pdf.notifier.exception.MissingFieldsForNotificationException;
 import it.gov.pagopa.receipt.pdf.notifier.model.NotifyCartResult;
 import it.gov.pagopa.receipt.pdf.notifier.model.NotifyUserResult;
+import it.gov.pagopa.receipt.pdf.notifier.model.RetryMessage;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.message.MessagePayload;
@@ -26,16 +25,18 @@ import it.gov.pagopa.receipt.pdf.notifier.service.IOService;
 import it.gov.pagopa.receipt.pdf.notifier.service.NotificationMessageBuilder;
 import it.gov.pagopa.receipt.pdf.notifier.service.PDVTokenizerServiceRetryWrapper;
 import it.gov.pagopa.receipt.pdf.notifier.utils.MDCConstants;
-import it.gov.pagopa.receipt.pdf.notifier.utils.ObjectMapperUtils;
+import it.gov.pagopa.receipt.pdf.notifier.utils.MDCUtils;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryMessageCodec;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus.ALREADY_NOTIFIED;
 import static it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus.NOTIFIED;
@@ -43,7 +44,9 @@ import static it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifySta
 import static it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus.NOT_TO_BE_NOTIFIED;
 import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.ANONIMO;
 import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.buildReasonError;
+import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.getAsyncFailureCause;
 import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.getCodeOrDefault;
+import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.getCompletedNotifyStatus;
 import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.isFiscalCodeValid;
 
 public class CartReceiptToIOServiceImpl implements CartReceiptToIOService {
@@ -86,19 +89,32 @@ public class CartReceiptToIOServiceImpl implements CartReceiptToIOService {
      */
     @Override
     public NotifyCartResult notifyCart(CartForReceipt cartForReceipt) {
+        return notifyCartAsync(cartForReceipt).join();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<NotifyCartResult> notifyCartAsync(CartForReceipt cartForReceipt) {
         Payload payload = cartForReceipt.getPayload();
         String payerFiscalCode = payload.getPayerFiscalCode();
 
+        CartIOMessages cartIOMessages = new CartIOMessages(cartForReceipt.getCartId());
         try {
-            NotifyCartResult notifyCartResult = new NotifyCartResult();
+            CompletableFuture<NotifyUserResult> payerNotification = CompletableFuture.completedFuture(null);
             if (!Boolean.TRUE.equals(payerNotifyDisabled) && payerFiscalCode != null) {
                 MDC.put(MDCConstants.USER_TYPE, UserType.PAYER.name());
 
                 // Notify to payer
-                NotifyUserResult payerNotifyResult = notifyPayer(payerFiscalCode, cartForReceipt);
-                notifyCartResult.setPayerNotifyResult(payerNotifyResult);
+                UserNotifyStatus completedStatus = getCompletedNotifyStatusOnRetry(cartForReceipt, payload.getNotifyStatusPayer());
+                payerNotification = completedStatus != null
+                        ? CompletableFuture.completedFuture(NotifyUserResult.builder().notifyStatus(completedStatus).build())
+                        : notifyPayer(payerFiscalCode, cartForReceipt, cartIOMessages);
             }
 
+            List<CartPayment> notifiedPayments = new ArrayList<>();
+            List<CompletableFuture<NotifyUserResult>> debtorNotifications = new ArrayList<>();
             payload.getCart().forEach(cartPayment -> {
                 MDC.put(MDCConstants.USER_TYPE, UserType.DEBTOR.name());
                 MDC.put(MDCConstants.BIZ_EVENT_ID, cartPayment.getBizEventId());
@@ -106,15 +122,36 @@ public class CartReceiptToIOServiceImpl implements CartReceiptToIOService {
                 String debtorFiscalCode = cartPayment.getDebtorFiscalCode();
                 // Notify to debtor
                 if (!ANONIMO.equals(debtorFiscalCode) && !Objects.equals(debtorFiscalCode, payerFiscalCode)) {
-                    NotifyUserResult debtorNotifyResult = notifyDebtor(
-                            debtorFiscalCode,
-                            cartForReceipt.getCartId(),
-                            cartPayment
-                    );
-                    notifyCartResult.addDebtorNotifyStatusToMap(cartPayment.getBizEventId(), debtorNotifyResult);
+                    UserNotifyStatus completedStatus = getCompletedNotifyStatusOnRetry(cartForReceipt, cartPayment.getNotifyStatusDebtor());
+                    notifiedPayments.add(cartPayment);
+                    debtorNotifications.add(completedStatus != null
+                            ? CompletableFuture.completedFuture(NotifyUserResult.builder().notifyStatus(completedStatus).build())
+                            : notifyDebtor(
+                                    debtorFiscalCode,
+                                    cartForReceipt.getCartId(),
+                                    cartPayment,
+                                    cartIOMessages
+                            ));
                 }
             });
-            return notifyCartResult;
+
+            CompletableFuture<NotifyUserResult> payerResult = payerNotification;
+            return CompletableFuture.allOf(debtorNotifications.toArray(CompletableFuture[]::new))
+                    .thenCombine(payerResult, (ignored, payerNotifyResult) -> {
+                        // the results are collected once all the users completed, so the cart receipt is updated by a single thread
+                        NotifyCartResult notifyCartResult = new NotifyCartResult();
+                        if (payerNotifyResult != null) {
+                            payload.setNotifyStatusPayer(payerNotifyResult.getNotifyStatus());
+                            notifyCartResult.setPayerNotifyResult(payerNotifyResult);
+                        }
+                        for (int i = 0; i < notifiedPayments.size(); i++) {
+                            CartPayment cartPayment = notifiedPayments.get(i);
+                            NotifyUserResult debtorNotifyResult = debtorNotifications.get(i).join();
+                            cartPayment.setNotifyStatusDebtor(debtorNotifyResult.getNotifyStatus());
+                            notifyCartResult.addDebtorNotifyStatusToMap(cartPayment.getBizEventId(), debtorNotifyResult);
+                        }
+                        return notifyCartResult;
+                    });
         } finally {
             MDC.remove(MDCConstants.BIZ_EVENT_ID);
             MDC.remove(MDCConstants.USER_TYPE);
@@ -128,6 +165,18 @@ public class CartReceiptToIOServiceImpl implements CartReceiptToIOService {
     public List<CartIOMessage> verifyNotificationResultAndUpdateCartReceipt(
             NotifyCartResult notifyCartResult,
             CartForReceipt cartForReceipt
+    ) {
+        return verifyNotificationResultAndUpdateCartReceipt(notifyCartResult, cartForReceipt, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<CartIOMessage> verifyNotificationResultAndUpdateCartReceipt(
+            NotifyCartResult notifyCartResult,
+            CartForReceipt cartForReceipt,
+            RetryQueueBatch<CartForReceipt> retryBatch
     ) {
         List<CartIOMessage> ioMessages = new ArrayList<>();
 
@@ -152,7 +201,7 @@ public class CartReceiptToIOServiceImpl implements CartReceiptToIOService {
 
         boolean atLeastOneDebtorNotNotified = debtorNotifyStatus.stream().anyMatch(status -> status.equals(NOT_NOTIFIED));
         if (atLeastOneDebtorNotNotified || payerNotified.equals(NOT_NOTIFIED)) {
-            requeueReceiptForRetry(cartForReceipt);
+            requeueReceiptForRetry(cartForReceipt, retryBatch);
             return ioMessages;
         }
 
@@ -169,108 +218,183 @@ public class CartReceiptToIOServiceImpl implements CartReceiptToIOService {
         return ioMessages;
     }
 
-    private NotifyUserResult notifyPayer(
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void requeueForRetry(RetryQueueBatch<CartForReceipt> retryBatch) {
+        retryBatch.send(
+                (cartForReceipt, messageText) -> this.notifierCartQueueClient.sendMessageToQueueAsync(messageText, cartForReceipt.getNotificationNumRetry()),
+                (cartForReceipt, enqueued) -> {
+            if (Boolean.TRUE.equals(enqueued)) {
+                cartForReceipt.setStatus(CartStatusType.IO_ERROR_TO_NOTIFY);
+                return;
+            }
+            logger.error("Error in sending message to queue for cart {}. Cart receipt updated with status UNABLE_TO_SEND", cartForReceipt.getCartId());
+            cartForReceipt.setStatus(CartStatusType.UNABLE_TO_SEND);
+        });
+    }
+
+    /**
+     * The fiscal code and the already sent message are resolved on the calling thread,
+     * the IO calls are chained asynchronously and update the cart receipt payload once completed
+     */
+    private CompletableFuture<NotifyUserResult> notifyPayer(
             String fiscalCodeToken,
-            CartForReceipt cartForReceipt
+            CartForReceipt cartForReceipt,
+            CartIOMessages cartIOMessages
     ) {
         Payload payload = cartForReceipt.getPayload();
         try {
             String fiscalCode = this.pdvTokenizerServiceRetryWrapper.getFiscalCodeWithRetry(fiscalCodeToken);
 
             if (userShouldBeDiscardedFromNotification(fiscalCode, payload.getMessagePayer())) {
-                return NotifyUserResult.builder()
+                return CompletableFuture.completedFuture(NotifyUserResult.builder()
                         .notifyStatus(NOT_TO_BE_NOTIFIED)
-                        .build();
+                        .build());
             }
 
-            CartIOMessage ioMessage = getIOMessageForUserIfAlreadyExist(cartForReceipt.getCartId(), null, UserType.PAYER);
+            CartIOMessage ioMessage = getIOMessageForUserIfAlreadyExist(cartIOMessages, null, UserType.PAYER);
             if (ioMessage != null && ioMessage.getMessageId() != null) {
                 payload.setMessagePayer(buildMessageDataFromCartIOMessage(ioMessage));
-                return NotifyUserResult.builder()
+                return CompletableFuture.completedFuture(NotifyUserResult.builder()
                         .notifyStatus(ALREADY_NOTIFIED)
-                        .build();
+                        .build());
             }
 
-            //Send notification to user
-            MessagePayload messagePayload = this.notificationMessageBuilder
-                    .buildCartPayerMessagePayload(fiscalCode, cartForReceipt);
-            String messageId = this.ioService.sendNotificationToIOUser(messagePayload);
-
-            MessageData messageData = buildMessageDataResult(messageId, messagePayload);
-            payload.setMessagePayer(messageData);
-            return NotifyUserResult.builder()
-                    .notifyStatus(NOTIFIED)
-                    .message(messageData)
-                    .build();
+            //Verify the user profile and send notification to user
+            return notifyIOUserAsync(fiscalCode, () -> this.notificationMessageBuilder.buildCartPayerMessagePayload(fiscalCode, cartForReceipt))
+                    .handle(MDCUtils.withCurrentContext((messageData, throwable) -> {
+                        if (throwable != null) {
+                            return payerNotNotified(payload, getAsyncFailureCause(throwable));
+                        }
+                        if (messageData == null) {
+                            return NotifyUserResult.builder()
+                                    .notifyStatus(NOT_TO_BE_NOTIFIED)
+                                    .build();
+                        }
+                        payload.setMessagePayer(messageData);
+                        return NotifyUserResult.builder()
+                                .notifyStatus(NOTIFIED)
+                                .message(messageData)
+                                .build();
+                    }));
         } catch (Exception e) {
-            int code = getCodeOrDefault(e);
-            logger.error("Error notifying IO user", e);
-            payload.setReasonErrPayer(buildReasonError(e.getMessage(), code));
-            return NotifyUserResult.builder()
-                    .notifyStatus(NOT_NOTIFIED)
-                    .build();
+            return CompletableFuture.completedFuture(payerNotNotified(payload, e));
         }
     }
 
-    private NotifyUserResult notifyDebtor(
+    /**
+     * The fiscal code and the already sent message are resolved on the calling thread,
+     * the IO calls are chained asynchronously and update the cart payment once completed
+     */
+    private CompletableFuture<NotifyUserResult> notifyDebtor(
             String fiscalCodeToken,
             String cartId,
-            CartPayment cartPayment
+            CartPayment cartPayment,
+            CartIOMessages cartIOMessages
     ) {
         try {
             String fiscalCode = this.pdvTokenizerServiceRetryWrapper.getFiscalCodeWithRetry(fiscalCodeToken);
 
             if (userShouldBeDiscardedFromNotification(fiscalCode, cartPayment.getMessageDebtor())) {
-                return NotifyUserResult.builder()
+                return CompletableFuture.completedFuture(NotifyUserResult.builder()
                         .notifyStatus(NOT_TO_BE_NOTIFIED)
-                        .build();
+                        .build());
             }
 
-            CartIOMessage ioMessage = getIOMessageForUserIfAlreadyExist(cartId, cartPayment.getBizEventId(), UserType.DEBTOR);
+            CartIOMessage ioMessage = getIOMessageForUserIfAlreadyExist(cartIOMessages, cartPayment.getBizEventId(), UserType.DEBTOR);
             if (ioMessage != null && ioMessage.getMessageId() != null) {
                 cartPayment.setMessageDebtor(buildMessageDataFromCartIOMessage(ioMessage));
-                return NotifyUserResult.builder()
+                return CompletableFuture.completedFuture(NotifyUserResult.builder()
                         .notifyStatus(ALREADY_NOTIFIED)
-                        .build();
+                        .build());
             }
 
-            //Send notification to user
-            MessagePayload messagePayload = this.notificationMessageBuilder
-                    .buildCartDebtorMessagePayload(fiscalCode, cartPayment, cartId);
-            String messageId = this.ioService.sendNotificationToIOUser(messagePayload);
-
-            MessageData messageData = buildMessageDataResult(messageId, messagePayload);
-            cartPayment.setMessageDebtor(messageData);
-            return NotifyUserResult.builder()
-                    .notifyStatus(NOTIFIED)
-                    .message(messageData)
-                    .build();
+            //Verify the user profile and send notification to user
+            return notifyIOUserAsync(fiscalCode, () -> this.notificationMessageBuilder.buildCartDebtorMessagePayload(fiscalCode, cartPayment, cartId))
+                    .handle(MDCUtils.withCurrentContext((messageData, throwable) -> {
+                        if (throwable != null) {
+                            return debtorNotNotified(cartPayment, getAsyncFailureCause(throwable));
+                        }
+                        if (messageData == null) {
+                            return NotifyUserResult.builder()
+                                    .notifyStatus(NOT_TO_BE_NOTIFIED)
+                                    .build();
+                        }
+                        cartPayment.setMessageDebtor(messageData);
+                        return NotifyUserResult.builder()
+                                .notifyStatus(NOTIFIED)
+                                .message(messageData)
+                                .build();
+                    }));
         } catch (Exception e) {
-            int code = getCodeOrDefault(e);
-            logger.error("Error notifying IO user", e);
-            cartPayment.setReasonErrDebtor(buildReasonError(e.getMessage(), code));
-            return NotifyUserResult.builder()
-                    .notifyStatus(NOT_NOTIFIED)
-                    .build();
+            return CompletableFuture.completedFuture(debtorNotNotified(cartPayment, e));
+        }
+    }
+
+    /**
+     * Chain the profile check and the message send, so the message is sent as soon as the profile
+     * check completes without going back to the calling thread
+     *
+     * @return the future data of the sent IO message, completed with <code>null</code> if the user has not to be notified
+     */
+    private CompletableFuture<MessageData> notifyIOUserAsync(String fiscalCode, MessagePayloadSupplier messagePayloadSupplier) {
+        return this.ioService.isNotifyToIOUserAllowedAsync(fiscalCode)
+                .thenCompose(MDCUtils.withCurrentContext(allowed -> {
+                    if (!Boolean.TRUE.equals(allowed)) {
+                        logger.info("User has not to be notified");
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    MessagePayload messagePayload;
+                    try {
+                        messagePayload = messagePayloadSupplier.get();
+                    } catch (MissingFieldsForNotificationException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    return this.ioService.sendNotificationToIOUserAsync(messagePayload)
+                            .thenApply(messageId -> buildMessageDataResult(messageId, messagePayload));
+                }));
+    }
+
+    private NotifyUserResult payerNotNotified(Payload payload, Exception e) {
+        int code = getCodeOrDefault(e);
+        logger.error("Error notifying IO user", e);
+        payload.setReasonErrPayer(buildReasonError(e.getMessage(), code));
+        return NotifyUserResult.builder()
+                .notifyStatus(NOT_NOTIFIED)
+                .build();
+    }
+
+    private NotifyUserResult debtorNotNotified(CartPayment cartPayment, Exception e) {
+        int code = getCodeOrDefault(e);
+        logger.error("Error notifying IO user", e);
+        cartPayment.setReasonErrDebtor(buildReasonError(e.getMessage(), code));
+        return NotifyUserResult.builder()
+                .notifyStatus(NOT_NOTIFIED)
+                .build();
+    }
+
+    /**
+     * On retry the users processed by a previous run are skipped, without looking up their fiscal code,
+     * profile or message again
+     */
+    private UserNotifyStatus getCompletedNotifyStatusOnRetry(CartForReceipt cartForReceipt, UserNotifyStatus persistedStatus) {
+        if (!CartStatusType.IO_NOTIFIER_RETRY.equals(cartForReceipt.getStatus())) {
+            return null;
         }
+        return getCompletedNotifyStatus(persistedStatus);
     }
 
     private boolean userShouldBeDiscardedFromNotification(
             String fiscalCode,
             MessageData messageData
-    ) throws IOAPIException, ErrorToNotifyException {
-        if (!isFiscalCodeValid(fiscalCode) || (messageData != null && messageData.getId() != null)) {
-            return true;
-        }
-
-        if (!this.ioService.isNotifyToIOUserAllowed(fiscalCode)) {
-            logger.info("User has not to be notified");
-            return true;
-        }
-        return false;
+    ) {
+        return !isFiscalCodeValid(fiscalCode) || (messageData != null && messageData.getId() != null);
     }
 
-    private void requeueReceiptForRetry(CartForReceipt cartForReceipt) {
+    private void requeueReceiptForRetry(CartForReceipt cartForReceipt, RetryQueueBatch<CartForReceipt> retryBatch) {
         int numRetry = cartForReceipt.getNotificationNumRetry();
         cartForReceipt.setNotificationNumRetry(numRetry + 1);
 
@@ -280,16 +404,25 @@ public class CartReceiptToIOServiceImpl implements CartReceiptToIOService {
             return;
         }
 
-        String receiptString;
+        String messageText;
         try {
-            receiptString = ObjectMapperUtils.writeValueAsString(cartForReceipt);
+            messageText = RetryMessageCodec.encode(RetryMessage.builder()
+                    .version(RetryMessage.CURRENT_VERSION)
+                    .id(cartForReceipt.getId())
+                    .partitionKey(cartForReceipt.getId())
+                    .numRetry(cartForReceipt.getNotificationNumRetry())
+                    .build());
         } catch (JsonProcessingException e) {
             logger.error("Unable to requeue cart for retry. Cart receipt will be updated with status IO_ERROR_TO_NOTIFY", e);
             cartForReceipt.setStatus(CartStatusType.IO_ERROR_TO_NOTIFY);
             return;
         }
+        if (retryBatch != null) {
+            retryBatch.add(cartForReceipt, messageText);
+            return;
+        }
         try {
-            Response<SendMessageResult> response = this.notifierCartQueueClient.sendMessageToQueue(Base64.getMimeEncoder().encodeToString(receiptString.getBytes()));
+            Response<SendMessageResult> response = this.notifierCartQueueClient.sendMessageToQueue(messageText, cartForReceipt.getNotificationNumRetry());
             if (response.getStatusCode() == com.microsoft.azure.functions.HttpStatus.CREATED.value()) {
                 cartForReceipt.setStatus(CartStatusType.IO_ERROR_TO_NOTIFY);
                 return;
@@ -303,15 +436,12 @@ public class CartReceiptToIOServiceImpl implements CartReceiptToIOService {
         }
     }
 
-    private CartIOMessage getIOMessageForUserIfAlreadyExist(String cartId, String eventId, UserType userType) {
-        try {
-            CartIOMessage ioMessage = this.cartReceiptCosmosClient
-                    .findIOMessageWithCartIdAndEventIdAndUserType(cartId, eventId, userType);
+    private CartIOMessage getIOMessageForUserIfAlreadyExist(CartIOMessages cartIOMessages, String eventId, UserType userType) {
+        CartIOMessage ioMessage = cartIOMessages.find(eventId, userType);
+        if (ioMessage != null) {
             logger.warn("The cart receipt has already been notified for user");
-            return ioMessage;
-        } catch (CartIoMessageNotFoundException e) {
-            return null;
         }
+        return ioMessage;
     }
 
     private UserNotifyStatus gePayerNotifyStatus(NotifyCartResult notifyCartResult) {
@@ -367,4 +497,37 @@ public class CartReceiptToIOServiceImpl implements CartReceiptToIOService {
                 .userType(UserType.DEBTOR)
                 .build();
     }
+
+    /**
+     * Builds the payload of the message to send, once the user profile allows the notification
+     */
+    @FunctionalInterface
+    private interface MessagePayloadSupplier {
+        MessagePayload get() throws MissingFieldsForNotificationException;
+    }
+
+    /**
+     * IO messages already saved for a cart, loaded with a single partition query the first time
+     * one of the recipients has to be checked and reused for all the other ones.
+     * A failed load is not memoized, so the next recipient tries again.
+     */
+    private class CartIOMessages {
+        private final String cartId;
+        private List<CartIOMessage> messages;
+
+        private CartIOMessages(String cartId) {
+            this.cartId = cartId;
+        }
+
+        private CartIOMessage find(String eventId, UserType userType) {
+            if (this.messages == null) {
+                this.messages = cartReceiptCosmosClient.findAllIOMessagesForCart(this.cartId);
+            }
+            return this.messages.stream()
+                    .filter(message -> userType.equals(message.getUserType()))
+                    .filter(message -> UserType.PAYER.equals(userType) || Objects.equals(eventId, message.getEventId()))
+                    .findFirst()
+                    .orElse(null);
+        }
+    }
 }
@@ -1,21 +1,27 @@
 package it.gov.pagopa.receipt.pdf.notifier.service.impl;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import it.gov.pagopa.receipt.pdf.notifier.cache.IOProfileCache;
+import it.gov.pagopa.receipt.pdf.notifier.cache.IOProfileCache.ProfileStatus;
 import it.gov.pagopa.receipt.pdf.notifier.client.IOClient;
 import it.gov.pagopa.receipt.pdf.notifier.client.impl.IOClientImpl;
 import it.gov.pagopa.receipt.pdf.notifier.exception.ErrorToNotifyException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IOAPIException;
+import it.gov.pagopa.receipt.pdf.notifier.limiter.DependencyBulkhead;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.IOProfilePayload;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.IOProfileResponse;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.message.IOMessageResponse;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.message.MessagePayload;
 import it.gov.pagopa.receipt.pdf.notifier.service.IOService;
+import it.gov.pagopa.receipt.pdf.notifier.utils.MDCUtils;
 import it.gov.pagopa.receipt.pdf.notifier.utils.ObjectMapperUtils;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * {@inheritDoc}
@@ -24,14 +30,26 @@ public class IOServiceImpl implements IOService {
 
     private final Logger logger = LoggerFactory.getLogger(IOServiceImpl.class);
 
+    private static final boolean PROFILE_CACHE_ENABLED = Boolean.parseBoolean(System.getenv().getOrDefault("IO_PROFILE_CACHE_ENABLED", "false"));
+
     private final IOClient ioClient;
+    /**
+     * Cache of the IO profile checks, <code>null</code> when disabled
+     */
+    private final IOProfileCache profileCache;
 
     public IOServiceImpl() {
         this.ioClient = IOClientImpl.getInstance();
+        this.profileCache = PROFILE_CACHE_ENABLED ? IOProfileCache.getInstance() : null;
     }
 
     public IOServiceImpl(IOClient ioClient) {
+        this(ioClient, null);
+    }
+
+    IOServiceImpl(IOClient ioClient, IOProfileCache profileCache) {
         this.ioClient = ioClient;
+        this.profileCache = profileCache;
     }
 
     /**
@@ -39,19 +57,116 @@ public class IOServiceImpl implements IOService {
      */
     @Override
     public boolean isNotifyToIOUserAllowed(String fiscalCode) throws IOAPIException, ErrorToNotifyException {
-        IOProfilePayload iOProfilePayload = IOProfilePayload.builder().fiscalCode(fiscalCode).build();
-        String payload = serializePayload(iOProfilePayload);
+        ProfileStatus cachedStatus = getCachedProfileStatus(fiscalCode);
+        if (cachedStatus != null) {
+            return cachedStatus.isNotifyAllowed();
+        }
+        String payload = serializeProfilePayload(fiscalCode);
 
         logger.debug("IO API getProfile called");
-        HttpResponse<String> getProfileResponse = this.ioClient.getProfile(payload);
+        HttpResponse<String> getProfileResponse = DependencyBulkhead.IO_PROFILES.limiter().call(() -> this.ioClient.getProfile(payload));
         logger.debug("IO API getProfile invocation completed");
 
+        return handleProfileResponse(fiscalCode, getProfileResponse);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String sendNotificationToIOUser(MessagePayload message) throws IOAPIException, ErrorToNotifyException {
+        String payload = serializePayload(message);
+
+        logger.debug("IO API submitMessage called");
+        HttpResponse<String> notificationResponse = DependencyBulkhead.IO_MESSAGES.limiter().call(() -> this.ioClient.submitMessage(payload));
+        logger.debug("IO API submitMessage invocation completed");
+
+        return handleMessageResponse(notificationResponse);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Boolean> isNotifyToIOUserAllowedAsync(String fiscalCode) {
+        ProfileStatus cachedStatus = getCachedProfileStatus(fiscalCode);
+        if (cachedStatus != null) {
+            return CompletableFuture.completedFuture(cachedStatus.isNotifyAllowed());
+        }
+        String payload;
+        try {
+            payload = serializeProfilePayload(fiscalCode);
+        } catch (ErrorToNotifyException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        logger.debug("IO API getProfile called asynchronously");
+        return DependencyBulkhead.IO_PROFILES.limiter().callAsync(() -> this.ioClient.getProfileAsync(payload))
+                .thenApply(MDCUtils.withCurrentContext(response -> {
+                    logger.debug("IO API getProfile invocation completed");
+                    try {
+                        return handleProfileResponse(fiscalCode, response);
+                    } catch (ErrorToNotifyException e) {
+                        throw new CompletionException(e);
+                    }
+                }));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<String> sendNotificationToIOUserAsync(MessagePayload message) {
+        String payload;
+        try {
+            payload = serializePayload(message);
+        } catch (ErrorToNotifyException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        logger.debug("IO API submitMessage called asynchronously");
+        return DependencyBulkhead.IO_MESSAGES.limiter().callAsync(() -> this.ioClient.submitMessageAsync(payload))
+                .thenApply(MDCUtils.withCurrentContext(response -> {
+                    logger.debug("IO API submitMessage invocation completed");
+                    try {
+                        return handleMessageResponse(response);
+                    } catch (ErrorToNotifyException e) {
+                        throw new CompletionException(e);
+                    }
+                }));
+    }
+
+    private String serializeProfilePayload(String fiscalCode) throws ErrorToNotifyException {
+        IOProfilePayload iOProfilePayload = IOProfilePayload.builder().fiscalCode(fiscalCode).build();
+        return serializePayload(iOProfilePayload);
+    }
+
+    private ProfileStatus getCachedProfileStatus(String fiscalCode) {
+        if (this.profileCache == null || fiscalCode == null) {
+            return null;
+        }
+        ProfileStatus cachedStatus = this.profileCache.get(fiscalCode);
+        if (cachedStatus != null) {
+            logger.debug("IO API getProfile resolved from cache");
+        }
+        return cachedStatus;
+    }
+
+    private boolean handleProfileResponse(String fiscalCode, HttpResponse<String> getProfileResponse) throws ErrorToNotifyException {
+        ProfileStatus status = mapProfileResponse(getProfileResponse);
+        if (this.profileCache != null && fiscalCode != null) {
+            this.profileCache.put(fiscalCode, status);
+        }
+        return status.isNotifyAllowed();
+    }
+
+    private ProfileStatus mapProfileResponse(HttpResponse<String> getProfileResponse) throws ErrorToNotifyException {
         if (getProfileResponse == null) {
             throw new ErrorToNotifyException("IO /profiles failed to respond");
         }
 
         if (getProfileResponse.statusCode() == HttpStatus.SC_NOT_FOUND) {
-            return false;
+            return ProfileStatus.NOT_IO_USER;
         }
 
         if (getProfileResponse.statusCode() != HttpStatus.SC_OK || getProfileResponse.body() == null) {
@@ -60,20 +175,10 @@ public class IOServiceImpl implements IOService {
         }
 
         IOProfileResponse ioProfileResponse = deserializeResponse(getProfileResponse.body(), IOProfileResponse.class);
-        return ioProfileResponse.isSenderAllowed();
+        return ioProfileResponse.isSenderAllowed() ? ProfileStatus.ALLOWED : ProfileStatus.NOT_ALLOWED;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String sendNotificationToIOUser(MessagePayload message) throws IOAPIException, ErrorToNotifyException {
-        String payload = serializePayload(message);
-
-        logger.debug("IO API submitMessage called");
-        HttpResponse<String> notificationResponse = this.ioClient.submitMessage(payload);
-        logger.debug("IO API submitMessage invocation completed");
-
+    private String handleMessageResponse(HttpResponse<String> notificationResponse) throws ErrorToNotifyException {
         if (notificationResponse == null) {
             throw new ErrorToNotifyException("IO /messages failed to respond");
         }
@@ -11,12 +11,10 @@ import it.gov.pagopa.receipt.pdf.notifier.model.io.message.MessageContent;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.message.MessagePayload;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.message.ThirdPartyData;
 import it.gov.pagopa.receipt.pdf.notifier.service.NotificationMessageBuilder;
-import org.apache.commons.text.StringSubstitutor;
+import it.gov.pagopa.receipt.pdf.notifier.utils.MessageTemplate;
 
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * {@inheritDoc}
@@ -24,13 +22,6 @@ import java.util.Map;
 public class NotificationMessageBuilderImpl implements NotificationMessageBuilder {
 
     private static final String IO_CONFIGURATION_ID = System.getenv().getOrDefault("IO_CONFIGURATION_ID", "");
-    private static final String SUBJECT_PAYER = new String(System.getenv().getOrDefault("SUBJECT_PAYER", "").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
-    private static final String SUBJECT_PAYER_CART = new String(System.getenv().getOrDefault("SUBJECT_PAYER_CART", "").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
-    private static final String SUBJECT_DEBTOR = new String(System.getenv().getOrDefault("SUBJECT_DEBTOR", "").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
-    private static final String MARKDOWN_PAYER = new String(System.getenv().getOrDefault("MARKDOWN_PAYER", "").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
-    private static final String MARKDOWN_PAYER_CART = new String(System.getenv().getOrDefault("MARKDOWN_PAYER_CART", "").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
-    private static final String MARKDOWN_PAYER_CART_ITEM = new String(System.getenv().getOrDefault("MARKDOWN_PAYER_CART_ITEM", "").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
-    private static final String MARKDOWN_DEBTOR = new String(System.getenv().getOrDefault("MARKDOWN_DEBTOR", "").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
     private static final String ADVANCED = "ADVANCED";
     private static final String CART_PLACEHOLDER = "_CART_";
     private static final String CART_ITEM_PAYEE_NAME = "cart.item.payee.name";
@@ -39,8 +30,25 @@ public class NotificationMessageBuilderImpl implements NotificationMessageBuilde
     public static final String NOTICE_INDEX = "notice.index";
     private static final String NOTICES = "notices";
     private static final String NOTICES_TOTAL = "notice.total";
-    private static final String PREFIX = "{";
-    private static final String SUFFIX = "}";
+    private static final String MISSING_SUBJECT = "-";
+
+    /**
+     * Placeholders of the templates rendered for a single payment, the order defines the index of the values
+     */
+    private static final List<String> PAYMENT_PLACEHOLDERS = List.of(NOTICE_INDEX, CART_ITEM_PAYEE_NAME, TRANSACTION_AMOUNT, CART_ITEM_SUBJECT);
+    /**
+     * Placeholders of the cart template, the order defines the index of the values
+     */
+    private static final List<String> CART_PLACEHOLDERS = List.of(NOTICES, NOTICES_TOTAL);
+
+    // Templates are compiled when the class is loaded, so an invalid template fails at startup
+    private static final MessageTemplate SUBJECT_PAYER = compileTemplate("SUBJECT_PAYER", PAYMENT_PLACEHOLDERS);
+    private static final String SUBJECT_PAYER_CART = readTemplate("SUBJECT_PAYER_CART");
+    private static final MessageTemplate SUBJECT_DEBTOR = compileTemplate("SUBJECT_DEBTOR", PAYMENT_PLACEHOLDERS);
+    private static final MessageTemplate MARKDOWN_PAYER = compileTemplate("MARKDOWN_PAYER", PAYMENT_PLACEHOLDERS);
+    private static final MessageTemplate MARKDOWN_PAYER_CART = compileTemplate("MARKDOWN_PAYER_CART", CART_PLACEHOLDERS);
+    private static final MessageTemplate MARKDOWN_PAYER_CART_ITEM = compileTemplate("MARKDOWN_PAYER_CART_ITEM", PAYMENT_PLACEHOLDERS);
+    private static final MessageTemplate MARKDOWN_DEBTOR = compileTemplate("MARKDOWN_DEBTOR", PAYMENT_PLACEHOLDERS);
 
     /**
      * {@inheritDoc}
@@ -51,16 +59,16 @@ public class NotificationMessageBuilderImpl implements NotificationMessageBuilde
             Receipt receipt,
             UserType userType
     ) throws MissingFieldsForNotificationException {
-        StringSubstitutor stringSubstitutor = buildSingleReceiptStringSubstitutor(receipt.getEventData(), receipt.getId());
+        String[] values = buildSingleReceiptValues(receipt.getEventData(), receipt.getId());
 
         String subject;
         String markdown;
         if (userType.equals(UserType.DEBTOR)) {
-            subject = stringSubstitutor.replace(SUBJECT_DEBTOR);
-            markdown = stringSubstitutor.replace(MARKDOWN_DEBTOR);
+            subject = SUBJECT_DEBTOR.render(values);
+            markdown = MARKDOWN_DEBTOR.render(values);
         } else {
-            subject = stringSubstitutor.replace(SUBJECT_PAYER);
-            markdown = stringSubstitutor.replace(MARKDOWN_PAYER);
+            subject = SUBJECT_PAYER.render(values);
+            markdown = MARKDOWN_PAYER.render(values);
         }
         return buildMessage(fiscalCode, subject, markdown, receipt.getEventId());
     }
@@ -78,17 +86,20 @@ public class NotificationMessageBuilderImpl implements NotificationMessageBuilde
                     "Unable to build the notification message for cart receipt, there are missing fields in receipt necessary for subject and markdown");
         }
 
-        StringBuilder notices = new StringBuilder(10);
-        int count = 1;
-        for (CartPayment cartPayment : cart.getPayload().getCart()) {
-            StringSubstitutor stringSubstitutor = buildCartItemStringSubstitutor(cartPayment, String.valueOf(count));
-            notices.append(stringSubstitutor.replace(MARKDOWN_PAYER_CART_ITEM));
-            count++;
+        List<CartPayment> cartPayments = cart.getPayload().getCart();
+        String[][] itemValues = new String[cartPayments.size()][];
+        int noticesLength = 0;
+        for (int i = 0; i < cartPayments.size(); i++) {
+            itemValues[i] = buildCartItemValues(cartPayments.get(i), String.valueOf(i + 1));
+            noticesLength += MARKDOWN_PAYER_CART_ITEM.renderedLength(itemValues[i]);
+        }
+        StringBuilder notices = new StringBuilder(noticesLength);
+        for (String[] values : itemValues) {
+            MARKDOWN_PAYER_CART_ITEM.appendTo(notices, values);
         }
 
         String thirdPartyId = String.format("%s%s", cart.getCartId(), CART_PLACEHOLDER);
-        StringSubstitutor stringSubstitutor = buildCartStringSubstitutor(notices.toString(), cart.getPayload().getTotalNotice());
-        String markdown = stringSubstitutor.replace(MARKDOWN_PAYER_CART);
+        String markdown = MARKDOWN_PAYER_CART.render(notices.toString(), String.valueOf(cart.getPayload().getTotalNotice()));
 
         return buildMessageWithRemoteContent(fiscalCode, SUBJECT_PAYER_CART, markdown, thirdPartyId);
     }
@@ -99,11 +110,11 @@ public class NotificationMessageBuilderImpl implements NotificationMessageBuilde
             CartPayment cartPayment,
             String cartId
     ) throws MissingFieldsForNotificationException {
-        StringSubstitutor stringSubstitutor = buildCartItemStringSubstitutor(cartPayment, "");
+        String[] values = buildCartItemValues(cartPayment, "");
 
         String thirdPartyId = String.format("%s%s%s", cartId, CART_PLACEHOLDER, cartPayment.getBizEventId());
-        String subject = stringSubstitutor.replace(SUBJECT_DEBTOR);
-        String markdown = stringSubstitutor.replace(MARKDOWN_DEBTOR);
+        String subject = SUBJECT_DEBTOR.render(values);
+        String markdown = MARKDOWN_DEBTOR.render(values);
 
         return buildMessageWithRemoteContent(fiscalCode, subject, markdown, thirdPartyId);
     }
@@ -143,7 +154,7 @@ public class NotificationMessageBuilderImpl implements NotificationMessageBuilde
                 .build();
     }
 
-    private StringSubstitutor buildSingleReceiptStringSubstitutor(
+    private String[] buildSingleReceiptValues(
             EventData eventData,
             String receiptId
     ) throws MissingFieldsForNotificationException {
@@ -158,18 +169,17 @@ public class NotificationMessageBuilderImpl implements NotificationMessageBuilde
                             receiptId));
         }
 
-        List<CartItem> cart = eventData.getCart();
-        // Build map
-        Map<String, String> valuesMap = new HashMap<>(4);
-        valuesMap.put(CART_ITEM_PAYEE_NAME, cart.get(0).getPayeeName());
-        valuesMap.put(TRANSACTION_AMOUNT, eventData.getAmount());
-        valuesMap.put(CART_ITEM_SUBJECT, cart.get(0).getSubject() != null ? cart.get(0).getSubject() : "-");
-
-        // Build StringSubstitutor
-        return new StringSubstitutor(valuesMap, PREFIX, SUFFIX);
+        CartItem cartItem = eventData.getCart().get(0);
+        // Values in the order of PAYMENT_PLACEHOLDERS, the notice index is not available for a single receipt
+        return new String[]{
+                null,
+                cartItem.getPayeeName(),
+                eventData.getAmount(),
+                cartItem.getSubject() != null ? cartItem.getSubject() : MISSING_SUBJECT
+        };
     }
 
-    private StringSubstitutor buildCartItemStringSubstitutor(CartPayment cartPayment, String count) throws MissingFieldsForNotificationException {
+    private String[] buildCartItemValues(CartPayment cartPayment, String count) throws MissingFieldsForNotificationException {
         if (cartPayment == null
                 || cartPayment.getAmount() == null
                 || cartPayment.getPayeeName() == null) {
@@ -177,24 +187,20 @@ public class NotificationMessageBuilderImpl implements NotificationMessageBuilde
                     "Unable to build the notification message for cart receipt, there are missing fields in receipt necessary for subject and markdown");
         }
 
-        // Build map
-        Map<String, String> valuesMap = new HashMap<>(5);
-        valuesMap.put(NOTICE_INDEX, count);
-        valuesMap.put(CART_ITEM_PAYEE_NAME, cartPayment.getPayeeName());
-        valuesMap.put(TRANSACTION_AMOUNT, cartPayment.getAmount());
-        valuesMap.put(CART_ITEM_SUBJECT, cartPayment.getSubject() != null ? cartPayment.getSubject() : "-");
-
-        // Build StringSubstitutor
-        return new StringSubstitutor(valuesMap, PREFIX, SUFFIX);
+        // Values in the order of PAYMENT_PLACEHOLDERS
+        return new String[]{
+                count,
+                cartPayment.getPayeeName(),
+                cartPayment.getAmount(),
+                cartPayment.getSubject() != null ? cartPayment.getSubject() : MISSING_SUBJECT
+        };
     }
 
-    private StringSubstitutor buildCartStringSubstitutor(String cartItems, int totalNotices) {
-        // Build map
-        Map<String, String> valuesMap = new HashMap<>(3);
-        valuesMap.put(NOTICES, cartItems);
-        valuesMap.put(NOTICES_TOTAL, String.valueOf(totalNotices));
+    private static String readTemplate(String name) {
+        return new String(System.getenv().getOrDefault(name, "").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
 
-        // Build StringSubstitutor
-        return new StringSubstitutor(valuesMap, PREFIX, SUFFIX);
+    private static MessageTemplate compileTemplate(String name, List<String> placeholders) {
+        return MessageTemplate.compile(name, readTemplate(name), placeholders);
     }
-}
\ No newline at end of file
+}
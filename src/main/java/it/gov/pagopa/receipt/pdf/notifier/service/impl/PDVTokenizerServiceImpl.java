@@ -1,9 +1,14 @@
 package it.gov.pagopa.receipt.pdf.notifier.service.impl;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import it.gov.pagopa.receipt.pdf.notifier.client.PDVTokenizerClient;
 import it.gov.pagopa.receipt.pdf.notifier.client.impl.PDVTokenizerClientImpl;
 import it.gov.pagopa.receipt.pdf.notifier.exception.PDVTokenizerException;
+import it.gov.pagopa.receipt.pdf.notifier.limiter.DependencyBulkhead;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.CacheMetrics;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.MetricsRegistry;
 import it.gov.pagopa.receipt.pdf.notifier.model.tokenizer.ErrorMessage;
 import it.gov.pagopa.receipt.pdf.notifier.model.tokenizer.ErrorResponse;
 import it.gov.pagopa.receipt.pdf.notifier.model.tokenizer.PiiResource;
@@ -15,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.http.HttpResponse;
+import java.time.Duration;
 
 /**
  * {@inheritDoc}
@@ -23,14 +29,48 @@ public class PDVTokenizerServiceImpl implements PDVTokenizerService {
 
     private final Logger logger = LoggerFactory.getLogger(PDVTokenizerServiceImpl.class);
 
+    private static final boolean FISCAL_CODE_CACHE_ENABLED = Boolean.parseBoolean(System.getenv().getOrDefault("PDV_FISCAL_CODE_CACHE_ENABLED", "false"));
+    private static final long FISCAL_CODE_CACHE_MAX_SIZE = Long.parseLong(System.getenv().getOrDefault("PDV_FISCAL_CODE_CACHE_MAX_SIZE", "10000"));
+    private static final long FISCAL_CODE_CACHE_TTL_SECONDS = Long.parseLong(System.getenv().getOrDefault("PDV_FISCAL_CODE_CACHE_TTL_SECONDS", "3600"));
+
     private final PDVTokenizerClient pdvTokenizerClient;
+    /**
+     * Token to fiscal code cache, <code>null</code> when disabled
+     */
+    private final Cache<String, String> fiscalCodeCache;
 
     public PDVTokenizerServiceImpl() {
         this.pdvTokenizerClient = PDVTokenizerClientImpl.getInstance();
+        this.fiscalCodeCache = FISCAL_CODE_CACHE_ENABLED ? FiscalCodeCacheHolder.CACHE : null;
     }
 
     PDVTokenizerServiceImpl(PDVTokenizerClient pdvTokenizerClient) {
+        this(pdvTokenizerClient, null);
+    }
+
+    PDVTokenizerServiceImpl(PDVTokenizerClient pdvTokenizerClient, Cache<String, String> fiscalCodeCache) {
         this.pdvTokenizerClient = pdvTokenizerClient;
+        this.fiscalCodeCache = fiscalCodeCache;
+    }
+
+    /**
+     * Holder of the cache shared by all the service instances, built only when the cache is enabled.
+     * <p>
+     * Token to PII mappings are immutable in PDV, the TTL only bounds how long the fiscal codes
+     * stay in memory. Keys and values must never be logged.
+     */
+    private static class FiscalCodeCacheHolder {
+        private static final Cache<String, String> CACHE = buildFiscalCodeCache();
+
+        private static Cache<String, String> buildFiscalCodeCache() {
+            Cache<String, String> cache = Caffeine.newBuilder()
+                    .maximumSize(FISCAL_CODE_CACHE_MAX_SIZE)
+                    .expireAfterWrite(Duration.ofSeconds(FISCAL_CODE_CACHE_TTL_SECONDS))
+                    .recordStats()
+                    .build();
+            MetricsRegistry.register("Cache", "pdv-fiscal-code", new CacheMetrics(cache));
+            return cache;
+        }
     }
 
     /**
@@ -42,7 +82,7 @@ public class PDVTokenizerServiceImpl implements PDVTokenizerService {
         PiiResource piiResource = PiiResource.builder().pii(fiscalCode).build();
         String tokenizerBody = ObjectMapperUtils.writeValueAsString(piiResource);
 
-        HttpResponse<String> httpResponse = pdvTokenizerClient.searchTokenByPII(tokenizerBody);
+        HttpResponse<String> httpResponse = DependencyBulkhead.PDV.limiter().call(() -> pdvTokenizerClient.searchTokenByPII(tokenizerBody));
 
         handleErrorResponse(httpResponse, "getToken");
 
@@ -57,11 +97,21 @@ public class PDVTokenizerServiceImpl implements PDVTokenizerService {
     @Override
     public String getFiscalCode(String token) throws PDVTokenizerException, JsonProcessingException {
         logger.debug("PDV Tokenizer getFiscalCode called");
-        HttpResponse<String> httpResponse = pdvTokenizerClient.findPIIByToken(token);
+        if (fiscalCodeCache != null) {
+            String cachedFiscalCode = fiscalCodeCache.getIfPresent(token);
+            if (cachedFiscalCode != null) {
+                logger.debug("PDV Tokenizer getFiscalCode resolved from cache");
+                return cachedFiscalCode;
+            }
+        }
+        HttpResponse<String> httpResponse = DependencyBulkhead.PDV.limiter().call(() -> pdvTokenizerClient.findPIIByToken(token));
 
         handleErrorResponse(httpResponse, "getFiscalCode");
 
         PiiResource piiResource = ObjectMapperUtils.mapString(httpResponse.body(), PiiResource.class);
+        if (fiscalCodeCache != null && piiResource.getPii() != null) {
+            fiscalCodeCache.put(token, piiResource.getPii());
+        }
         logger.debug("PDV Tokenizer getFiscalCode invocation completed");
         return piiResource.getPii();
     }
@@ -75,7 +125,7 @@ public class PDVTokenizerServiceImpl implements PDVTokenizerService {
         PiiResource piiResource = PiiResource.builder().pii(fiscalCode).build();
         String tokenizerBody = ObjectMapperUtils.writeValueAsString(piiResource);
 
-        HttpResponse<String> httpResponse = pdvTokenizerClient.createToken(tokenizerBody);
+        HttpResponse<String> httpResponse = DependencyBulkhead.PDV.limiter().call(() -> pdvTokenizerClient.createToken(tokenizerBody));
 
         if (httpResponse.statusCode() == HttpStatus.SC_BAD_REQUEST
                 || httpResponse.statusCode() == HttpStatus.SC_INTERNAL_SERVER_ERROR) {
@@ -11,6 +11,7 @@ import it.gov.pagopa.receipt.pdf.notifier.exception.PDVTokenizerException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.PDVTokenizerUnexpectedException;
 import it.gov.pagopa.receipt.pdf.notifier.service.PDVTokenizerService;
 import it.gov.pagopa.receipt.pdf.notifier.service.PDVTokenizerServiceRetryWrapper;
+import it.gov.pagopa.receipt.pdf.notifier.utils.SingleFlight;
 
 /**
  * {@inheritDoc}
@@ -22,12 +23,23 @@ public class PDVTokenizerServiceRetryWrapperImpl implements PDVTokenizerServiceR
     private static final Double RANDOMIZATION_FACTOR = Double.parseDouble(System.getenv().getOrDefault("PDV_TOKENIZER_RANDOMIZATION_FACTOR", "0.6"));
     private static final Integer MAX_RETRIES = Integer.parseInt(System.getenv().getOrDefault("PDV_TOKENIZER_MAX_RETRIES", "3"));
 
+    /**
+     * Fiscal code lookups in flight, shared by all the wrapper instances of the worker
+     */
+    private static final SingleFlight<String, String> FISCAL_CODE_LOOKUPS = new SingleFlight<>();
+
     private final PDVTokenizerService pdvTokenizerService;
     private final Retry retry;
+    private final SingleFlight<String, String> fiscalCodeLookups;
 
     PDVTokenizerServiceRetryWrapperImpl(PDVTokenizerService pdvTokenizerService, Retry retry) {
+        this(pdvTokenizerService, retry, new SingleFlight<>());
+    }
+
+    PDVTokenizerServiceRetryWrapperImpl(PDVTokenizerService pdvTokenizerService, Retry retry, SingleFlight<String, String> fiscalCodeLookups) {
         this.pdvTokenizerService = pdvTokenizerService;
         this.retry = retry;
+        this.fiscalCodeLookups = fiscalCodeLookups;
     }
 
     public PDVTokenizerServiceRetryWrapperImpl() {
@@ -43,6 +55,7 @@ public class PDVTokenizerServiceRetryWrapperImpl implements PDVTokenizerServiceR
 
         this.pdvTokenizerService = new PDVTokenizerServiceImpl();
         this.retry = registry.retry("tokenizerRetry");
+        this.fiscalCodeLookups = FISCAL_CODE_LOOKUPS;
     }
 
     /**
@@ -56,11 +69,19 @@ public class PDVTokenizerServiceRetryWrapperImpl implements PDVTokenizerServiceR
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Concurrent lookups for the same token share a single call to PDV
      */
     @Override
     public String getFiscalCodeWithRetry(String token) throws PDVTokenizerException, JsonProcessingException {
         CheckedFunction<String, String> function = Retry.decorateCheckedFunction(retry, pdvTokenizerService::getFiscalCode);
-        return runFunction(token, function);
+        try {
+            return fiscalCodeLookups.execute(token, () -> runFunction(token, function));
+        } catch (PDVTokenizerException | JsonProcessingException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new PDVTokenizerUnexpectedException(e);
+        }
     }
 
     /**
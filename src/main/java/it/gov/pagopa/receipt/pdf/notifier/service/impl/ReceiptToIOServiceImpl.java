@@ -11,11 +11,10 @@ import it.gov.pagopa.receipt.pdf.notifier.entity.message.IOMessage;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.IOMessageData;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReceiptStatusType;
-import it.gov.pagopa.receipt.pdf.notifier.exception.ErrorToNotifyException;
-import it.gov.pagopa.receipt.pdf.notifier.exception.IOAPIException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IoMessageNotFoundException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.MissingFieldsForNotificationException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.PDVTokenizerException;
+import it.gov.pagopa.receipt.pdf.notifier.model.RetryMessage;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.message.MessagePayload;
@@ -23,22 +22,28 @@ import it.gov.pagopa.receipt.pdf.notifier.service.IOService;
 import it.gov.pagopa.receipt.pdf.notifier.service.NotificationMessageBuilder;
 import it.gov.pagopa.receipt.pdf.notifier.service.PDVTokenizerServiceRetryWrapper;
 import it.gov.pagopa.receipt.pdf.notifier.service.ReceiptToIOService;
-import it.gov.pagopa.receipt.pdf.notifier.utils.ObjectMapperUtils;
+import it.gov.pagopa.receipt.pdf.notifier.utils.MDCUtils;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryMessageCodec;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import static it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus.ALREADY_NOTIFIED;
 import static it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus.NOTIFIED;
 import static it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus.NOT_NOTIFIED;
 import static it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus.NOT_TO_BE_NOTIFIED;
 import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.buildReasonError;
+import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.getAsyncFailureCause;
 import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.getCodeOrDefault;
+import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.getCompletedNotifyStatus;
 import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.isFiscalCodeValid;
 
 public class ReceiptToIOServiceImpl implements ReceiptToIOService {
@@ -80,37 +85,110 @@ public class ReceiptToIOServiceImpl implements ReceiptToIOService {
      */
     @Override
     public UserNotifyStatus notifyMessage(String fiscalCodeToken, UserType userType, Receipt receipt) {
+        return notifyMessageAsync(fiscalCodeToken, userType, receipt, null).join();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<UserNotifyStatus> notifyMessageAsync(
+            String fiscalCodeToken,
+            UserType userType,
+            Receipt receipt,
+            Map<String, String> notifiedMessages
+    ) {
+        UserNotifyStatus completedStatus = getCompletedNotifyStatusOnRetry(userType, receipt);
+        if (completedStatus != null) {
+            logger.debug("The receipt with event id {} has already been processed for user type {}", receipt.getEventId(), userType);
+            return CompletableFuture.completedFuture(completedStatus);
+        }
+
+        return notifyUser(fiscalCodeToken, userType, receipt, notifiedMessages)
+                .thenApply(notifyStatus -> {
+                    if (userType.equals(UserType.DEBTOR)) {
+                        receipt.setNotifyStatusDebtor(notifyStatus);
+                    } else {
+                        receipt.setNotifyStatusPayer(notifyStatus);
+                    }
+                    return notifyStatus;
+                });
+    }
+
+    /**
+     * The fiscal code and the already notified messages are resolved on the calling thread,
+     * the IO calls are chained asynchronously and update the receipt once completed
+     */
+    private CompletableFuture<UserNotifyStatus> notifyUser(String fiscalCodeToken, UserType userType, Receipt receipt, Map<String, String> notifiedMessages) {
+        String fiscalCode;
         try {
-            String fiscalCode = getFiscalCode(fiscalCodeToken);
+            fiscalCode = getFiscalCode(fiscalCodeToken);
 
             if (!isToBeNotified(fiscalCode, userType, receipt)) {
-                return NOT_TO_BE_NOTIFIED;
+                return CompletableFuture.completedFuture(NOT_TO_BE_NOTIFIED);
             }
 
-            String ioMessageId = getIOMessageForUserIfAlreadyExist(receipt.getEventId(), userType);
+            String ioMessageId = getIOMessageForUserIfAlreadyExist(receipt.getEventId(), userType, notifiedMessages);
             if (ioMessageId != null) {
                 logger.warn("The receipt with event id  {} has already been notified for user type {}", receipt.getEventId(), userType);
                 updateReceiptWithIOMessageData(userType, receipt, ioMessageId);
-                return ALREADY_NOTIFIED;
+                return CompletableFuture.completedFuture(ALREADY_NOTIFIED);
             }
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(handleNotifyError(userType, receipt, e));
+        }
 
-            if (!this.ioService.isNotifyToIOUserAllowed(fiscalCode)) {
-                logger.info("User {} has not to be notified", userType);
-                return NOT_TO_BE_NOTIFIED;
-            }
+        //Verify the user profile and send notification to user
+        return notifyIOUserAsync(fiscalCode, userType, receipt)
+                .handle(MDCUtils.withCurrentContext((messageId, throwable) -> {
+                    if (throwable != null) {
+                        return handleNotifyError(userType, receipt, getAsyncFailureCause(throwable));
+                    }
+                    if (messageId == null) {
+                        logger.info("User {} has not to be notified", userType);
+                        return NOT_TO_BE_NOTIFIED;
+                    }
+                    updateReceiptWithIOMessageData(userType, receipt, messageId);
+                    return NOTIFIED;
+                }));
+    }
 
-            //Send notification to user
-            handleSendNotificationToUser(fiscalCode, userType, receipt);
-            return NOTIFIED;
-        } catch (Exception e) {
-            int code = getCodeOrDefault(e);
-            if (userType.equals(UserType.DEBTOR)) {
-                receipt.setReasonErr(buildReasonError(e.getMessage(), code));
-            } else {
-                receipt.setReasonErrPayer(buildReasonError(e.getMessage(), code));
+    private UserNotifyStatus handleNotifyError(UserType userType, Receipt receipt, Exception e) {
+        int code = getCodeOrDefault(e);
+        if (userType.equals(UserType.DEBTOR)) {
+            receipt.setReasonErr(buildReasonError(e.getMessage(), code));
+        } else {
+            receipt.setReasonErrPayer(buildReasonError(e.getMessage(), code));
+        }
+        logger.error("Error notifying IO user {}", userType, e);
+        return NOT_NOTIFIED;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> findNotifiedMessages(List<Receipt> receipts) {
+        List<String> eventIds = receipts.stream()
+                .filter(Objects::nonNull)
+                .map(Receipt::getEventId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (eventIds.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        try {
+            List<IOMessage> ioMessages = this.receiptCosmosClient.findIOMessagesWithEventIds(eventIds);
+            Map<String, String> notifiedMessages = new HashMap<>(ioMessages.size() * 2);
+            for (IOMessage ioMessage : ioMessages) {
+                notifiedMessages.putIfAbsent(IOMessage.buildId(ioMessage.getEventId(), ioMessage.getUserType()), ioMessage.getMessageId());
             }
-            logger.error("Error notifying IO user {}", userType, e);
-            return NOT_NOTIFIED;
+            return notifiedMessages;
+        } catch (Exception e) {
+            logger.warn("Unable to retrieve the already notified messages of the batch, they will be looked up for each user", e);
+            return null;
         }
     }
 
@@ -121,6 +199,18 @@ public class ReceiptToIOServiceImpl implements ReceiptToIOService {
     public List<IOMessage> verifyMessagesNotification(
             EnumMap<UserType, UserNotifyStatus> usersToBeVerified,
             Receipt receipt
+    ) {
+        return verifyMessagesNotification(usersToBeVerified, receipt, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<IOMessage> verifyMessagesNotification(
+            EnumMap<UserType, UserNotifyStatus> usersToBeVerified,
+            Receipt receipt,
+            RetryQueueBatch<Receipt> retryBatch
     ) {
         List<IOMessage> ioMessages = new ArrayList<>();
 
@@ -137,7 +227,7 @@ public class ReceiptToIOServiceImpl implements ReceiptToIOService {
         }
 
         if (debtorNotified.equals(NOT_NOTIFIED) || payerNotified.equals(NOT_NOTIFIED)) {
-            requeueReceiptForRetry(receipt);
+            requeueReceiptForRetry(receipt, retryBatch);
             return ioMessages;
         }
 
@@ -153,14 +243,47 @@ public class ReceiptToIOServiceImpl implements ReceiptToIOService {
         return ioMessages;
     }
 
-    private void handleSendNotificationToUser(String fiscalCode, UserType userType, Receipt receipt) throws ErrorToNotifyException, MissingFieldsForNotificationException, IOAPIException {
-        MessagePayload messagePayload = this.notificationMessageBuilder.buildMessagePayload(fiscalCode, receipt, userType);
-        String messageId = this.ioService.sendNotificationToIOUser(messagePayload);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void requeueForRetry(RetryQueueBatch<Receipt> retryBatch) {
+        retryBatch.send(
+                (receipt, messageText) -> this.notifierQueueClient.sendMessageToQueueAsync(messageText, receipt.getNotificationNumRetry()),
+                (receipt, enqueued) -> {
+            if (Boolean.TRUE.equals(enqueued)) {
+                receipt.setStatus(ReceiptStatusType.IO_ERROR_TO_NOTIFY);
+                return;
+            }
+            logger.error("Error in sending message to queue for receipt with event id: {}. Receipt updated with status UNABLE_TO_SEND", receipt.getEventId());
+            receipt.setStatus(ReceiptStatusType.UNABLE_TO_SEND);
+        });
+    }
 
-        updateReceiptWithIOMessageData(userType, receipt, messageId);
+    /**
+     * Chain the profile check and the message send, so the message is sent as soon as the profile
+     * check completes without going back to the calling thread
+     *
+     * @return the future id of the IO message, completed with <code>null</code> if the user has not to be notified
+     */
+    private CompletableFuture<String> notifyIOUserAsync(String fiscalCode, UserType userType, Receipt receipt) {
+        return this.ioService.isNotifyToIOUserAllowedAsync(fiscalCode)
+                .thenCompose(MDCUtils.withCurrentContext(allowed -> {
+                    if (!Boolean.TRUE.equals(allowed)) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    MessagePayload messagePayload;
+                    try {
+                        messagePayload = this.notificationMessageBuilder.buildMessagePayload(fiscalCode, receipt, userType);
+                    } catch (MissingFieldsForNotificationException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    return this.ioService.sendNotificationToIOUserAsync(messagePayload);
+                }));
     }
 
-    private void requeueReceiptForRetry(Receipt receipt) {
+    private void requeueReceiptForRetry(Receipt receipt, RetryQueueBatch<Receipt> retryBatch) {
         int numRetry = receipt.getNotificationNumRetry();
         receipt.setNotificationNumRetry(numRetry + 1);
 
@@ -170,16 +293,25 @@ public class ReceiptToIOServiceImpl implements ReceiptToIOService {
             return;
         }
 
-        String receiptString;
+        String messageText;
         try {
-            receiptString = ObjectMapperUtils.writeValueAsString(receipt);
+            messageText = RetryMessageCodec.encode(RetryMessage.builder()
+                    .version(RetryMessage.CURRENT_VERSION)
+                    .id(receipt.getId())
+                    .partitionKey(receipt.getId())
+                    .numRetry(receipt.getNotificationNumRetry())
+                    .build());
         } catch (JsonProcessingException e) {
             logger.error("Unable to requeue for retry the event with event id: {}. Receipt updated with status IO_ERROR_TO_NOTIFY", receipt.getEventId(), e);
             receipt.setStatus(ReceiptStatusType.IO_ERROR_TO_NOTIFY);
             return;
         }
+        if (retryBatch != null) {
+            retryBatch.add(receipt, messageText);
+            return;
+        }
         try {
-            Response<SendMessageResult> response = this.notifierQueueClient.sendMessageToQueue(Base64.getMimeEncoder().encodeToString(receiptString.getBytes()));
+            Response<SendMessageResult> response = this.notifierQueueClient.sendMessageToQueue(messageText, receipt.getNotificationNumRetry());
             if (response.getStatusCode() == com.microsoft.azure.functions.HttpStatus.CREATED.value()) {
                 receipt.setStatus(ReceiptStatusType.IO_ERROR_TO_NOTIFY);
                 return;
@@ -193,6 +325,17 @@ public class ReceiptToIOServiceImpl implements ReceiptToIOService {
         }
     }
 
+    /**
+     * On retry the users processed by a previous run are skipped, without looking up their fiscal code,
+     * profile or message again
+     */
+    private UserNotifyStatus getCompletedNotifyStatusOnRetry(UserType userType, Receipt receipt) {
+        if (!ReceiptStatusType.IO_NOTIFIER_RETRY.equals(receipt.getStatus())) {
+            return null;
+        }
+        return getCompletedNotifyStatus(userType.equals(UserType.DEBTOR) ? receipt.getNotifyStatusDebtor() : receipt.getNotifyStatusPayer());
+    }
+
     private boolean isToBeNotified(String fiscalCode, UserType userType, Receipt receipt) {
         return isFiscalCodeValid(fiscalCode)
                 && (receipt.getIoMessageData() == null || verifyMessageIdIsNotPresent(userType, receipt));
@@ -209,7 +352,7 @@ public class ReceiptToIOServiceImpl implements ReceiptToIOService {
         IOMessageData ioMessageData = receipt.getIoMessageData();
         String messageId = userType.equals(UserType.DEBTOR) ? ioMessageData.getIdMessageDebtor() : ioMessageData.getIdMessagePayer();
         return IOMessage.builder()
-                .id(messageId + UUID.randomUUID())
+                .id(IOMessage.buildId(receipt.getEventId(), userType))
                 .messageId(messageId)
                 .eventId(receipt.getEventId())
                 .userType(userType)
@@ -225,17 +368,25 @@ public class ReceiptToIOServiceImpl implements ReceiptToIOService {
         }
     }
 
+    /**
+     * The notifications of debtor and payer may complete concurrently, the message data they share is updated under the receipt lock
+     */
     private void updateReceiptWithIOMessageData(UserType userType, Receipt receipt, String idMessage) {
-        IOMessageData messageData = receipt.getIoMessageData() != null ? receipt.getIoMessageData() : new IOMessageData();
-        if (userType.equals(UserType.DEBTOR)) {
-            messageData.setIdMessageDebtor(idMessage);
-        } else {
-            messageData.setIdMessagePayer(idMessage);
+        synchronized (receipt) {
+            IOMessageData messageData = receipt.getIoMessageData() != null ? receipt.getIoMessageData() : new IOMessageData();
+            if (userType.equals(UserType.DEBTOR)) {
+                messageData.setIdMessageDebtor(idMessage);
+            } else {
+                messageData.setIdMessagePayer(idMessage);
+            }
+            receipt.setIoMessageData(messageData);
         }
-        receipt.setIoMessageData(messageData);
     }
 
-    private String getIOMessageForUserIfAlreadyExist(String eventId, UserType userType) {
+    private String getIOMessageForUserIfAlreadyExist(String eventId, UserType userType, Map<String, String> notifiedMessages) {
+        if (notifiedMessages != null) {
+            return notifiedMessages.get(IOMessage.buildId(eventId, userType));
+        }
         try {
             IOMessage ioMessage = this.receiptCosmosClient.findIOMessageWithEventIdAndUserType(eventId, userType);
             return ioMessage.getMessageId();
@@ -0,0 +1,46 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects the documents produced by the workers of a change-feed batch.
+ * <p>
+ * Workers append their results concurrently through lock-free queues, the function thread
+ * drains them once all the workers completed in order to set the output bindings.
+ *
+ * @param <D> the type of the processed documents
+ * @param <M> the type of the IO message documents
+ */
+public class BatchAccumulator<D, M> {
+
+    private final ConcurrentLinkedQueue<D> documents = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<M> messages = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Add the processed document and the related IO messages to the batch result
+     *
+     * @param document the processed document
+     * @param ioMessages the IO messages produced by the document notification
+     */
+    public void add(D document, Collection<M> ioMessages) {
+        this.messages.addAll(ioMessages);
+        this.documents.add(document);
+    }
+
+    /**
+     * @return a snapshot of the collected documents
+     */
+    public List<D> getDocuments() {
+        return new ArrayList<>(this.documents);
+    }
+
+    /**
+     * @return a snapshot of the collected IO messages
+     */
+    public List<M> getMessages() {
+        return new ArrayList<>(this.messages);
+    }
+}
@@ -0,0 +1,108 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Dedicated executor used by the change-feed functions to process the items of a batch.
+ * <p>
+ * The items are processed on a bounded pool instead of the JVM-wide common ForkJoinPool, so
+ * the number of in-flight blocking calls (PDV, IO, CosmosDB) is driven by the configured
+ * <code>NOTIFIER_BATCH_MAX_IN_FLIGHT</code> and not by the number of available cores.
+ * The pool is shared by all the functions hosted by the same worker.
+ */
+public class BatchExecutor {
+
+    private static final int MAX_IN_FLIGHT = Integer.parseInt(System.getenv().getOrDefault("NOTIFIER_BATCH_MAX_IN_FLIGHT", "32"));
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    private final ExecutorService executorService;
+
+    private BatchExecutor() {
+        this.executorService = buildBoundedExecutor(MAX_IN_FLIGHT);
+    }
+
+    BatchExecutor(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    public static BatchExecutor getInstance() {
+        return SingletonHelper.INSTANCE;
+    }
+
+    /**
+     * Bill Pugh singleton holder: the JVM guarantees that the class is loaded
+     * (and therefore INSTANCE initialized) lazily and in a thread-safe way.
+     */
+    private static class SingletonHelper {
+        private static final BatchExecutor INSTANCE = new BatchExecutor();
+    }
+
+    /**
+     * Submit the task for every item of the batch and wait for all of them to complete
+     *
+     * @param items the items of the batch
+     * @param task  the task to execute for each item
+     * @param <T>   the type of the batch items
+     */
+    public <T> void forEach(List<T> items, Consumer<T> task) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            T item = items.get(i);
+            futures[i] = CompletableFuture.runAsync(() -> task.accept(item), this.executorService);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    /**
+     * Start the asynchronous task of every item of the batch and wait for all of them to complete.
+     * <p>
+     * Each task is started on the pool and releases its thread as soon as it returns its future,
+     * so the pool threads are not held while the asynchronous calls of the task are in flight.
+     *
+     * @param items the items of the batch
+     * @param task  the task starting the processing of each item
+     * @param <T>   the type of the batch items
+     */
+    public <T> void forEachAsync(List<T> items, Function<T, CompletableFuture<Void>> task) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            T item = items.get(i);
+            futures[i] = CompletableFuture.supplyAsync(() -> task.apply(item), this.executorService)
+                    .thenCompose(Function.identity());
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    private static ExecutorService buildBoundedExecutor(int maxInFlight) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maxInFlight,
+                maxInFlight,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new BatchThreadFactory()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class BatchThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "notifier-batch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
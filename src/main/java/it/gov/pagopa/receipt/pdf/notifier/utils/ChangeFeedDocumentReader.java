@@ -0,0 +1,143 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import it.gov.pagopa.receipt.pdf.notifier.cache.RecentWritesIndex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the documents of a change-feed batch received as raw JSON array.
+ * <p>
+ * The batch is pre-scanned with a streaming parser that only reads the top level <code>status</code>
+ * of each document, skipping the nested objects without materializing them: only the documents in a
+ * notifiable status are fully bound, the others (mostly the ones written by the notifier itself) are
+ * discarded without allocating them.
+ * <p>
+ * The echoes of the notifier own writes, recognized by id and etag in the {@link RecentWritesIndex}
+ * of the container, are dropped as well, whatever their status: the echo is checked as soon as both
+ * fields have been read, and the rest of an echo is skipped without reading any other value.
+ * The notifier writes only statuses that are not notifiable, so the echoes would be discarded by
+ * the status pre-scan anyway: the echo check mostly measures, through the index metrics, how much of
+ * the change feed is made of the notifier own writes. The index is filled only by the PATCH and BULK
+ * write modes, with the output bindings the etags of the writes are unknown and no index is used.
+ */
+public class ChangeFeedDocumentReader {
+
+    private static final String ID_FIELD = "id";
+    private static final String ETAG_FIELD = "_etag";
+    private static final String STATUS_FIELD = "status";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final JsonFactory jsonFactory = objectMapper.getFactory();
+
+    /**
+     * Hide from public usage.
+     */
+    private ChangeFeedDocumentReader() {
+    }
+
+    /**
+     * Bind the documents of the batch whose status is one of the provided ones
+     *
+     * @param documents           the JSON array of the documents
+     * @param type                the class of the documents
+     * @param notifiableStatuses  the names of the statuses of the documents to bind
+     * @param recentWrites        the recent writes of the notifier on the container, <code>null</code> if they are not tracked
+     * @param <T>                 the type of the documents
+     * @return the bound documents, in batch order
+     * @throws IOException if the batch is not a valid JSON array
+     */
+    public static <T> List<T> readNotifiable(
+            String documents,
+            Class<T> type,
+            Set<String> notifiableStatuses,
+            RecentWritesIndex recentWrites
+    ) throws IOException {
+        char[] content = documents.toCharArray();
+        ObjectReader reader = objectMapper.readerFor(type);
+        List<T> notifiable = new ArrayList<>();
+
+        try (JsonParser parser = jsonFactory.createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Change feed batch is not a JSON array");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    // null or unexpected values are not documents
+                    parser.skipChildren();
+                    continue;
+                }
+                int start = (int) parser.getTokenLocation().getCharOffset();
+                ScannedFields fields = scan(parser, recentWrites);
+                int end = (int) parser.getCurrentLocation().getCharOffset();
+
+                if (fields.echo()) {
+                    continue;
+                }
+                if (fields.status() != null && notifiableStatuses.contains(fields.status())) {
+                    try (JsonParser documentParser = jsonFactory.createParser(content, start, end - start)) {
+                        notifiable.add(reader.readValue(documentParser));
+                    }
+                }
+            }
+        }
+        return notifiable;
+    }
+
+    /**
+     * Read the top level id, etag and status of the current document, leaving the parser on its closing token.
+     * Once id and etag have been read the document is checked against the recent writes, if it is an echo
+     * the remaining fields are skipped
+     */
+    private static ScannedFields scan(JsonParser parser, RecentWritesIndex recentWrites) throws IOException {
+        String id = null;
+        String etag = null;
+        String status = null;
+        boolean echoChecked = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            // the values of the other fields are skipped, they are read only when the document is bound
+            if (parser.nextToken() != JsonToken.VALUE_STRING) {
+                parser.skipChildren();
+            } else if (ID_FIELD.equals(field)) {
+                id = parser.getText();
+            } else if (ETAG_FIELD.equals(field)) {
+                etag = parser.getText();
+            } else if (STATUS_FIELD.equals(field)) {
+                status = parser.getText();
+            }
+            if (!echoChecked && recentWrites != null && id != null && etag != null) {
+                echoChecked = true;
+                if (recentWrites.isEcho(id, etag)) {
+                    skipRemainingFields(parser);
+                    return new ScannedFields(id, etag, null, true);
+                }
+            }
+        }
+        if (!echoChecked && recentWrites != null) {
+            // documents without id or etag are never echoes, the check is recorded all the same
+            recentWrites.isEcho(id, etag);
+        }
+        return new ScannedFields(id, etag, status, false);
+    }
+
+    private static void skipRemainingFields(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    private record ScannedFields(String id, String etag, String status, boolean echo) {
+    }
+}
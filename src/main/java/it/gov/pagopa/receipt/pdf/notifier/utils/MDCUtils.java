@@ -0,0 +1,70 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import org.slf4j.MDC;
+
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Propagates the MDC of the calling thread to the callbacks of asynchronous calls,
+ * that are executed on the threads of the HTTP client
+ */
+public class MDCUtils {
+
+    private MDCUtils() {
+    }
+
+    /**
+     * Wrap the provided callback so that it runs with the MDC of the current thread,
+     * the MDC of the thread executing it is restored once the callback returns
+     *
+     * @param callback the callback to wrap
+     * @param <T>      the type of the callback input
+     * @param <R>      the type of the callback result
+     * @return the wrapped callback
+     */
+    public static <T, R> Function<T, R> withCurrentContext(Function<T, R> callback) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return input -> {
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            setContext(context);
+            try {
+                return callback.apply(input);
+            } finally {
+                setContext(previous);
+            }
+        };
+    }
+
+    /**
+     * Wrap the provided two arguments callback, as the ones handling both the result and the failure
+     * of an asynchronous call, so that it runs with the MDC of the current thread
+     *
+     * @param callback the callback to wrap
+     * @param <T>      the type of the callback first input
+     * @param <U>      the type of the callback second input
+     * @param <R>      the type of the callback result
+     * @return the wrapped callback
+     */
+    public static <T, U, R> BiFunction<T, U, R> withCurrentContext(BiFunction<T, U, R> callback) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return (first, second) -> {
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            setContext(context);
+            try {
+                return callback.apply(first, second);
+            } finally {
+                setContext(previous);
+            }
+        };
+    }
+
+    private static void setContext(Map<String, String> context) {
+        if (context == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(context);
+        }
+    }
+}
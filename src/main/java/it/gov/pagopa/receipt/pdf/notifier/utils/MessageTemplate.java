@@ -0,0 +1,141 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Notification template compiled once into literal segments and placeholder references.
+ * <p>
+ * Placeholders are written as <code>{name}</code> and must be one of the names the template is
+ * compiled against, otherwise the compilation fails. As with the previous substitution logic,
+ * <code>${name}</code> escapes the placeholder and a placeholder without value is rendered as is.
+ * Values are inserted literally, they are never scanned for further placeholders.
+ */
+public final class MessageTemplate {
+
+    private static final char PREFIX = '{';
+    private static final char SUFFIX = '}';
+    private static final char ESCAPE = '$';
+
+    private final String[] segments;
+    private final int[] placeholderIndexes;
+    private final String[] placeholderNames;
+    private final int literalLength;
+
+    private MessageTemplate(String[] segments, int[] placeholderIndexes, String[] placeholderNames) {
+        this.segments = segments;
+        this.placeholderIndexes = placeholderIndexes;
+        this.placeholderNames = placeholderNames;
+        int length = 0;
+        for (String segment : segments) {
+            length += segment.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parse the template
+     *
+     * @param templateName the name of the template, used in the error message
+     * @param template     the template text
+     * @param placeholders the allowed placeholder names, their position is the index of the value when rendering
+     * @return the compiled template
+     * @throws IllegalArgumentException if the template contains an unknown or unterminated placeholder
+     */
+    public static MessageTemplate compile(String templateName, String template, List<String> placeholders) {
+        List<String> segments = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+
+        int position = 0;
+        while (position < template.length()) {
+            char current = template.charAt(position);
+            if (current == ESCAPE && position + 1 < template.length() && template.charAt(position + 1) == PREFIX) {
+                literal.append(PREFIX);
+                position += 2;
+                continue;
+            }
+            if (current != PREFIX) {
+                literal.append(current);
+                position++;
+                continue;
+            }
+
+            int end = template.indexOf(SUFFIX, position + 1);
+            if (end < 0) {
+                throw new IllegalArgumentException(String.format(
+                        "Template %s has an unterminated placeholder at position %d", templateName, position));
+            }
+            String name = template.substring(position + 1, end);
+            int index = placeholders.indexOf(name);
+            if (index < 0) {
+                throw new IllegalArgumentException(String.format(
+                        "Template %s has unknown placeholder {%s}, allowed placeholders are %s", templateName, name, placeholders));
+            }
+            segments.add(literal.toString());
+            literal.setLength(0);
+            indexes.add(index);
+            position = end + 1;
+        }
+        segments.add(literal.toString());
+
+        return new MessageTemplate(
+                segments.toArray(new String[0]),
+                indexes.stream().mapToInt(Integer::intValue).toArray(),
+                placeholders.toArray(new String[0])
+        );
+    }
+
+    /**
+     * Render the template with the provided values
+     *
+     * @param values the placeholder values, in the same order of the placeholders the template was compiled with
+     * @return the rendered text
+     */
+    public String render(String... values) {
+        if (this.placeholderIndexes.length == 0) {
+            return this.segments[0];
+        }
+        StringBuilder builder = new StringBuilder(renderedLength(values));
+        appendTo(builder, values);
+        return builder.toString();
+    }
+
+    /**
+     * Render the template with the provided values at the end of the given buffer
+     *
+     * @param builder the buffer to write into
+     * @param values  the placeholder values, in the same order of the placeholders the template was compiled with
+     */
+    public void appendTo(StringBuilder builder, String... values) {
+        builder.ensureCapacity(builder.length() + renderedLength(values));
+        for (int i = 0; i < this.placeholderIndexes.length; i++) {
+            builder.append(this.segments[i]);
+            int index = this.placeholderIndexes[i];
+            String value = valueOf(values, index);
+            if (value != null) {
+                builder.append(value);
+            } else {
+                builder.append(PREFIX).append(this.placeholderNames[index]).append(SUFFIX);
+            }
+        }
+        builder.append(this.segments[this.segments.length - 1]);
+    }
+
+    /**
+     * @param values the placeholder values
+     * @return the exact length of the template rendered with the given values
+     */
+    public int renderedLength(String... values) {
+        int length = this.literalLength;
+        for (int index : this.placeholderIndexes) {
+            String value = valueOf(values, index);
+            length += value != null ? value.length() : this.placeholderNames[index].length() + 2;
+        }
+        return length;
+    }
+
+    private static String valueOf(String[] values, int index) {
+        return index < values.length ? values[index] : null;
+    }
+}
@@ -5,10 +5,12 @@ import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.ReasonError;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReasonErrorCode;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IOAPIException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.PDVTokenizerException;
+import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
 import org.apache.http.HttpStatus;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 import java.util.regex.Pattern;
 
 public class ReceiptToIOUtils {
@@ -39,6 +41,23 @@ public class ReceiptToIOUtils {
         return HttpStatus.SC_INTERNAL_SERVER_ERROR;
     }
 
+    /**
+     * Extract the failure of an asynchronous call, as seen by the stages chained to it
+     *
+     * @param throwable the failure of the future, possibly wrapped in a {@link CompletionException}
+     * @return the exception that caused the failure
+     * @throws CompletionException if the failure is not an exception, so it is not handled as a failed notification
+     */
+    public static Exception getAsyncFailureCause(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        if (cause instanceof Exception exception) {
+            return exception;
+        }
+        throw new CompletionException(cause);
+    }
+
     public static boolean isFiscalCodeValid(String fiscalCode) {
         return fiscalCode != null
                 && !fiscalCode.isEmpty()
@@ -46,6 +65,40 @@ public class ReceiptToIOUtils {
                 && (CF_FILTER_NOTIFIER.contains("*") || CF_FILTER_NOTIFIER.contains(fiscalCode));
     }
 
+    /**
+     * Map the notification status of a recipient, as persisted by a previous run, to the status of a recipient
+     * that has not to be processed again
+     *
+     * @param persistedStatus the status persisted on the document, <code>null</code> if the recipient has not been processed yet
+     * @return ALREADY_NOTIFIED if the recipient has been notified, NOT_TO_BE_NOTIFIED if it has not to be notified,
+     * <code>null</code> if the recipient has to be processed
+     */
+    public static UserNotifyStatus getCompletedNotifyStatus(UserNotifyStatus persistedStatus) {
+        if (persistedStatus == null) {
+            return null;
+        }
+        return switch (persistedStatus) {
+            case NOTIFIED, ALREADY_NOTIFIED -> UserNotifyStatus.ALREADY_NOTIFIED;
+            case NOT_TO_BE_NOTIFIED -> UserNotifyStatus.NOT_TO_BE_NOTIFIED;
+            case NOT_NOTIFIED -> null;
+        };
+    }
+
+    /**
+     * Merge the notification status of a recipient recorded on the current version of a document
+     * with the one processed by the notifier: a completed status is kept over a status still to be processed
+     *
+     * @param currentStatus   the status recorded on the current version of the document
+     * @param processedStatus the status processed by the notifier
+     * @return the status to write
+     */
+    public static UserNotifyStatus mergeNotifyStatus(UserNotifyStatus currentStatus, UserNotifyStatus processedStatus) {
+        if (getCompletedNotifyStatus(processedStatus) == null && getCompletedNotifyStatus(currentStatus) != null) {
+            return currentStatus;
+        }
+        return processedStatus;
+    }
+
     private ReceiptToIOUtils() {
     }
 }
@@ -0,0 +1,58 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.gov.pagopa.receipt.pdf.notifier.model.RetryMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes and decodes the {@link RetryMessage} sent to the retry queues.
+ * <p>
+ * The message is the JSON of the envelope, Base64 encoded as expected by the queue trigger.
+ * Messages without version are the full documents sent by the previous releases: they are not decoded
+ * and are handled by the retry functions as before.
+ */
+public class RetryMessageCodec {
+
+    private static final String VERSION_FIELD = "v";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Hide from public usage.
+     */
+    private RetryMessageCodec() {
+    }
+
+    /**
+     * Encode the message to be sent to the retry queue
+     *
+     * @param retryMessage the message to encode
+     * @return the Base64 encoded message
+     * @throws JsonProcessingException if the message cannot be serialized
+     */
+    public static String encode(RetryMessage retryMessage) throws JsonProcessingException {
+        String messageText = objectMapper.writeValueAsString(retryMessage);
+        return Base64.getEncoder().encodeToString(messageText.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode the message received by the retry queue trigger, already Base64 decoded
+     *
+     * @param queueMessage the message received from the queue
+     * @return the decoded message, <code>null</code> if the message is a full document sent by a previous release
+     * @throws JsonProcessingException if the message is not valid JSON
+     */
+    public static RetryMessage decode(String queueMessage) throws JsonProcessingException {
+        JsonNode message = objectMapper.readTree(queueMessage);
+        if (!message.has(VERSION_FIELD)) {
+            return null;
+        }
+        return objectMapper.treeToValue(message, RetryMessage.class);
+    }
+}
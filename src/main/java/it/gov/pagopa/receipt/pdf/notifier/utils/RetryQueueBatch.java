@@ -0,0 +1,119 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import com.azure.core.http.rest.Response;
+import com.azure.storage.queue.models.SendMessageResult;
+import com.microsoft.azure.functions.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Collects the retry messages of the documents of a change-feed batch that have to be requeued.
+ * <p>
+ * Workers add the messages concurrently without waiting for the Storage round-trip, the function thread
+ * sends them all together once the batch has been processed, with the asynchronous queue client and up to
+ * <code>NOTIFIER_QUEUE_MAX_CONCURRENCY</code> at a time, and maps the outcome of each message back onto its document.
+ *
+ * @param <T> the type of the requeued documents
+ */
+public class RetryQueueBatch<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryQueueBatch.class);
+
+    private static final int MAX_CONCURRENCY =
+            Integer.parseInt(System.getenv().getOrDefault("NOTIFIER_QUEUE_MAX_CONCURRENCY", "16"));
+
+    // documents are mutable entities, they are tracked by identity
+    private final Map<T, String> messages = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * Add the retry message of the document to the batch
+     *
+     * @param document    the document to requeue
+     * @param messageText the message to send to the retry queue
+     */
+    public void add(T document, String messageText) {
+        this.messages.put(document, messageText);
+    }
+
+    /**
+     * @param document the document to look up
+     * @return <code>true</code> if the document has been added to the batch
+     */
+    public boolean contains(T document) {
+        return this.messages.containsKey(document);
+    }
+
+    /**
+     * @return <code>true</code> if no document has been added to the batch
+     */
+    public boolean isEmpty() {
+        return this.messages.isEmpty();
+    }
+
+    /**
+     * @return a snapshot of the documents added to the batch
+     */
+    public List<T> getDocuments() {
+        synchronized (this.messages) {
+            return new ArrayList<>(this.messages.keySet());
+        }
+    }
+
+    /**
+     * Send concurrently the messages of the batch and wait for all of them to complete
+     *
+     * @param sender    sends the message of a document to the retry queue
+     * @param onOutcome invoked on the calling thread for each document, with <code>true</code>
+     *                  if its message has been enqueued
+     */
+    public void send(BiFunction<T, String, Mono<Response<SendMessageResult>>> sender, BiConsumer<T, Boolean> onOutcome) {
+        List<Map.Entry<T, String>> requests;
+        synchronized (this.messages) {
+            requests = new ArrayList<>(this.messages.size());
+            this.messages.forEach((document, messageText) -> requests.add(new AbstractMap.SimpleImmutableEntry<>(document, messageText)));
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        List<Map.Entry<T, Boolean>> outcomes = Flux.fromIterable(requests)
+                .flatMap(request -> send(sender, request.getKey(), request.getValue())
+                        .map(enqueued -> Map.entry(request.getKey(), enqueued)), MAX_CONCURRENCY)
+                .collectList()
+                .block();
+        if (outcomes != null) {
+            outcomes.forEach(outcome -> onOutcome.accept(outcome.getKey(), outcome.getValue()));
+        }
+    }
+
+    private Mono<Boolean> send(
+            BiFunction<T, String, Mono<Response<SendMessageResult>>> sender,
+            T document,
+            String messageText
+    ) {
+        return Mono.defer(() -> sender.apply(document, messageText))
+                .map(response -> {
+                    if (response.getStatusCode() == HttpStatus.CREATED.value()) {
+                        return true;
+                    }
+                    logger.error("Error in sending message to queue, queue responded with status {}", response.getStatusCode());
+                    return false;
+                })
+                .defaultIfEmpty(false)
+                .onErrorResume(e -> {
+                    logger.error("Error in sending message to queue", e);
+                    return Mono.just(false);
+                });
+    }
+}
@@ -0,0 +1,179 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import com.azure.storage.queue.models.QueueMessageItem;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
+import it.gov.pagopa.receipt.pdf.notifier.client.RetryQueueClient;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Drains a retry queue in batches, as an alternative to the one-message-per-invocation queue triggers.
+ * <p>
+ * Up to <code>NOTIFIER_RETRY_BATCH_MAX_MESSAGES</code> messages are received, hidden for
+ * <code>NOTIFIER_RETRY_BATCH_VISIBILITY_TIMEOUT</code> seconds, and read in parallel on the {@link BatchExecutor}.
+ * The documents to retry are written together with a bulk writer. Each message is then handled on its own:
+ * it is deleted if its document has been written or if there is nothing to retry, otherwise it is left
+ * on the queue to be received again once its visibility timeout expires, until it has been received
+ * <code>NOTIFIER_RETRY_BATCH_MAX_DEQUEUE_COUNT</code> times and is moved to the poison queue.
+ *
+ * @param <T> the type of the documents to retry
+ */
+public class RetryQueueDrainer<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryQueueDrainer.class);
+
+    private static final int MAX_MESSAGES =
+            Integer.parseInt(System.getenv().getOrDefault("NOTIFIER_RETRY_BATCH_MAX_MESSAGES", "256"));
+    private static final int MAX_DEQUEUE_COUNT =
+            Integer.parseInt(System.getenv().getOrDefault("NOTIFIER_RETRY_BATCH_MAX_DEQUEUE_COUNT", "5"));
+    private static final Duration VISIBILITY_TIMEOUT =
+            Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("NOTIFIER_RETRY_BATCH_VISIBILITY_TIMEOUT", "60")));
+    private static final int MAX_CONCURRENCY =
+            Integer.parseInt(System.getenv().getOrDefault("NOTIFIER_QUEUE_MAX_CONCURRENCY", "16"));
+
+    /**
+     * Max number of messages that the queue returns for a single receive
+     */
+    private static final int MAX_RECEIVE_MESSAGES = 32;
+
+    private static final Pattern LINE_SEPARATORS = Pattern.compile("\\R");
+
+    /**
+     * Reads the document to retry from the text of a queue message
+     *
+     * @param <T> the type of the documents to retry
+     */
+    @FunctionalInterface
+    public interface RetryMessageReader<T> {
+
+        /**
+         * @param queueMessage the decoded text of the message
+         * @return the document to write, <code>null</code> if there is nothing to retry
+         * @throws JsonProcessingException  in case the message can't be mapped
+         * @throws ReceiptNotFoundException in case the document referenced by the message is not found
+         */
+        T read(String queueMessage) throws JsonProcessingException, ReceiptNotFoundException;
+    }
+
+    private final RetryQueueClient queueClient;
+    private final BatchExecutor batchExecutor;
+
+    public RetryQueueDrainer(RetryQueueClient queueClient, BatchExecutor batchExecutor) {
+        this.queueClient = queueClient;
+        this.batchExecutor = batchExecutor;
+    }
+
+    /**
+     * Receive a batch of messages from the queue, write their documents and settle each message
+     *
+     * @param reader reads the document to retry from a message
+     * @param writer writes the documents to retry, used for this batch only
+     * @return the number of messages received
+     */
+    public int drain(RetryMessageReader<T> reader, BulkWriter<T> writer) {
+        List<QueueMessageItem> messages = receive();
+        if (messages.isEmpty()) {
+            return 0;
+        }
+
+        // documents are mutable entities, they are tracked by identity
+        Map<T, QueueMessageItem> written = Collections.synchronizedMap(new IdentityHashMap<>());
+        List<QueueMessageItem> completed = Collections.synchronizedList(new ArrayList<>());
+        List<QueueMessageItem> failed = Collections.synchronizedList(new ArrayList<>());
+        this.batchExecutor.forEach(messages, message -> {
+            try {
+                T document = reader.read(decode(message.getBody().toString()));
+                if (document == null) {
+                    completed.add(message);
+                    return;
+                }
+                written.put(document, message);
+                writer.addAll(List.of(document));
+            } catch (JsonProcessingException | ReceiptNotFoundException | RuntimeException e) {
+                logger.warn("Unable to read the retry message with id {}, received {} times",
+                        message.getMessageId(), message.getDequeueCount(), e);
+                failed.add(message);
+            }
+        });
+
+        if (!written.isEmpty()) {
+            Set<T> notWritten = Collections.newSetFromMap(new IdentityHashMap<>());
+            notWritten.addAll(writer.complete());
+            written.forEach((document, message) -> (notWritten.contains(document) ? failed : completed).add(message));
+        }
+        failed.forEach(message -> {
+            if (message.getDequeueCount() >= MAX_DEQUEUE_COUNT && moveToPoisonQueue(message)) {
+                completed.add(message);
+            }
+        });
+        delete(completed);
+
+        logger.info("Drained {} retry messages, {} completed and {} left on the queue",
+                messages.size(), completed.size(), messages.size() - completed.size());
+        return messages.size();
+    }
+
+    private List<QueueMessageItem> receive() {
+        List<QueueMessageItem> messages = new ArrayList<>();
+        while (messages.size() < MAX_MESSAGES) {
+            List<QueueMessageItem> received = this.queueClient.receiveMessages(
+                    Math.min(MAX_RECEIVE_MESSAGES, MAX_MESSAGES - messages.size()), VISIBILITY_TIMEOUT);
+            messages.addAll(received);
+            if (received.size() < MAX_RECEIVE_MESSAGES) {
+                break;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Decode the message text as the queue trigger does: Base64 text is decoded, any other text is used as is.
+     * Messages requeued by previous releases are MIME encoded, split on multiple lines
+     */
+    private static String decode(String messageText) {
+        try {
+            return new String(Base64.getDecoder().decode(LINE_SEPARATORS.matcher(messageText).replaceAll("")), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return messageText;
+        }
+    }
+
+    private boolean moveToPoisonQueue(QueueMessageItem message) {
+        try {
+            this.queueClient.sendMessageToPoisonQueue(message.getBody().toString());
+            logger.error("The retry message with id {} has been received {} times, moved to the poison queue",
+                    message.getMessageId(), message.getDequeueCount());
+            return true;
+        } catch (RuntimeException e) {
+            logger.error("Unable to move the retry message with id {} to the poison queue", message.getMessageId(), e);
+            return false;
+        }
+    }
+
+    private void delete(List<QueueMessageItem> messages) {
+        Flux.fromIterable(messages)
+                .flatMap(message -> this.queueClient.deleteMessageAsync(message.getMessageId(), message.getPopReceipt())
+                        .onErrorResume(e -> {
+                            // the message is received again once its visibility timeout expires
+                            logger.error("Unable to delete the retry message with id {}", message.getMessageId(), e);
+                            return Mono.empty();
+                        }), MAX_CONCURRENCY)
+                .then()
+                .block();
+    }
+}
@@ -0,0 +1,74 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesce concurrent calls for the same key into a single execution.
+ * <p>
+ * The first caller for a key runs the loader, the callers arriving while it is in flight
+ * wait for it and get the same result (or the same exception). Nothing is kept once the
+ * call completes, so a later call for the same key runs the loader again.
+ *
+ * @param <K> the type of the key
+ * @param <V> the type of the result
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder sharedCount = new LongAdder();
+
+    /**
+     * Run the loader for the given key, or join the execution already in flight for it
+     *
+     * @param key    the key identifying the call
+     * @param loader the call to execute
+     * @return the result of the loader
+     * @throws Exception the exception thrown by the loader
+     */
+    public V execute(K key, Callable<V> loader) throws Exception {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> existing = this.inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            this.sharedCount.increment();
+            return await(existing);
+        }
+
+        try {
+            V result = loader.call();
+            call.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(key, call);
+        }
+    }
+
+    /**
+     * @return the number of calls that joined an execution already in flight
+     */
+    public long getSharedCount() {
+        return this.sharedCount.sum();
+    }
+
+    private V await(CompletableFuture<V> call) throws Exception {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception exception) {
+                throw exception;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package it.gov.pagopa.receipt.pdf.notifier;
 
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.functions.OutputBinding;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
+import it.gov.pagopa.receipt.pdf.notifier.client.CartReceiptCosmosClient;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartForReceipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartPayment;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartStatusType;
@@ -10,23 +12,40 @@ import it.gov.pagopa.receipt.pdf.notifier.entity.message.CartIOMessage;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.IOMessage;
 import it.gov.pagopa.receipt.pdf.notifier.model.NotifyCartResult;
 import it.gov.pagopa.receipt.pdf.notifier.service.CartReceiptToIOService;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueBatch;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static uk.org.webcompere.systemstubs.SystemStubs.withEnvironmentVariables;
 
 @ExtendWith(MockitoExtension.class)
 class CartReceiptToIOTest {
@@ -39,16 +58,179 @@ class CartReceiptToIOTest {
     private OutputBinding<List<CartIOMessage>> documentMessagesMock;
     @Mock
     private ExecutionContext executionContextMock;
+    @Mock
+    private CartReceiptCosmosClient cartReceiptCosmosClientMock;
 
     @InjectMocks
     private CartReceiptToIO sut;
 
+    @Test
+    void processCartReceiptToIOFromChangeFeedNotifiesOnlyNotifiableCartReceipts() {
+        doReturn(CompletableFuture.completedFuture(new NotifyCartResult())).when(cartReceiptToIOServiceMock).notifyCartAsync(any());
+        doReturn(Collections.emptyList())
+                .when(cartReceiptToIOServiceMock).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
+
+        String documents = "[{\"id\": \"cart1\", \"cartId\": \"cart1\", \"status\": \"GENERATED\", \"payload\": {\"cart\": [{}]}},"
+                + "{\"id\": \"cart2\", \"cartId\": \"cart2\", \"status\": \"NOT_TO_NOTIFY\", \"payload\": {\"cart\": [{}]}}]";
+
+        sut.processCartReceiptToIO(documents, documentCartReceiptsMock, documentMessagesMock, executionContextMock);
+
+        ArgumentCaptor<CartForReceipt> cartCaptor = ArgumentCaptor.forClass(CartForReceipt.class);
+        verify(cartReceiptToIOServiceMock).notifyCartAsync(cartCaptor.capture());
+        assertEquals("cart1", cartCaptor.getValue().getCartId());
+        verify(documentCartReceiptsMock).setValue(anyList());
+    }
+
+    @Test
+    void processCartReceiptToIOPatchModeWritesOnlyFailedPatchesWithBinding() throws Exception {
+        doReturn(CompletableFuture.completedFuture(new NotifyCartResult())).when(cartReceiptToIOServiceMock).notifyCartAsync(any());
+        doReturn(Collections.emptyList())
+                .when(cartReceiptToIOServiceMock).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
+
+        CartForReceipt cart = CartForReceipt.builder()
+                .payload(
+                        Payload.builder()
+                                .cart(Collections.singletonList(new CartPayment()))
+                                .build()
+                )
+                .status(CartStatusType.GENERATED)
+                .build();
+        doReturn(List.of(cart)).when(cartReceiptCosmosClientMock).patchCartReceipts(List.of(cart));
+
+        withEnvironmentVariables("RECEIPT_WRITE_MODE", "PATCH")
+                .execute(() -> new CartReceiptToIO(cartReceiptToIOServiceMock, cartReceiptCosmosClientMock)
+                        .processCartReceipts(
+                                Collections.singletonList(cart),
+                                documentCartReceiptsMock,
+                                documentMessagesMock
+                        ));
+
+        verify(cartReceiptCosmosClientMock).patchCartReceipts(List.of(cart));
+        verify(documentCartReceiptsMock).setValue(List.of(cart));
+        verify(documentMessagesMock, never()).setValue(anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processCartReceiptToIOBulkModeWritesOnlyFailedDocumentsWithBinding() throws Exception {
+        CartIOMessage ioMessage = new CartIOMessage();
+        doReturn(CompletableFuture.completedFuture(new NotifyCartResult())).when(cartReceiptToIOServiceMock).notifyCartAsync(any());
+        doReturn(List.of(ioMessage))
+                .when(cartReceiptToIOServiceMock).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
+
+        CartForReceipt cart = CartForReceipt.builder()
+                .payload(
+                        Payload.builder()
+                                .cart(Collections.singletonList(new CartPayment()))
+                                .build()
+                )
+                .status(CartStatusType.GENERATED)
+                .build();
+        BulkWriter<CartForReceipt> cartReceiptWriterMock = mock(BulkWriter.class);
+        BulkWriter<CartIOMessage> messageWriterMock = mock(BulkWriter.class);
+        doReturn(cartReceiptWriterMock).when(cartReceiptCosmosClientMock).newCartReceiptBulkWriter();
+        doReturn(messageWriterMock).when(cartReceiptCosmosClientMock).newCartIOMessageBulkWriter();
+        doReturn(List.of(cart)).when(cartReceiptWriterMock).complete();
+        doReturn(Collections.emptyList()).when(messageWriterMock).complete();
+
+        withEnvironmentVariables("RECEIPT_WRITE_MODE", "BULK")
+                .execute(() -> new CartReceiptToIO(cartReceiptToIOServiceMock, cartReceiptCosmosClientMock)
+                        .processCartReceipts(
+                                Collections.singletonList(cart),
+                                documentCartReceiptsMock,
+                                documentMessagesMock
+                        ));
+
+        verify(cartReceiptWriterMock).addAll(List.of(cart));
+        verify(messageWriterMock).addAll(List.of(ioMessage));
+        verify(documentCartReceiptsMock).setValue(List.of(cart));
+        verify(documentMessagesMock, never()).setValue(anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processCartReceiptToIOBulkModeCompletesWritersWhenBatchFails() throws Exception {
+        CartIOMessage ioMessage = new CartIOMessage();
+        CartForReceipt notifiedCart = buildCart("notified");
+        CartForReceipt failingCart = buildCart("failing");
+        doReturn(CompletableFuture.completedFuture(new NotifyCartResult())).when(cartReceiptToIOServiceMock).notifyCartAsync(notifiedCart);
+        doThrow(new IllegalStateException()).when(cartReceiptToIOServiceMock).notifyCartAsync(failingCart);
+        doReturn(List.of(ioMessage))
+                .when(cartReceiptToIOServiceMock).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
+
+        BulkWriter<CartForReceipt> cartReceiptWriterMock = mock(BulkWriter.class);
+        BulkWriter<CartIOMessage> messageWriterMock = mock(BulkWriter.class);
+        doReturn(cartReceiptWriterMock).when(cartReceiptCosmosClientMock).newCartReceiptBulkWriter();
+        doReturn(messageWriterMock).when(cartReceiptCosmosClientMock).newCartIOMessageBulkWriter();
+        doReturn(Collections.emptyList()).when(cartReceiptWriterMock).complete();
+        doReturn(List.of(ioMessage)).when(messageWriterMock).complete();
+
+        withEnvironmentVariables("RECEIPT_WRITE_MODE", "BULK")
+                .execute(() -> {
+                    CartReceiptToIO sut = new CartReceiptToIO(cartReceiptToIOServiceMock, cartReceiptCosmosClientMock);
+                    List<CartForReceipt> carts = List.of(notifiedCart, failingCart);
+                    assertThrows(CompletionException.class,
+                            () -> sut.processCartReceipts(carts, documentCartReceiptsMock, documentMessagesMock));
+                });
+
+        verify(cartReceiptWriterMock).complete();
+        verify(messageWriterMock).complete();
+        verify(documentMessagesMock).setValue(List.of(ioMessage));
+        verify(documentCartReceiptsMock, never()).setValue(anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processCartReceiptToIOBulkModeWritesRequeuedCartReceiptsOnceRetryBatchSent() throws Exception {
+        doReturn(CompletableFuture.completedFuture(new NotifyCartResult())).when(cartReceiptToIOServiceMock).notifyCartAsync(any());
+        doAnswer(invocation -> {
+            RetryQueueBatch<CartForReceipt> retryBatch = invocation.getArgument(2);
+            retryBatch.add(invocation.getArgument(1), "retryMessage");
+            return Collections.emptyList();
+        }).when(cartReceiptToIOServiceMock).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
+        doAnswer(invocation -> {
+            RetryQueueBatch<CartForReceipt> retryBatch = invocation.getArgument(0);
+            retryBatch.getDocuments().forEach(cartReceipt -> cartReceipt.setStatus(CartStatusType.IO_ERROR_TO_NOTIFY));
+            return null;
+        }).when(cartReceiptToIOServiceMock).requeueForRetry(any());
+
+        CartForReceipt cart = CartForReceipt.builder()
+                .payload(
+                        Payload.builder()
+                                .cart(Collections.singletonList(new CartPayment()))
+                                .build()
+                )
+                .status(CartStatusType.GENERATED)
+                .build();
+        BulkWriter<CartForReceipt> cartReceiptWriterMock = mock(BulkWriter.class);
+        BulkWriter<CartIOMessage> messageWriterMock = mock(BulkWriter.class);
+        doReturn(cartReceiptWriterMock).when(cartReceiptCosmosClientMock).newCartReceiptBulkWriter();
+        doReturn(messageWriterMock).when(cartReceiptCosmosClientMock).newCartIOMessageBulkWriter();
+        doReturn(Collections.emptyList()).when(cartReceiptWriterMock).complete();
+        doReturn(Collections.emptyList()).when(messageWriterMock).complete();
+
+        withEnvironmentVariables("RECEIPT_WRITE_MODE", "BULK")
+                .execute(() -> new CartReceiptToIO(cartReceiptToIOServiceMock, cartReceiptCosmosClientMock)
+                        .processCartReceipts(
+                                Collections.singletonList(cart),
+                                documentCartReceiptsMock,
+                                documentMessagesMock
+                        ));
+
+        InOrder inOrder = inOrder(cartReceiptToIOServiceMock, cartReceiptWriterMock);
+        inOrder.verify(cartReceiptToIOServiceMock).requeueForRetry(any());
+        inOrder.verify(cartReceiptWriterMock).addAll(List.of(cart));
+        inOrder.verify(cartReceiptWriterMock).complete();
+        assertEquals(CartStatusType.IO_ERROR_TO_NOTIFY, cart.getStatus());
+        verify(documentCartReceiptsMock, never()).setValue(anyList());
+    }
+
     @ParameterizedTest
     @EnumSource(value = CartStatusType.class, names = {"GENERATED", "SIGNED", "IO_NOTIFIER_RETRY"})
     void processCartReceiptToIOSuccess(CartStatusType status) {
-        doReturn(new NotifyCartResult()).when(cartReceiptToIOServiceMock).notifyCart(any());
+        doReturn(CompletableFuture.completedFuture(new NotifyCartResult())).when(cartReceiptToIOServiceMock).notifyCartAsync(any());
         doReturn(Collections.singletonList(new IOMessage()))
-                .when(cartReceiptToIOServiceMock).verifyNotificationResultAndUpdateCartReceipt(any(), any());
+                .when(cartReceiptToIOServiceMock).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
 
         CartForReceipt cart = CartForReceipt.builder()
                 .payload(
@@ -59,16 +241,15 @@ class CartReceiptToIOTest {
                 .status(status)
                 .build();
 
-        assertDoesNotThrow(() -> sut.processCartReceiptToIO(
+        assertDoesNotThrow(() -> sut.processCartReceipts(
                 Collections.singletonList(cart),
                 documentCartReceiptsMock,
-                documentMessagesMock,
-                executionContextMock
+                documentMessagesMock
         ));
 
 
-        verify(cartReceiptToIOServiceMock).notifyCart(any());
-        verify(cartReceiptToIOServiceMock).verifyNotificationResultAndUpdateCartReceipt(any(), any());
+        verify(cartReceiptToIOServiceMock).notifyCartAsync(any());
+        verify(cartReceiptToIOServiceMock).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
         verify(documentCartReceiptsMock).setValue(anyList());
         verify(documentMessagesMock).setValue(anyList());
     }
@@ -85,32 +266,30 @@ class CartReceiptToIOTest {
                 .status(status)
                 .build();
 
-        assertDoesNotThrow(() -> sut.processCartReceiptToIO(
+        assertDoesNotThrow(() -> sut.processCartReceipts(
                 Collections.singletonList(cart),
                 documentCartReceiptsMock,
-                documentMessagesMock,
-                executionContextMock
+                documentMessagesMock
         ));
 
 
-        verify(cartReceiptToIOServiceMock, never()).notifyCart(any());
-        verify(cartReceiptToIOServiceMock, never()).verifyNotificationResultAndUpdateCartReceipt(any(), any());
+        verify(cartReceiptToIOServiceMock, never()).notifyCartAsync(any());
+        verify(cartReceiptToIOServiceMock, never()).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
         verify(documentCartReceiptsMock, never()).setValue(anyList());
         verify(documentMessagesMock, never()).setValue(anyList());
     }
 
     @Test
     void processCartReceiptToIOSuccessDiscardedEmptyList() {
-        assertDoesNotThrow(() -> sut.processCartReceiptToIO(
+        assertDoesNotThrow(() -> sut.processCartReceipts(
                 Collections.emptyList(),
                 documentCartReceiptsMock,
-                documentMessagesMock,
-                executionContextMock
+                documentMessagesMock
         ));
 
 
-        verify(cartReceiptToIOServiceMock, never()).notifyCart(any());
-        verify(cartReceiptToIOServiceMock, never()).verifyNotificationResultAndUpdateCartReceipt(any(), any());
+        verify(cartReceiptToIOServiceMock, never()).notifyCartAsync(any());
+        verify(cartReceiptToIOServiceMock, never()).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
         verify(documentCartReceiptsMock, never()).setValue(anyList());
         verify(documentMessagesMock, never()).setValue(anyList());
     }
@@ -121,16 +300,15 @@ class CartReceiptToIOTest {
                 .status(CartStatusType.GENERATED)
                 .build();
 
-        assertDoesNotThrow(() -> sut.processCartReceiptToIO(
+        assertDoesNotThrow(() -> sut.processCartReceipts(
                 Collections.singletonList(cart),
                 documentCartReceiptsMock,
-                documentMessagesMock,
-                executionContextMock
+                documentMessagesMock
         ));
 
 
-        verify(cartReceiptToIOServiceMock, never()).notifyCart(any());
-        verify(cartReceiptToIOServiceMock, never()).verifyNotificationResultAndUpdateCartReceipt(any(), any());
+        verify(cartReceiptToIOServiceMock, never()).notifyCartAsync(any());
+        verify(cartReceiptToIOServiceMock, never()).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
         verify(documentCartReceiptsMock, never()).setValue(anyList());
         verify(documentMessagesMock, never()).setValue(anyList());
     }
@@ -142,17 +320,75 @@ class CartReceiptToIOTest {
                 .status(CartStatusType.GENERATED)
                 .build();
 
-        assertDoesNotThrow(() -> sut.processCartReceiptToIO(
+        assertDoesNotThrow(() -> sut.processCartReceipts(
                 Collections.singletonList(cart),
                 documentCartReceiptsMock,
-                documentMessagesMock,
-                executionContextMock
+                documentMessagesMock
         ));
 
 
-        verify(cartReceiptToIOServiceMock, never()).notifyCart(any());
-        verify(cartReceiptToIOServiceMock, never()).verifyNotificationResultAndUpdateCartReceipt(any(), any());
+        verify(cartReceiptToIOServiceMock, never()).notifyCartAsync(any());
+        verify(cartReceiptToIOServiceMock, never()).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
         verify(documentCartReceiptsMock, never()).setValue(anyList());
         verify(documentMessagesMock, never()).setValue(anyList());
     }
-}
\ No newline at end of file
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processCartReceiptToIOConcurrentBatchCollectAllResults() {
+        int batchSize = 5000;
+        doReturn(CompletableFuture.completedFuture(new NotifyCartResult())).when(cartReceiptToIOServiceMock).notifyCartAsync(any());
+        doAnswer(invocation -> {
+            CartForReceipt cart = invocation.getArgument(1);
+            return List.of(CartIOMessage.builder().cartId(cart.getCartId()).build());
+        }).when(cartReceiptToIOServiceMock).verifyNotificationResultAndUpdateCartReceipt(any(), any(), any());
+
+        List<CartForReceipt> carts = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            carts.add(CartForReceipt.builder()
+                    .cartId("cartId" + i)
+                    .payload(
+                            Payload.builder()
+                                    .cart(Collections.singletonList(new CartPayment()))
+                                    .build()
+                    )
+                    .status(CartStatusType.GENERATED)
+                    .build());
+        }
+
+        assertDoesNotThrow(() -> sut.processCartReceipts(
+                carts,
+                documentCartReceiptsMock,
+                documentMessagesMock
+        ));
+
+        ArgumentCaptor<List<CartForReceipt>> cartCaptor = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<CartIOMessage>> messageCaptor = ArgumentCaptor.forClass(List.class);
+        verify(documentCartReceiptsMock).setValue(cartCaptor.capture());
+        verify(documentMessagesMock).setValue(messageCaptor.capture());
+
+        Set<String> cartIds = cartCaptor.getValue().stream().map(CartForReceipt::getCartId).collect(Collectors.toSet());
+        assertEquals(batchSize, cartCaptor.getValue().size());
+        assertEquals(batchSize, cartIds.size());
+        assertEquals(batchSize, messageCaptor.getValue().size());
+        assertTrue(messageCaptor.getValue().stream().noneMatch(Objects::isNull));
+    }
+
+    @Test
+    void cartReceiptToIOWithoutCosmosClientFailsInBulkMode() throws Exception {
+        withEnvironmentVariables("RECEIPT_WRITE_MODE", "BULK")
+                .execute(() -> assertThrows(IllegalStateException.class, () -> new CartReceiptToIO(cartReceiptToIOServiceMock)));
+    }
+
+    private static CartForReceipt buildCart(String cartId) {
+        return CartForReceipt.builder()
+                .cartId(cartId)
+                .payload(
+                        Payload.builder()
+                                .cart(Collections.singletonList(new CartPayment()))
+                                .build()
+                )
+                .status(CartStatusType.GENERATED)
+                .build();
+    }
+}
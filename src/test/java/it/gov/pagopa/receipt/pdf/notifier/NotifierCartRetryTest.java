@@ -3,27 +3,44 @@ package it.gov.pagopa.receipt.pdf.notifier;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.functions.OutputBinding;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
+import it.gov.pagopa.receipt.pdf.notifier.client.CartReceiptCosmosClient;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartForReceipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartStatusType;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.model.RetryMessage;
 import it.gov.pagopa.receipt.pdf.notifier.utils.ObjectMapperUtils;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryMessageCodec;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueDrainer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
+import static uk.org.webcompere.systemstubs.SystemStubs.withEnvironmentVariables;
 
 @ExtendWith(MockitoExtension.class)
 class NotifierCartRetryTest {
 
-    @Spy
+    @Mock
+    private CartReceiptCosmosClient cartReceiptCosmosClientMock;
+
+    @Mock
+    private RetryQueueDrainer<CartForReceipt> retryQueueDrainerMock;
+
+    @InjectMocks
     NotifierCartRetry function;
 
     @Mock
@@ -62,4 +79,92 @@ class NotifierCartRetryTest {
         assertDoesNotThrow(() -> function.processNotifierRetry(queueReceipt, documentReceipts, context));
         verify(documentReceipts, never()).setValue(any());
     }
-}
\ No newline at end of file
+
+    @Test
+    void runRetryMessageOk() throws Exception {
+        @SuppressWarnings("unchecked")
+        OutputBinding<List<CartForReceipt>> documentReceipts = (OutputBinding<List<CartForReceipt>>) spy(OutputBinding.class);
+
+        CartForReceipt receipt = new CartForReceipt();
+        receipt.setStatus(CartStatusType.IO_ERROR_TO_NOTIFY);
+        receipt.setNotificationNumRetry(1);
+        when(cartReceiptCosmosClientMock.getCartForReceiptDocument("id", "id")).thenReturn(receipt);
+
+        assertDoesNotThrow(() -> function.processNotifierRetry(buildRetryMessage(1), documentReceipts, context));
+
+        verify(documentReceipts).setValue(receiptCaptor.capture());
+        assertEquals(receipt, receiptCaptor.getValue().get(0));
+        assertEquals(CartStatusType.IO_NOTIFIER_RETRY, receipt.getStatus());
+    }
+
+    @Test
+    void runRetryMessageRequeuedVersionNotWrittenYet() throws Exception {
+        @SuppressWarnings("unchecked")
+        OutputBinding<List<CartForReceipt>> documentReceipts = (OutputBinding<List<CartForReceipt>>) spy(OutputBinding.class);
+
+        CartForReceipt receipt = new CartForReceipt();
+        receipt.setStatus(CartStatusType.GENERATED);
+        when(cartReceiptCosmosClientMock.getCartForReceiptDocument("id", "id")).thenReturn(receipt);
+        String queueMessage = buildRetryMessage(1);
+
+        assertThrows(ReceiptNotFoundException.class,
+                () -> function.processNotifierRetry(queueMessage, documentReceipts, context));
+        verify(documentReceipts, never()).setValue(any());
+    }
+
+    @Test
+    void runRetryMessageAlreadyNotified() throws Exception {
+        @SuppressWarnings("unchecked")
+        OutputBinding<List<CartForReceipt>> documentReceipts = (OutputBinding<List<CartForReceipt>>) spy(OutputBinding.class);
+
+        CartForReceipt receipt = new CartForReceipt();
+        receipt.setStatus(CartStatusType.IO_NOTIFIED);
+        receipt.setNotificationNumRetry(1);
+        when(cartReceiptCosmosClientMock.getCartForReceiptDocument("id", "id")).thenReturn(receipt);
+
+        assertDoesNotThrow(() -> function.processNotifierRetry(buildRetryMessage(1), documentReceipts, context));
+        verify(documentReceipts, never()).setValue(any());
+    }
+
+    /**
+     * The queue trigger receives the message already Base64 decoded
+     */
+    private static String buildRetryMessage(int numRetry) throws JsonProcessingException {
+        String encoded = RetryMessageCodec.encode(RetryMessage.builder()
+                .version(RetryMessage.CURRENT_VERSION)
+                .id("id")
+                .partitionKey("id")
+                .numRetry(numRetry)
+                .build());
+        return new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void runBatchDisabled() {
+        assertDoesNotThrow(() -> function.processNotifierRetryBatch("timerInfo", context));
+
+        verifyNoInteractions(retryQueueDrainerMock);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void runBatchOk() throws Exception {
+        BulkWriter<CartForReceipt> writerMock = mock(BulkWriter.class);
+        when(cartReceiptCosmosClientMock.newCartReceiptRetryBulkWriter()).thenReturn(writerMock);
+        ArgumentCaptor<RetryQueueDrainer.RetryMessageReader<CartForReceipt>> readerCaptor =
+                ArgumentCaptor.forClass(RetryQueueDrainer.RetryMessageReader.class);
+        when(retryQueueDrainerMock.drain(readerCaptor.capture(), eq(writerMock))).thenReturn(2);
+
+        NotifierCartRetry batchFunction = withEnvironmentVariables("NOTIFIER_RETRY_BATCH_ENABLED", "true")
+                .execute(() -> new NotifierCartRetry(cartReceiptCosmosClientMock, retryQueueDrainerMock));
+        assertDoesNotThrow(() -> batchFunction.processNotifierRetryBatch("timerInfo", context));
+
+        CartForReceipt toRetry = new CartForReceipt();
+        toRetry.setStatus(CartStatusType.IO_ERROR_TO_NOTIFY);
+        CartForReceipt notified = new CartForReceipt();
+        notified.setStatus(CartStatusType.IO_NOTIFIED);
+        RetryQueueDrainer.RetryMessageReader<CartForReceipt> reader = readerCaptor.getValue();
+        assertEquals(CartStatusType.IO_NOTIFIER_RETRY, reader.read(ObjectMapperUtils.writeValueAsString(toRetry)).getStatus());
+        assertNull(reader.read(ObjectMapperUtils.writeValueAsString(notified)));
+    }
+}
@@ -2,29 +2,49 @@ package it.gov.pagopa.receipt.pdf.notifier;
 
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.functions.OutputBinding;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
+import it.gov.pagopa.receipt.pdf.notifier.client.ReceiptCosmosClient;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.IOMessage;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.EventData;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReceiptStatusType;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
+import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
 import it.gov.pagopa.receipt.pdf.notifier.service.ReceiptToIOService;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueBatch;
 import lombok.SneakyThrows;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import uk.org.webcompere.systemstubs.jupiter.SystemStubsExtension;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.ANONIMO;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -44,6 +64,8 @@ class ReceiptToIOTest {
     private OutputBinding<List<IOMessage>> documentMessagesMock;
     @Mock
     private ExecutionContext executionContextMock;
+    @Mock
+    private ReceiptCosmosClient receiptCosmosClientMock;
 
     private ReceiptToIO sut;
 
@@ -51,9 +73,9 @@ class ReceiptToIOTest {
     @EnumSource(value = ReceiptStatusType.class, names = {"GENERATED", "SIGNED", "IO_NOTIFIER_RETRY"})
     @SneakyThrows
     void receiptToIOSuccessWithDebtorAndStatusGenerated(ReceiptStatusType status) {
-        doReturn(UserNotifyStatus.NOTIFIED).when(receiptToIOServiceMock).notifyMessage(anyString(), any(), any());
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
         doReturn(Collections.singletonList(new IOMessage()))
-                .when(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+                .when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
 
         Receipt receipt = new Receipt();
         EventData eventData = new EventData();
@@ -64,21 +86,153 @@ class ReceiptToIOTest {
         withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
                     sut = new ReceiptToIO(receiptToIOServiceMock);
-                    sut.processReceiptToIO(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock, executionContextMock);
+                    sut.processReceipts(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock);
                 });
 
-        verify(receiptToIOServiceMock).notifyMessage(anyString(), any(), any());
-        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+        verify(receiptToIOServiceMock).findNotifiedMessages(List.of(receipt));
+        verify(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
         verify(documentReceiptsMock).setValue(anyList());
         verify(documentMessagesMock).setValue(anyList());
     }
 
+    @Test
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    void receiptToIOFromChangeFeedNotifiesOnlyNotifiableReceipts() {
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        doReturn(Collections.singletonList(new IOMessage()))
+                .when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
+
+        String documents = "[{\"id\": \"1\", \"eventId\": \"event1\", \"status\": \"SIGNED\", \"eventData\": {\"debtorFiscalCode\": \"" + VALID_DEBTOR_CF + "\"}},"
+                + "{\"id\": \"2\", \"eventId\": \"event2\", \"status\": \"IO_NOTIFIED\", \"eventData\": {\"debtorFiscalCode\": \"" + VALID_DEBTOR_CF + "\"}}]";
+
+        withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
+                .execute(() -> {
+                    sut = new ReceiptToIO(receiptToIOServiceMock);
+                    sut.processReceiptToIO(documents, documentReceiptsMock, documentMessagesMock, executionContextMock);
+                });
+
+        ArgumentCaptor<List<Receipt>> receiptCaptor = ArgumentCaptor.forClass(List.class);
+        verify(documentReceiptsMock).setValue(receiptCaptor.capture());
+        assertEquals(1, receiptCaptor.getValue().size());
+        assertEquals("event1", receiptCaptor.getValue().get(0).getEventId());
+        verify(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+    }
+
+    @Test
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    void receiptToIOPatchModeWritesOnlyFailedPatchesWithBinding() {
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        doReturn(Collections.singletonList(new IOMessage()))
+                .when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
+
+        Receipt patched = buildReceipt(VALID_DEBTOR_CF);
+        Receipt notPatched = buildReceipt(VALID_DEBTOR_CF);
+        doReturn(List.of(notPatched)).when(receiptCosmosClientMock).patchReceipts(anyList());
+
+        withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false", "RECEIPT_WRITE_MODE", "PATCH")
+                .execute(() -> {
+                    sut = new ReceiptToIO(receiptToIOServiceMock, receiptCosmosClientMock);
+                    sut.processReceipts(List.of(patched, notPatched), documentReceiptsMock, documentMessagesMock);
+                });
+
+        ArgumentCaptor<List<Receipt>> patchCaptor = ArgumentCaptor.forClass(List.class);
+        verify(receiptCosmosClientMock).patchReceipts(patchCaptor.capture());
+        assertEquals(Set.of(patched, notPatched), Set.copyOf(patchCaptor.getValue()));
+        verify(documentReceiptsMock).setValue(List.of(notPatched));
+        verify(documentMessagesMock).setValue(anyList());
+    }
+
+    @Test
+    @SneakyThrows
+    void receiptToIOPatchModeAllPatched() {
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        doReturn(Collections.emptyList())
+                .when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
+        doReturn(Collections.emptyList()).when(receiptCosmosClientMock).patchReceipts(anyList());
+
+        withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false", "RECEIPT_WRITE_MODE", "PATCH")
+                .execute(() -> {
+                    sut = new ReceiptToIO(receiptToIOServiceMock, receiptCosmosClientMock);
+                    sut.processReceipts(List.of(buildReceipt(VALID_DEBTOR_CF)), documentReceiptsMock, documentMessagesMock);
+                });
+
+        verify(receiptCosmosClientMock).patchReceipts(anyList());
+        verify(documentReceiptsMock, never()).setValue(anyList());
+    }
+
+    @Test
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    void receiptToIOBulkModeWritesOnlyFailedDocumentsWithBinding() {
+        IOMessage ioMessage = new IOMessage();
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        doReturn(List.of(ioMessage))
+                .when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
+
+        Receipt receipt = buildReceipt(VALID_DEBTOR_CF);
+        BulkWriter<Receipt> receiptWriterMock = mock(BulkWriter.class);
+        BulkWriter<IOMessage> messageWriterMock = mock(BulkWriter.class);
+        doReturn(receiptWriterMock).when(receiptCosmosClientMock).newReceiptBulkWriter();
+        doReturn(messageWriterMock).when(receiptCosmosClientMock).newIOMessageBulkWriter();
+        doReturn(Collections.emptyList()).when(receiptWriterMock).complete();
+        doReturn(List.of(ioMessage)).when(messageWriterMock).complete();
+
+        withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false", "RECEIPT_WRITE_MODE", "BULK")
+                .execute(() -> {
+                    sut = new ReceiptToIO(receiptToIOServiceMock, receiptCosmosClientMock);
+                    sut.processReceipts(List.of(receipt), documentReceiptsMock, documentMessagesMock);
+                });
+
+        verify(receiptWriterMock).addAll(List.of(receipt));
+        verify(messageWriterMock).addAll(List.of(ioMessage));
+        verify(receiptCosmosClientMock, never()).patchReceipts(anyList());
+        verify(documentReceiptsMock, never()).setValue(anyList());
+        verify(documentMessagesMock).setValue(List.of(ioMessage));
+    }
+
+    @Test
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    void receiptToIOBulkModeCompletesWritersWhenBatchFails() {
+        IOMessage ioMessage = new IOMessage();
+        Receipt notifiedReceipt = buildReceipt(VALID_DEBTOR_CF);
+        notifiedReceipt.setEventId("notified");
+        Receipt failingReceipt = buildReceipt(VALID_DEBTOR_CF);
+        failingReceipt.setEventId("failing");
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        doReturn(List.of(ioMessage)).when(receiptToIOServiceMock).verifyMessagesNotification(any(), eq(notifiedReceipt), any());
+        doThrow(new IllegalStateException()).when(receiptToIOServiceMock).verifyMessagesNotification(any(), eq(failingReceipt), any());
+
+        BulkWriter<Receipt> receiptWriterMock = mock(BulkWriter.class);
+        BulkWriter<IOMessage> messageWriterMock = mock(BulkWriter.class);
+        doReturn(receiptWriterMock).when(receiptCosmosClientMock).newReceiptBulkWriter();
+        doReturn(messageWriterMock).when(receiptCosmosClientMock).newIOMessageBulkWriter();
+        doReturn(List.of(notifiedReceipt)).when(receiptWriterMock).complete();
+        doReturn(Collections.emptyList()).when(messageWriterMock).complete();
+
+        withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false", "RECEIPT_WRITE_MODE", "BULK")
+                .execute(() -> {
+                    sut = new ReceiptToIO(receiptToIOServiceMock, receiptCosmosClientMock);
+                    List<Receipt> receipts = List.of(notifiedReceipt, failingReceipt);
+                    assertThrows(CompletionException.class,
+                            () -> sut.processReceipts(receipts, documentReceiptsMock, documentMessagesMock));
+                });
+
+        verify(messageWriterMock).complete();
+        verify(receiptWriterMock).complete();
+        verify(documentReceiptsMock).setValue(List.of(notifiedReceipt));
+        verify(documentMessagesMock, never()).setValue(anyList());
+    }
+
     @Test
     @SneakyThrows
     void receiptToIOSuccessWithDebtorAndPayer() {
-        doReturn(UserNotifyStatus.NOTIFIED).when(receiptToIOServiceMock).notifyMessage(anyString(), any(), any());
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
         doReturn(List.of(new IOMessage(), new IOMessage()))
-                .when(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+                .when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
 
         Receipt receipt = new Receipt();
         EventData eventData = new EventData();
@@ -90,11 +244,11 @@ class ReceiptToIOTest {
         withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
                     sut = new ReceiptToIO(receiptToIOServiceMock);
-                    sut.processReceiptToIO(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock, executionContextMock);
+                    sut.processReceipts(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock);
                 });
 
-        verify(receiptToIOServiceMock, times(2)).notifyMessage(anyString(), any(), any());
-        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+        verify(receiptToIOServiceMock, times(2)).notifyMessageAsync(anyString(), any(), any(), any());
+        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
         verify(documentReceiptsMock).setValue(anyList());
         verify(documentMessagesMock).setValue(anyList());
     }
@@ -102,7 +256,7 @@ class ReceiptToIOTest {
     @Test
     @SneakyThrows
     void receiptToIOSuccessWithDebtorAnonimo() {
-        doReturn(Collections.emptyList()).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+        doReturn(Collections.emptyList()).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
 
         Receipt receipt = new Receipt();
         EventData eventData = new EventData();
@@ -113,11 +267,11 @@ class ReceiptToIOTest {
         withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
                     sut = new ReceiptToIO(receiptToIOServiceMock);
-                    sut.processReceiptToIO(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock, executionContextMock);
+                    sut.processReceipts(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock);
                 });
 
-        verify(receiptToIOServiceMock, never()).notifyMessage(anyString(), any(), any());
-        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+        verify(receiptToIOServiceMock, never()).notifyMessageAsync(anyString(), any(), any(), any());
+        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
         verify(documentReceiptsMock).setValue(anyList());
         verify(documentMessagesMock, never()).setValue(anyList());
     }
@@ -134,11 +288,11 @@ class ReceiptToIOTest {
         withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
                     sut = new ReceiptToIO(receiptToIOServiceMock);
-                    sut.processReceiptToIO(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock, executionContextMock);
+                    sut.processReceipts(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock);
                 });
 
-        verify(receiptToIOServiceMock, never()).notifyMessage(anyString(), any(), any());
-        verify(receiptToIOServiceMock, never()).verifyMessagesNotification(any(), any());
+        verify(receiptToIOServiceMock, never()).notifyMessageAsync(anyString(), any(), any(), any());
+        verify(receiptToIOServiceMock, never()).verifyMessagesNotification(any(), any(), any());
         verify(documentReceiptsMock, never()).setValue(anyList());
         verify(documentMessagesMock, never()).setValue(anyList());
     }
@@ -146,8 +300,8 @@ class ReceiptToIOTest {
     @Test
     @SneakyThrows
     void receiptToIOFailVerifyTriggerRequeue() {
-        doReturn(UserNotifyStatus.NOT_NOTIFIED).when(receiptToIOServiceMock).notifyMessage(anyString(), any(), any());
-        doReturn(Collections.emptyList()).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOT_NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        doReturn(Collections.emptyList()).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
 
         Receipt receipt = new Receipt();
         EventData eventData = new EventData();
@@ -158,20 +312,80 @@ class ReceiptToIOTest {
         withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
                     sut = new ReceiptToIO(receiptToIOServiceMock);
-                    sut.processReceiptToIO(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock, executionContextMock);
+                    sut.processReceipts(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock);
                 });
 
-        verify(receiptToIOServiceMock).notifyMessage(anyString(), any(), any());
-        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+        verify(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
         verify(documentReceiptsMock).setValue(anyList());
         verify(documentMessagesMock, never()).setValue(anyList());
     }
 
+    @Test
+    @SneakyThrows
+    void receiptToIOFailVerifyRequeuedWithRetryBatchBeforeBinding() {
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOT_NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        doAnswer(invocation -> {
+            RetryQueueBatch<Receipt> retryBatch = invocation.getArgument(2);
+            retryBatch.add(invocation.getArgument(1), "retryMessage");
+            return Collections.emptyList();
+        }).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
+        doAnswer(invocation -> {
+            RetryQueueBatch<Receipt> retryBatch = invocation.getArgument(0);
+            retryBatch.getDocuments().forEach(receipt -> receipt.setStatus(ReceiptStatusType.IO_ERROR_TO_NOTIFY));
+            return null;
+        }).when(receiptToIOServiceMock).requeueForRetry(any());
+
+        Receipt receipt = buildReceipt(VALID_DEBTOR_CF);
+
+        withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
+                .execute(() -> {
+                    sut = new ReceiptToIO(receiptToIOServiceMock);
+                    sut.processReceipts(List.of(receipt), documentReceiptsMock, documentMessagesMock);
+                });
+
+        verify(receiptToIOServiceMock).requeueForRetry(any());
+        verify(documentReceiptsMock).setValue(List.of(receipt));
+        assertEquals(ReceiptStatusType.IO_ERROR_TO_NOTIFY, receipt.getStatus());
+    }
+
+    @Test
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    void receiptToIOBulkModeWritesRequeuedReceiptsOnceRetryBatchSent() {
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOT_NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        doAnswer(invocation -> {
+            RetryQueueBatch<Receipt> retryBatch = invocation.getArgument(2);
+            retryBatch.add(invocation.getArgument(1), "retryMessage");
+            return Collections.emptyList();
+        }).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
+
+        Receipt receipt = buildReceipt(VALID_DEBTOR_CF);
+        BulkWriter<Receipt> receiptWriterMock = mock(BulkWriter.class);
+        BulkWriter<IOMessage> messageWriterMock = mock(BulkWriter.class);
+        doReturn(receiptWriterMock).when(receiptCosmosClientMock).newReceiptBulkWriter();
+        doReturn(messageWriterMock).when(receiptCosmosClientMock).newIOMessageBulkWriter();
+        doReturn(Collections.emptyList()).when(receiptWriterMock).complete();
+        doReturn(Collections.emptyList()).when(messageWriterMock).complete();
+
+        withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false", "RECEIPT_WRITE_MODE", "BULK")
+                .execute(() -> {
+                    sut = new ReceiptToIO(receiptToIOServiceMock, receiptCosmosClientMock);
+                    sut.processReceipts(List.of(receipt), documentReceiptsMock, documentMessagesMock);
+                });
+
+        InOrder inOrder = inOrder(receiptToIOServiceMock, receiptWriterMock);
+        inOrder.verify(receiptToIOServiceMock).requeueForRetry(any());
+        inOrder.verify(receiptWriterMock).addAll(List.of(receipt));
+        inOrder.verify(receiptWriterMock).complete();
+        verify(documentReceiptsMock, never()).setValue(anyList());
+    }
+
     @Test
     @SneakyThrows
     void receiptToIOPayerNotNotifiedBecauseDisabled() {
-        doReturn(UserNotifyStatus.NOT_NOTIFIED).when(receiptToIOServiceMock).notifyMessage(anyString(), any(), any());
-        doReturn(Collections.emptyList()).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOT_NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        doReturn(Collections.emptyList()).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
 
         Receipt receipt = new Receipt();
         EventData eventData = new EventData();
@@ -183,11 +397,11 @@ class ReceiptToIOTest {
         withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "true")
                 .execute(() -> {
                     sut = new ReceiptToIO(receiptToIOServiceMock);
-                    sut.processReceiptToIO(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock, executionContextMock);
+                    sut.processReceipts(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock);
                 });
 
-        verify(receiptToIOServiceMock).notifyMessage(anyString(), any(), any());
-        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+        verify(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
         verify(documentReceiptsMock).setValue(anyList());
         verify(documentMessagesMock, never()).setValue(anyList());
     }
@@ -195,7 +409,7 @@ class ReceiptToIOTest {
     @Test
     @SneakyThrows
     void receiptToIONotNotifiedBecausePayerEqualDebtor() {
-        doReturn(Collections.emptyList()).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+        doReturn(Collections.emptyList()).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
 
         Receipt receipt = new Receipt();
         EventData eventData = new EventData();
@@ -207,12 +421,72 @@ class ReceiptToIOTest {
         withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "true")
                 .execute(() -> {
                     sut = new ReceiptToIO(receiptToIOServiceMock);
-                    sut.processReceiptToIO(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock, executionContextMock);
+                    sut.processReceipts(Collections.singletonList(receipt), documentReceiptsMock, documentMessagesMock);
                 });
 
-        verify(receiptToIOServiceMock, never()).notifyMessage(anyString(), any(), any());
-        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any());
+        verify(receiptToIOServiceMock, never()).notifyMessageAsync(anyString(), any(), any(), any());
+        verify(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
         verify(documentReceiptsMock).setValue(anyList());
         verify(documentMessagesMock, never()).setValue(anyList());
     }
-}
\ No newline at end of file
+
+    @Test
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    void receiptToIOConcurrentBatchCollectAllResults() {
+        int batchSize = 5000;
+        doReturn(CompletableFuture.completedFuture(UserNotifyStatus.NOTIFIED)).when(receiptToIOServiceMock).notifyMessageAsync(anyString(), any(), any(), any());
+        doAnswer(invocation -> {
+            Receipt receipt = invocation.getArgument(1);
+            return List.of(
+                    IOMessage.builder().eventId(receipt.getEventId()).userType(UserType.DEBTOR).build(),
+                    IOMessage.builder().eventId(receipt.getEventId()).userType(UserType.PAYER).build()
+            );
+        }).when(receiptToIOServiceMock).verifyMessagesNotification(any(), any(), any());
+
+        List<Receipt> receipts = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            Receipt receipt = new Receipt();
+            EventData eventData = new EventData();
+            eventData.setDebtorFiscalCode(VALID_DEBTOR_CF);
+            eventData.setPayerFiscalCode(VALID_PAYER_CF);
+            receipt.setEventId("eventId" + i);
+            receipt.setEventData(eventData);
+            receipt.setStatus(ReceiptStatusType.GENERATED);
+            receipts.add(receipt);
+        }
+
+        withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
+                .execute(() -> {
+                    sut = new ReceiptToIO(receiptToIOServiceMock);
+                    sut.processReceipts(receipts, documentReceiptsMock, documentMessagesMock);
+                });
+
+        ArgumentCaptor<List<Receipt>> receiptCaptor = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<IOMessage>> messageCaptor = ArgumentCaptor.forClass(List.class);
+        verify(documentReceiptsMock).setValue(receiptCaptor.capture());
+        verify(documentMessagesMock).setValue(messageCaptor.capture());
+
+        Set<String> receiptIds = receiptCaptor.getValue().stream().map(Receipt::getEventId).collect(Collectors.toSet());
+        assertEquals(batchSize, receiptCaptor.getValue().size());
+        assertEquals(batchSize, receiptIds.size());
+        assertEquals(batchSize * 2, messageCaptor.getValue().size());
+        assertTrue(messageCaptor.getValue().stream().noneMatch(Objects::isNull));
+    }
+
+    @Test
+    @SneakyThrows
+    void receiptToIOWithoutCosmosClientFailsInPatchMode() {
+        withEnvironmentVariables("RECEIPT_WRITE_MODE", "PATCH")
+                .execute(() -> assertThrows(IllegalStateException.class, () -> new ReceiptToIO(receiptToIOServiceMock)));
+    }
+
+    private static Receipt buildReceipt(String debtorFiscalCode) {
+        Receipt receipt = new Receipt();
+        EventData eventData = new EventData();
+        eventData.setDebtorFiscalCode(debtorFiscalCode);
+        receipt.setEventData(eventData);
+        receipt.setStatus(ReceiptStatusType.GENERATED);
+        return receipt;
+    }
+}
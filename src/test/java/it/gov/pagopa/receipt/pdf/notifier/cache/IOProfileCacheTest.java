@@ -0,0 +1,68 @@
+package it.gov.pagopa.receipt.pdf.notifier.cache;
+
+import it.gov.pagopa.receipt.pdf.notifier.cache.IOProfileCache.ProfileStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IOProfileCacheTest {
+
+    private static final String CF = "JHNDOE80D05B157Y";
+    private static final String OTHER_CF = "JHNDOE80D05B157X";
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private IOProfileCache buildCache() {
+        return new IOProfileCache(10, Duration.ofMinutes(60), Duration.ofMinutes(10), "salt", nanos::get);
+    }
+
+    @Test
+    void getReturnCachedStatus() {
+        IOProfileCache sut = buildCache();
+
+        sut.put(CF, ProfileStatus.ALLOWED);
+        sut.put(OTHER_CF, ProfileStatus.NOT_ALLOWED);
+
+        assertEquals(ProfileStatus.ALLOWED, sut.get(CF));
+        assertEquals(ProfileStatus.NOT_ALLOWED, sut.get(OTHER_CF));
+    }
+
+    @Test
+    void notIOUserExpireBeforeIOUser() {
+        IOProfileCache sut = buildCache();
+        sut.put(CF, ProfileStatus.ALLOWED);
+        sut.put(OTHER_CF, ProfileStatus.NOT_IO_USER);
+
+        nanos.addAndGet(Duration.ofMinutes(11).toNanos());
+
+        assertEquals(ProfileStatus.ALLOWED, sut.get(CF));
+        assertNull(sut.get(OTHER_CF));
+
+        nanos.addAndGet(Duration.ofMinutes(50).toNanos());
+
+        assertNull(sut.get(CF));
+    }
+
+    @Test
+    void keysDoNotContainFiscalCode() {
+        IOProfileCache sut = buildCache();
+
+        sut.put(CF, ProfileStatus.ALLOWED);
+
+        assertEquals(1, sut.getCache().asMap().size());
+        sut.getCache().asMap().keySet().forEach(key -> assertFalse(key.contains(CF)));
+    }
+
+    @Test
+    void notifyAllowedOnlyForAllowedStatus() {
+        assertTrue(ProfileStatus.ALLOWED.isNotifyAllowed());
+        assertFalse(ProfileStatus.NOT_ALLOWED.isNotifyAllowed());
+        assertFalse(ProfileStatus.NOT_IO_USER.isNotifyAllowed());
+    }
+}
@@ -0,0 +1,66 @@
+package it.gov.pagopa.receipt.pdf.notifier.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecentWritesIndexTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private RecentWritesIndex buildIndex() {
+        return new RecentWritesIndex(10, Duration.ofMinutes(5), nanos::get);
+    }
+
+    @Test
+    void isEchoOfRecordedWrite() {
+        RecentWritesIndex sut = buildIndex();
+
+        sut.record("id", "etag");
+
+        assertTrue(sut.isEcho("id", "etag"));
+        assertFalse(sut.isEcho("id", "otherEtag"));
+        assertFalse(sut.isEcho("otherId", "etag"));
+        assertFalse(sut.isEcho("id", null));
+        assertEquals(4, sut.getMetrics().getCheckedCount());
+        assertEquals(1, sut.getMetrics().getEchoCount());
+        assertEquals(1, sut.getMetrics().getRecordedCount());
+    }
+
+    @Test
+    void onlyLastWriteIsEcho() {
+        RecentWritesIndex sut = buildIndex();
+
+        sut.record("id", "etag");
+        sut.record("id", "newEtag");
+
+        assertFalse(sut.isEcho("id", "etag"));
+        assertTrue(sut.isEcho("id", "newEtag"));
+        assertEquals(1, sut.getMetrics().getIndexSize());
+    }
+
+    @Test
+    void writesWithoutEtagNotRecorded() {
+        RecentWritesIndex sut = buildIndex();
+
+        sut.record("id", null);
+
+        assertFalse(sut.isEcho("id", null));
+        assertEquals(0, sut.getMetrics().getRecordedCount());
+    }
+
+    @Test
+    void recordedWritesExpire() {
+        RecentWritesIndex sut = buildIndex();
+        sut.record("id", "etag");
+
+        nanos.addAndGet(Duration.ofMinutes(6).toNanos());
+
+        assertFalse(sut.isEcho("id", "etag"));
+    }
+}
@@ -1,25 +1,59 @@
 package it.gov.pagopa.receipt.pdf.notifier.client.impl;
 
-import com.azure.cosmos.CosmosContainer;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosBatch;
+import com.azure.cosmos.models.CosmosBatchOperationResult;
+import com.azure.cosmos.models.CosmosBatchResponse;
+import com.azure.cosmos.models.CosmosBulkExecutionOptions;
+import com.azure.cosmos.models.CosmosBulkItemResponse;
+import com.azure.cosmos.models.CosmosBulkOperationResponse;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.CosmosItemOperationType;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.CosmosPatchItemRequestOptions;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.PartitionKey;
 import com.azure.cosmos.models.SqlQuerySpec;
-import com.azure.cosmos.util.CosmosPagedIterable;
+import com.azure.cosmos.util.CosmosPagedFlux;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartForReceipt;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartPayment;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartStatusType;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.MessageData;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.Payload;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.CartIOMessage;
-import it.gov.pagopa.receipt.pdf.notifier.exception.CartIoMessageNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.ReasonError;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.ReceiptMetadata;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static uk.org.webcompere.systemstubs.SystemStubs.withEnvironmentVariables;
 
@@ -30,15 +64,23 @@ class CartReceiptCosmosClientImplTest {
     private static final String BIZ_EVENT_ID = "1";
 
     @Mock
-    private CosmosContainer mockContainer;
+    private CosmosAsyncContainer mockContainer;
     @Mock
-    private CosmosPagedIterable<CartIOMessage> mockIterable;
+    private CosmosPagedFlux<CartIOMessage> mockFlux;
+
+    @Mock
+    private CosmosAsyncContainer mockCartReceiptContainer;
     @Mock
-    private Stream<CartIOMessage> mockStream;
+    private CosmosItemResponse<Object> mockPatchResponse;
 
-    @InjectMocks
     private CartReceiptCosmosClientImpl sut;
 
+    @BeforeEach
+    void setUp() {
+        when(mockCartReceiptContainer.getId()).thenReturn("cart-for-receipts");
+        sut = new CartReceiptCosmosClientImpl(mockContainer, mockCartReceiptContainer);
+    }
+
     @Test
     void testSingletonConnectionError() throws Exception {
         String mockKey = "mockKeymockKeymockKeymockKeymockKeymockKeymockKeymockKeymockKeymockKeymockKeymockKeyMK==";
@@ -49,43 +91,357 @@ class CartReceiptCosmosClientImplTest {
     }
 
     @Test
-    void findIOMessageWithCartIdAndEventIdAndUserTypeSuccessForPayer() {
+    @SuppressWarnings("unchecked")
+    void getCartForReceiptDocumentSuccess() {
+        CartForReceipt cartForReceipt = CartForReceipt.builder().id("cartId").build();
+        CosmosItemResponse<CartForReceipt> response = mock(CosmosItemResponse.class);
+        when(response.getItem()).thenReturn(cartForReceipt);
+        when(mockCartReceiptContainer.readItem("cartId", new PartitionKey("cartId"), CartForReceipt.class))
+                .thenReturn(Mono.just(response));
+
+        CartForReceipt result = assertDoesNotThrow(() -> sut.getCartForReceiptDocument("cartId", "cartId"));
+
+        assertEquals(cartForReceipt, result);
+    }
+
+    @Test
+    void getCartForReceiptDocumentNotFound() {
+        CosmosException notFound = mock(CosmosException.class);
+        when(notFound.getStatusCode()).thenReturn(404);
+        when(mockCartReceiptContainer.readItem(anyString(), any(PartitionKey.class), eq(CartForReceipt.class)))
+                .thenReturn(Mono.error(notFound));
+
+        assertThrows(ReceiptNotFoundException.class, () -> sut.getCartForReceiptDocument("cartId", "cartId"));
+    }
+
+    @Test
+    void findAllIOMessagesForCartSuccess() {
+        CartIOMessage payerMessage = CartIOMessage.builder().cartId(CART_ID).userType(UserType.PAYER).build();
+        CartIOMessage debtorMessage = CartIOMessage.builder().cartId(CART_ID).eventId(BIZ_EVENT_ID).userType(UserType.DEBTOR).build();
         when(mockContainer.queryItems(any(SqlQuerySpec.class), any(), eq(CartIOMessage.class)))
-                .thenReturn(mockIterable);
-        when(mockIterable.stream()).thenReturn(mockStream);
-        when(mockStream.findFirst()).thenReturn(Optional.of(new CartIOMessage()));
+                .thenReturn(mockFlux);
+        Flux<FeedResponse<CartIOMessage>> pages = pages(payerMessage, debtorMessage);
+        when(mockFlux.byPage()).thenReturn(pages);
 
-        CartIOMessage result = assertDoesNotThrow(
-                () -> sut.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, null, UserType.PAYER)
-        );
+        List<CartIOMessage> result = assertDoesNotThrow(() -> sut.findAllIOMessagesForCart(CART_ID));
 
-        assertNotNull(result);
+        assertEquals(List.of(payerMessage, debtorMessage), result);
     }
 
     @Test
-    void findIOMessageWithCartIdAndEventIdAndUserTypeSuccessForDebtor() {
+    void findAllIOMessagesForCartEmpty() {
         when(mockContainer.queryItems(any(SqlQuerySpec.class), any(), eq(CartIOMessage.class)))
-                .thenReturn(mockIterable);
-        when(mockIterable.stream()).thenReturn(mockStream);
-        when(mockStream.findFirst()).thenReturn(Optional.of(new CartIOMessage()));
+                .thenReturn(mockFlux);
+        Flux<FeedResponse<CartIOMessage>> pages = pages();
+        when(mockFlux.byPage()).thenReturn(pages);
 
-        CartIOMessage result = assertDoesNotThrow(
-                () -> sut.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, BIZ_EVENT_ID, UserType.DEBTOR)
-        );
+        List<CartIOMessage> result = assertDoesNotThrow(() -> sut.findAllIOMessagesForCart(CART_ID));
 
         assertNotNull(result);
+        assertEquals(0, result.size());
     }
 
     @Test
-    void getCartItemFail() {
-        when(mockContainer.queryItems(any(SqlQuerySpec.class), any(), eq(CartIOMessage.class)))
-                .thenReturn(mockIterable);
-        when(mockIterable.stream()).thenReturn(mockStream);
-        when(mockStream.findFirst()).thenReturn(Optional.empty());
+    void cartReceiptBulkWriterPatchesCartReceipts() {
+        CartForReceipt cartReceipt = buildCartReceipt("cartReceiptId", 1);
+        List<CosmosItemOperation> executed = new CopyOnWriteArrayList<>();
+        mockBulkExecution(mockCartReceiptContainer, executed);
+
+        BulkWriter<CartForReceipt> writer = sut.newCartReceiptBulkWriter();
+        writer.addAll(List.of(cartReceipt));
+
+        assertTrue(writer.complete().isEmpty());
+        assertEquals(1, executed.size());
+        assertEquals(CosmosItemOperationType.PATCH, executed.get(0).getOperationType());
+        assertEquals(new PartitionKey(cartReceipt.getId()), executed.get(0).getPartitionKeyValue());
+    }
+
+    @Test
+    void cartReceiptBulkWriterPatchesManyDebtorsInTransactionalBatch() {
+        CartForReceipt cartReceipt = buildCartReceipt("cartReceiptId", 3);
+        cartReceipt.getPayload().getCart().forEach(payment -> payment.setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED));
+        List<CosmosItemOperation> executed = new CopyOnWriteArrayList<>();
+        mockBulkExecution(mockCartReceiptContainer, executed);
+        CosmosBatchResponse batchResponse = mockBatchResponse(true, 200);
+        when(mockCartReceiptContainer.executeCosmosBatch(any(CosmosBatch.class))).thenReturn(Mono.just(batchResponse));
+
+        BulkWriter<CartForReceipt> writer = sut.newCartReceiptBulkWriter();
+        writer.addAll(List.of(cartReceipt));
+
+        assertTrue(writer.complete().isEmpty());
+        assertTrue(executed.isEmpty());
+        ArgumentCaptor<CosmosBatch> batch = ArgumentCaptor.forClass(CosmosBatch.class);
+        verify(mockCartReceiptContainer).executeCosmosBatch(batch.capture());
+        assertEquals(new PartitionKey("cartReceiptId"), batch.getValue().getPartitionKeyValue());
+        assertEquals(2, batch.getValue().getOperations().size());
+        batch.getValue().getOperations()
+                .forEach(operation -> assertEquals(CosmosItemOperationType.PATCH, operation.getOperationType()));
+    }
+
+    @Test
+    void cartIOMessageBulkWriterUpsertsMessages() {
+        CartIOMessage ioMessage = CartIOMessage.builder()
+                .id("messageId")
+                .cartId(CART_ID)
+                .userType(UserType.PAYER)
+                .build();
+        List<CosmosItemOperation> executed = new CopyOnWriteArrayList<>();
+        mockBulkExecution(mockContainer, executed);
+
+        BulkWriter<CartIOMessage> writer = sut.newCartIOMessageBulkWriter();
+        writer.addAll(List.of(ioMessage));
+
+        assertTrue(writer.complete().isEmpty());
+        assertEquals(1, executed.size());
+        assertEquals(CosmosItemOperationType.UPSERT, executed.get(0).getOperationType());
+        assertEquals(new PartitionKey(CART_ID), executed.get(0).getPartitionKeyValue());
+    }
+
+    @Test
+    void patchCartReceiptsSuccess() {
+        CartForReceipt cartReceipt = buildCartReceipt("cartReceiptId", 2);
+
+        when(mockCartReceiptContainer.patchItem(eq("cartReceiptId"), eq(new PartitionKey("cartReceiptId")), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class)))
+                .thenReturn(Mono.just(mockPatchResponse));
+
+        List<CartForReceipt> failed = sut.patchCartReceipts(List.of(cartReceipt));
+
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    void patchCartReceiptsWithManyPaymentsSuccess() {
+        CartForReceipt cartReceipt = buildCartReceipt("cartReceiptId", 10);
+
+        when(mockCartReceiptContainer.patchItem(eq("cartReceiptId"), eq(new PartitionKey("cartReceiptId")), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class)))
+                .thenReturn(Mono.just(mockPatchResponse));
+
+        List<CartForReceipt> failed = sut.patchCartReceipts(List.of(cartReceipt));
+
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void patchCartReceiptsBatchConflictSkippedIfAlreadyNotified() {
+        CartForReceipt cartReceipt = buildCartReceipt("cartReceiptId", 2);
+        cartReceipt.setEtag("staleEtag");
+        cartReceipt.getPayload().getCart().forEach(payment -> payment.setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED));
+        CartForReceipt current = buildCartReceipt("cartReceiptId", 2);
+        CosmosBatchResponse batchResponse = mockBatchResponse(false, 412);
+        CosmosItemResponse<CartForReceipt> readResponse = mock(CosmosItemResponse.class);
+        when(readResponse.getItem()).thenReturn(current);
+
+        when(mockCartReceiptContainer.executeCosmosBatch(any(CosmosBatch.class))).thenReturn(Mono.just(batchResponse));
+        when(mockCartReceiptContainer.readItem("cartReceiptId", new PartitionKey("cartReceiptId"), CartForReceipt.class))
+                .thenReturn(Mono.just(readResponse));
+
+        List<CartForReceipt> failed = sut.patchCartReceipts(List.of(cartReceipt));
+
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    void patchCartReceiptsReturnsFailedBatchCartReceipts() {
+        CartForReceipt cartReceipt = buildCartReceipt("cartReceiptId", 2);
+        cartReceipt.getPayload().getCart().forEach(payment -> payment.setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED));
+        CosmosBatchResponse batchResponse = mockBatchResponse(false, 500);
+
+        when(mockCartReceiptContainer.executeCosmosBatch(any(CosmosBatch.class))).thenReturn(Mono.just(batchResponse));
+
+        List<CartForReceipt> failed = sut.patchCartReceipts(List.of(cartReceipt));
+
+        assertEquals(List.of(cartReceipt), failed);
+    }
+
+    @Test
+    void buildCartReceiptPatchesGroupsNotifiedDebtors() {
+        CartForReceipt cartReceipt = buildCartReceipt("cartReceiptId", 6);
+        assertEquals(1, CartReceiptCosmosClientImpl.buildCartReceiptPatches(cartReceipt).size());
+
+        cartReceipt.getPayload().getCart().get(3).setNotifyStatusDebtor(UserNotifyStatus.NOT_NOTIFIED);
+        assertEquals(1, CartReceiptCosmosClientImpl.buildCartReceiptPatches(cartReceipt).size());
+
+        cartReceipt.getPayload().getCart().get(5).setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED);
+        assertEquals(2, CartReceiptCosmosClientImpl.buildCartReceiptPatches(cartReceipt).size());
+
+        cartReceipt.getPayload().getCart().forEach(payment -> payment.setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED));
+        assertEquals(3, CartReceiptCosmosClientImpl.buildCartReceiptPatches(cartReceipt).size());
+    }
+
+    @Test
+    void patchCartReceiptsReturnsFailedCartReceipts() {
+        CartForReceipt cartReceipt = buildCartReceipt("cartReceiptId", 1);
+
+        when(mockCartReceiptContainer.patchItem(eq("cartReceiptId"), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class)))
+                .thenReturn(Mono.error(mock(CosmosException.class)));
+
+        List<CartForReceipt> failed = sut.patchCartReceipts(List.of(cartReceipt));
+
+        assertEquals(List.of(cartReceipt), failed);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void patchCartReceiptsConflictSkippedIfAlreadyNotified() {
+        CartForReceipt cartReceipt = buildCartReceipt("cartReceiptId", 1);
+        cartReceipt.setEtag("staleEtag");
+        CartForReceipt current = buildCartReceipt("cartReceiptId", 1);
+        CosmosException preconditionFailed = mock(CosmosException.class);
+        when(preconditionFailed.getStatusCode()).thenReturn(412);
+        CosmosItemResponse<CartForReceipt> readResponse = mock(CosmosItemResponse.class);
+        when(readResponse.getItem()).thenReturn(current);
+
+        when(mockCartReceiptContainer.patchItem(eq("cartReceiptId"), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class)))
+                .thenReturn(Mono.error(preconditionFailed));
+        when(mockCartReceiptContainer.readItem("cartReceiptId", new PartitionKey("cartReceiptId"), CartForReceipt.class))
+                .thenReturn(Mono.just(readResponse));
+
+        List<CartForReceipt> failed = sut.patchCartReceipts(List.of(cartReceipt));
+
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    void mergeCartReceiptKeepsCurrentCompletedNotifyStatuses() {
+        CartForReceipt current = buildCartReceipt("cartReceiptId", 2);
+        current.setStatus(CartStatusType.IO_NOTIFIER_RETRY);
+        current.getPayload().setNotifyStatusPayer(UserNotifyStatus.ALREADY_NOTIFIED);
+        current.getPayload().getCart().get(0).setNotifyStatusDebtor(UserNotifyStatus.NOT_TO_BE_NOTIFIED);
+        CartForReceipt processed = buildCartReceipt("cartReceiptId", 2);
+        processed.getPayload().setNotifyStatusPayer(UserNotifyStatus.NOT_NOTIFIED);
+        processed.getPayload().getCart().get(1).setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED);
+
+        CartForReceipt merged = CartReceiptCosmosClientImpl.mergeCartReceipt(current, processed);
+
+        assertEquals(UserNotifyStatus.ALREADY_NOTIFIED, merged.getPayload().getNotifyStatusPayer());
+        assertEquals(UserNotifyStatus.NOT_TO_BE_NOTIFIED, merged.getPayload().getCart().get(0).getNotifyStatusDebtor());
+        assertEquals(UserNotifyStatus.NOTIFIED, merged.getPayload().getCart().get(1).getNotifyStatusDebtor());
+    }
+
+    @Test
+    void mergeCartReceiptKeepsCurrentMessages() {
+        MessageData payerMessage = MessageData.builder().id("payerMessageId").build();
+        MessageData debtorMessage = MessageData.builder().id("debtorMessageId").build();
+        CartForReceipt current = buildCartReceipt("cartReceiptId", 2);
+        current.setStatus(CartStatusType.SIGNED);
+        current.setEtag("currentEtag");
+        current.getPayload().setMessagePayer(payerMessage);
+        current.getPayload().getCart().get(1).setMessageDebtor(debtorMessage);
+        CartForReceipt processed = buildCartReceipt("cartReceiptId", 2);
+        processed.getPayload().getCart().get(0).setMessageDebtor(MessageData.builder().id("newDebtorMessageId").build());
+
+        CartForReceipt merged = CartReceiptCosmosClientImpl.mergeCartReceipt(current, processed);
+
+        assertEquals("currentEtag", merged.getEtag());
+        assertEquals(payerMessage, merged.getPayload().getMessagePayer());
+        assertEquals("newDebtorMessageId", merged.getPayload().getCart().get(0).getMessageDebtor().getId());
+        assertEquals(debtorMessage, merged.getPayload().getCart().get(1).getMessageDebtor());
+    }
+
+    @Test
+    void mergeCartReceiptKeepsCurrentPaymentFields() {
+        ReceiptMetadata mdAttach = new ReceiptMetadata();
+        mdAttach.setName("debtorReceipt");
+        CartForReceipt current = buildCartReceipt("cartReceiptId", 2);
+        current.setStatus(CartStatusType.SIGNED);
+        current.getPayload().getCart().get(1).setMdAttach(mdAttach);
+        CartForReceipt processed = buildCartReceipt("cartReceiptId", 2);
+        processed.getPayload().getCart().get(1).setNotifyStatusDebtor(UserNotifyStatus.NOT_NOTIFIED);
+        processed.getPayload().getCart().get(1).setReasonErrDebtor(ReasonError.builder().code(500).build());
+
+        CartForReceipt merged = CartReceiptCosmosClientImpl.mergeCartReceipt(current, processed);
+
+        CartPayment payment = merged.getPayload().getCart().get(1);
+        assertEquals(mdAttach, payment.getMdAttach());
+        assertEquals(UserNotifyStatus.NOT_NOTIFIED, payment.getNotifyStatusDebtor());
+        assertEquals(500, payment.getReasonErrDebtor().getCode());
+    }
+
+    @Test
+    void mergeCartReceiptMatchesPaymentsByBizEventId() {
+        CartForReceipt current = buildCartReceipt("cartReceiptId", 2);
+        current.setStatus(CartStatusType.SIGNED);
+        List<CartPayment> currentCart = current.getPayload().getCart();
+        current.getPayload().setCart(new ArrayList<>(List.of(currentCart.get(1), currentCart.get(0))));
+        CartForReceipt processed = buildCartReceipt("cartReceiptId", 2);
+        processed.getPayload().getCart().get(1).setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED);
+
+        CartForReceipt merged = CartReceiptCosmosClientImpl.mergeCartReceipt(current, processed);
+
+        CartPayment payment = merged.getPayload().getCart().get(0);
+        assertEquals("event1", payment.getBizEventId());
+        assertEquals(UserNotifyStatus.NOTIFIED, payment.getNotifyStatusDebtor());
+        assertNull(merged.getPayload().getCart().get(1).getNotifyStatusDebtor());
+    }
+
+    @Test
+    void mergeCartReceiptGivesUpOnDifferentPayments() {
+        CartForReceipt current = buildCartReceipt("cartReceiptId", 2);
+        current.setStatus(CartStatusType.SIGNED);
+        current.getPayload().getCart().get(1).setBizEventId("otherEvent");
+        CartForReceipt processed = buildCartReceipt("cartReceiptId", 2);
+
+        assertNull(CartReceiptCosmosClientImpl.mergeCartReceipt(current, processed));
+    }
+
+    @Test
+    void mergeCartReceiptGivesUpOnDifferentPaymentsCount() {
+        CartForReceipt current = buildCartReceipt("cartReceiptId", 3);
+        current.setStatus(CartStatusType.SIGNED);
+        CartForReceipt processed = buildCartReceipt("cartReceiptId", 2);
+
+        assertNull(CartReceiptCosmosClientImpl.mergeCartReceipt(current, processed));
+    }
+
+    private static CartForReceipt buildCartReceipt(String id, int payments) {
+        List<CartPayment> cart = new ArrayList<>();
+        for (int i = 0; i < payments; i++) {
+            cart.add(CartPayment.builder().bizEventId("event" + i).build());
+        }
+        return CartForReceipt.builder()
+                .id(id)
+                .cartId(id)
+                .status(CartStatusType.IO_NOTIFIED)
+                .payload(Payload.builder().cart(cart).build())
+                .build();
+    }
+
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    private static <T> Flux<FeedResponse<T>> pages(T... items) {
+        FeedResponse<T> page = mock(FeedResponse.class);
+        when(page.getResults()).thenReturn(List.of(items));
+        return Flux.just(page);
+    }
+
+    private static CosmosBatchResponse mockBatchResponse(boolean success, int statusCode) {
+        CosmosBatchResponse response = mock(CosmosBatchResponse.class);
+        when(response.isSuccessStatusCode()).thenReturn(success);
+        lenient().when(response.getStatusCode()).thenReturn(statusCode);
+        if (success) {
+            CosmosBatchOperationResult result = mock(CosmosBatchOperationResult.class);
+            when(result.getETag()).thenReturn("batchEtag");
+            when(response.size()).thenReturn(2);
+            when(response.getResults()).thenReturn(List.of(result, result));
+        }
+        return response;
+    }
 
-        assertThrows(
-                CartIoMessageNotFoundException.class,
-                () -> sut.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, null, UserType.PAYER)
-        );
+    @SuppressWarnings("unchecked")
+    private static void mockBulkExecution(CosmosAsyncContainer container, List<CosmosItemOperation> executed) {
+        when(container.executeBulkOperations(any(), any(CosmosBulkExecutionOptions.class)))
+                .thenAnswer(invocation -> {
+                    Flux<CosmosItemOperation> operations = invocation.getArgument(0);
+                    return operations.map(operation -> {
+                        executed.add(operation);
+                        CosmosBulkItemResponse itemResponse = mock(CosmosBulkItemResponse.class);
+                        when(itemResponse.isSuccessStatusCode()).thenReturn(true);
+                        CosmosBulkOperationResponse<Object> response = mock(CosmosBulkOperationResponse.class);
+                        when(response.getResponse()).thenReturn(itemResponse);
+                        lenient().when(response.getOperation()).thenReturn(operation);
+                        return response;
+                    });
+                });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,205 @@
+package it.gov.pagopa.receipt.pdf.notifier.client.impl;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.models.CosmosBulkExecutionOptions;
+import com.azure.cosmos.models.CosmosBulkItemResponse;
+import com.azure.cosmos.models.CosmosBulkOperationResponse;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import com.azure.cosmos.models.PartitionKey;
+import com.github.benmanes.caffeine.cache.Ticker;
+import it.gov.pagopa.receipt.pdf.notifier.cache.RecentWritesIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CosmosBulkWriterTest {
+
+    private static final String CONTAINER_NAME = "container";
+
+    @Mock
+    private CosmosAsyncContainer mockContainer;
+
+    private final Map<String, AtomicInteger> throttledAttempts = new ConcurrentHashMap<>();
+    private final Map<String, Integer> statusCodes = new ConcurrentHashMap<>();
+    private Function<CosmosItemOperation, CosmosBulkOperationResponse<String>> responder = this::respond;
+
+    @BeforeEach
+    void setUp() {
+        when(mockContainer.<String>executeBulkOperations(any(), any(CosmosBulkExecutionOptions.class)))
+                .thenAnswer(invocation -> {
+                    Flux<CosmosItemOperation> operations = invocation.getArgument(0);
+                    return operations.map(operation -> responder.apply(operation));
+                });
+    }
+
+    @Test
+    void completeAllWritten() {
+        CosmosBulkWriter<String> sut = newWriter();
+
+        sut.addAll(List.of("a", "b"));
+        sut.addAll(List.of("c"));
+        List<String> failed = sut.complete();
+
+        assertTrue(failed.isEmpty());
+        verify(mockContainer).executeBulkOperations(any(), any(CosmosBulkExecutionOptions.class));
+    }
+
+    @Test
+    void completeReturnsFailedDocuments() {
+        statusCodes.put("b", 400);
+        CosmosBulkWriter<String> sut = newWriter();
+
+        sut.addAll(List.of("a", "b", "c"));
+        List<String> failed = sut.complete();
+
+        assertEquals(List.of("b"), failed);
+    }
+
+    @Test
+    void completeRetriesThrottledDocuments() {
+        throttledAttempts.put("b", new AtomicInteger(1));
+        CosmosBulkWriter<String> sut = newWriter();
+
+        sut.addAll(List.of("a", "b"));
+        List<String> failed = sut.complete();
+
+        assertTrue(failed.isEmpty());
+        verify(mockContainer, times(2)).executeBulkOperations(any(), any(CosmosBulkExecutionOptions.class));
+    }
+
+    @Test
+    void completeReturnsDocumentsThrottledAfterRetries() {
+        throttledAttempts.put("b", new AtomicInteger(Integer.MAX_VALUE));
+        CosmosBulkWriter<String> sut = newWriter();
+
+        sut.addAll(List.of("a", "b"));
+        List<String> failed = sut.complete();
+
+        assertEquals(List.of("b"), failed);
+        verify(mockContainer, times(4)).executeBulkOperations(any(), any(CosmosBulkExecutionOptions.class));
+    }
+
+    @Test
+    void completeResolvesConflictedDocuments() {
+        statusCodes.put("b", 412);
+        statusCodes.put("c", 412);
+        List<String> resolved = new CopyOnWriteArrayList<>();
+        CosmosBulkWriter<String> sut = newWriter(document -> {
+            resolved.add(document);
+            return "c".equals(document) ? Mono.just(document) : Mono.empty();
+        });
+
+        sut.addAll(List.of("a", "b", "c"));
+        List<String> failed = sut.complete();
+
+        assertEquals(List.of("c"), failed);
+        assertEquals(Set.of("b", "c"), Set.copyOf(resolved));
+    }
+
+    @Test
+    void completeReturnsConflictedDocumentsWithoutResolver() {
+        statusCodes.put("b", 412);
+        CosmosBulkWriter<String> sut = newWriter();
+
+        sut.addAll(List.of("a", "b"));
+        List<String> failed = sut.complete();
+
+        assertEquals(List.of("b"), failed);
+    }
+
+    @Test
+    void completeRecordsWrittenVersions() {
+        statusCodes.put("b", 400);
+        RecentWritesIndex recentWrites = new RecentWritesIndex(10, Duration.ofMinutes(5), Ticker.systemTicker());
+        CosmosBulkWriter<String> sut = newWriter(null, recentWrites);
+
+        sut.addAll(List.of("a", "b"));
+        sut.complete();
+
+        assertTrue(recentWrites.isEcho("a", "etag-a"));
+        assertFalse(recentWrites.isEcho("b", "etag-b"));
+    }
+
+    @Test
+    void completeReturnsAllDocumentsIfExecutionFails() {
+        responder = operation -> {
+            throw new IllegalStateException("bulk executor failure");
+        };
+        CosmosBulkWriter<String> sut = newWriter();
+
+        sut.addAll(List.of("a", "b"));
+        List<String> failed = sut.complete();
+
+        assertEquals(List.of("a", "b"), new ArrayList<>(failed));
+    }
+
+    @Test
+    void completeWithoutDocuments() {
+        CosmosBulkWriter<String> sut = newWriter();
+
+        assertTrue(sut.complete().isEmpty());
+    }
+
+    private CosmosBulkWriter<String> newWriter() {
+        return newWriter(null);
+    }
+
+    private CosmosBulkWriter<String> newWriter(Function<String, Mono<String>> conflictResolver) {
+        return newWriter(conflictResolver, null);
+    }
+
+    private CosmosBulkWriter<String> newWriter(
+            Function<String, Mono<String>> conflictResolver,
+            RecentWritesIndex recentWrites
+    ) {
+        Function<String, CosmosItemOperation> operationBuilder =
+                document -> CosmosBulkOperations.getPatchItemOperation(document, new PartitionKey(document),
+                        CosmosPatchOperations.create().set("/status", "IO_NOTIFIED"), document);
+        return new CosmosBulkWriter<>(mockContainer, CONTAINER_NAME, "bulkPatch", operationBuilder, conflictResolver, recentWrites);
+    }
+
+    @SuppressWarnings("unchecked")
+    private CosmosBulkOperationResponse<String> respond(CosmosItemOperation operation) {
+        String document = operation.getContext();
+        AtomicInteger throttled = throttledAttempts.get(document);
+        int statusCode = throttled != null && throttled.getAndDecrement() > 0
+                ? 429
+                : statusCodes.getOrDefault(document, 200);
+
+        CosmosBulkItemResponse itemResponse = mock(CosmosBulkItemResponse.class);
+        lenient().when(itemResponse.getStatusCode()).thenReturn(statusCode);
+        lenient().when(itemResponse.isSuccessStatusCode()).thenReturn(statusCode < 300);
+        lenient().when(itemResponse.getETag()).thenReturn("etag-" + document);
+        CosmosBulkOperationResponse<String> response = mock(CosmosBulkOperationResponse.class);
+        lenient().when(response.getOperation()).thenReturn(operation);
+        lenient().when(response.getResponse()).thenReturn(itemResponse);
+        return response;
+    }
+}
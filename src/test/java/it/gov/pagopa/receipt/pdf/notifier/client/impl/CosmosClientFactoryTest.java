@@ -0,0 +1,38 @@
+package it.gov.pagopa.receipt.pdf.notifier.client.impl;
+
+import com.azure.cosmos.CosmosAsyncClient;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosAsyncDatabase;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CosmosClientFactoryTest {
+
+    @Test
+    void getContainerUsesSharedClient() {
+        CosmosAsyncClient asyncClient = mock(CosmosAsyncClient.class);
+        CosmosAsyncDatabase database = mock(CosmosAsyncDatabase.class);
+        CosmosAsyncContainer container = mock(CosmosAsyncContainer.class);
+        when(asyncClient.getDatabase(any())).thenReturn(database);
+        when(database.getContainer("container")).thenReturn(container);
+
+        CosmosClientFactory sut = new CosmosClientFactory(asyncClient);
+
+        assertSame(asyncClient, sut.getAsyncClient());
+        assertSame(container, sut.getContainer("container"));
+    }
+
+    @Test
+    void parsePreferredRegions() {
+        assertEquals(List.of("West Europe", "North Europe"), CosmosClientFactory.parsePreferredRegions(" West Europe, ,North Europe "));
+        assertTrue(CosmosClientFactory.parsePreferredRegions("").isEmpty());
+    }
+}
@@ -1,20 +1,29 @@
 package it.gov.pagopa.receipt.pdf.notifier.client.impl;
 
 import it.gov.pagopa.receipt.pdf.notifier.client.IOClient;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReasonErrorCode;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IOAPIException;
+import it.gov.pagopa.receipt.pdf.notifier.limiter.AdaptiveConcurrencyLimiter;
+import it.gov.pagopa.receipt.pdf.notifier.limiter.TokenBucketRateLimiter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
@@ -86,4 +95,125 @@ class IOClientImplTest {
 
         verify(clientMock).send(any(), any());
     }
-}
\ No newline at end of file
+
+    @Test
+    void getProfileAsyncSuccess() {
+        doReturn(CompletableFuture.completedFuture(mock(HttpResponse.class))).when(clientMock).sendAsync(any(), any());
+
+        assertDoesNotThrow(() -> sut.getProfileAsync("").join());
+
+        verify(clientMock).sendAsync(any(), any());
+    }
+
+    @Test
+    void submitMessageAsyncFailIOException() {
+        doReturn(CompletableFuture.failedFuture(new IOException())).when(clientMock).sendAsync(any(), any());
+
+        CompletionException e = assertThrows(CompletionException.class, () -> sut.submitMessageAsync("").join());
+
+        assertTrue(e.getCause() instanceof IOAPIException);
+        assertEquals(ReasonErrorCode.ERROR_IO_API_IO.getCode(), ((IOAPIException) e.getCause()).getStatusCode());
+        verify(clientMock).sendAsync(any(), any());
+    }
+
+    @Test
+    void submitMessageAsyncFailUnexpectedException() {
+        doReturn(CompletableFuture.failedFuture(new IllegalStateException())).when(clientMock).sendAsync(any(), any());
+
+        CompletionException e = assertThrows(CompletionException.class, () -> sut.submitMessageAsync("").join());
+
+        assertTrue(e.getCause() instanceof IOAPIException);
+        assertEquals(ReasonErrorCode.ERROR_IO_API_UNEXPECTED.getCode(), ((IOAPIException) e.getCause()).getStatusCode());
+    }
+
+    @Test
+    void getProfileRejectedWhenConcurrencyLimitReached() throws IOException, InterruptedException {
+        AdaptiveConcurrencyLimiter saturatedLimiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0);
+        saturatedLimiter.tryAcquire();
+        IOClient limitedSut = new IOClientImpl(clientMock, saturatedLimiter, saturatedLimiter, unlimited(), unlimited());
+
+        IOAPIException e = assertThrows(IOAPIException.class, () -> limitedSut.getProfile(""));
+
+        assertEquals(ReasonErrorCode.ERROR_IO_API_THROTTLED.getCode(), e.getStatusCode());
+        assertEquals(1, saturatedLimiter.getRejectedCount());
+        verify(clientMock, never()).send(any(), any());
+    }
+
+    @Test
+    void submitMessageAsyncRejectedWhenConcurrencyLimitReached() {
+        AdaptiveConcurrencyLimiter saturatedLimiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0);
+        saturatedLimiter.tryAcquire();
+        IOClient limitedSut = new IOClientImpl(clientMock, saturatedLimiter, saturatedLimiter, unlimited(), unlimited());
+
+        CompletionException e = assertThrows(CompletionException.class, () -> limitedSut.submitMessageAsync("").join());
+
+        assertTrue(e.getCause() instanceof IOAPIException);
+        assertEquals(ReasonErrorCode.ERROR_IO_API_THROTTLED.getCode(), ((IOAPIException) e.getCause()).getStatusCode());
+        verify(clientMock, never()).sendAsync(any(), any());
+    }
+
+    @Test
+    void submitMessageThrottledReduceConcurrencyLimit() throws IOException, InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 0);
+        IOClient limitedSut = new IOClientImpl(clientMock, limiter, limiter, unlimited(), unlimited());
+        HttpResponse<?> response = mock(HttpResponse.class);
+        doReturn(429).when(response).statusCode();
+        doReturn(response).when(clientMock).send(any(), any());
+
+        assertDoesNotThrow(() -> limitedSut.submitMessage(""));
+
+        assertEquals(9, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void submitMessageRejectedWhenRateLimitReached() throws IOException, InterruptedException {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(1, 0);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 0);
+        IOClient limitedSut = new IOClientImpl(clientMock, limiter, limiter, rateLimiter, rateLimiter);
+
+        assertDoesNotThrow(() -> limitedSut.submitMessage(""));
+        IOAPIException e = assertThrows(IOAPIException.class, () -> limitedSut.submitMessage(""));
+
+        assertEquals(ReasonErrorCode.ERROR_IO_API_THROTTLED.getCode(), e.getStatusCode());
+        assertEquals(1, rateLimiter.getRejectedCount());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(10, limiter.getLimit());
+        verify(clientMock).send(any(), any());
+    }
+
+    @Test
+    void submitMessageRejectedByConcurrencyLimitDoesNotConsumeRateLimit() throws IOException, InterruptedException {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(1, 0);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0);
+        IOClient limitedSut = new IOClientImpl(clientMock, limiter, limiter, rateLimiter, rateLimiter);
+        limiter.tryAcquire();
+
+        assertThrows(IOAPIException.class, () -> limitedSut.submitMessage(""));
+        limiter.release(0, false);
+
+        assertDoesNotThrow(() -> limitedSut.submitMessage(""));
+        assertEquals(0, rateLimiter.getRejectedCount());
+        assertEquals(1, rateLimiter.getAcquiredCount());
+        verify(clientMock).send(any(), any());
+    }
+
+    @Test
+    void getProfileAsyncRejectedWhenRateLimitReached() {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(1, 0);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 0);
+        IOClient limitedSut = new IOClientImpl(clientMock, limiter, limiter, rateLimiter, rateLimiter);
+        doReturn(CompletableFuture.completedFuture(mock(HttpResponse.class))).when(clientMock).sendAsync(any(), any());
+
+        assertDoesNotThrow(() -> limitedSut.getProfileAsync("").join());
+        CompletionException e = assertThrows(CompletionException.class, () -> limitedSut.getProfileAsync("").join());
+
+        assertTrue(e.getCause() instanceof IOAPIException);
+        assertEquals(ReasonErrorCode.ERROR_IO_API_THROTTLED.getCode(), ((IOAPIException) e.getCause()).getStatusCode());
+        verify(clientMock).sendAsync(any(), any());
+    }
+
+    private static TokenBucketRateLimiter unlimited() {
+        return new TokenBucketRateLimiter(0, 0);
+    }
+}
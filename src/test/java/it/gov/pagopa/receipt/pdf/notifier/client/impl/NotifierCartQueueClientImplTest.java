@@ -1,20 +1,34 @@
 package it.gov.pagopa.receipt.pdf.notifier.client.impl;
 
+import com.azure.core.http.rest.PagedIterable;
 import com.azure.core.http.rest.Response;
+import com.azure.core.util.BinaryData;
+import com.azure.core.util.Context;
+import com.azure.storage.queue.QueueAsyncClient;
 import com.azure.storage.queue.QueueClient;
+import com.azure.storage.queue.models.QueueMessageItem;
 import com.azure.storage.queue.models.SendMessageResult;
 import com.microsoft.azure.functions.HttpStatus;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static uk.org.webcompere.systemstubs.SystemStubs.withEnvironmentVariables;
 
@@ -26,12 +40,22 @@ class NotifierCartQueueClientImplTest {
     @Mock
     private QueueClient queueClient;
 
+    @Mock
+    private QueueAsyncClient queueAsyncClient;
+
+    @Mock
+    private QueueClient poisonQueueClient;
+
     @Mock
     private Response<SendMessageResult> queueResponseMock;
 
-    @InjectMocks
     private NotifierCartQueueClientImpl sut;
 
+    @BeforeEach
+    void setUp() {
+        sut = new NotifierCartQueueClientImpl(queueClient, queueAsyncClient, poisonQueueClient);
+    }
+
     @Test
     void testSingletonConnectionError() throws Exception {
         @SuppressWarnings("secrets:S6338")
@@ -48,7 +72,7 @@ class NotifierCartQueueClientImplTest {
         when(queueClient.sendMessageWithResponse(eq(MESSAGE_TEXT), any(), eq(null), eq(null), eq(null)))
                 .thenReturn(queueResponseMock);
 
-        Response<SendMessageResult> result = assertDoesNotThrow(() -> sut.sendMessageToQueue(MESSAGE_TEXT));
+        Response<SendMessageResult> result = assertDoesNotThrow(() -> sut.sendMessageToQueue(MESSAGE_TEXT, 1));
 
         assertNotNull(result);
         assertEquals(HttpStatus.CREATED.value(), result.getStatusCode());
@@ -60,9 +84,66 @@ class NotifierCartQueueClientImplTest {
         when(queueClient.sendMessageWithResponse(eq(MESSAGE_TEXT), any(), eq(null), eq(null), eq(null)))
                 .thenReturn(queueResponseMock);
 
-        Response<SendMessageResult> result = assertDoesNotThrow(() -> sut.sendMessageToQueue(MESSAGE_TEXT));
+        Response<SendMessageResult> result = assertDoesNotThrow(() -> sut.sendMessageToQueue(MESSAGE_TEXT, 1));
 
         assertNotNull(result);
         assertEquals(HttpStatus.NO_CONTENT.value(), result.getStatusCode());
     }
-}
\ No newline at end of file
+
+    @Test
+    void runAsyncOk() {
+        when(queueResponseMock.getStatusCode()).thenReturn(HttpStatus.CREATED.value());
+        when(queueAsyncClient.sendMessageWithResponse(eq(MESSAGE_TEXT), any(), eq(null)))
+                .thenReturn(Mono.just(queueResponseMock));
+
+        Response<SendMessageResult> result = sut.sendMessageToQueueAsync(MESSAGE_TEXT, 1).block();
+
+        assertNotNull(result);
+        assertEquals(HttpStatus.CREATED.value(), result.getStatusCode());
+        verify(queueClient, never()).sendMessageWithResponse(anyString(), any(), any(), any(), any());
+    }
+
+    @Test
+    void receiveMessagesOk() {
+        QueueMessageItem message = new QueueMessageItem().setMessageId("messageId").setBody(BinaryData.fromString(MESSAGE_TEXT));
+        @SuppressWarnings("unchecked")
+        PagedIterable<QueueMessageItem> received = mock(PagedIterable.class);
+        when(received.stream()).thenReturn(List.of(message).stream());
+        when(queueClient.receiveMessages(32, Duration.ofSeconds(60), null, Context.NONE)).thenReturn(received);
+
+        List<QueueMessageItem> result = sut.receiveMessages(32, Duration.ofSeconds(60));
+
+        assertEquals(List.of(message), result);
+    }
+
+    @Test
+    void deleteMessageAsyncOk() {
+        @SuppressWarnings("unchecked")
+        Response<Void> deleteResponse = mock(Response.class);
+        when(queueAsyncClient.deleteMessageWithResponse("messageId", "popReceipt")).thenReturn(Mono.just(deleteResponse));
+
+        assertEquals(deleteResponse, sut.deleteMessageAsync("messageId", "popReceipt").block());
+    }
+
+    @Test
+    void sendMessageToPoisonQueueOk() {
+        when(poisonQueueClient.sendMessageWithResponse(MESSAGE_TEXT, null, null, null, null)).thenReturn(queueResponseMock);
+
+        Response<SendMessageResult> result = sut.sendMessageToPoisonQueue(MESSAGE_TEXT);
+
+        assertEquals(queueResponseMock, result);
+        verify(poisonQueueClient).createIfNotExists();
+        verify(queueClient, never()).sendMessageWithResponse(anyString(), any(), any(), any(), any());
+    }
+
+    @Test
+    void sendMessageToPoisonQueueCreatesQueueOnce() {
+        when(poisonQueueClient.sendMessageWithResponse(MESSAGE_TEXT, null, null, null, null)).thenReturn(queueResponseMock);
+
+        sut.sendMessageToPoisonQueue(MESSAGE_TEXT);
+        sut.sendMessageToPoisonQueue(MESSAGE_TEXT);
+
+        verify(poisonQueueClient).createIfNotExists();
+        verify(poisonQueueClient, times(2)).sendMessageWithResponse(MESSAGE_TEXT, null, null, null, null);
+    }
+}
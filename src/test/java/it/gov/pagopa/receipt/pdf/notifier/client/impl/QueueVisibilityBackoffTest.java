@@ -0,0 +1,48 @@
+package it.gov.pagopa.receipt.pdf.notifier.client.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueueVisibilityBackoffTest {
+
+    private final QueueVisibilityBackoff sut = new QueueVisibilityBackoff(Duration.ofSeconds(1), Duration.ofSeconds(60));
+
+    @Test
+    void delayForFirstRetryWithinBaseDelay() {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(Duration.ofMillis(500), Duration.ofSeconds(1), sut.delayFor(1));
+            assertBetween(Duration.ofMillis(500), Duration.ofSeconds(1), sut.delayFor(0));
+        }
+    }
+
+    @Test
+    void delayForGrowsExponentially() {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(Duration.ofSeconds(1), Duration.ofSeconds(2), sut.delayFor(2));
+            assertBetween(Duration.ofSeconds(4), Duration.ofSeconds(8), sut.delayFor(4));
+        }
+    }
+
+    @Test
+    void delayForCappedAtMaxDelay() {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(Duration.ofSeconds(30), Duration.ofSeconds(60), sut.delayFor(10));
+            assertBetween(Duration.ofSeconds(30), Duration.ofSeconds(60), sut.delayFor(Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    void delayForMaxDelayLowerThanBaseDelay() {
+        QueueVisibilityBackoff backoff = new QueueVisibilityBackoff(Duration.ofSeconds(10), Duration.ofSeconds(1));
+
+        assertBetween(Duration.ofSeconds(5), Duration.ofSeconds(10), backoff.delayFor(5));
+    }
+
+    private static void assertBetween(Duration min, Duration max, Duration actual) {
+        assertTrue(actual.compareTo(min) >= 0 && actual.compareTo(max) <= 0,
+                () -> actual + " not between " + min + " and " + max);
+    }
+}
@@ -1,42 +1,87 @@
 package it.gov.pagopa.receipt.pdf.notifier.client.impl;
 
-import com.azure.cosmos.CosmosContainer;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosBulkExecutionOptions;
+import com.azure.cosmos.models.CosmosBulkItemResponse;
+import com.azure.cosmos.models.CosmosBulkOperationResponse;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.CosmosItemOperationType;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.CosmosPatchItemRequestOptions;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.PartitionKey;
 import com.azure.cosmos.models.SqlQuerySpec;
-import com.azure.cosmos.util.CosmosPagedIterable;
+import com.azure.cosmos.util.CosmosPagedFlux;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.IOMessage;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.IOMessageData;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReceiptStatusType;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IoMessageNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.CosmosMetrics;
+import it.gov.pagopa.receipt.pdf.notifier.metrics.CosmosOperationMetrics;
+import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserNotifyStatus;
 import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static uk.org.webcompere.systemstubs.SystemStubs.withEnvironmentVariables;
 
 @ExtendWith(MockitoExtension.class)
 class ReceiptCosmosClientImplTest {
 
+    private static final String CONTAINER_NAME = "receipts-io-messages";
+
     @Mock
-    private CosmosContainer mockContainer;
+    private CosmosAsyncContainer mockContainer;
     @Mock
-    private CosmosPagedIterable<IOMessage> mockIOMessageIterable;
+    private CosmosPagedFlux<IOMessage> mockIOMessageFlux;
+
     @Mock
-    private Stream<IOMessage> mockIOMessageStream;
+    private CosmosItemResponse<IOMessage> mockItemResponse;
+
+    @Mock
+    private CosmosAsyncContainer mockReceiptContainer;
+    @Mock
+    private CosmosItemResponse<Object> mockPatchResponse;
 
-    @InjectMocks
     private ReceiptCosmosClientImpl sut;
 
+    @BeforeEach
+    void setUp() {
+        when(mockReceiptContainer.getId()).thenReturn("receipts");
+        when(mockContainer.getId()).thenReturn(CONTAINER_NAME);
+        sut = new ReceiptCosmosClientImpl(mockContainer, mockReceiptContainer, true);
+    }
+
     @Test
     void testSingletonConnectionError() throws Exception {
         String mockKey = "mockKeymockKeymockKeymockKeymockKeymockKeymockKeymockKeymockKeymockKeymockKeymockKeyMK==";
@@ -47,14 +92,97 @@ class ReceiptCosmosClientImplTest {
     }
 
     @Test
-    void findIOMessageWithEventIdAndUserTypeSuccess() {
+    @SuppressWarnings("unchecked")
+    void getReceiptDocumentSuccess() {
+        Receipt receipt = new Receipt();
+        receipt.setId("receiptId");
+        CosmosItemResponse<Receipt> response = mock(CosmosItemResponse.class);
+        when(response.getItem()).thenReturn(receipt);
+        when(mockReceiptContainer.readItem("receiptId", new PartitionKey("receiptId"), Receipt.class))
+                .thenReturn(Mono.just(response));
+
+        Receipt result = assertDoesNotThrow(() -> sut.getReceiptDocument("receiptId", "receiptId"));
+
+        assertEquals(receipt, result);
+    }
+
+    @Test
+    void getReceiptDocumentNotFound() {
+        CosmosException notFound = mock(CosmosException.class);
+        when(notFound.getStatusCode()).thenReturn(404);
+        when(mockReceiptContainer.readItem(anyString(), any(PartitionKey.class), eq(Receipt.class)))
+                .thenReturn(Mono.error(notFound));
+
+        assertThrows(ReceiptNotFoundException.class, () -> sut.getReceiptDocument("receiptId", "receiptId"));
+    }
+
+    @Test
+    void findIOMessageWithEventIdAndUserTypeSuccessPointRead() {
+        String messageId = "messageId";
+        IOMessage ioMessage = IOMessage.builder().messageId(messageId).build();
+
+        when(mockContainer.readItem("eventId:DEBTOR", new PartitionKey("eventId"), IOMessage.class))
+                .thenReturn(Mono.just(mockItemResponse));
+        when(mockItemResponse.getItem()).thenReturn(ioMessage);
+
+        IOMessage response = assertDoesNotThrow(
+                () -> sut.findIOMessageWithEventIdAndUserType("eventId", UserType.DEBTOR));
+
+        assertNotNull(response);
+        assertEquals(messageId, response.getMessageId());
+        verify(mockContainer, never()).queryItems(any(SqlQuerySpec.class), any(), eq(IOMessage.class));
+    }
+
+    @Test
+    void findIOMessageWithEventIdAndUserTypeRecordsRequestCharge() {
+        CosmosOperationMetrics metrics = CosmosMetrics.forOperation(CONTAINER_NAME, "readItem");
+        long requestCount = metrics.getRequestCount();
+        double requestCharge = metrics.getTotalRequestCharge();
+
+        when(mockContainer.readItem("eventId:DEBTOR", new PartitionKey("eventId"), IOMessage.class))
+                .thenReturn(Mono.just(mockItemResponse));
+        when(mockItemResponse.getItem()).thenReturn(new IOMessage());
+        when(mockItemResponse.getRequestCharge()).thenReturn(1.5);
+
+        assertDoesNotThrow(() -> sut.findIOMessageWithEventIdAndUserType("eventId", UserType.DEBTOR));
+
+        assertEquals(requestCount + 1, metrics.getRequestCount());
+        assertEquals(requestCharge + 1.5, metrics.getTotalRequestCharge());
+    }
+
+    @Test
+    void findIOMessageWithEventIdAndUserTypeFailNotFoundLegacyLookupDisabled() {
+        sut = new ReceiptCosmosClientImpl(mockContainer, mockReceiptContainer, false);
+        mockReadItemNotFound();
+
+        assertThrows(IoMessageNotFoundException.class,
+                () -> sut.findIOMessageWithEventIdAndUserType("eventId", UserType.DEBTOR)
+        );
+        verify(mockContainer, never()).queryItems(any(SqlQuerySpec.class), any(), eq(IOMessage.class));
+    }
+
+    @Test
+    void findIOMessageWithEventIdAndUserTypeFailReadError() {
+        CosmosException cosmosException = mock(CosmosException.class);
+        when(cosmosException.getStatusCode()).thenReturn(503);
+        when(mockContainer.readItem(anyString(), any(PartitionKey.class), eq(IOMessage.class)))
+                .thenReturn(Mono.error(cosmosException));
+
+        assertThrows(CosmosException.class,
+                () -> sut.findIOMessageWithEventIdAndUserType("eventId", UserType.DEBTOR)
+        );
+    }
+
+    @Test
+    void findIOMessageWithEventIdAndUserTypeSuccessLegacyLookup() {
         String messageId = "messageId";
         IOMessage ioMessage = IOMessage.builder().messageId(messageId).build();
 
+        mockReadItemNotFound();
         when(mockContainer.queryItems(any(SqlQuerySpec.class), any(), eq(IOMessage.class)))
-                .thenReturn(mockIOMessageIterable);
-        when(mockIOMessageIterable.stream()).thenReturn(mockIOMessageStream);
-        when(mockIOMessageStream.findFirst()).thenReturn(Optional.of(ioMessage));
+                .thenReturn(mockIOMessageFlux);
+        Flux<FeedResponse<IOMessage>> pages = pages(ioMessage);
+        when(mockIOMessageFlux.byPage()).thenReturn(pages);
 
         IOMessage response = assertDoesNotThrow(
                 () -> sut.findIOMessageWithEventIdAndUserType("eventId", UserType.DEBTOR));
@@ -65,13 +193,271 @@ class ReceiptCosmosClientImplTest {
 
     @Test
     void findIOMessageWithEventIdAndUserTypeFailNotFound() {
+        mockReadItemNotFound();
         when(mockContainer.queryItems(any(SqlQuerySpec.class), any(), eq(IOMessage.class)))
-                .thenReturn(mockIOMessageIterable);
-        when(mockIOMessageIterable.stream()).thenReturn(mockIOMessageStream);
-        when(mockIOMessageStream.findFirst()).thenReturn(Optional.empty());
+                .thenReturn(mockIOMessageFlux);
+        Flux<FeedResponse<IOMessage>> pages = pages();
+        when(mockIOMessageFlux.byPage()).thenReturn(pages);
 
         assertThrows(IoMessageNotFoundException.class,
                 () -> sut.findIOMessageWithEventIdAndUserType("eventId", UserType.DEBTOR)
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void findIOMessagesWithEventIdsQueryInChunks() {
+        List<String> eventIds = IntStream.range(0, 250).mapToObj(i -> "eventId" + i).toList();
+        IOMessage ioMessage = IOMessage.builder().eventId("eventId0").userType(UserType.DEBTOR).messageId("messageId").build();
+
+        when(mockContainer.queryItems(any(SqlQuerySpec.class), any(CosmosQueryRequestOptions.class), eq(IOMessage.class)))
+                .thenReturn(mockIOMessageFlux);
+        Flux<FeedResponse<IOMessage>> pages = pages(ioMessage);
+        when(mockIOMessageFlux.byPage()).thenReturn(pages);
+
+        List<IOMessage> response = sut.findIOMessagesWithEventIds(eventIds);
+
+        ArgumentCaptor<SqlQuerySpec> queryCaptor = ArgumentCaptor.forClass(SqlQuerySpec.class);
+        verify(mockContainer, times(3)).queryItems(queryCaptor.capture(), any(CosmosQueryRequestOptions.class), eq(IOMessage.class));
+        assertEquals(3, response.size());
+        assertEquals(100, queryCaptor.getAllValues().get(0).getParameters().size());
+        assertEquals(50, queryCaptor.getAllValues().get(2).getParameters().size());
+        assertTrue(queryCaptor.getAllValues().get(0).getQueryText().contains("c.eventId IN (@eventId0, @eventId1,"));
+    }
+
+    @Test
+    void patchReceiptsSuccess() {
+        Receipt receipt = new Receipt();
+        receipt.setId("receiptId");
+        receipt.setStatus(ReceiptStatusType.IO_NOTIFIED);
+
+        when(mockReceiptContainer.patchItem(eq("receiptId"), eq(new PartitionKey("receiptId")), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class)))
+                .thenReturn(Mono.just(mockPatchResponse));
+
+        List<Receipt> failed = sut.patchReceipts(List.of(receipt));
+
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    void patchReceiptsReturnsFailedReceipts() {
+        Receipt patched = new Receipt();
+        patched.setId("patchedId");
+        Receipt notPatched = new Receipt();
+        notPatched.setId("notPatchedId");
+        CosmosException cosmosException = mock(CosmosException.class);
+
+        when(mockReceiptContainer.patchItem(eq("patchedId"), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class)))
+                .thenReturn(Mono.just(mockPatchResponse));
+        when(mockReceiptContainer.patchItem(eq("notPatchedId"), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class)))
+                .thenReturn(Mono.error(cosmosException));
+
+        List<Receipt> failed = sut.patchReceipts(List.of(patched, notPatched));
+
+        assertEquals(List.of(notPatched), failed);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void patchReceiptsConflictMergedAndPatchedAgain() {
+        Receipt receipt = new Receipt();
+        receipt.setId("receiptId");
+        receipt.setEtag("staleEtag");
+        receipt.setStatus(ReceiptStatusType.IO_NOTIFIED);
+        Receipt current = new Receipt();
+        current.setId("receiptId");
+        current.setEtag("currentEtag");
+        current.setStatus(ReceiptStatusType.SIGNED);
+        CosmosException preconditionFailed = mock(CosmosException.class);
+        when(preconditionFailed.getStatusCode()).thenReturn(412);
+        CosmosItemResponse<Receipt> readResponse = mock(CosmosItemResponse.class);
+        when(readResponse.getItem()).thenReturn(current);
+
+        when(mockReceiptContainer.patchItem(eq("receiptId"), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class)))
+                .thenReturn(Mono.error(preconditionFailed), Mono.just(mockPatchResponse));
+        when(mockReceiptContainer.readItem("receiptId", new PartitionKey("receiptId"), Receipt.class))
+                .thenReturn(Mono.just(readResponse));
+
+        List<Receipt> failed = sut.patchReceipts(List.of(receipt));
+
+        assertTrue(failed.isEmpty());
+        assertEquals("currentEtag", receipt.getEtag());
+        verify(mockReceiptContainer, times(2)).patchItem(eq("receiptId"), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void patchReceiptsConflictSkippedIfAlreadyNotified() {
+        Receipt receipt = new Receipt();
+        receipt.setId("receiptId");
+        receipt.setEtag("staleEtag");
+        Receipt current = new Receipt();
+        current.setStatus(ReceiptStatusType.IO_NOTIFIED);
+        CosmosException preconditionFailed = mock(CosmosException.class);
+        when(preconditionFailed.getStatusCode()).thenReturn(412);
+        CosmosItemResponse<Receipt> readResponse = mock(CosmosItemResponse.class);
+        when(readResponse.getItem()).thenReturn(current);
+
+        when(mockReceiptContainer.patchItem(eq("receiptId"), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class)))
+                .thenReturn(Mono.error(preconditionFailed));
+        when(mockReceiptContainer.readItem("receiptId", new PartitionKey("receiptId"), Receipt.class))
+                .thenReturn(Mono.just(readResponse));
+
+        List<Receipt> failed = sut.patchReceipts(List.of(receipt));
+
+        assertTrue(failed.isEmpty());
+        verify(mockReceiptContainer).patchItem(eq("receiptId"), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class));
+    }
+
+    @Test
+    void mergeReceiptKeepsCurrentMessageIds() {
+        IOMessageData currentMessageData = new IOMessageData();
+        currentMessageData.setIdMessagePayer("payerMessageId");
+        Receipt current = new Receipt();
+        current.setEtag("currentEtag");
+        current.setStatus(ReceiptStatusType.SIGNED);
+        current.setIoMessageData(currentMessageData);
+        IOMessageData messageData = new IOMessageData();
+        messageData.setIdMessageDebtor("debtorMessageId");
+        Receipt processed = new Receipt();
+        processed.setIoMessageData(messageData);
+
+        Receipt merged = ReceiptCosmosClientImpl.mergeReceipt(current, processed);
+
+        assertEquals("currentEtag", merged.getEtag());
+        assertEquals("debtorMessageId", merged.getIoMessageData().getIdMessageDebtor());
+        assertEquals("payerMessageId", merged.getIoMessageData().getIdMessagePayer());
+    }
+
+    @Test
+    void mergeReceiptKeepsCurrentCompletedNotifyStatuses() {
+        Receipt current = new Receipt();
+        current.setStatus(ReceiptStatusType.IO_NOTIFIER_RETRY);
+        current.setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED);
+        current.setNotifyStatusPayer(UserNotifyStatus.NOT_NOTIFIED);
+        Receipt processed = new Receipt();
+        processed.setNotifyStatusDebtor(UserNotifyStatus.NOT_NOTIFIED);
+        processed.setNotifyStatusPayer(UserNotifyStatus.NOT_TO_BE_NOTIFIED);
+
+        Receipt merged = ReceiptCosmosClientImpl.mergeReceipt(current, processed);
+
+        assertEquals(UserNotifyStatus.NOTIFIED, merged.getNotifyStatusDebtor());
+        assertEquals(UserNotifyStatus.NOT_TO_BE_NOTIFIED, merged.getNotifyStatusPayer());
+    }
+
+    @Test
+    void patchReceiptsEmpty() {
+        assertTrue(sut.patchReceipts(List.of()).isEmpty());
+        verify(mockReceiptContainer, never()).patchItem(anyString(), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), any());
+    }
+
+    @Test
+    void receiptBulkWriterPatchesReceipts() {
+        Receipt receipt = new Receipt();
+        receipt.setId("receiptId");
+        receipt.setStatus(ReceiptStatusType.IO_NOTIFIED);
+        List<CosmosItemOperation> executed = new CopyOnWriteArrayList<>();
+        mockBulkExecution(mockReceiptContainer, executed);
+
+        BulkWriter<Receipt> writer = sut.newReceiptBulkWriter();
+        writer.addAll(List.of(receipt));
+
+        assertTrue(writer.complete().isEmpty());
+        assertEquals(1, executed.size());
+        assertEquals(CosmosItemOperationType.PATCH, executed.get(0).getOperationType());
+        assertEquals("receiptId", executed.get(0).getId());
+        assertEquals(new PartitionKey("receiptId"), executed.get(0).getPartitionKeyValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void receiptRetryBulkWriterMergesConflictingReceipts() {
+        Receipt receipt = new Receipt();
+        receipt.setId("receiptId");
+        receipt.setEtag("readEtag");
+        receipt.setStatus(ReceiptStatusType.IO_NOTIFIER_RETRY);
+        Receipt current = new Receipt();
+        current.setId("receiptId");
+        current.setEtag("currentEtag");
+        current.setStatus(ReceiptStatusType.IO_ERROR_TO_NOTIFY);
+        CosmosItemResponse<Receipt> readResponse = mock(CosmosItemResponse.class);
+        when(readResponse.getItem()).thenReturn(current);
+        List<CosmosItemOperation> executed = new CopyOnWriteArrayList<>();
+        when(mockReceiptContainer.executeBulkOperations(any(), any(CosmosBulkExecutionOptions.class)))
+                .thenAnswer(invocation -> {
+                    Flux<CosmosItemOperation> operations = invocation.getArgument(0);
+                    return operations.map(operation -> {
+                        executed.add(operation);
+                        CosmosBulkItemResponse itemResponse = mock(CosmosBulkItemResponse.class);
+                        when(itemResponse.getStatusCode()).thenReturn(412);
+                        CosmosBulkOperationResponse<Object> response = mock(CosmosBulkOperationResponse.class);
+                        when(response.getResponse()).thenReturn(itemResponse);
+                        when(response.getOperation()).thenReturn(operation);
+                        return response;
+                    });
+                });
+        when(mockReceiptContainer.readItem("receiptId", new PartitionKey("receiptId"), Receipt.class))
+                .thenReturn(Mono.just(readResponse));
+        when(mockReceiptContainer.patchItem(eq("receiptId"), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class)))
+                .thenReturn(Mono.just(mockPatchResponse));
+
+        BulkWriter<Receipt> writer = sut.newReceiptRetryBulkWriter();
+        writer.addAll(List.of(receipt));
+
+        assertTrue(writer.complete().isEmpty());
+        assertEquals(1, executed.size());
+        assertEquals(CosmosItemOperationType.UPSERT, executed.get(0).getOperationType());
+        assertEquals("currentEtag", receipt.getEtag());
+        verify(mockReceiptContainer).patchItem(eq("receiptId"), any(PartitionKey.class), any(CosmosPatchOperations.class), any(CosmosPatchItemRequestOptions.class), eq(Object.class));
+    }
+
+    @Test
+    void ioMessageBulkWriterUpsertsMessages() {
+        IOMessage ioMessage = IOMessage.builder()
+                .id(IOMessage.buildId("eventId", UserType.DEBTOR))
+                .eventId("eventId")
+                .userType(UserType.DEBTOR)
+                .build();
+        List<CosmosItemOperation> executed = new CopyOnWriteArrayList<>();
+        mockBulkExecution(mockContainer, executed);
+
+        BulkWriter<IOMessage> writer = sut.newIOMessageBulkWriter();
+        writer.addAll(List.of(ioMessage));
+
+        assertTrue(writer.complete().isEmpty());
+        assertEquals(1, executed.size());
+        assertEquals(CosmosItemOperationType.UPSERT, executed.get(0).getOperationType());
+        assertEquals(new PartitionKey("eventId"), executed.get(0).getPartitionKeyValue());
+    }
+
+    private void mockReadItemNotFound() {
+        CosmosException notFound = mock(CosmosException.class);
+        when(notFound.getStatusCode()).thenReturn(404);
+        when(mockContainer.readItem(anyString(), any(PartitionKey.class), eq(IOMessage.class)))
+                .thenReturn(Mono.error(notFound));
+    }
+
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    private static <T> Flux<FeedResponse<T>> pages(T... items) {
+        FeedResponse<T> page = mock(FeedResponse.class);
+        when(page.getResults()).thenReturn(List.of(items));
+        return Flux.just(page);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void mockBulkExecution(CosmosAsyncContainer container, List<CosmosItemOperation> executed) {
+        when(container.executeBulkOperations(any(), any(CosmosBulkExecutionOptions.class)))
+                .thenAnswer(invocation -> {
+                    Flux<CosmosItemOperation> operations = invocation.getArgument(0);
+                    return operations.map(operation -> {
+                        executed.add(operation);
+                        CosmosBulkItemResponse itemResponse = mock(CosmosBulkItemResponse.class);
+                        when(itemResponse.isSuccessStatusCode()).thenReturn(true);
+                        CosmosBulkOperationResponse<Object> response = mock(CosmosBulkOperationResponse.class);
+                        when(response.getResponse()).thenReturn(itemResponse);
+                        lenient().when(response.getOperation()).thenReturn(operation);
+                        return response;
+                    });
+                });
+    }
+}
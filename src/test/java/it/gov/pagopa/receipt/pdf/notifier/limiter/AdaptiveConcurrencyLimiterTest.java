@@ -0,0 +1,139 @@
+package it.gov.pagopa.receipt.pdf.notifier.limiter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    void tryAcquireRejectWhenLimitReached() {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter(2, 1, 10, 0);
+
+        assertTrue(sut.tryAcquire());
+        assertTrue(sut.tryAcquire());
+        assertFalse(sut.tryAcquire());
+
+        assertEquals(2, sut.getInFlight());
+        assertEquals(1, sut.getRejectedCount());
+    }
+
+    @Test
+    void tryAcquireWaitForReleasedSlot() throws Exception {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter(1, 1, 1, 5000);
+        assertTrue(sut.tryAcquire());
+
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(sut::tryAcquire);
+        Thread.sleep(50);
+        assertFalse(waiting.isDone());
+
+        sut.release(LATENCY, false);
+
+        assertTrue(waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(0, sut.getRejectedCount());
+    }
+
+    @Test
+    void acquireAsyncRejectWhenLimitReached() {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter(1, 1, 10, 0);
+
+        assertTrue(sut.acquireAsync().join());
+        assertFalse(sut.acquireAsync().join());
+
+        assertEquals(1, sut.getInFlight());
+        assertEquals(1, sut.getRejectedCount());
+    }
+
+    @Test
+    void acquireAsyncGrantedByReleasedSlot() {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter(1, 1, 1, 5000);
+        assertTrue(sut.acquireAsync().join());
+
+        CompletableFuture<Boolean> first = sut.acquireAsync();
+        CompletableFuture<Boolean> second = sut.acquireAsync();
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        sut.release(LATENCY, false);
+        assertTrue(first.isDone());
+        assertTrue(first.join());
+        assertFalse(second.isDone());
+
+        sut.cancel();
+        assertTrue(second.join());
+        assertEquals(1, sut.getInFlight());
+        assertEquals(0, sut.getRejectedCount());
+    }
+
+    @Test
+    void acquireAsyncRejectedAfterMaxWait() throws Exception {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter(1, 1, 1, 50);
+        assertTrue(sut.acquireAsync().join());
+
+        CompletableFuture<Boolean> waiting = sut.acquireAsync();
+
+        assertFalse(waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(1, sut.getRejectedCount());
+
+        sut.cancel();
+        assertEquals(0, sut.getInFlight());
+    }
+
+    @Test
+    void releaseIncreaseLimitWhenLatencyIsStable() {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter(2, 1, 10, 0);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(sut.tryAcquire());
+            sut.release(LATENCY, false);
+        }
+
+        assertTrue(sut.getLimit() > 2);
+        assertEquals(0, sut.getLimitDecreaseCount());
+        assertEquals(100.0, sut.getBaselineLatencyMillis(), 0.001);
+    }
+
+    @Test
+    void releaseDecreaseLimitWhenDropped() {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter(10, 1, 100, 0);
+
+        assertTrue(sut.tryAcquire());
+        sut.release(LATENCY, true);
+
+        assertEquals(9, sut.getLimit());
+        assertEquals(1, sut.getLimitDecreaseCount());
+    }
+
+    @Test
+    void releaseDecreaseLimitOnLatencySpike() {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter(10, 1, 100, 0);
+        assertTrue(sut.tryAcquire());
+        sut.release(LATENCY, false);
+        int limitBeforeSpike = sut.getLimit();
+
+        assertTrue(sut.tryAcquire());
+        sut.release(LATENCY * 5, false);
+
+        assertTrue(sut.getLimit() < limitBeforeSpike);
+        assertEquals(1, sut.getLimitDecreaseCount());
+    }
+
+    @Test
+    void releaseNeverGoBelowMinLimit() {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter(2, 2, 10, 0);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(sut.tryAcquire());
+            sut.release(LATENCY, true);
+        }
+
+        assertEquals(2, sut.getLimit());
+    }
+}
@@ -0,0 +1,155 @@
+package it.gov.pagopa.receipt.pdf.notifier.limiter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkheadLimiterTest {
+
+    @Test
+    void callRespectMaxConcurrencyAndTrackQueue() throws Exception {
+        int maxConcurrency = 2;
+        BulkheadLimiter sut = new BulkheadLimiter(maxConcurrency);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxObserved = new AtomicInteger();
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(CompletableFuture.runAsync(() -> sut.call(() -> {
+                maxObserved.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                awaitQuietly(release);
+                inFlight.decrementAndGet();
+                return null;
+            }), executor));
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sut.getQueueDepth() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(maxConcurrency, sut.getInFlight());
+        assertEquals(6, sut.getQueueDepth());
+
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertTrue(maxObserved.get() <= maxConcurrency);
+        assertEquals(8, sut.getAcquiredCount());
+        assertEquals(0, sut.getInFlight());
+        assertEquals(0, sut.getQueueDepth());
+    }
+
+    @Test
+    void callReleasePermitOnFailure() {
+        BulkheadLimiter sut = new BulkheadLimiter(1);
+
+        assertThrows(IllegalStateException.class, () -> sut.call(() -> {
+            throw new IllegalStateException();
+        }));
+
+        assertEquals(0, sut.getInFlight());
+    }
+
+    @Test
+    void callAsyncReleasePermitOnCompletion() {
+        BulkheadLimiter sut = new BulkheadLimiter(1);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+
+        CompletableFuture<String> result = sut.callAsync(() -> pending);
+        assertEquals(1, sut.getInFlight());
+
+        pending.complete("done");
+
+        assertEquals("done", result.join());
+        assertEquals(0, sut.getInFlight());
+    }
+
+    @Test
+    void callAsyncQueuesCallsWithoutBlockingWhenSaturated() {
+        BulkheadLimiter sut = new BulkheadLimiter(1);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        AtomicInteger started = new AtomicInteger();
+
+        CompletableFuture<String> firstResult = sut.callAsync(() -> {
+            started.incrementAndGet();
+            return first;
+        });
+        CompletableFuture<String> secondResult = sut.callAsync(() -> {
+            started.incrementAndGet();
+            return second;
+        });
+
+        assertEquals(1, started.get());
+        assertEquals(1, sut.getInFlight());
+        assertEquals(1, sut.getQueueDepth());
+
+        first.complete("first");
+
+        assertEquals("first", firstResult.join());
+        assertEquals(2, started.get());
+        assertEquals(1, sut.getInFlight());
+        assertEquals(0, sut.getQueueDepth());
+
+        second.complete("second");
+
+        assertEquals("second", secondResult.join());
+        assertEquals(0, sut.getInFlight());
+        assertEquals(2, sut.getAcquiredCount());
+    }
+
+    @Test
+    void callAsyncStartsQueuedCallsCompletingSynchronously() {
+        BulkheadLimiter sut = new BulkheadLimiter(1);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> firstResult = sut.callAsync(() -> first);
+
+        List<CompletableFuture<Integer>> queued = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            int value = i;
+            queued.add(sut.callAsync(() -> CompletableFuture.completedFuture(value)));
+        }
+        assertEquals(10_000, sut.getQueueDepth());
+
+        first.complete("first");
+
+        assertEquals("first", firstResult.join());
+        assertEquals(9_999, queued.get(9_999).join());
+        assertEquals(0, sut.getInFlight());
+        assertEquals(0, sut.getQueueDepth());
+    }
+
+    @Test
+    void callAsyncReleasePermitWhenCallFailsToStart() {
+        BulkheadLimiter sut = new BulkheadLimiter(1);
+
+        CompletableFuture<String> result = sut.callAsync(() -> {
+            throw new IllegalStateException();
+        });
+
+        assertTrue(result.isCompletedExceptionally());
+        assertEquals(0, sut.getInFlight());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
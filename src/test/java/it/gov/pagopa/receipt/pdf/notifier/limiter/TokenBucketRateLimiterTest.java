@@ -0,0 +1,82 @@
+package it.gov.pagopa.receipt.pdf.notifier.limiter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketRateLimiterTest {
+
+    @Test
+    void tryAcquireAlwaysGrantedWhenDisabled() {
+        TokenBucketRateLimiter sut = new TokenBucketRateLimiter(0, 0);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(sut.tryAcquire());
+        }
+
+        assertEquals(1000, sut.getAcquiredCount());
+        assertEquals(0, sut.getRejectedCount());
+    }
+
+    @Test
+    void tryAcquireRejectWhenSlotIsBeyondMaxWait() {
+        TokenBucketRateLimiter sut = new TokenBucketRateLimiter(1, 100);
+
+        assertTrue(sut.tryAcquire());
+        assertFalse(sut.tryAcquire());
+
+        assertEquals(1, sut.getAcquiredCount());
+        assertEquals(1, sut.getRejectedCount());
+    }
+
+    @Test
+    void tryAcquireSpacePermitsAtConfiguredRate() {
+        TokenBucketRateLimiter sut = new TokenBucketRateLimiter(50, 1000);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(sut.tryAcquire());
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 6 permits at 50/s: the first is immediate, the other 5 are spaced by 20ms
+        assertTrue(elapsedMillis >= 90, "elapsed " + elapsedMillis);
+        assertEquals(6, sut.getAcquiredCount());
+        assertTrue(sut.getTotalWaitTimeMillis() >= 90);
+    }
+
+    @Test
+    void acquireAsyncDeferPermitsWithoutBlocking() {
+        TokenBucketRateLimiter sut = new TokenBucketRateLimiter(10, 1000);
+
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> first = sut.acquireAsync();
+        CompletableFuture<Boolean> second = sut.acquireAsync();
+        long reserveMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(first.isDone());
+        assertTrue(reserveMillis < 100, "reserve took " + reserveMillis);
+        assertTrue(second.join());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 2 permits at 10/s: the second one is granted 100ms after the first
+        assertTrue(elapsedMillis >= 90, "elapsed " + elapsedMillis);
+        assertEquals(2, sut.getAcquiredCount());
+    }
+
+    @Test
+    void acquireAsyncRejectWhenSlotIsBeyondMaxWait() {
+        TokenBucketRateLimiter sut = new TokenBucketRateLimiter(1, 100);
+
+        assertTrue(sut.acquireAsync().join());
+        assertFalse(sut.acquireAsync().join());
+
+        assertEquals(1, sut.getAcquiredCount());
+        assertEquals(1, sut.getRejectedCount());
+    }
+}
@@ -12,7 +12,6 @@ import it.gov.pagopa.receipt.pdf.notifier.entity.cart.MessageData;
 import it.gov.pagopa.receipt.pdf.notifier.entity.cart.Payload;
 import it.gov.pagopa.receipt.pdf.notifier.entity.message.CartIOMessage;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReasonErrorCode;
-import it.gov.pagopa.receipt.pdf.notifier.exception.CartIoMessageNotFoundException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.ErrorToNotifyException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IOAPIException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.MissingFieldsForNotificationException;
@@ -26,6 +25,7 @@ import it.gov.pagopa.receipt.pdf.notifier.model.io.message.MessagePayload;
 import it.gov.pagopa.receipt.pdf.notifier.service.IOService;
 import it.gov.pagopa.receipt.pdf.notifier.service.NotificationMessageBuilder;
 import it.gov.pagopa.receipt.pdf.notifier.service.PDVTokenizerServiceRetryWrapper;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueBatch;
 import lombok.SneakyThrows;
 import org.apache.http.HttpStatus;
 import org.jetbrains.annotations.NotNull;
@@ -33,12 +33,14 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
 import uk.org.webcompere.systemstubs.environment.EnvironmentVariables;
 import uk.org.webcompere.systemstubs.jupiter.SystemStub;
 import uk.org.webcompere.systemstubs.jupiter.SystemStubsExtension;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static it.gov.pagopa.receipt.pdf.notifier.utils.ReceiptToIOUtils.ANONIMO;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
@@ -47,7 +49,9 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -114,18 +118,16 @@ class CartReceiptToIOServiceImplTest {
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_1_CF_TOKEN)).thenReturn(VALID_DEBTOR_1_CF);
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_2_CF_TOKEN)).thenReturn(VALID_DEBTOR_2_CF);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, EVENT_1_ID, UserType.DEBTOR))
-                .thenThrow(CartIoMessageNotFoundException.class);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, EVENT_2_ID, UserType.DEBTOR))
-                .thenThrow(CartIoMessageNotFoundException.class);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_1_CF)).thenReturn(true);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_2_CF)).thenReturn(true);
+        when(cartReceiptCosmosClientMock.findAllIOMessagesForCart(CART_ID))
+                .thenReturn(Collections.emptyList());
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_1_CF)).thenReturn(CompletableFuture.completedFuture(true));
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_2_CF)).thenReturn(CompletableFuture.completedFuture(true));
         when(notificationMessageBuilderMock.buildCartDebtorMessagePayload(anyString(), any(), anyString()))
                 .thenReturn(
                         buildMessagePayload(MARKDOWN_DEBTOR_1, SUBJECT_DEBTOR_1),
                         buildMessagePayload(MARKDOWN_DEBTOR_2, SUBJECT_DEBTOR_2)
                 );
-        when(ioServiceMock.sendNotificationToIOUser(any())).thenReturn(VALID_DEBTOR_1_MESSAGE_ID, VALID_DEBTOR_2_MESSAGE_ID);
+        when(ioServiceMock.sendNotificationToIOUserAsync(any())).thenReturn(CompletableFuture.completedFuture(VALID_DEBTOR_1_MESSAGE_ID), CompletableFuture.completedFuture(VALID_DEBTOR_2_MESSAGE_ID));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -170,6 +172,54 @@ class CartReceiptToIOServiceImplTest {
         });
     }
 
+    @Test
+    @SneakyThrows
+    void notifyCartOnRetrySkipsCompletedUsers() {
+        CartPayment completedPayment = buildCartPayment(EVENT_1_ID, DEBTOR_1_CF_TOKEN);
+        completedPayment.setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED);
+        CartPayment failedPayment = buildCartPayment(EVENT_2_ID, DEBTOR_2_CF_TOKEN);
+        failedPayment.setNotifyStatusDebtor(UserNotifyStatus.NOT_NOTIFIED);
+        CartForReceipt cart = CartForReceipt.builder()
+                .cartId(CART_ID)
+                .status(CartStatusType.IO_NOTIFIER_RETRY)
+                .payload(
+                        Payload.builder()
+                                .payerFiscalCode(PAYER_CF_TOKEN)
+                                .notifyStatusPayer(UserNotifyStatus.NOT_TO_BE_NOTIFIED)
+                                .cart(List.of(completedPayment, failedPayment))
+                                .build()
+                )
+                .build();
+
+        when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_2_CF_TOKEN)).thenReturn(VALID_DEBTOR_2_CF);
+        when(cartReceiptCosmosClientMock.findAllIOMessagesForCart(CART_ID)).thenReturn(Collections.emptyList());
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_2_CF)).thenReturn(CompletableFuture.completedFuture(true));
+        when(notificationMessageBuilderMock.buildCartDebtorMessagePayload(anyString(), any(), anyString()))
+                .thenReturn(buildMessagePayload(MARKDOWN_DEBTOR_2, SUBJECT_DEBTOR_2));
+        when(ioServiceMock.sendNotificationToIOUserAsync(any())).thenReturn(CompletableFuture.completedFuture(VALID_DEBTOR_2_MESSAGE_ID));
+
+        NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
+                .execute(() -> {
+                    sut = new CartReceiptToIOServiceImpl(
+                            ioServiceMock,
+                            notifierCartQueueClientMock,
+                            notificationMessageBuilderMock,
+                            pdvTokenizerServiceRetryWrapperMock,
+                            cartReceiptCosmosClientMock
+                    );
+                    return sut.notifyCart(cart);
+                });
+
+        assertEquals(UserNotifyStatus.NOT_TO_BE_NOTIFIED, result.getPayerNotifyResult().getNotifyStatus());
+        assertEquals(UserNotifyStatus.ALREADY_NOTIFIED, result.getDebtorNotifyResultMap().get(EVENT_1_ID).getNotifyStatus());
+        assertEquals(UserNotifyStatus.NOTIFIED, result.getDebtorNotifyResultMap().get(EVENT_2_ID).getNotifyStatus());
+        assertEquals(UserNotifyStatus.NOT_TO_BE_NOTIFIED, cart.getPayload().getNotifyStatusPayer());
+        assertEquals(UserNotifyStatus.ALREADY_NOTIFIED, completedPayment.getNotifyStatusDebtor());
+        assertEquals(UserNotifyStatus.NOTIFIED, failedPayment.getNotifyStatusDebtor());
+        verify(pdvTokenizerServiceRetryWrapperMock, never()).getFiscalCodeWithRetry(PAYER_CF_TOKEN);
+        verify(pdvTokenizerServiceRetryWrapperMock, never()).getFiscalCodeWithRetry(DEBTOR_1_CF_TOKEN);
+    }
+
     @Test
     @SneakyThrows
     void notifyCartSuccessPayerNullAndDebtorAnonimo() {
@@ -207,9 +257,9 @@ class CartReceiptToIOServiceImplTest {
 
         verify(pdvTokenizerServiceRetryWrapperMock, never()).getFiscalCodeWithRetry(anyString());
         verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).isNotifyToIOUserAllowed(anyString());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).isNotifyToIOUserAllowedAsync(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -228,12 +278,12 @@ class CartReceiptToIOServiceImplTest {
                 .build();
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(PAYER_CF_TOKEN)).thenReturn(VALID_PAYER_CF);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, null, UserType.PAYER))
-                .thenThrow(CartIoMessageNotFoundException.class);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_PAYER_CF)).thenReturn(true);
+        when(cartReceiptCosmosClientMock.findAllIOMessagesForCart(CART_ID))
+                .thenReturn(Collections.emptyList());
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_PAYER_CF)).thenReturn(CompletableFuture.completedFuture(true));
         when(notificationMessageBuilderMock.buildCartPayerMessagePayload(anyString(), any()))
                 .thenReturn(buildMessagePayload(MARKDOWN_PAYER, SUBJECT_PAYER));
-        when(ioServiceMock.sendNotificationToIOUser(any())).thenReturn(VALID_PAYER_MESSAGE_ID);
+        when(ioServiceMock.sendNotificationToIOUserAsync(any())).thenReturn(CompletableFuture.completedFuture(VALID_PAYER_MESSAGE_ID));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -305,9 +355,9 @@ class CartReceiptToIOServiceImplTest {
 
         verify(pdvTokenizerServiceRetryWrapperMock, never()).getFiscalCodeWithRetry(anyString());
         verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).isNotifyToIOUserAllowed(anyString());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).isNotifyToIOUserAllowedAsync(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -328,15 +378,11 @@ class CartReceiptToIOServiceImplTest {
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(PAYER_CF_TOKEN)).thenReturn(VALID_PAYER_CF);
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_1_CF_TOKEN)).thenReturn(VALID_DEBTOR_1_CF);
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_2_CF_TOKEN)).thenReturn(VALID_DEBTOR_2_CF);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, null, UserType.PAYER))
-                .thenThrow(CartIoMessageNotFoundException.class);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, EVENT_1_ID, UserType.DEBTOR))
-                .thenThrow(CartIoMessageNotFoundException.class);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, EVENT_2_ID, UserType.DEBTOR))
-                .thenThrow(CartIoMessageNotFoundException.class);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_PAYER_CF)).thenReturn(true);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_1_CF)).thenReturn(true);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_2_CF)).thenReturn(true);
+        when(cartReceiptCosmosClientMock.findAllIOMessagesForCart(CART_ID))
+                .thenReturn(Collections.emptyList());
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_PAYER_CF)).thenReturn(CompletableFuture.completedFuture(true));
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_1_CF)).thenReturn(CompletableFuture.completedFuture(true));
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_2_CF)).thenReturn(CompletableFuture.completedFuture(true));
         when(notificationMessageBuilderMock.buildCartPayerMessagePayload(anyString(), any()))
                 .thenReturn(buildMessagePayload(MARKDOWN_PAYER, SUBJECT_PAYER));
         when(notificationMessageBuilderMock.buildCartDebtorMessagePayload(anyString(), any(), anyString()))
@@ -344,8 +390,8 @@ class CartReceiptToIOServiceImplTest {
                         buildMessagePayload(MARKDOWN_DEBTOR_1, SUBJECT_DEBTOR_1),
                         buildMessagePayload(MARKDOWN_DEBTOR_2, SUBJECT_DEBTOR_2)
                 );
-        when(ioServiceMock.sendNotificationToIOUser(any()))
-                .thenReturn(VALID_PAYER_MESSAGE_ID, VALID_DEBTOR_1_MESSAGE_ID, VALID_DEBTOR_2_MESSAGE_ID);
+        when(ioServiceMock.sendNotificationToIOUserAsync(any()))
+                .thenReturn(CompletableFuture.completedFuture(VALID_PAYER_MESSAGE_ID), CompletableFuture.completedFuture(VALID_DEBTOR_1_MESSAGE_ID), CompletableFuture.completedFuture(VALID_DEBTOR_2_MESSAGE_ID));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -394,6 +440,8 @@ class CartReceiptToIOServiceImplTest {
             }
             assertNull(cartPayment.getReasonErrDebtor());
         });
+
+        verify(cartReceiptCosmosClientMock).findAllIOMessagesForCart(CART_ID);
     }
 
     @Test
@@ -438,9 +486,9 @@ class CartReceiptToIOServiceImplTest {
         assertNull(cartPayment.getMessageDebtor());
 
         verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).isNotifyToIOUserAllowed(anyString());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).isNotifyToIOUserAllowedAsync(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -490,9 +538,9 @@ class CartReceiptToIOServiceImplTest {
         assertEquals(VALID_DEBTOR_1_MESSAGE_ID, cartPayment.getMessageDebtor().getId());
 
         verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).isNotifyToIOUserAllowed(anyString());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).isNotifyToIOUserAllowedAsync(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -539,9 +587,9 @@ class CartReceiptToIOServiceImplTest {
         assertNull(cartPayment.getMessageDebtor());
 
         verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).isNotifyToIOUserAllowed(anyString());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).isNotifyToIOUserAllowedAsync(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -588,9 +636,9 @@ class CartReceiptToIOServiceImplTest {
         assertNull(cartPayment.getMessageDebtor());
 
         verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).isNotifyToIOUserAllowed(anyString());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).isNotifyToIOUserAllowedAsync(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -606,8 +654,8 @@ class CartReceiptToIOServiceImplTest {
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_1_CF_TOKEN))
                 .thenReturn(VALID_DEBTOR_1_CF);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_1_CF))
-                .thenThrow(new IOAPIException(ERROR_MESSAGE, ReasonErrorCode.ERROR_IO_API_IO.getCode()));
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_1_CF))
+                .thenReturn(CompletableFuture.failedFuture(new IOAPIException(ERROR_MESSAGE, ReasonErrorCode.ERROR_IO_API_IO.getCode())));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -638,9 +686,9 @@ class CartReceiptToIOServiceImplTest {
         assertEquals(ERROR_MESSAGE, cartPayment.getReasonErrDebtor().getMessage());
         assertNull(cartPayment.getMessageDebtor());
 
-        verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+        verify(cartReceiptCosmosClientMock)
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -656,8 +704,8 @@ class CartReceiptToIOServiceImplTest {
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_1_CF_TOKEN))
                 .thenReturn(VALID_DEBTOR_1_CF);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_1_CF))
-                .thenThrow(new ErrorToNotifyException(ERROR_MESSAGE));
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_1_CF))
+                .thenReturn(CompletableFuture.failedFuture(new ErrorToNotifyException(ERROR_MESSAGE)));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -688,9 +736,9 @@ class CartReceiptToIOServiceImplTest {
         assertEquals(ERROR_MESSAGE, cartPayment.getReasonErrDebtor().getMessage());
         assertNull(cartPayment.getMessageDebtor());
 
-        verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+        verify(cartReceiptCosmosClientMock)
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -706,8 +754,8 @@ class CartReceiptToIOServiceImplTest {
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_1_CF_TOKEN))
                 .thenReturn(VALID_DEBTOR_1_CF);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_1_CF))
-                .thenReturn(false);
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_1_CF))
+                .thenReturn(CompletableFuture.completedFuture(false));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -736,9 +784,9 @@ class CartReceiptToIOServiceImplTest {
         assertNull(cartPayment.getReasonErrDebtor());
         assertNull(cartPayment.getMessageDebtor());
 
-        verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+        verify(cartReceiptCosmosClientMock)
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -755,10 +803,10 @@ class CartReceiptToIOServiceImplTest {
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_1_CF_TOKEN))
                 .thenReturn(VALID_DEBTOR_1_CF);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_1_CF))
-                .thenReturn(true);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, EVENT_1_ID, UserType.DEBTOR))
-                .thenThrow(CartIoMessageNotFoundException.class);
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_1_CF))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        when(cartReceiptCosmosClientMock.findAllIOMessagesForCart(CART_ID))
+                .thenReturn(Collections.emptyList());
         when(notificationMessageBuilderMock.buildCartDebtorMessagePayload(VALID_DEBTOR_1_CF, payment, CART_ID))
                 .thenThrow(new MissingFieldsForNotificationException(ERROR_MESSAGE));
 
@@ -791,7 +839,7 @@ class CartReceiptToIOServiceImplTest {
         assertEquals(ERROR_MESSAGE, cartPayment.getReasonErrDebtor().getMessage());
         assertNull(cartPayment.getMessageDebtor());
 
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -808,12 +856,12 @@ class CartReceiptToIOServiceImplTest {
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_1_CF_TOKEN))
                 .thenReturn(VALID_DEBTOR_1_CF);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_1_CF))
-                .thenReturn(true);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, EVENT_1_ID, UserType.DEBTOR))
-                .thenThrow(CartIoMessageNotFoundException.class);
-        when(ioServiceMock.sendNotificationToIOUser(any()))
-                .thenThrow(new IOAPIException(ERROR_MESSAGE, ReasonErrorCode.ERROR_IO_API_UNEXPECTED.getCode()));
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_1_CF))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        when(cartReceiptCosmosClientMock.findAllIOMessagesForCart(CART_ID))
+                .thenReturn(Collections.emptyList());
+        when(ioServiceMock.sendNotificationToIOUserAsync(any()))
+                .thenReturn(CompletableFuture.failedFuture(new IOAPIException(ERROR_MESSAGE, ReasonErrorCode.ERROR_IO_API_UNEXPECTED.getCode())));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -859,12 +907,12 @@ class CartReceiptToIOServiceImplTest {
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_1_CF_TOKEN))
                 .thenReturn(VALID_DEBTOR_1_CF);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_1_CF))
-                .thenReturn(true);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, EVENT_1_ID, UserType.DEBTOR))
-                .thenThrow(CartIoMessageNotFoundException.class);
-        when(ioServiceMock.sendNotificationToIOUser(any()))
-                .thenThrow(new ErrorToNotifyException(ERROR_MESSAGE));
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_DEBTOR_1_CF))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        when(cartReceiptCosmosClientMock.findAllIOMessagesForCart(CART_ID))
+                .thenReturn(Collections.emptyList());
+        when(ioServiceMock.sendNotificationToIOUserAsync(any()))
+                .thenReturn(CompletableFuture.failedFuture(new ErrorToNotifyException(ERROR_MESSAGE)));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -906,14 +954,17 @@ class CartReceiptToIOServiceImplTest {
                                 .cart(List.of(buildCartPayment(EVENT_1_ID, DEBTOR_1_CF_TOKEN)))
                                 .build())
                 .build();
-        CartIOMessage ioMessage = CartIOMessage.builder().messageId(VALID_DEBTOR_1_MESSAGE_ID).build();
+        CartIOMessage ioMessage = CartIOMessage.builder()
+                .cartId(CART_ID)
+                .eventId(EVENT_1_ID)
+                .userType(UserType.DEBTOR)
+                .messageId(VALID_DEBTOR_1_MESSAGE_ID)
+                .build();
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(DEBTOR_1_CF_TOKEN))
                 .thenReturn(VALID_DEBTOR_1_CF);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_DEBTOR_1_CF))
-                .thenReturn(true);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, EVENT_1_ID, UserType.DEBTOR))
-                .thenReturn(ioMessage);
+        when(cartReceiptCosmosClientMock.findAllIOMessagesForCart(CART_ID))
+                .thenReturn(List.of(ioMessage));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -942,7 +993,8 @@ class CartReceiptToIOServiceImplTest {
         assertNull(cartPayment.getReasonErrDebtor());
         assertEquals(VALID_DEBTOR_1_MESSAGE_ID, cartPayment.getMessageDebtor().getId());
 
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+        verify(ioServiceMock, never()).isNotifyToIOUserAllowedAsync(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -986,9 +1038,9 @@ class CartReceiptToIOServiceImplTest {
         assertNull(cartPayment.getMessageDebtor());
 
         verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).isNotifyToIOUserAllowed(anyString());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).isNotifyToIOUserAllowedAsync(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -1005,8 +1057,8 @@ class CartReceiptToIOServiceImplTest {
                 .build();
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(PAYER_CF_TOKEN)).thenReturn(VALID_PAYER_CF);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_PAYER_CF))
-                .thenThrow(new ErrorToNotifyException(ERROR_MESSAGE));
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_PAYER_CF))
+                .thenReturn(CompletableFuture.failedFuture(new ErrorToNotifyException(ERROR_MESSAGE)));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -1035,9 +1087,9 @@ class CartReceiptToIOServiceImplTest {
         assertNull(cartPayment.getReasonErrDebtor());
         assertNull(cartPayment.getMessageDebtor());
 
-        verify(cartReceiptCosmosClientMock, never())
-                .findIOMessageWithCartIdAndEventIdAndUserType(anyString(), anyString(), any());
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+        verify(cartReceiptCosmosClientMock)
+                .findAllIOMessagesForCart(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -1053,13 +1105,15 @@ class CartReceiptToIOServiceImplTest {
                 )
                 .build();
 
-        CartIOMessage ioMessage = CartIOMessage.builder().messageId(VALID_PAYER_MESSAGE_ID).build();
+        CartIOMessage ioMessage = CartIOMessage.builder()
+                .cartId(CART_ID)
+                .userType(UserType.PAYER)
+                .messageId(VALID_PAYER_MESSAGE_ID)
+                .build();
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(PAYER_CF_TOKEN)).thenReturn(VALID_PAYER_CF);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_PAYER_CF))
-                .thenReturn(true);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, null, UserType.PAYER))
-                .thenReturn(ioMessage);
+        when(cartReceiptCosmosClientMock.findAllIOMessagesForCart(CART_ID))
+                .thenReturn(List.of(ioMessage));
 
         NotifyCartResult result = withEnvironmentVariables("PAYER_NOTIFY_DISABLED", "false")
                 .execute(() -> {
@@ -1086,7 +1140,8 @@ class CartReceiptToIOServiceImplTest {
         assertNull(cartPayment.getReasonErrDebtor());
         assertNull(cartPayment.getMessageDebtor());
 
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+        verify(ioServiceMock, never()).isNotifyToIOUserAllowedAsync(anyString());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -1103,10 +1158,10 @@ class CartReceiptToIOServiceImplTest {
                 .build();
 
         when(pdvTokenizerServiceRetryWrapperMock.getFiscalCodeWithRetry(PAYER_CF_TOKEN)).thenReturn(VALID_PAYER_CF);
-        when(ioServiceMock.isNotifyToIOUserAllowed(VALID_PAYER_CF))
-                .thenReturn(true);
-        when(cartReceiptCosmosClientMock.findIOMessageWithCartIdAndEventIdAndUserType(CART_ID, null, UserType.PAYER))
-                .thenThrow(CartIoMessageNotFoundException.class);
+        when(ioServiceMock.isNotifyToIOUserAllowedAsync(VALID_PAYER_CF))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        when(cartReceiptCosmosClientMock.findAllIOMessagesForCart(CART_ID))
+                .thenReturn(Collections.emptyList());
         when(notificationMessageBuilderMock.buildCartPayerMessagePayload(VALID_PAYER_CF, cart))
                 .thenThrow(new MissingFieldsForNotificationException(ERROR_MESSAGE));
 
@@ -1137,7 +1192,7 @@ class CartReceiptToIOServiceImplTest {
         assertNull(cartPayment.getReasonErrDebtor());
         assertNull(cartPayment.getMessageDebtor());
 
-        verify(ioServiceMock, never()).sendNotificationToIOUser(any());
+        verify(ioServiceMock, never()).sendNotificationToIOUserAsync(any());
     }
 
     @Test
@@ -1386,7 +1441,7 @@ class CartReceiptToIOServiceImplTest {
     @Test
     void verifyNotificationDifferentDebtorPayerPayerNotNotified() {
         Response<SendMessageResult> queueResponse = mockRequeueResponse(com.microsoft.azure.functions.HttpStatus.CREATED.value());
-        when(notifierCartQueueClientMock.sendMessageToQueue(anyString())).thenReturn(queueResponse);
+        when(notifierCartQueueClientMock.sendMessageToQueue(anyString(), anyInt())).thenReturn(queueResponse);
 
         CartForReceipt cart = CartForReceipt.builder()
                 .cartId(CART_ID)
@@ -1430,7 +1485,7 @@ class CartReceiptToIOServiceImplTest {
     @Test
     void verifyNotificationDifferentDebtorPayerDebtorNotNotified() {
         Response<SendMessageResult> queueResponse = mockRequeueResponse(HttpStatus.SC_CREATED);
-        when(notifierCartQueueClientMock.sendMessageToQueue(anyString())).thenReturn(queueResponse);
+        when(notifierCartQueueClientMock.sendMessageToQueue(anyString(), anyInt())).thenReturn(queueResponse);
 
         CartForReceipt cart = CartForReceipt.builder()
                 .cartId(CART_ID)
@@ -1512,13 +1567,13 @@ class CartReceiptToIOServiceImplTest {
         assertEquals(CartStatusType.UNABLE_TO_SEND, cart.getStatus());
         assertEquals(0, cart.getNotified_at());
 
-        verify(notifierCartQueueClientMock, never()).sendMessageToQueue(anyString());
+        verify(notifierCartQueueClientMock, never()).sendMessageToQueue(anyString(), anyInt());
     }
 
     @Test
     void verifyNotificationDifferentDebtorPayerDebtorNotNotifiedRequeueReturn500() {
         Response<SendMessageResult> queueResponse = mockRequeueResponse(HttpStatus.SC_INTERNAL_SERVER_ERROR);
-        when(notifierCartQueueClientMock.sendMessageToQueue(anyString())).thenReturn(queueResponse);
+        when(notifierCartQueueClientMock.sendMessageToQueue(anyString(), anyInt())).thenReturn(queueResponse);
 
         CartForReceipt cart = CartForReceipt.builder()
                 .cartId(CART_ID)
@@ -1562,7 +1617,7 @@ class CartReceiptToIOServiceImplTest {
 
     @Test
     void verifyNotificationDifferentDebtorPayerDebtorNotNotifiedRequeueThrowsException() {
-        when(notifierCartQueueClientMock.sendMessageToQueue(anyString())).thenThrow(RuntimeException.class);
+        when(notifierCartQueueClientMock.sendMessageToQueue(anyString(), anyInt())).thenThrow(RuntimeException.class);
 
         CartForReceipt cart = CartForReceipt.builder()
                 .cartId(CART_ID)
@@ -1604,6 +1659,70 @@ class CartReceiptToIOServiceImplTest {
         assertEquals(0, cart.getNotified_at());
     }
 
+    @Test
+    void verifyNotificationDebtorNotNotifiedCollectedInRetryBatch() {
+        CartForReceipt cart = CartForReceipt.builder()
+                .cartId(CART_ID)
+                .status(CartStatusType.GENERATED)
+                .payload(
+                        Payload.builder()
+                                .payerFiscalCode(PAYER_CF_TOKEN)
+                                .cart(List.of(buildCartPayment(EVENT_1_ID, VALID_DEBTOR_1_CF)))
+                                .build()
+                )
+                .build();
+
+        NotifyCartResult notifyCartResult = NotifyCartResult.builder()
+                .payerNotifyResult(buildNotifiedResult(VALID_PAYER_MESSAGE_ID))
+                .debtorNotifyResultMap(
+                        Collections.singletonMap(EVENT_1_ID, buildNotSuccessResult(UserNotifyStatus.NOT_NOTIFIED)))
+                .build();
+        RetryQueueBatch<CartForReceipt> retryBatch = new RetryQueueBatch<>();
+
+        sut = new CartReceiptToIOServiceImpl(
+                ioServiceMock,
+                notifierCartQueueClientMock,
+                notificationMessageBuilderMock,
+                pdvTokenizerServiceRetryWrapperMock,
+                cartReceiptCosmosClientMock
+        );
+        List<CartIOMessage> result = assertDoesNotThrow(
+                () -> sut.verifyNotificationResultAndUpdateCartReceipt(notifyCartResult, cart, retryBatch));
+
+        assertEquals(1, result.size());
+        assertTrue(retryBatch.contains(cart));
+        assertEquals(CartStatusType.GENERATED, cart.getStatus());
+        assertEquals(1, cart.getNotificationNumRetry());
+
+        verify(notifierCartQueueClientMock, never()).sendMessageToQueue(anyString(), anyInt());
+        verify(notifierCartQueueClientMock, never()).sendMessageToQueueAsync(anyString(), anyInt());
+    }
+
+    @Test
+    void requeueForRetryMapsMessageOutcomeOnCartReceipts() {
+        CartForReceipt enqueued = CartForReceipt.builder().cartId("enqueued").build();
+        CartForReceipt failed = CartForReceipt.builder().cartId("failed").build();
+        RetryQueueBatch<CartForReceipt> retryBatch = new RetryQueueBatch<>();
+        retryBatch.add(enqueued, "enqueuedMessage");
+        retryBatch.add(failed, "failedMessage");
+
+        Response<SendMessageResult> createdResponse = mockRequeueResponse(HttpStatus.SC_CREATED);
+        when(notifierCartQueueClientMock.sendMessageToQueueAsync(eq("enqueuedMessage"), anyInt())).thenReturn(Mono.just(createdResponse));
+        when(notifierCartQueueClientMock.sendMessageToQueueAsync(eq("failedMessage"), anyInt())).thenReturn(Mono.error(new RuntimeException()));
+
+        sut = new CartReceiptToIOServiceImpl(
+                ioServiceMock,
+                notifierCartQueueClientMock,
+                notificationMessageBuilderMock,
+                pdvTokenizerServiceRetryWrapperMock,
+                cartReceiptCosmosClientMock
+        );
+        sut.requeueForRetry(retryBatch);
+
+        assertEquals(CartStatusType.IO_ERROR_TO_NOTIFY, enqueued.getStatus());
+        assertEquals(CartStatusType.UNABLE_TO_SEND, failed.getStatus());
+    }
+
     private NotifyUserResult buildNotSuccessResult(UserNotifyStatus userNotifyStatus) {
         return NotifyUserResult.builder()
                 .notifyStatus(userNotifyStatus)
@@ -1,12 +1,15 @@
 package it.gov.pagopa.receipt.pdf.notifier.service.impl;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Ticker;
+import it.gov.pagopa.receipt.pdf.notifier.cache.IOProfileCache;
 import it.gov.pagopa.receipt.pdf.notifier.client.IOClient;
 import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReasonErrorCode;
 import it.gov.pagopa.receipt.pdf.notifier.exception.ErrorToNotifyException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.IOAPIException;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.IOProfileResponse;
 import it.gov.pagopa.receipt.pdf.notifier.model.io.message.IOMessageResponse;
+import it.gov.pagopa.receipt.pdf.notifier.model.io.message.MessagePayload;
 import lombok.SneakyThrows;
 import org.apache.http.HttpStatus;
 import org.junit.jupiter.api.Test;
@@ -16,15 +19,21 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -204,4 +213,113 @@ class IOServiceImplTest {
         assertNotNull(e.getMessage());
         assertEquals("Failed to deserialize response of IO API invocation", e.getMessage());
     }
-}
\ No newline at end of file
+
+    @Test
+    @SneakyThrows
+    void isNotifyToIOUserAllowedAsyncOK() {
+        IOProfileResponse profile = IOProfileResponse.builder().senderAllowed(true).build();
+
+        when(getProfileResponse.statusCode()).thenReturn(HttpStatus.SC_OK);
+        when(getProfileResponse.body()).thenReturn(objectMapper.writeValueAsString(profile));
+        when(ioClientMock.getProfileAsync(anyString())).thenReturn(CompletableFuture.completedFuture(getProfileResponse));
+
+        Boolean result = assertDoesNotThrow(() -> sut.isNotifyToIOUserAllowedAsync(CF).join());
+
+        assertTrue(result);
+    }
+
+    @Test
+    void isNotifyToIOUserAllowedAsyncKOResponse404() {
+        when(getProfileResponse.statusCode()).thenReturn(HttpStatus.SC_NOT_FOUND);
+        when(ioClientMock.getProfileAsync(anyString())).thenReturn(CompletableFuture.completedFuture(getProfileResponse));
+
+        Boolean result = assertDoesNotThrow(() -> sut.isNotifyToIOUserAllowedAsync(CF).join());
+
+        assertFalse(result);
+    }
+
+    @Test
+    void isNotifyToIOUserAllowedAsyncKOResponseNot2xx() {
+        when(getProfileResponse.statusCode()).thenReturn(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        when(ioClientMock.getProfileAsync(anyString())).thenReturn(CompletableFuture.completedFuture(getProfileResponse));
+
+        CompletionException e = assertThrows(CompletionException.class, () -> sut.isNotifyToIOUserAllowedAsync(CF).join());
+
+        assertTrue(e.getCause() instanceof ErrorToNotifyException);
+    }
+
+    @Test
+    @SneakyThrows
+    void sendNotificationToIOUserAsyncOK() {
+        IOMessageResponse ioMessageResponse = IOMessageResponse.builder().id(MESSAGE_ID).build();
+
+        when(notifyResponse.statusCode()).thenReturn(HttpStatus.SC_CREATED);
+        when(notifyResponse.body()).thenReturn(objectMapper.writeValueAsString(ioMessageResponse));
+        when(ioClientMock.submitMessageAsync(anyString())).thenReturn(CompletableFuture.completedFuture(notifyResponse));
+
+        String result = assertDoesNotThrow(() -> sut.sendNotificationToIOUserAsync(MessagePayload.builder().build()).join());
+
+        assertEquals(MESSAGE_ID, result);
+    }
+
+    @Test
+    void sendNotificationToIOUserAsyncKOUnexpectedError() {
+        IOAPIException ioApiException = new IOAPIException(ERROR_MESSAGE, ReasonErrorCode.ERROR_IO_API_IO.getCode());
+        when(ioClientMock.submitMessageAsync(anyString())).thenReturn(CompletableFuture.failedFuture(ioApiException));
+
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> sut.sendNotificationToIOUserAsync(MessagePayload.builder().build()).join());
+
+        assertEquals(ioApiException, e.getCause());
+    }
+
+    @Test
+    @SneakyThrows
+    void isNotifyToIOUserAllowedWithCacheSkipProfileCall() {
+        IOProfileCache profileCache = new IOProfileCache(10, Duration.ofHours(1), Duration.ofMinutes(15), "salt", Ticker.systemTicker());
+        IOServiceImpl cachedSut = new IOServiceImpl(ioClientMock, profileCache);
+        IOProfileResponse profile = IOProfileResponse.builder().senderAllowed(true).build();
+
+        when(getProfileResponse.statusCode()).thenReturn(HttpStatus.SC_OK);
+        when(getProfileResponse.body()).thenReturn(objectMapper.writeValueAsString(profile));
+        when(ioClientMock.getProfile(anyString())).thenReturn(getProfileResponse);
+
+        assertTrue(cachedSut.isNotifyToIOUserAllowed(CF));
+        assertTrue(cachedSut.isNotifyToIOUserAllowed(CF));
+        assertTrue(cachedSut.isNotifyToIOUserAllowedAsync(CF).join());
+
+        verify(ioClientMock).getProfile(anyString());
+        verify(ioClientMock, never()).getProfileAsync(anyString());
+    }
+
+    @Test
+    @SneakyThrows
+    void isNotifyToIOUserAllowedWithCacheStoreNotIOUser() {
+        IOProfileCache profileCache = new IOProfileCache(10, Duration.ofHours(1), Duration.ofMinutes(15), "salt", Ticker.systemTicker());
+        IOServiceImpl cachedSut = new IOServiceImpl(ioClientMock, profileCache);
+
+        when(getProfileResponse.statusCode()).thenReturn(HttpStatus.SC_NOT_FOUND);
+        when(ioClientMock.getProfileAsync(anyString())).thenReturn(CompletableFuture.completedFuture(getProfileResponse));
+
+        assertFalse(cachedSut.isNotifyToIOUserAllowedAsync(CF).join());
+        assertFalse(cachedSut.isNotifyToIOUserAllowed(CF));
+
+        assertEquals(IOProfileCache.ProfileStatus.NOT_IO_USER, profileCache.get(CF));
+        verify(ioClientMock).getProfileAsync(anyString());
+        verify(ioClientMock, never()).getProfile(anyString());
+    }
+
+    @Test
+    @SneakyThrows
+    void isNotifyToIOUserAllowedWithCacheNotStoreErrors() {
+        IOProfileCache profileCache = new IOProfileCache(10, Duration.ofHours(1), Duration.ofMinutes(15), "salt", Ticker.systemTicker());
+        IOServiceImpl cachedSut = new IOServiceImpl(ioClientMock, profileCache);
+
+        when(getProfileResponse.statusCode()).thenReturn(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        when(ioClientMock.getProfile(anyString())).thenReturn(getProfileResponse);
+
+        assertThrows(ErrorToNotifyException.class, () -> cachedSut.isNotifyToIOUserAllowed(CF));
+
+        assertNull(profileCache.get(CF));
+    }
+}
@@ -2,6 +2,8 @@ package it.gov.pagopa.receipt.pdf.notifier.service.impl;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import it.gov.pagopa.receipt.pdf.notifier.client.PDVTokenizerClient;
 import it.gov.pagopa.receipt.pdf.notifier.exception.PDVTokenizerException;
 import it.gov.pagopa.receipt.pdf.notifier.model.tokenizer.ErrorMessage;
@@ -177,6 +179,41 @@ class PDVTokenizerServiceImplTest {
         verify(pdvTokenizerClientMock).findPIIByToken(anyString());
     }
 
+    @Test
+    void getFiscalCodeWithCacheCallPDVOnlyOnce() throws JsonProcessingException, PDVTokenizerException {
+        Cache<String, String> cache = Caffeine.newBuilder().maximumSize(10).recordStats().build();
+        PDVTokenizerService cachedSut = new PDVTokenizerServiceImpl(pdvTokenizerClientMock, cache);
+        PiiResource piiResource = PiiResource.builder().pii(FISCAL_CODE).build();
+        String responseBody = objectMapper.writeValueAsString(piiResource);
+
+        doReturn(HttpStatus.SC_OK).when(httpResponseMock).statusCode();
+        doReturn(responseBody).when(httpResponseMock).body();
+        doReturn(httpResponseMock).when(pdvTokenizerClientMock).findPIIByToken(anyString());
+
+        assertEquals(FISCAL_CODE, cachedSut.getFiscalCode(TOKEN));
+        assertEquals(FISCAL_CODE, cachedSut.getFiscalCode(TOKEN));
+
+        verify(pdvTokenizerClientMock).findPIIByToken(anyString());
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+    }
+
+    @Test
+    void getFiscalCodeWithCacheNotCacheFailures() throws JsonProcessingException, PDVTokenizerException {
+        Cache<String, String> cache = Caffeine.newBuilder().maximumSize(10).build();
+        PDVTokenizerService cachedSut = new PDVTokenizerServiceImpl(pdvTokenizerClientMock, cache);
+        ErrorMessage errorResponse = ErrorMessage.builder().message("Too Many Requests").build();
+        String responseBody = objectMapper.writeValueAsString(errorResponse);
+
+        doReturn(429).when(httpResponseMock).statusCode();
+        doReturn(responseBody).when(httpResponseMock).body();
+        doReturn(httpResponseMock).when(pdvTokenizerClientMock).findPIIByToken(anyString());
+
+        assertThrows(PDVTokenizerException.class, () -> cachedSut.getFiscalCode(TOKEN));
+
+        assertNull(cache.getIfPresent(TOKEN));
+    }
+
     @Test
     void generateTokenForFiscalCodeFailClientThrowsPDVTokenizerException() throws PDVTokenizerException {
         doThrow(PDVTokenizerException.class).when(pdvTokenizerClientMock).createToken(anyString());
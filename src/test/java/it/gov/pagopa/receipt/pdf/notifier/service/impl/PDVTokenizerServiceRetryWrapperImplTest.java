@@ -7,14 +7,25 @@ import it.gov.pagopa.receipt.pdf.notifier.exception.PDVTokenizerException;
 import it.gov.pagopa.receipt.pdf.notifier.exception.PDVTokenizerUnexpectedException;
 import it.gov.pagopa.receipt.pdf.notifier.service.PDVTokenizerService;
 import it.gov.pagopa.receipt.pdf.notifier.service.PDVTokenizerServiceRetryWrapper;
+import it.gov.pagopa.receipt.pdf.notifier.utils.SingleFlight;
 import org.apache.http.HttpStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -29,6 +40,7 @@ class PDVTokenizerServiceRetryWrapperImplTest {
     private static final int MAX_ATTEMPTS = 3;
 
     private PDVTokenizerService pdvTokenizerServiceMock;
+    private Retry retry;
 
     private PDVTokenizerServiceRetryWrapper sut;
 
@@ -40,7 +52,7 @@ class PDVTokenizerServiceRetryWrapperImplTest {
                 .maxAttempts(MAX_ATTEMPTS)
                 .retryOnException(e -> (e instanceof PDVTokenizerException tokenizerException) && tokenizerException.getStatusCode() == 429)
                 .build();
-        Retry retry = Retry.of("id", config);
+        retry = Retry.of("id", config);
 
         sut = spy(new PDVTokenizerServiceRetryWrapperImpl(pdvTokenizerServiceMock, retry));
     }
@@ -161,6 +173,38 @@ class PDVTokenizerServiceRetryWrapperImplTest {
         verify(pdvTokenizerServiceMock).getFiscalCode(anyString());
     }
 
+    @Test
+    void getFiscalCodeConcurrentLookupsShareSingleCall() throws Exception {
+        CountDownLatch callStarted = new CountDownLatch(1);
+        CountDownLatch releaseCall = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            callStarted.countDown();
+            releaseCall.await(5, TimeUnit.SECONDS);
+            return FISCAL_CODE;
+        }).when(pdvTokenizerServiceMock).getFiscalCode(TOKEN);
+        SingleFlight<String, String> lookups = new SingleFlight<>();
+        PDVTokenizerServiceRetryWrapper coalescingSut = new PDVTokenizerServiceRetryWrapperImpl(pdvTokenizerServiceMock, retry, lookups);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> results = new ArrayList<>();
+        results.add(executor.submit(() -> coalescingSut.getFiscalCodeWithRetry(TOKEN)));
+        assertTrue(callStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            results.add(executor.submit(() -> coalescingSut.getFiscalCodeWithRetry(TOKEN)));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (lookups.getSharedCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        releaseCall.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals(FISCAL_CODE, result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        verify(pdvTokenizerServiceMock).getFiscalCode(TOKEN);
+    }
+
     @Test
     void generateTokenForFiscalCodeRetryForPDVTokenizerExceptionWithStatus429() throws PDVTokenizerException, JsonProcessingException {
         String errMsg = "Error";
@@ -21,6 +21,7 @@ import it.gov.pagopa.receipt.pdf.notifier.model.enumeration.UserType;
 import it.gov.pagopa.receipt.pdf.notifier.service.IOService;
 import it.gov.pagopa.receipt.pdf.notifier.service.NotificationMessageBuilder;
 import it.gov.pagopa.receipt.pdf.notifier.service.PDVTokenizerServiceRetryWrapper;
+import it.gov.pagopa.receipt.pdf.notifier.utils.RetryQueueBatch;
 import lombok.SneakyThrows;
 import org.apache.http.HttpStatus;
 import org.jetbrains.annotations.NotNull;
@@ -29,12 +30,16 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
 import uk.org.webcompere.systemstubs.environment.EnvironmentVariables;
 import uk.org.webcompere.systemstubs.jupiter.SystemStub;
 import uk.org.webcompere.systemstubs.jupiter.SystemStubsExtension;
 
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -42,6 +47,8 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyList;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
@@ -49,6 +56,7 @@ import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith({MockitoExtension.class, SystemStubsExtension.class})
@@ -88,8 +96,8 @@ class ReceiptToIOServiceImplTest {
     void notifyDebtorWithSuccess() {
         doReturn(VALID_DEBTOR_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
         doThrow(IoMessageNotFoundException.class).when(receiptCosmosClientMock).findIOMessageWithEventIdAndUserType(anyString(),eq(UserType.DEBTOR));
-        doReturn(true).when(ioServiceMock).isNotifyToIOUserAllowed(any());
-        doReturn(VALID_DEBTOR_MESSAGE_ID).when(ioServiceMock).sendNotificationToIOUser(any());
+        doReturn(CompletableFuture.completedFuture(true)).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
+        doReturn(CompletableFuture.completedFuture(VALID_DEBTOR_MESSAGE_ID)).when(ioServiceMock).sendNotificationToIOUserAsync(any());
 
         Receipt receipt = new Receipt();
         receipt.setEventId(EVENT_ID);
@@ -103,6 +111,8 @@ class ReceiptToIOServiceImplTest {
         assertEquals(VALID_DEBTOR_MESSAGE_ID, receipt.getIoMessageData().getIdMessageDebtor());
         assertNull(receipt.getReasonErr());
         assertNull(receipt.getReasonErrPayer());
+        assertEquals(UserNotifyStatus.NOTIFIED, receipt.getNotifyStatusDebtor());
+        assertNull(receipt.getNotifyStatusPayer());
     }
 
     @Test
@@ -110,8 +120,8 @@ class ReceiptToIOServiceImplTest {
     void notifyPayerWithSuccess() {
         doReturn(VALID_PAYER_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
         doThrow(IoMessageNotFoundException.class).when(receiptCosmosClientMock).findIOMessageWithEventIdAndUserType(anyString(),eq(UserType.PAYER));
-        doReturn(true).when(ioServiceMock).isNotifyToIOUserAllowed(any());
-        doReturn(VALID_PAYER_MESSAGE_ID).when(ioServiceMock).sendNotificationToIOUser(any());
+        doReturn(CompletableFuture.completedFuture(true)).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
+        doReturn(CompletableFuture.completedFuture(VALID_PAYER_MESSAGE_ID)).when(ioServiceMock).sendNotificationToIOUserAsync(any());
 
         Receipt receipt = new Receipt();
         receipt.setEventId(EVENT_ID);
@@ -127,13 +137,63 @@ class ReceiptToIOServiceImplTest {
         assertNull(receipt.getReasonErrPayer());
     }
 
+    @Test
+    @SneakyThrows
+    void notifyOnRetrySkipsCompletedUsers() {
+        Receipt receipt = new Receipt();
+        receipt.setEventId(EVENT_ID);
+        receipt.setStatus(ReceiptStatusType.IO_NOTIFIER_RETRY);
+        receipt.setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED);
+        receipt.setNotifyStatusPayer(UserNotifyStatus.NOT_TO_BE_NOTIFIED);
+
+        assertEquals(UserNotifyStatus.ALREADY_NOTIFIED, sut.notifyMessageAsync(VALID_DEBTOR_CF, UserType.DEBTOR, receipt, null).join());
+        assertEquals(UserNotifyStatus.NOT_TO_BE_NOTIFIED, sut.notifyMessageAsync(VALID_PAYER_CF, UserType.PAYER, receipt, null).join());
+
+        assertEquals(UserNotifyStatus.NOTIFIED, receipt.getNotifyStatusDebtor());
+        verifyNoInteractions(pdvTokenizerServiceRetryWrapperMock, ioServiceMock, receiptCosmosClientMock);
+    }
+
+    @Test
+    @SneakyThrows
+    void notifyOnRetryProcessesFailedUser() {
+        doReturn(VALID_PAYER_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
+        doReturn(CompletableFuture.completedFuture(true)).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
+        doReturn(CompletableFuture.completedFuture(VALID_PAYER_MESSAGE_ID)).when(ioServiceMock).sendNotificationToIOUserAsync(any());
+
+        Receipt receipt = new Receipt();
+        receipt.setEventId(EVENT_ID);
+        receipt.setStatus(ReceiptStatusType.IO_NOTIFIER_RETRY);
+        receipt.setNotifyStatusPayer(UserNotifyStatus.NOT_NOTIFIED);
+
+        UserNotifyStatus userNotifyStatus = sut.notifyMessageAsync(VALID_PAYER_CF, UserType.PAYER, receipt, Map.of()).join();
+
+        assertEquals(UserNotifyStatus.NOTIFIED, userNotifyStatus);
+        assertEquals(UserNotifyStatus.NOTIFIED, receipt.getNotifyStatusPayer());
+    }
+
+    @Test
+    @SneakyThrows
+    void notifyNotOnRetryIgnoresRecordedStatus() {
+        doReturn(INVALID_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
+
+        Receipt receipt = new Receipt();
+        receipt.setEventId(EVENT_ID);
+        receipt.setStatus(ReceiptStatusType.GENERATED);
+        receipt.setNotifyStatusDebtor(UserNotifyStatus.NOTIFIED);
+
+        UserNotifyStatus userNotifyStatus = sut.notifyMessageAsync(VALID_DEBTOR_CF, UserType.DEBTOR, receipt, null).join();
+
+        assertEquals(UserNotifyStatus.NOT_TO_BE_NOTIFIED, userNotifyStatus);
+        assertEquals(UserNotifyStatus.NOT_TO_BE_NOTIFIED, receipt.getNotifyStatusDebtor());
+    }
+
     @Test
     @SneakyThrows
     void notifyDebtorWithSuccessWithMessageData() {
         doReturn(VALID_DEBTOR_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
         doThrow(IoMessageNotFoundException.class).when(receiptCosmosClientMock).findIOMessageWithEventIdAndUserType(anyString(),eq(UserType.DEBTOR));
-        doReturn(true).when(ioServiceMock).isNotifyToIOUserAllowed(any());
-        doReturn(VALID_DEBTOR_MESSAGE_ID).when(ioServiceMock).sendNotificationToIOUser(any());
+        doReturn(CompletableFuture.completedFuture(true)).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
+        doReturn(CompletableFuture.completedFuture(VALID_DEBTOR_MESSAGE_ID)).when(ioServiceMock).sendNotificationToIOUserAsync(any());
 
         Receipt receipt = new Receipt();
         receipt.setEventId(EVENT_ID);
@@ -155,8 +215,8 @@ class ReceiptToIOServiceImplTest {
     void notifyPayerWithSuccessWithMessageData() {
         doReturn(VALID_PAYER_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
         doThrow(IoMessageNotFoundException.class).when(receiptCosmosClientMock).findIOMessageWithEventIdAndUserType(anyString(),eq(UserType.PAYER));
-        doReturn(true).when(ioServiceMock).isNotifyToIOUserAllowed(any());
-        doReturn(VALID_PAYER_MESSAGE_ID).when(ioServiceMock).sendNotificationToIOUser(any());
+        doReturn(CompletableFuture.completedFuture(true)).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
+        doReturn(CompletableFuture.completedFuture(VALID_PAYER_MESSAGE_ID)).when(ioServiceMock).sendNotificationToIOUserAsync(any());
 
         Receipt receipt = new Receipt();
         receipt.setEventId(EVENT_ID);
@@ -229,6 +289,63 @@ class ReceiptToIOServiceImplTest {
         assertNull(receipt.getReasonErrPayer());
     }
 
+    @Test
+    @SneakyThrows
+    void notifySkipBecauseAlreadyNotifiedInPrefetchedMessages() {
+        doReturn(VALID_DEBTOR_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
+        Map<String, String> notifiedMessages = Map.of(IOMessage.buildId(EVENT_ID, UserType.DEBTOR), VALID_DEBTOR_MESSAGE_ID);
+
+        Receipt receipt = new Receipt();
+        receipt.setEventId(EVENT_ID);
+
+        UserNotifyStatus userNotifyStatus = sut.notifyMessageAsync(VALID_DEBTOR_CF, UserType.DEBTOR, receipt, notifiedMessages).join();
+
+        assertEquals(UserNotifyStatus.ALREADY_NOTIFIED, userNotifyStatus);
+        assertEquals(VALID_DEBTOR_MESSAGE_ID, receipt.getIoMessageData().getIdMessageDebtor());
+        verify(receiptCosmosClientMock, never()).findIOMessageWithEventIdAndUserType(anyString(), any());
+    }
+
+    @Test
+    @SneakyThrows
+    void notifyDebtorWithSuccessNotInPrefetchedMessages() {
+        doReturn(VALID_DEBTOR_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
+        doReturn(CompletableFuture.completedFuture(true)).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
+        doReturn(CompletableFuture.completedFuture(VALID_DEBTOR_MESSAGE_ID)).when(ioServiceMock).sendNotificationToIOUserAsync(any());
+        Map<String, String> notifiedMessages = Map.of(IOMessage.buildId(EVENT_ID, UserType.PAYER), VALID_PAYER_MESSAGE_ID);
+
+        Receipt receipt = new Receipt();
+        receipt.setEventId(EVENT_ID);
+
+        UserNotifyStatus userNotifyStatus = sut.notifyMessageAsync(VALID_DEBTOR_CF, UserType.DEBTOR, receipt, notifiedMessages).join();
+
+        assertEquals(UserNotifyStatus.NOTIFIED, userNotifyStatus);
+        assertEquals(VALID_DEBTOR_MESSAGE_ID, receipt.getIoMessageData().getIdMessageDebtor());
+        verify(receiptCosmosClientMock, never()).findIOMessageWithEventIdAndUserType(anyString(), any());
+    }
+
+    @Test
+    void findNotifiedMessagesSuccess() {
+        Receipt receipt = new Receipt();
+        receipt.setEventId(EVENT_ID);
+        Receipt sameEventReceipt = new Receipt();
+        sameEventReceipt.setEventId(EVENT_ID);
+        IOMessage ioMessage = IOMessage.builder().eventId(EVENT_ID).userType(UserType.DEBTOR).messageId(VALID_DEBTOR_MESSAGE_ID).build();
+        doReturn(List.of(ioMessage)).when(receiptCosmosClientMock).findIOMessagesWithEventIds(List.of(EVENT_ID));
+
+        Map<String, String> notifiedMessages = sut.findNotifiedMessages(Arrays.asList(receipt, null, sameEventReceipt));
+
+        assertEquals(Map.of(IOMessage.buildId(EVENT_ID, UserType.DEBTOR), VALID_DEBTOR_MESSAGE_ID), notifiedMessages);
+    }
+
+    @Test
+    void findNotifiedMessagesReturnNullOnError() {
+        Receipt receipt = new Receipt();
+        receipt.setEventId(EVENT_ID);
+        doThrow(RuntimeException.class).when(receiptCosmosClientMock).findIOMessagesWithEventIds(anyList());
+
+        assertNull(sut.findNotifiedMessages(List.of(receipt)));
+    }
+
     @Test
     void notifyFailNotToBeNotifiedFilterBlock() throws PDVTokenizerException, JsonProcessingException {
         doReturn(INVALID_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
@@ -251,8 +368,8 @@ class ReceiptToIOServiceImplTest {
         doReturn(VALID_DEBTOR_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
         doThrow(IoMessageNotFoundException.class).when(receiptCosmosClientMock)
                 .findIOMessageWithEventIdAndUserType(anyString(),eq(UserType.DEBTOR));
-        doThrow(new IOAPIException(ERROR_MESSAGE, ReasonErrorCode.ERROR_IO_API_IO.getCode()))
-                .when(ioServiceMock).isNotifyToIOUserAllowed(any());
+        doReturn(CompletableFuture.failedFuture(new IOAPIException(ERROR_MESSAGE, ReasonErrorCode.ERROR_IO_API_IO.getCode())))
+                .when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
 
         Receipt receipt = new Receipt();
         receipt.setEventId(EVENT_ID);
@@ -275,7 +392,7 @@ class ReceiptToIOServiceImplTest {
         doReturn(VALID_DEBTOR_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
         doThrow(IoMessageNotFoundException.class).when(receiptCosmosClientMock)
                 .findIOMessageWithEventIdAndUserType(anyString(),eq(UserType.DEBTOR));
-        doThrow(new ErrorToNotifyException(ERROR_MESSAGE)).when(ioServiceMock).isNotifyToIOUserAllowed(any());
+        doReturn(CompletableFuture.failedFuture(new ErrorToNotifyException(ERROR_MESSAGE))).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
 
         Receipt receipt = new Receipt();
         receipt.setEventId(EVENT_ID);
@@ -297,7 +414,7 @@ class ReceiptToIOServiceImplTest {
         doReturn(VALID_DEBTOR_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
         doThrow(IoMessageNotFoundException.class).when(receiptCosmosClientMock)
                 .findIOMessageWithEventIdAndUserType(anyString(),eq(UserType.DEBTOR));
-        doReturn(false).when(ioServiceMock).isNotifyToIOUserAllowed(any());
+        doReturn(CompletableFuture.completedFuture(false)).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
 
         Receipt receipt = new Receipt();
         receipt.setEventId(EVENT_ID);
@@ -317,7 +434,7 @@ class ReceiptToIOServiceImplTest {
         doReturn(VALID_DEBTOR_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
         doThrow(IoMessageNotFoundException.class).when(receiptCosmosClientMock)
                 .findIOMessageWithEventIdAndUserType(anyString(),eq(UserType.DEBTOR));
-        doReturn(true).when(ioServiceMock).isNotifyToIOUserAllowed(any());
+        doReturn(CompletableFuture.completedFuture(true)).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
         doThrow(new MissingFieldsForNotificationException(ERROR_MESSAGE))
                 .when(notificationMessageBuilderMock).buildMessagePayload(anyString(), any(), any());
 
@@ -341,9 +458,9 @@ class ReceiptToIOServiceImplTest {
         doReturn(VALID_DEBTOR_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
         doThrow(IoMessageNotFoundException.class).when(receiptCosmosClientMock)
                 .findIOMessageWithEventIdAndUserType(anyString(),eq(UserType.DEBTOR));
-        doReturn(true).when(ioServiceMock).isNotifyToIOUserAllowed(any());
-        doThrow(new IOAPIException(ERROR_MESSAGE, ReasonErrorCode.ERROR_IO_API_UNEXPECTED.getCode()))
-                .when(ioServiceMock).sendNotificationToIOUser(any());
+        doReturn(CompletableFuture.completedFuture(true)).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
+        doReturn(CompletableFuture.failedFuture(new IOAPIException(ERROR_MESSAGE, ReasonErrorCode.ERROR_IO_API_UNEXPECTED.getCode())))
+                .when(ioServiceMock).sendNotificationToIOUserAsync(any());
 
         Receipt receipt = new Receipt();
         receipt.setEventId(EVENT_ID);
@@ -365,8 +482,8 @@ class ReceiptToIOServiceImplTest {
     void notifyFailNotNotifiedNotifyThrowsErrorToNotifyException() {
         doReturn(VALID_DEBTOR_CF).when(pdvTokenizerServiceRetryWrapperMock).getFiscalCodeWithRetry(anyString());
         doThrow(IoMessageNotFoundException.class).when(receiptCosmosClientMock).findIOMessageWithEventIdAndUserType(anyString(),eq(UserType.DEBTOR));
-        doReturn(true).when(ioServiceMock).isNotifyToIOUserAllowed(any());
-        doThrow(new ErrorToNotifyException(ERROR_MESSAGE)).when(ioServiceMock).sendNotificationToIOUser(any());
+        doReturn(CompletableFuture.completedFuture(true)).when(ioServiceMock).isNotifyToIOUserAllowedAsync(any());
+        doReturn(CompletableFuture.failedFuture(new ErrorToNotifyException(ERROR_MESSAGE))).when(ioServiceMock).sendNotificationToIOUserAsync(any());
 
         Receipt receipt = new Receipt();
         receipt.setEventId(EVENT_ID);
@@ -405,8 +522,10 @@ class ReceiptToIOServiceImplTest {
 
         assertEquals(ReceiptStatusType.IO_NOTIFIED, receipt.getStatus());
         assertEquals(2, messagesNotified.size());
+        assertEquals(EVENT_ID + ":DEBTOR", messagesNotified.get(0).getId());
+        assertEquals(EVENT_ID + ":PAYER", messagesNotified.get(1).getId());
 
-        verify(notifierQueueClientMock, never()).sendMessageToQueue(anyString());
+        verify(notifierQueueClientMock, never()).sendMessageToQueue(anyString(), anyInt());
     }
 
     @Test
@@ -427,14 +546,14 @@ class ReceiptToIOServiceImplTest {
         assertEquals(ReceiptStatusType.NOT_TO_NOTIFY, receipt.getStatus());
         assertTrue(messagesNotified.isEmpty());
 
-        verify(notifierQueueClientMock, never()).sendMessageToQueue(anyString());
+        verify(notifierQueueClientMock, never()).sendMessageToQueue(anyString(), anyInt());
     }
 
     @Test
     @SneakyThrows
     void verifyFailDebtorNotNotified() {
         Response<SendMessageResult> queueResponse = mockRequeueResponse(com.microsoft.azure.functions.HttpStatus.CREATED.value());
-        doReturn(queueResponse).when(notifierQueueClientMock).sendMessageToQueue(anyString());
+        doReturn(queueResponse).when(notifierQueueClientMock).sendMessageToQueue(anyString(), anyInt());
 
         EnumMap<UserType, UserNotifyStatus> usersToBeVerified = new EnumMap<>(UserType.class);
         usersToBeVerified.put(UserType.DEBTOR, UserNotifyStatus.NOT_NOTIFIED);
@@ -452,14 +571,14 @@ class ReceiptToIOServiceImplTest {
         assertTrue(messagesNotified.isEmpty());
         assertEquals(1, receipt.getNotificationNumRetry());
 
-        verify(notifierQueueClientMock).sendMessageToQueue(anyString());
+        verify(notifierQueueClientMock).sendMessageToQueue(anyString(), anyInt());
     }
 
     @Test
     @SneakyThrows
     void verifyFailDebtorNotNotifiedPayerNotified() {
         Response<SendMessageResult> queueResponse = mockRequeueResponse(com.microsoft.azure.functions.HttpStatus.CREATED.value());
-        doReturn(queueResponse).when(notifierQueueClientMock).sendMessageToQueue(anyString());
+        doReturn(queueResponse).when(notifierQueueClientMock).sendMessageToQueue(anyString(), anyInt());
 
         EnumMap<UserType, UserNotifyStatus> usersToBeVerified = new EnumMap<>(UserType.class);
         usersToBeVerified.put(UserType.DEBTOR, UserNotifyStatus.NOT_NOTIFIED);
@@ -484,14 +603,14 @@ class ReceiptToIOServiceImplTest {
         assertEquals(VALID_PAYER_MESSAGE_ID, messagesNotified.get(0).getMessageId());
         assertEquals(1, receipt.getNotificationNumRetry());
 
-        verify(notifierQueueClientMock).sendMessageToQueue(anyString());
+        verify(notifierQueueClientMock).sendMessageToQueue(anyString(), anyInt());
     }
 
     @Test
     @SneakyThrows
     void verifyFailPayerNotNotifiedDebtorNotified() {
         Response<SendMessageResult> queueResponse = mockRequeueResponse(com.microsoft.azure.functions.HttpStatus.CREATED.value());
-        doReturn(queueResponse).when(notifierQueueClientMock).sendMessageToQueue(anyString());
+        doReturn(queueResponse).when(notifierQueueClientMock).sendMessageToQueue(anyString(), anyInt());
 
         EnumMap<UserType, UserNotifyStatus> usersToBeVerified = new EnumMap<>(UserType.class);
         usersToBeVerified.put(UserType.DEBTOR, UserNotifyStatus.NOTIFIED);
@@ -516,7 +635,7 @@ class ReceiptToIOServiceImplTest {
         assertEquals(VALID_DEBTOR_MESSAGE_ID, messagesNotified.get(0).getMessageId());
         assertEquals(1, receipt.getNotificationNumRetry());
 
-        verify(notifierQueueClientMock).sendMessageToQueue(anyString());
+        verify(notifierQueueClientMock).sendMessageToQueue(anyString(), anyInt());
     }
 
     @Test
@@ -538,14 +657,14 @@ class ReceiptToIOServiceImplTest {
         assertEquals(ReceiptStatusType.UNABLE_TO_SEND, receipt.getStatus());
         assertTrue(messagesNotified.isEmpty());
 
-        verify(notifierQueueClientMock, never()).sendMessageToQueue(anyString());
+        verify(notifierQueueClientMock, never()).sendMessageToQueue(anyString(), anyInt());
     }
 
     @Test
     @SneakyThrows
     void verifyFailDebtorNotNotifiedRequeueRespond500() {
         Response<SendMessageResult> queueResponse = mockRequeueResponse(com.microsoft.azure.functions.HttpStatus.INTERNAL_SERVER_ERROR.value());
-        doReturn(queueResponse).when(notifierQueueClientMock).sendMessageToQueue(anyString());
+        doReturn(queueResponse).when(notifierQueueClientMock).sendMessageToQueue(anyString(), anyInt());
 
         EnumMap<UserType, UserNotifyStatus> usersToBeVerified = new EnumMap<>(UserType.class);
         usersToBeVerified.put(UserType.DEBTOR, UserNotifyStatus.NOT_NOTIFIED);
@@ -562,13 +681,13 @@ class ReceiptToIOServiceImplTest {
         assertEquals(ReceiptStatusType.UNABLE_TO_SEND, receipt.getStatus());
         assertTrue(messagesNotified.isEmpty());
 
-        verify(notifierQueueClientMock).sendMessageToQueue(anyString());
+        verify(notifierQueueClientMock).sendMessageToQueue(anyString(), anyInt());
     }
 
     @Test
     @SneakyThrows
     void verifyFailDebtorNotNotifiedRequeueThrowException() {
-        doThrow(RuntimeException.class).when(notifierQueueClientMock).sendMessageToQueue(anyString());
+        doThrow(RuntimeException.class).when(notifierQueueClientMock).sendMessageToQueue(anyString(), anyInt());
 
         EnumMap<UserType, UserNotifyStatus> usersToBeVerified = new EnumMap<>(UserType.class);
         usersToBeVerified.put(UserType.DEBTOR, UserNotifyStatus.NOT_NOTIFIED);
@@ -585,7 +704,79 @@ class ReceiptToIOServiceImplTest {
         assertEquals(ReceiptStatusType.UNABLE_TO_SEND, receipt.getStatus());
         assertTrue(messagesNotified.isEmpty());
 
-        verify(notifierQueueClientMock).sendMessageToQueue(anyString());
+        verify(notifierQueueClientMock).sendMessageToQueue(anyString(), anyInt());
+    }
+
+    @Test
+    @SneakyThrows
+    void verifyFailDebtorNotNotifiedCollectedInRetryBatch() {
+        EnumMap<UserType, UserNotifyStatus> usersToBeVerified = new EnumMap<>(UserType.class);
+        usersToBeVerified.put(UserType.DEBTOR, UserNotifyStatus.NOT_NOTIFIED);
+
+        Receipt receipt = new Receipt();
+        receipt.setEventId(EVENT_ID);
+        receipt.setStatus(ReceiptStatusType.GENERATED);
+        EventData eventData = new EventData();
+        eventData.setDebtorFiscalCode(VALID_DEBTOR_CF);
+        receipt.setEventData(eventData);
+        RetryQueueBatch<Receipt> retryBatch = new RetryQueueBatch<>();
+
+        List<IOMessage> messagesNotified =
+                assertDoesNotThrow(() -> sut.verifyMessagesNotification(usersToBeVerified, receipt, retryBatch));
+
+        assertTrue(messagesNotified.isEmpty());
+        assertTrue(retryBatch.contains(receipt));
+        assertEquals(ReceiptStatusType.GENERATED, receipt.getStatus());
+        assertEquals(1, receipt.getNotificationNumRetry());
+
+        verify(notifierQueueClientMock, never()).sendMessageToQueue(anyString(), anyInt());
+        verify(notifierQueueClientMock, never()).sendMessageToQueueAsync(anyString(), anyInt());
+    }
+
+    @Test
+    @SneakyThrows
+    void verifyFailDebtorNotNotifiedMaxRetryNotCollectedInRetryBatch() {
+        EnumMap<UserType, UserNotifyStatus> usersToBeVerified = new EnumMap<>(UserType.class);
+        usersToBeVerified.put(UserType.DEBTOR, UserNotifyStatus.NOT_NOTIFIED);
+
+        Receipt receipt = new Receipt();
+        receipt.setEventId(EVENT_ID);
+        receipt.setNotificationNumRetry(6);
+        EventData eventData = new EventData();
+        eventData.setDebtorFiscalCode(VALID_DEBTOR_CF);
+        receipt.setEventData(eventData);
+        RetryQueueBatch<Receipt> retryBatch = new RetryQueueBatch<>();
+
+        assertDoesNotThrow(() -> sut.verifyMessagesNotification(usersToBeVerified, receipt, retryBatch));
+
+        assertTrue(retryBatch.isEmpty());
+        assertEquals(ReceiptStatusType.UNABLE_TO_SEND, receipt.getStatus());
+    }
+
+    @Test
+    void requeueForRetryMapsMessageOutcomeOnReceipts() {
+        Receipt enqueued = new Receipt();
+        enqueued.setEventId("enqueued");
+        Receipt rejected = new Receipt();
+        rejected.setEventId("rejected");
+        Receipt failed = new Receipt();
+        failed.setEventId("failed");
+        RetryQueueBatch<Receipt> retryBatch = new RetryQueueBatch<>();
+        retryBatch.add(enqueued, "enqueuedMessage");
+        retryBatch.add(rejected, "rejectedMessage");
+        retryBatch.add(failed, "failedMessage");
+
+        Response<SendMessageResult> createdResponse = mockRequeueResponse(com.microsoft.azure.functions.HttpStatus.CREATED.value());
+        Response<SendMessageResult> rejectedResponse = mockRequeueResponse(com.microsoft.azure.functions.HttpStatus.FORBIDDEN.value());
+        doReturn(Mono.just(createdResponse)).when(notifierQueueClientMock).sendMessageToQueueAsync(eq("enqueuedMessage"), anyInt());
+        doReturn(Mono.just(rejectedResponse)).when(notifierQueueClientMock).sendMessageToQueueAsync(eq("rejectedMessage"), anyInt());
+        doReturn(Mono.error(new RuntimeException())).when(notifierQueueClientMock).sendMessageToQueueAsync(eq("failedMessage"), anyInt());
+
+        sut.requeueForRetry(retryBatch);
+
+        assertEquals(ReceiptStatusType.IO_ERROR_TO_NOTIFY, enqueued.getStatus());
+        assertEquals(ReceiptStatusType.UNABLE_TO_SEND, rejected.getStatus());
+        assertEquals(ReceiptStatusType.UNABLE_TO_SEND, failed.getStatus());
     }
 
     @NotNull
@@ -0,0 +1,93 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchExecutorTest {
+
+    @Test
+    void testSingleton() {
+        BatchExecutor first = assertDoesNotThrow(BatchExecutor::getInstance);
+        BatchExecutor second = assertDoesNotThrow(BatchExecutor::getInstance);
+
+        assertSame(first, second);
+    }
+
+    @Test
+    void forEachProcessAllItemsWithBoundedConcurrency() {
+        int maxInFlight = 4;
+        BatchExecutor sut = new BatchExecutor(Executors.newFixedThreadPool(maxInFlight));
+        List<Integer> items = IntStream.range(0, 200).boxed().collect(Collectors.toList());
+        ConcurrentHashMap.KeySetView<Integer, Boolean> processed = ConcurrentHashMap.newKeySet();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxObserved = new AtomicInteger();
+
+        sut.forEach(items, item -> {
+            maxObserved.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.add(item);
+            inFlight.decrementAndGet();
+        });
+
+        assertEquals(items.size(), processed.size());
+        assertTrue(maxObserved.get() <= maxInFlight);
+    }
+
+    @Test
+    void forEachPropagateTaskFailure() {
+        BatchExecutor sut = new BatchExecutor(Executors.newFixedThreadPool(2));
+        List<Integer> items = List.of(1, 2, 3);
+
+        assertThrows(CompletionException.class, () -> sut.forEach(items, item -> {
+            if (item == 2) {
+                throw new IllegalStateException("error");
+            }
+        }));
+    }
+
+    @Test
+    void forEachAsyncDoesNotHoldWorkersWhileTasksAreInFlight() {
+        BatchExecutor sut = new BatchExecutor(Executors.newFixedThreadPool(1));
+        List<Integer> items = List.of(1, 2, 3);
+        CompletableFuture<Void> allStarted = new CompletableFuture<>();
+        AtomicInteger started = new AtomicInteger();
+
+        // with a single worker the batch completes only if the worker is released while the tasks are in flight
+        sut.forEachAsync(items, item -> {
+            if (started.incrementAndGet() == items.size()) {
+                allStarted.complete(null);
+            }
+            return allStarted;
+        });
+
+        assertEquals(items.size(), started.get());
+    }
+
+    @Test
+    void forEachAsyncPropagateTaskFailure() {
+        BatchExecutor sut = new BatchExecutor(Executors.newFixedThreadPool(2));
+        List<Integer> items = List.of(1, 2, 3);
+
+        assertThrows(CompletionException.class, () -> sut.forEachAsync(items, item -> item == 2
+                ? CompletableFuture.failedFuture(new IllegalStateException("error"))
+                : CompletableFuture.completedFuture(null)));
+    }
+}
@@ -0,0 +1,119 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import it.gov.pagopa.receipt.pdf.notifier.cache.RecentWritesIndex;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartForReceipt;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReceiptStatusType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeFeedDocumentReaderTest {
+
+    private static final Set<String> NOTIFIABLE_STATUSES = Set.of("GENERATED", "SIGNED", "IO_NOTIFIER_RETRY");
+
+    private final RecentWritesIndex recentWrites = new RecentWritesIndex(10, Duration.ofMinutes(5), Ticker.systemTicker());
+
+    @Test
+    void readNotifiableBindsOnlyNotifiableDocuments() throws IOException {
+        String documents = """
+                [
+                  {"id": "1", "eventId": "event1", "status": "GENERATED", "_etag": "etag1", "_ts": 1700000000,
+                   "eventData": {"debtorFiscalCode": "debtor", "cart": [{"payeeName": "payee", "subject": "status"}]}},
+                  {"id": "2", "eventData": {"status": "GENERATED"}, "status": "IO_NOTIFIED"},
+                  {"ioMessageData": {"idMessageDebtor": "message"}, "id": "3", "status": "SIGNED"},
+                  {"id": "4", "status": "NOT_TO_NOTIFY"},
+                  {"id": "5"},
+                  null
+                ]
+                """;
+
+        List<Receipt> receipts = ChangeFeedDocumentReader.readNotifiable(documents, Receipt.class, NOTIFIABLE_STATUSES, recentWrites);
+
+        assertEquals(2, receipts.size());
+        assertEquals("1", receipts.get(0).getId());
+        assertEquals(ReceiptStatusType.GENERATED, receipts.get(0).getStatus());
+        assertEquals("etag1", receipts.get(0).getEtag());
+        assertEquals("debtor", receipts.get(0).getEventData().getDebtorFiscalCode());
+        assertEquals("3", receipts.get(1).getId());
+        assertEquals("message", receipts.get(1).getIoMessageData().getIdMessageDebtor());
+    }
+
+    @Test
+    void readNotifiableCartReceipts() throws IOException {
+        String documents = """
+                [{"id": "cart1", "cartId": "cart1", "status": "IO_NOTIFIER_RETRY", "payload": {"cart": [{"bizEventId": "event1"}]}},
+                 {"id": "cart2", "cartId": "cart2", "status": "IO_NOTIFIED", "payload": {"cart": []}}]
+                """;
+
+        List<CartForReceipt> cartReceipts =
+                ChangeFeedDocumentReader.readNotifiable(documents, CartForReceipt.class, NOTIFIABLE_STATUSES, recentWrites);
+
+        assertEquals(1, cartReceipts.size());
+        assertEquals("cart1", cartReceipts.get(0).getCartId());
+        assertEquals("event1", cartReceipts.get(0).getPayload().getCart().get(0).getBizEventId());
+    }
+
+    @Test
+    void readNotifiableWithoutRecentWritesIndex() throws IOException {
+        String documents = """
+                [{"id": "1", "status": "GENERATED", "_etag": "etag1"},
+                 {"id": "2", "status": "IO_NOTIFIED", "_etag": "etag2"}]
+                """;
+
+        List<Receipt> receipts = ChangeFeedDocumentReader.readNotifiable(documents, Receipt.class, NOTIFIABLE_STATUSES, null);
+
+        assertEquals(1, receipts.size());
+        assertEquals("1", receipts.get(0).getId());
+    }
+
+    @Test
+    void readNotifiableDropsEchoesOfRecentWrites() throws IOException {
+        recentWrites.record("1", "writtenEtag");
+        recentWrites.record("2", "writtenEtag");
+        String documents = """
+                [{"id": "1", "status": "IO_NOTIFIER_RETRY", "_etag": "writtenEtag"},
+                 {"id": "2", "status": "IO_NOTIFIER_RETRY", "_etag": "concurrentEtag"}]
+                """;
+
+        List<Receipt> receipts = ChangeFeedDocumentReader.readNotifiable(documents, Receipt.class, NOTIFIABLE_STATUSES, recentWrites);
+
+        assertEquals(1, receipts.size());
+        assertEquals("2", receipts.get(0).getId());
+    }
+
+    @Test
+    void readNotifiableSkipsRemainingFieldsOfEchoes() throws IOException {
+        recentWrites.record("1", "writtenEtag");
+        String documents = """
+                [{"_etag": "writtenEtag", "id": "1", "status": "IO_NOTIFIER_RETRY",
+                  "eventData": {"debtorFiscalCode": "debtor", "cart": [{"subject": "status"}]}, "ioMessageData": null},
+                 {"id": "2", "status": "GENERATED", "_etag": "etag2", "eventData": {"debtorFiscalCode": "debtor"}}]
+                """;
+
+        List<Receipt> receipts = ChangeFeedDocumentReader.readNotifiable(documents, Receipt.class, NOTIFIABLE_STATUSES, recentWrites);
+
+        assertEquals(1, receipts.size());
+        assertEquals("2", receipts.get(0).getId());
+        assertEquals("debtor", receipts.get(0).getEventData().getDebtorFiscalCode());
+    }
+
+    @Test
+    void readNotifiableEmptyBatch() throws IOException {
+        assertTrue(ChangeFeedDocumentReader.readNotifiable("[]", Receipt.class, NOTIFIABLE_STATUSES, recentWrites).isEmpty());
+    }
+
+    @Test
+    void readNotifiableNotAnArray() {
+        assertThrows(IOException.class,
+                () -> ChangeFeedDocumentReader.readNotifiable("{\"id\": \"1\"}", Receipt.class, NOTIFIABLE_STATUSES, recentWrites));
+    }
+}
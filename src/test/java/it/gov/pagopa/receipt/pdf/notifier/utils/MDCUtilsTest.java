@@ -0,0 +1,64 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MDCUtilsTest {
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void tearDown() {
+        MDC.clear();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void withCurrentContextPropagatesCallerContext() {
+        MDC.put(MDCConstants.BIZ_EVENT_ID, "eventId");
+        Function<String, String> callback = MDCUtils.withCurrentContext(input -> input + MDC.get(MDCConstants.BIZ_EVENT_ID));
+        MDC.clear();
+
+        String result = CompletableFuture.supplyAsync(() -> "event: ", executorService)
+                .thenApplyAsync(callback, executorService)
+                .join();
+
+        assertEquals("event: eventId", result);
+        assertNull(CompletableFuture.supplyAsync(() -> MDC.get(MDCConstants.BIZ_EVENT_ID), executorService).join());
+    }
+
+    @Test
+    void withCurrentContextRestoresExecutingThreadContext() {
+        MDC.put(MDCConstants.BIZ_EVENT_ID, "callerEventId");
+        Function<String, String> callback = MDCUtils.withCurrentContext(input -> MDC.get(MDCConstants.BIZ_EVENT_ID));
+        MDC.put(MDCConstants.BIZ_EVENT_ID, "executingEventId");
+
+        assertEquals("callerEventId", callback.apply("input"));
+        assertEquals("executingEventId", MDC.get(MDCConstants.BIZ_EVENT_ID));
+    }
+
+    @Test
+    void withCurrentContextPropagatesCallerContextToTwoArgumentsCallback() {
+        MDC.put(MDCConstants.BIZ_EVENT_ID, "eventId");
+        BiFunction<String, Throwable, String> callback = MDCUtils.withCurrentContext(
+                (input, throwable) -> input + MDC.get(MDCConstants.BIZ_EVENT_ID));
+        MDC.clear();
+
+        String result = CompletableFuture.completedFuture("event: ")
+                .handleAsync(callback, executorService)
+                .join();
+
+        assertEquals("event: eventId", result);
+        assertNull(MDC.get(MDCConstants.BIZ_EVENT_ID));
+    }
+}
@@ -0,0 +1,77 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageTemplateTest {
+
+    private static final List<String> PLACEHOLDERS = List.of("payee", "amount");
+
+    @Test
+    void renderReplacePlaceholders() {
+        MessageTemplate sut = MessageTemplate.compile("T", "Paid {amount} € to {payee}, {amount}!", PLACEHOLDERS);
+
+        String rendered = sut.render("payee name", "10,00");
+
+        assertEquals("Paid 10,00 € to payee name, 10,00!", rendered);
+        assertEquals(rendered.length(), sut.renderedLength("payee name", "10,00"));
+    }
+
+    @Test
+    void renderWithoutPlaceholders() {
+        MessageTemplate sut = MessageTemplate.compile("T", "static text", PLACEHOLDERS);
+
+        assertEquals("static text", sut.render());
+    }
+
+    @Test
+    void renderKeepPlaceholderWithoutValue() {
+        MessageTemplate sut = MessageTemplate.compile("T", "{payee} - {amount}", PLACEHOLDERS);
+
+        assertEquals("{payee} - 10", sut.render(null, "10"));
+    }
+
+    @Test
+    void renderDoNotSubstituteValues() {
+        MessageTemplate sut = MessageTemplate.compile("T", "{payee}", PLACEHOLDERS);
+
+        assertEquals("{amount}", sut.render("{amount}", "10"));
+    }
+
+    @Test
+    void renderEscapedPlaceholder() {
+        MessageTemplate sut = MessageTemplate.compile("T", "${amount} is {amount}", PLACEHOLDERS);
+
+        assertEquals("{amount} is 10", sut.render("payee", "10"));
+    }
+
+    @Test
+    void appendToWriteAtTheEndOfBuffer() {
+        MessageTemplate sut = MessageTemplate.compile("T", "[{payee}]", PLACEHOLDERS);
+        StringBuilder builder = new StringBuilder("items:");
+
+        sut.appendTo(builder, "a");
+        sut.appendTo(builder, "b");
+
+        assertEquals("items:[a][b]", builder.toString());
+    }
+
+    @Test
+    void compileFailOnUnknownPlaceholder() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> MessageTemplate.compile("SUBJECT", "Paid {amonut}", PLACEHOLDERS));
+
+        assertTrue(e.getMessage().contains("SUBJECT"));
+        assertTrue(e.getMessage().contains("{amonut}"));
+    }
+
+    @Test
+    void compileFailOnUnterminatedPlaceholder() {
+        assertThrows(IllegalArgumentException.class, () -> MessageTemplate.compile("T", "Paid {amount", PLACEHOLDERS));
+    }
+}
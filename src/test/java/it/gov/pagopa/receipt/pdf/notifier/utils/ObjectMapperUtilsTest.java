@@ -1,10 +1,13 @@
 package it.gov.pagopa.receipt.pdf.notifier.utils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import it.gov.pagopa.receipt.pdf.notifier.entity.cart.CartForReceipt;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.io.InputStream;
+import java.lang.reflect.Modifier;
 
 class ObjectMapperUtilsTest {
 
@@ -13,4 +16,18 @@ class ObjectMapperUtilsTest {
         Assertions.assertThrows(JsonProcessingException.class, () -> ObjectMapperUtils.writeValueAsString(InputStream.nullInputStream()));
         Assertions.assertThrows(JsonProcessingException.class, () -> ObjectMapperUtils.mapString("", InputStream.class));
     }
+
+    @Test
+    void etagIsMappedOnCosmosSystemProperty() throws Exception {
+        Receipt receipt = ObjectMapperUtils.mapString("{\"id\": \"id\", \"_etag\": \"etag1\"}", Receipt.class);
+        CartForReceipt cartForReceipt = ObjectMapperUtils.mapString("{\"id\": \"id\", \"_etag\": \"etag2\"}", CartForReceipt.class);
+
+        Assertions.assertEquals("etag1", receipt.getEtag());
+        Assertions.assertEquals("etag2", cartForReceipt.getEtag());
+        Assertions.assertTrue(ObjectMapperUtils.writeValueAsString(receipt).contains("\"_etag\":\"etag1\""));
+        Assertions.assertFalse(ObjectMapperUtils.writeValueAsString(receipt).contains("\"etag\""));
+        // the Functions worker skips transient fields
+        Assertions.assertTrue(Modifier.isTransient(Receipt.class.getDeclaredField("etag").getModifiers()));
+        Assertions.assertTrue(Modifier.isTransient(CartForReceipt.class.getDeclaredField("etag").getModifiers()));
+    }
 }
@@ -0,0 +1,52 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.Receipt;
+import it.gov.pagopa.receipt.pdf.notifier.entity.receipt.enumeration.ReceiptStatusType;
+import it.gov.pagopa.receipt.pdf.notifier.model.RetryMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RetryMessageCodecTest {
+
+    private static final RetryMessage RETRY_MESSAGE = RetryMessage.builder()
+            .version(RetryMessage.CURRENT_VERSION)
+            .id("id")
+            .partitionKey("partitionKey")
+            .numRetry(2)
+            .build();
+
+    @Test
+    void encodeAndDecode() throws Exception {
+        String encoded = RetryMessageCodec.encode(RETRY_MESSAGE);
+
+        String queueMessage = decodeBase64(encoded);
+        assertEquals("{\"v\":1,\"id\":\"id\",\"pk\":\"partitionKey\",\"r\":2}", queueMessage);
+        assertDecoded(RetryMessageCodec.decode(queueMessage));
+    }
+
+    @Test
+    void decodeLegacyDocument() throws Exception {
+        Receipt receipt = new Receipt();
+        receipt.setStatus(ReceiptStatusType.IO_ERROR_TO_NOTIFY);
+
+        assertNull(RetryMessageCodec.decode(ObjectMapperUtils.writeValueAsString(receipt)));
+    }
+
+    private static void assertDecoded(RetryMessage decoded) {
+        assertNotNull(decoded);
+        assertEquals(RetryMessage.CURRENT_VERSION, decoded.getVersion());
+        assertEquals("id", decoded.getId());
+        assertEquals("partitionKey", decoded.getPartitionKey());
+        assertEquals(2, decoded.getNumRetry());
+    }
+
+    private static String decodeBase64(String encoded) {
+        return new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,104 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import com.azure.core.http.rest.Response;
+import com.azure.storage.queue.models.SendMessageResult;
+import com.microsoft.azure.functions.HttpStatus;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RetryQueueBatchTest {
+
+    @Test
+    void addTracksDocumentsByIdentity() {
+        RetryQueueBatch<StringBuilder> retryBatch = new RetryQueueBatch<>();
+        StringBuilder document = new StringBuilder("document");
+
+        assertTrue(retryBatch.isEmpty());
+        retryBatch.add(document, "message");
+
+        assertFalse(retryBatch.isEmpty());
+        assertTrue(retryBatch.contains(document));
+        assertFalse(retryBatch.contains(new StringBuilder("document")));
+        assertEquals(List.of(document), retryBatch.getDocuments());
+    }
+
+    @Test
+    void sendMapsOutcomeOfEachMessage() {
+        RetryQueueBatch<String> retryBatch = new RetryQueueBatch<>();
+        retryBatch.add("created", "createdMessage");
+        retryBatch.add("rejected", "rejectedMessage");
+        retryBatch.add("failed", "failedMessage");
+        retryBatch.add("thrown", "thrownMessage");
+        retryBatch.add("empty", "emptyMessage");
+
+        Response<SendMessageResult> created = mockResponse(HttpStatus.CREATED.value());
+        Response<SendMessageResult> rejected = mockResponse(HttpStatus.FORBIDDEN.value());
+        BiFunction<String, String, Mono<Response<SendMessageResult>>> sender = (document, messageText) -> switch (messageText) {
+            case "createdMessage" -> Mono.just(created);
+            case "rejectedMessage" -> Mono.just(rejected);
+            case "failedMessage" -> Mono.error(new RuntimeException());
+            case "emptyMessage" -> Mono.empty();
+            default -> throw new IllegalStateException();
+        };
+
+        Map<String, Boolean> outcomes = new HashMap<>();
+        retryBatch.send(sender, outcomes::put);
+
+        assertEquals(Map.of("created", true, "rejected", false, "failed", false, "thrown", false, "empty", false), outcomes);
+    }
+
+    @Test
+    void sendMessagesConcurrently() {
+        RetryQueueBatch<Integer> retryBatch = new RetryQueueBatch<>();
+        for (int i = 0; i < 8; i++) {
+            retryBatch.add(i, "message" + i);
+        }
+        Response<SendMessageResult> created = mockResponse(HttpStatus.CREATED.value());
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        Map<Integer, Boolean> outcomes = new HashMap<>();
+        retryBatch.send((document, messageText) -> Mono.fromRunnable(() -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                        .then(Mono.delay(Duration.ofMillis(50)))
+                        .doOnNext(tick -> inFlight.decrementAndGet())
+                        .thenReturn(created),
+                outcomes::put);
+
+        assertEquals(8, outcomes.size());
+        assertTrue(outcomes.values().stream().allMatch(Boolean.TRUE::equals));
+        assertTrue(maxInFlight.get() > 1);
+    }
+
+    @Test
+    void sendEmptyBatch() {
+        RetryQueueBatch<String> retryBatch = new RetryQueueBatch<>();
+
+        retryBatch.send((document, messageText) -> {
+            throw new IllegalStateException();
+        }, (document, enqueued) -> {
+            throw new IllegalStateException();
+        });
+
+        assertTrue(retryBatch.isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Response<SendMessageResult> mockResponse(int status) {
+        Response<SendMessageResult> response = mock(Response.class);
+        when(response.getStatusCode()).thenReturn(status);
+        return response;
+    }
+}
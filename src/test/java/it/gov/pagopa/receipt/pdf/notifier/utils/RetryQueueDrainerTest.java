@@ -0,0 +1,219 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import com.azure.core.http.rest.Response;
+import com.azure.core.util.BinaryData;
+import com.azure.storage.queue.models.QueueMessageItem;
+import com.fasterxml.jackson.core.JsonParseException;
+import it.gov.pagopa.receipt.pdf.notifier.client.BulkWriter;
+import it.gov.pagopa.receipt.pdf.notifier.client.RetryQueueClient;
+import it.gov.pagopa.receipt.pdf.notifier.exception.ReceiptNotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RetryQueueDrainerTest {
+
+    @Mock
+    private RetryQueueClient queueClient;
+
+    @Mock
+    private Response<Void> deleteResponse;
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+    private final List<String> written = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void drainWritesDocumentsAndDeletesCompletedMessages() {
+        when(queueClient.receiveMessages(anyInt(), any())).thenReturn(List.of(
+                message("toRetry", 1), message("nothingToRetry", 1), message("notFound", 1), message("invalid", 1)));
+        stubDelete();
+
+        int drained = sut().drain(RetryQueueDrainerTest::read, writer(List.of()));
+
+        assertEquals(4, drained);
+        assertEquals(List.of("toRetry"), written);
+        verify(queueClient).deleteMessageAsync("toRetry", "toRetryReceipt");
+        verify(queueClient).deleteMessageAsync("nothingToRetry", "nothingToRetryReceipt");
+        verify(queueClient, never()).deleteMessageAsync("notFound", "notFoundReceipt");
+        verify(queueClient, never()).deleteMessageAsync("invalid", "invalidReceipt");
+        verify(queueClient, never()).sendMessageToPoisonQueue(anyString());
+    }
+
+    @Test
+    void drainLeavesMessagesOfDocumentsNotWritten() {
+        when(queueClient.receiveMessages(anyInt(), any())).thenReturn(List.of(message("toRetry", 1), message("notWritten", 1)));
+        stubDelete();
+
+        sut().drain(RetryQueueDrainerTest::read, writer(List.of("notWritten")));
+
+        verify(queueClient).deleteMessageAsync("toRetry", "toRetryReceipt");
+        verify(queueClient, never()).deleteMessageAsync("notWritten", "notWrittenReceipt");
+    }
+
+    @Test
+    void drainMovesExhaustedMessagesToPoisonQueue() {
+        when(queueClient.receiveMessages(anyInt(), any())).thenReturn(List.of(
+                message("invalid", 5), message("notWritten", 5), message("notFound", 4)));
+        stubDelete();
+
+        sut().drain(RetryQueueDrainerTest::read, writer(List.of("notWritten")));
+
+        verify(queueClient).sendMessageToPoisonQueue(encode("invalid"));
+        verify(queueClient).sendMessageToPoisonQueue(encode("notWritten"));
+        verify(queueClient, never()).sendMessageToPoisonQueue(encode("notFound"));
+        verify(queueClient).deleteMessageAsync("invalid", "invalidReceipt");
+        verify(queueClient).deleteMessageAsync("notWritten", "notWrittenReceipt");
+        verify(queueClient, never()).deleteMessageAsync("notFound", "notFoundReceipt");
+    }
+
+    @Test
+    void drainKeepsMessagesThatCouldNotBeMovedToPoisonQueue() {
+        when(queueClient.receiveMessages(anyInt(), any())).thenReturn(List.of(message("invalid", 5)));
+        when(queueClient.sendMessageToPoisonQueue(anyString())).thenThrow(new RuntimeException());
+
+        sut().drain(RetryQueueDrainerTest::read, writer(List.of()));
+
+        verify(queueClient, never()).deleteMessageAsync(anyString(), anyString());
+    }
+
+    @Test
+    void drainReceivesMessagesUntilQueueIsEmpty() {
+        List<QueueMessageItem> fullPage = IntStream.range(0, 32).mapToObj(i -> message("nothingToRetry", 1)).toList();
+        when(queueClient.receiveMessages(anyInt(), any())).thenReturn(fullPage, List.of(message("toRetry", 1)));
+        stubDelete();
+
+        int drained = sut().drain(RetryQueueDrainerTest::read, writer(List.of()));
+
+        assertEquals(33, drained);
+        verify(queueClient, times(2)).receiveMessages(anyInt(), any());
+    }
+
+    @Test
+    void drainDecodesMultiLineAndPlainMessages() {
+        String longText = "toRetry" + "-".repeat(100);
+        String mimeEncoded = Base64.getMimeEncoder().encodeToString(longText.getBytes(StandardCharsets.UTF_8));
+        when(queueClient.receiveMessages(anyInt(), any())).thenReturn(List.of(
+                rawMessage("mime", mimeEncoded), rawMessage("plain", "{\"id\": \"toRetry\"}")));
+        stubDelete();
+
+        List<String> read = new ArrayList<>();
+        sut().drain(queueMessage -> {
+            synchronized (read) {
+                read.add(queueMessage);
+            }
+            return null;
+        }, writer(List.of()));
+
+        assertEquals(2, read.size());
+        assertTrue(read.contains(longText));
+        assertTrue(read.contains("{\"id\": \"toRetry\"}"));
+    }
+
+    @Test
+    void drainEmptyQueue() {
+        when(queueClient.receiveMessages(anyInt(), any())).thenReturn(List.of());
+        BulkWriter<String> writer = writer(List.of());
+
+        assertEquals(0, sut().drain(RetryQueueDrainerTest::read, writer));
+
+        verify(queueClient, never()).deleteMessageAsync(anyString(), anyString());
+        assertEquals(List.of(), written);
+    }
+
+    @Test
+    void drainDoesNotUseWriterWhenNothingToRetry() {
+        when(queueClient.receiveMessages(anyInt(), any())).thenReturn(List.of(message("nothingToRetry", 1)));
+        stubDelete();
+        @SuppressWarnings("unchecked")
+        BulkWriter<String> writer = mock(BulkWriter.class);
+
+        sut().drain(RetryQueueDrainerTest::read, writer);
+
+        verifyNoInteractions(writer);
+    }
+
+    private RetryQueueDrainer<String> sut() {
+        return new RetryQueueDrainer<>(queueClient, new BatchExecutor(executorService));
+    }
+
+    private void stubDelete() {
+        lenient().when(queueClient.deleteMessageAsync(anyString(), anyString())).thenReturn(Mono.just(deleteResponse));
+    }
+
+    private static String read(String queueMessage) throws JsonParseException, ReceiptNotFoundException {
+        return switch (queueMessage) {
+            case "toRetry", "notWritten" -> queueMessage;
+            case "notFound" -> throw new ReceiptNotFoundException("not found");
+            case "invalid" -> throw new JsonParseException(null, "invalid");
+            default -> null;
+        };
+    }
+
+    /**
+     * Writer that records the written documents and fails the ones in the provided list
+     */
+    private BulkWriter<String> writer(List<String> failing) {
+        return new BulkWriter<>() {
+            private final List<String> submitted = new ArrayList<>();
+
+            @Override
+            public synchronized void addAll(Collection<String> documents) {
+                submitted.addAll(documents);
+            }
+
+            @Override
+            public synchronized List<String> complete() {
+                List<String> failed = submitted.stream().filter(failing::contains).toList();
+                submitted.stream().filter(document -> !failing.contains(document)).forEach(written::add);
+                return failed;
+            }
+        };
+    }
+
+    private static QueueMessageItem message(String text, long dequeueCount) {
+        return rawMessage(text, encode(text)).setDequeueCount(dequeueCount);
+    }
+
+    private static QueueMessageItem rawMessage(String messageId, String body) {
+        return new QueueMessageItem()
+                .setMessageId(messageId)
+                .setPopReceipt(messageId + "Receipt")
+                .setDequeueCount(1)
+                .setBody(BinaryData.fromString(body));
+    }
+
+    private static String encode(String text) {
+        return Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
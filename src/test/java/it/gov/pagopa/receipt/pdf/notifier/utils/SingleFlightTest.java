@@ -0,0 +1,91 @@
+package it.gov.pagopa.receipt.pdf.notifier.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    @Test
+    void executeShareInFlightCall() throws Exception {
+        SingleFlight<String, String> sut = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> execute(sut, "key", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return "value";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> execute(sut, "key", () -> {
+            calls.incrementAndGet();
+            return "other";
+        }));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sut.getSharedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("value", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(1, sut.getSharedCount());
+    }
+
+    @Test
+    void executeRunLoaderAgainOnceCompleted() throws Exception {
+        SingleFlight<String, Integer> sut = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals(1, sut.execute("key", calls::incrementAndGet));
+        assertEquals(2, sut.execute("key", calls::incrementAndGet));
+        assertEquals(0, sut.getSharedCount());
+    }
+
+    @Test
+    void executeShareFailure() throws Exception {
+        SingleFlight<String, String> sut = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> execute(sut, "key", () -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            throw new IOException("boom");
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> execute(sut, "key", () -> "other"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sut.getSharedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        ExecutionException leaderError = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        ExecutionException followerError = assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+        assertTrue(leaderError.getCause().getCause() instanceof IOException);
+        assertTrue(followerError.getCause().getCause() instanceof IOException);
+    }
+
+    private static <V> V execute(SingleFlight<String, V> sut, String key, Callable<V> loader) {
+        try {
+            return sut.execute(key, loader);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}